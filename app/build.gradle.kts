@@ -40,6 +40,19 @@ android {
     kotlinOptions {
         jvmTarget = "11"
     }
+
+    testOptions {
+        // Local JVM tests exercise networking classes that log through android.util.Log
+        unitTests.isReturnDefaultValues = true
+        unitTests.all {
+            // Tests in the Benchmark category time things and print the numbers; run them with -Pbenchmarks
+            if (!project.hasProperty("benchmarks")) {
+                it.useJUnit {
+                    excludeCategories("com.example.smartworks.Benchmark")
+                }
+            }
+        }
+    }
 }
 
 dependencies {
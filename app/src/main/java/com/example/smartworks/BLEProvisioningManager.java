@@ -524,9 +524,9 @@ public class BLEProvisioningManager {
             android.content.SharedPreferences prefs = context.getSharedPreferences("SmartWorks", Context.MODE_PRIVATE);
             android.content.SharedPreferences.Editor editor = prefs.edit();
             
-            // Store IP for this specific device
-            String deviceKey = "device_ip_" + (deviceId.isEmpty() ? device.getAddress() : deviceId);
-            editor.putString(deviceKey, ipAddress);
+            // Shared with the device list and pool monitor, which key devices by this BLE MAC
+            String deviceKey = deviceId.isEmpty() ? device.getAddress() : deviceId;
+            DeviceIpCache.getInstance(context).put(device.getAddress(), null, ipAddress);
             
             // Also store as "last_provisioned_ip" for immediate use
             editor.putString("last_provisioned_ip", ipAddress);
@@ -0,0 +1,203 @@
+// ConnectivityMonitor.java - In-memory view of the phone's network, kept current by callbacks
+package com.example.smartworks;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.LinkAddress;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.example.smartworks.network.LanDeviceClient;
+import com.example.smartworks.network.NetworkSnapshot;
+import java.net.Inet4Address;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The default network as last reported by ConnectivityManager.NetworkCallback:
+ * whether it's a LAN, its subnet and SSID, metered and validated. Reading it
+ * costs nothing, so every LAN request is gated on it (see
+ * LanDeviceClient.setLanAvailability) instead of asking the platform again
+ * before each fetch. Listeners hear when the phone moves to a different LAN.
+ */
+public class ConnectivityMonitor {
+    private static final String TAG = "ConnectivityMonitor";
+
+    private static ConnectivityMonitor instance;
+
+    private final Context context;
+    private final ConnectivityManager connectivityManager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final CopyOnWriteArrayList<OnNetworkChangedListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile NetworkSnapshot snapshot;
+    // Last snapshot that was a LAN, to tell a brief drop from a move
+    private NetworkSnapshot lastLan;
+
+    /**
+     * Called on the main thread
+     */
+    public interface OnNetworkChangedListener {
+        /**
+         * The phone is on a LAN again and it isn't the one it was last on, or it was
+         * offline in between. Cached device addresses may no longer be valid.
+         */
+        void onLanChanged(NetworkSnapshot previous, NetworkSnapshot current);
+
+        /**
+         * The phone gained or lost its default network, of any kind
+         */
+        default void onConnectedChanged(boolean connected) {
+        }
+    }
+
+    private ConnectivityMonitor(Context context) {
+        this.context = context.getApplicationContext();
+        this.connectivityManager = (ConnectivityManager) this.context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.snapshot = read(connectivityManager.getActiveNetwork());
+        if (snapshot.allowsLan()) {
+            lastLan = snapshot;
+        }
+        Log.d(TAG, "Network: " + snapshot);
+
+        // Lives as long as the process, like the device clients it gates
+        try {
+            connectivityManager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                // Before API 26 a new network's capabilities and link properties
+                // aren't always followed by their own callbacks, so read them here too
+                @Override
+                public void onAvailable(Network network) {
+                    update(network);
+                }
+
+                @Override
+                public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                    update(network);
+                }
+
+                @Override
+                public void onLinkPropertiesChanged(Network network, LinkProperties linkProperties) {
+                    update(network);
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    update(null);
+                }
+            });
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Cannot register network callback", e);
+        }
+        LanDeviceClient.setLanAvailability(() -> snapshot.allowsLan());
+    }
+
+    public static synchronized ConnectivityMonitor getInstance(Context context) {
+        if (instance == null) {
+            instance = new ConnectivityMonitor(context);
+        }
+        return instance;
+    }
+
+    public NetworkSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /** True if the phone has any network, so the backend may be reachable */
+    public boolean isConnected() {
+        return snapshot.connected;
+    }
+
+    /** True if devices on the local network can be reached right now */
+    public boolean isLanAvailable() {
+        return snapshot.allowsLan();
+    }
+
+    public void addListener(OnNetworkChangedListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(OnNetworkChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    /** Runs on the ConnectivityManager callback thread */
+    private void update(Network network) {
+        NetworkSnapshot current = read(network);
+        NetworkSnapshot previous;
+        synchronized (this) {
+            if (current.equals(snapshot)) {
+                return;
+            }
+            Log.d(TAG, "Network: " + snapshot + " -> " + current);
+            boolean wasLan = snapshot.allowsLan() && snapshot.address != null;
+            if (current.connected != snapshot.connected) {
+                mainHandler.post(() -> {
+                    for (OnNetworkChangedListener listener : listeners) {
+                        listener.onConnectedChanged(current.connected);
+                    }
+                });
+            }
+            snapshot = current;
+            // Not a LAN, or still waiting for its IPv4 address from the link properties callback
+            if (!current.allowsLan() || current.address == null) {
+                return;
+            }
+            previous = lastLan;
+            lastLan = current;
+            if (wasLan && current.sameLan(previous)) {
+                return;
+            }
+        }
+        mainHandler.post(() -> {
+            for (OnNetworkChangedListener listener : listeners) {
+                listener.onLanChanged(previous, current);
+            }
+        });
+    }
+
+    private NetworkSnapshot read(Network network) {
+        if (network == null) {
+            return NetworkSnapshot.DISCONNECTED;
+        }
+        try {
+            NetworkCapabilities capabilities = connectivityManager.getNetworkCapabilities(network);
+            if (capabilities == null) {
+                return NetworkSnapshot.DISCONNECTED;
+            }
+            boolean wifi = capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI);
+            boolean local = wifi || capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET);
+            boolean validated = capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+            boolean metered = !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+
+            Inet4Address address = null;
+            int prefixLength = 0;
+            LinkProperties link = connectivityManager.getLinkProperties(network);
+            if (link != null) {
+                for (LinkAddress linkAddress : link.getLinkAddresses()) {
+                    if (linkAddress.getAddress() instanceof Inet4Address) {
+                        address = (Inet4Address) linkAddress.getAddress();
+                        prefixLength = linkAddress.getPrefixLength();
+                        break;
+                    }
+                }
+            }
+            return new NetworkSnapshot(true, local, validated, metered, wifi ? readSsid() : null, address, prefixLength);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error reading network state", e);
+            return NetworkSnapshot.DISCONNECTED;
+        }
+    }
+
+    private String readSsid() {
+        try {
+            WifiManager wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+            WifiInfo info = wifiManager.getConnectionInfo();
+            return info != null ? info.getSSID() : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -1,8 +1,6 @@
 package com.example.smartworks;
 
 import android.content.Context;
-import android.net.wifi.WifiInfo;
-import android.net.wifi.WifiManager;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
@@ -13,59 +11,70 @@ import android.widget.BaseAdapter;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
-import org.json.JSONException;
-import org.json.JSONObject;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import com.example.smartworks.network.FleetPoller;
+import com.example.smartworks.network.IpResolutionCache;
+import com.example.smartworks.network.LanUnavailableException;
+import com.example.smartworks.network.LanDeviceClient;
+import com.example.smartworks.network.SingleFlight;
+import com.example.smartworks.network.SubnetScanner;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DeviceAdapter extends BaseAdapter {
     private static final String TAG = "DeviceAdapter";
+    private static final long FETCH_DEADLINE_MS = 30000;
+    // /data reads: a stalled connection is hedged, and the whole read gives up after 20s
+    private static final LanDeviceClient.RequestOptions FETCH_OPTIONS = new LanDeviceClient.RequestOptions()
+            .setConnectTimeoutMs(10000)
+            .setReadTimeoutMs(10000)
+            .setDeadlineMs(20000)
+            .setHedge(true);
     private Context context;
     private List<DeviceInfo> devices;
     private LayoutInflater inflater;
-    private ExecutorService executorService;
+    private FleetPoller poller;
     private Handler mainHandler;
     private OnDeviceConfigListener configListener;
+    private DeviceDirectory directory;
+    private final DeviceDirectory.OnDirectoryChangedListener directoryListener = this::applyDirectory;
+    private DeviceIpCache ipCache;
+    private ConnectivityMonitor connectivity;
+    private final DeviceIpCache.OnDeviceIpChangedListener ipListener = this::applyResolvedIP;
+    private final Map<String, CompletableFuture<ESP32PoolAPI.PoolData>> pendingReads = new ConcurrentHashMap<>();
 
     // Interface for device configuration callback
     public interface OnDeviceConfigListener {
         void onOpenDeviceConfig(DeviceInfo device, int position);
     }
 
-    // Track which devices are already being fetched to prevent duplicates
-    private final Set<Integer> fetchingDevices = new HashSet<>();
-
-    // Single shared executor for all adapters to prevent thread explosion
-    private static ExecutorService sharedExecutor = null;
-
     public DeviceAdapter(Context context, List<DeviceInfo> devices) {
         this.context = context;
         this.devices = devices;
         this.inflater = LayoutInflater.from(context);
 
-        // Use shared single thread executor across all adapter instances
-        if (sharedExecutor == null || sharedExecutor.isShutdown()) {
-            sharedExecutor = new ThreadPoolExecutor(
-                    1,  // Core pool size - only 1 thread
-                    1,  // Maximum pool size - only 1 thread
-                    60L, // Keep alive time
-                    TimeUnit.SECONDS,
-                    new LinkedBlockingQueue<Runnable>(5), // Very small queue
-                    new ThreadPoolExecutor.DiscardOldestPolicy() // Discard old tasks if queue full
-            );
-        }
-        this.executorService = sharedExecutor;
+        // Fleet poller is shared across all adapter instances: bounded concurrency,
+        // one request per device at a time, round-robin between devices
+        this.poller = FleetPoller.getShared();
 
         this.mainHandler = new Handler(Looper.getMainLooper());
+
+        // Devices announcing themselves over mDNS update their rows directly
+        this.directory = DeviceDirectory.getInstance(context);
+        this.directory.addListener(directoryListener);
+
+        // Network state is tracked by callbacks, not queried before each fetch
+        this.connectivity = ConnectivityMonitor.getInstance(context);
+
+        // Devices that stopped answering are re-resolved in the background
+        this.ipCache = DeviceIpCache.getInstance(context);
+        this.ipCache.addListener(ipListener);
     }
 
     public void setOnDeviceConfigListener(OnDeviceConfigListener listener) {
@@ -108,6 +117,7 @@ public class DeviceAdapter extends BaseAdapter {
             holder.signalBar4 = convertView.findViewById(R.id.signalBar4);
             holder.signalBar5 = convertView.findViewById(R.id.signalBar5);
             holder.configButton = convertView.findViewById(R.id.configButton);
+            holder.firmwareBadge = convertView.findViewById(R.id.firmwareBadge);
 
             convertView.setTag(holder);
         } else {
@@ -156,6 +166,10 @@ public class DeviceAdapter extends BaseAdapter {
         // Set signal strength bars
         updateSignalBars(holder, device);
 
+        if (holder.firmwareBadge != null) {
+            holder.firmwareBadge.setVisibility(device.updateAvailable ? View.VISIBLE : View.GONE);
+        }
+
         // Set up config button
         if (holder.configButton != null) {
             holder.configButton.setOnClickListener(v -> {
@@ -173,16 +187,12 @@ public class DeviceAdapter extends BaseAdapter {
         // We now fetch data from the server in MainActivity.
         // Disabled local fetching to prevent overwriting server data.
         /*
-        synchronized (fetchingDevices) {
-            boolean needsFetch = !fetchingDevices.contains(position) &&
-                    (device.temperature == null || device.temperature.equals("Loading...")) &&
-                    device.ipAddress != null && !device.ipAddress.isEmpty() &&
-                    !device.ipAddress.equals("Discovering...");
-
-            if (needsFetch) {
-                fetchingDevices.add(position);
-                fetchTemperatureDataSimple(device, position);
-            }
+        boolean needsFetch = (device.temperature == null || device.temperature.equals("Loading...")) &&
+                device.ipAddress != null && !device.ipAddress.isEmpty() &&
+                !device.ipAddress.equals("Discovering...");
+
+        if (needsFetch) {
+            fetchTemperatureDataSimple(device, position);
         }
         */
 
@@ -190,25 +200,18 @@ public class DeviceAdapter extends BaseAdapter {
     }
 
     /**
-     * IMPROVED: Discover device IP by scanning current network subnet
+     * Find one device's new IP. Shares the subnet sweep with any other
+     * discovery already running, e.g. for other devices in the list.
      */
     private void discoverDeviceIP(DeviceInfo device, int position) {
-        Log.d(TAG, "Starting intelligent IP discovery for device: " + device.name);
-
-        executorService.execute(() -> {
-            String deviceIP = findDeviceOnCurrentNetwork(device.name);
+        Log.d(TAG, "Starting IP discovery for device: " + device.name);
 
+        discoverAll(java.util.Collections.singletonList(device), null).thenAccept(matched -> {
+            String deviceIP = matched.get(device);
             if (deviceIP != null) {
                 Log.d(TAG, "Found device " + device.name + " at IP: " + deviceIP);
+                applyDiscoveredIP(device, deviceIP);
 
-                // Update device IP
-                device.ipAddress = deviceIP;
-                device.status = "Found at " + deviceIP;
-
-                // Save the discovered IP
-                saveDeviceIP(device, deviceIP);
-
-                // Update UI and start temperature monitoring
                 mainHandler.post(() -> {
                     notifyDataSetChanged();
                     Toast.makeText(context, "Found " + device.name + " at " + deviceIP,
@@ -216,18 +219,12 @@ public class DeviceAdapter extends BaseAdapter {
                 });
 
                 // Start fetching temperature data
-                synchronized (fetchingDevices) {
-                    if (!fetchingDevices.contains(position)) {
-                        fetchingDevices.add(position);
-                        fetchTemperatureDataSimple(device, position);
-                    }
-                }
+                fetchTemperatureDataSimple(device, position);
             } else {
                 // Device not found on network
                 Log.w(TAG, "Could not find device " + device.name + " on current network");
-                device.ipAddress = "Not Found";
-                device.status = "Device Offline";
-                device.temperature = "Device Not Found";
+                ipCache.markNotFound(device.address, device.name);
+                markNotFound(device);
 
                 mainHandler.post(() -> {
                     notifyDataSetChanged();
@@ -239,108 +236,131 @@ public class DeviceAdapter extends BaseAdapter {
     }
 
     /**
-     * Scan current network subnet for ESP32 devices
+     * Find the wanted devices: from their mDNS announcements when they make them,
+     * then from a UDP broadcast query, and only for devices still missing after
+     * that with one subnet sweep. Broadcast and sweep results are matched against
+     * every device in the list. Completes with device -> IP for the devices that
+     * were found, never exceptionally.
      */
-    private String findDeviceOnCurrentNetwork(String deviceName) {
-        try {
-            // Get current WiFi network info
-            WifiManager wifiManager = (WifiManager) context.getApplicationContext()
-                    .getSystemService(Context.WIFI_SERVICE);
-            WifiInfo wifiInfo = wifiManager.getConnectionInfo();
-            int ipAddress = wifiInfo.getIpAddress();
-
-            // Convert to IP string and get network prefix
-            String phoneIP = String.format("%d.%d.%d.%d",
-                    (ipAddress & 0xff),
-                    (ipAddress >> 8 & 0xff),
-                    (ipAddress >> 16 & 0xff),
-                    (ipAddress >> 24 & 0xff));
-
-            Log.d(TAG, "Phone IP: " + phoneIP);
-
-            // Extract network prefix (e.g., "192.168.0")
-            String networkPrefix = phoneIP.substring(0, phoneIP.lastIndexOf('.'));
-            Log.d(TAG, "Scanning network: " + networkPrefix + ".xxx");
-
-            // Try known device IPs first
-            String[] knownIPs = {
-                networkPrefix + ".147",  // Original device IP
-                networkPrefix + ".131",  // New device IP
-                networkPrefix + ".140"   // Another possible IP
-            };
-            
-            for (String knownIP : knownIPs) {
-                if (testESP32DeviceAtIP(knownIP)) {
-                    Log.d(TAG, "ESP32 device found at known IP: " + knownIP);
-                    return knownIP;
-                }
+    private CompletableFuture<Map<DeviceInfo, String>> discoverAll(List<DeviceInfo> wanted,
+                                                                   SubnetScanner.ProgressListener progress) {
+        Map<DeviceInfo, String> announced = new HashMap<>();
+        for (DeviceInfo device : wanted) {
+            String host = directory.lookup(device.address, device.name);
+            if (host != null) {
+                announced.put(device, host);
             }
+        }
+        if (announced.size() == wanted.size()) {
+            Log.d(TAG, "All " + wanted.size() + " devices found via mDNS, no sweep needed");
+            return CompletableFuture.completedFuture(announced);
+        }
 
-            // Scan common device IP ranges (skip .1 router, start from .2)
-            int[] commonIPs = {100, 101, 102, 110, 120, 150, 200};
-            for (int ip : commonIPs) {
-                String candidateIP = networkPrefix + "." + ip;
+        List<DeviceInfo> known = new ArrayList<>(devices);
+        return DeviceDiscovery.getShared().broadcast(known.size())
+                .handle((found, error) -> {
+                    if (error != null) {
+                        Log.e(TAG, "Broadcast discovery failed", error);
+                        return announced;
+                    }
+                    Map<DeviceInfo, String> matched = DeviceDiscovery.match(known, found);
+                    matched.putAll(announced);
+                    return matched;
+                })
+                .thenCompose(matched -> {
+                    if (matched.keySet().containsAll(wanted)) {
+                        Log.d(TAG, "All " + wanted.size() + " devices answered the broadcast, no sweep needed");
+                        return CompletableFuture.completedFuture(matched);
+                    }
+                    return sweep(known, matched, progress);
+                });
+    }
 
-                // Skip phone's own IP
-                if (candidateIP.equals(phoneIP)) continue;
+    /**
+     * Older firmware neither announces itself nor answers the broadcast: probe
+     * the subnet for it, keeping what was already found
+     */
+    private CompletableFuture<Map<DeviceInfo, String>> sweep(List<DeviceInfo> known, Map<DeviceInfo, String> found,
+                                                             SubnetScanner.ProgressListener progress) {
+        List<java.net.InetAddress> hosts;
+        try {
+            hosts = DeviceDiscovery.currentSubnetHosts(context);
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading network address", e);
+            hosts = null;
+        }
+        if (hosts == null) {
+            Log.w(TAG, "No IPv4 address on the current network, cannot scan");
+            return CompletableFuture.completedFuture(found);
+        }
 
-                Log.d(TAG, "Testing IP: " + candidateIP);
+        return DeviceDiscovery.getShared().scan(hosts, progress)
+                .handle((swept, error) -> {
+                    if (error != null) {
+                        Log.e(TAG, "Error during network discovery", error);
+                        return found;
+                    }
+                    Map<DeviceInfo, String> matched = DeviceDiscovery.match(known, swept);
+                    matched.putAll(found);
+                    return matched;
+                });
+    }
 
-                if (testESP32DeviceAtIP(candidateIP)) {
-                    Log.d(TAG, "ESP32 device found at: " + candidateIP);
-                    return candidateIP;
-                }
+    /**
+     * A device announced itself or moved: point every affected row at its new IP
+     */
+    private void applyDirectory() {
+        boolean changed = false;
+        for (int i = 0; i < devices.size(); i++) {
+            DeviceInfo device = devices.get(i);
+            String host = directory.lookup(device.address, device.name);
+            if (host != null && !host.equals(device.ipAddress)) {
+                Log.d(TAG, device.name + " announced itself at " + host);
+                applyDiscoveredIP(device, host);
+                fetchTemperatureDataSimple(device, i);
+                changed = true;
             }
-
-            return null; // Device not found
-
-        } catch (Exception e) {
-            Log.e(TAG, "Error during network discovery", e);
-            return null;
+        }
+        if (changed) {
+            notifyDataSetChanged();
         }
     }
 
     /**
-     * Test if an ESP32 device is at the given IP
+     * The IP cache finished re-resolving a device that stopped answering
      */
-    private boolean testESP32DeviceAtIP(String ipAddress) {
-        try {
-            // Test HTTP connection to ESP32's /data endpoint
-            URL url = new URL("http://" + ipAddress + "/data");
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setConnectTimeout(2000); // 2 second timeout for faster scanning
-            connection.setReadTimeout(2000);
-            connection.setRequestProperty("User-Agent", "SmartWorks-Discovery/1.0");
-
-            int responseCode = connection.getResponseCode();
-
-            if (responseCode == 200) {
-                // Read response to verify it's an ESP32 device
-                BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(connection.getInputStream()));
-                StringBuilder response = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    response.append(line);
-                }
-                reader.close();
-
-                String jsonResponse = response.toString();
-
-                // Check if response contains ESP32 device indicators
-                return jsonResponse.contains("temperature_celsius") ||
-                        jsonResponse.contains("ESP32") ||
-                        jsonResponse.contains("device_name");
+    private void applyResolvedIP(String identity, String host) {
+        boolean changed = false;
+        for (int i = 0; i < devices.size(); i++) {
+            DeviceInfo device = devices.get(i);
+            if (!identity.equals(DeviceIpCache.identity(device.address, device.name))) {
+                continue;
+            }
+            if (host == null) {
+                markNotFound(device);
+            } else {
+                Log.d(TAG, device.name + " re-resolved to " + host);
+                device.ipAddress = host;
+                device.status = "Found at " + host;
+                fetchTemperatureDataSimple(device, i);
             }
+            changed = true;
+        }
+        if (changed) {
+            notifyDataSetChanged();
+        }
+    }
 
-            connection.disconnect();
-            return false;
+    private void applyDiscoveredIP(DeviceInfo device, String deviceIP) {
+        device.ipAddress = deviceIP;
+        device.status = "Found at " + deviceIP;
+        saveDeviceIP(device, deviceIP);
+    }
 
-        } catch (Exception e) {
-            // Connection failed - device not at this IP
-            return false;
-        }
+    private void markNotFound(DeviceInfo device) {
+        device.ipAddress = "Not Found";
+        device.status = "Device Offline";
+        device.temperature = "Device Not Found";
     }
 
     /**
@@ -352,7 +372,7 @@ public class DeviceAdapter extends BaseAdapter {
             android.content.SharedPreferences.Editor editor = prefs.edit();
 
             // Save IP for quick lookup
-            editor.putString("device_ip_" + device.name, ipAddress);
+            ipCache.put(device.address, device.name, ipAddress);
 
             // Update main device storage
             Set<String> deviceSet = new HashSet<>(prefs.getStringSet("provisioned_devices", new HashSet<>()));
@@ -426,6 +446,7 @@ public class DeviceAdapter extends BaseAdapter {
                     android.content.Intent poolIntent = new android.content.Intent(context, PoolMonitorActivity.class);
                     poolIntent.putExtra("device_name", device.name);
                     poolIntent.putExtra("device_ip", device.ipAddress);
+                    poolIntent.putExtra("device_id", device.address);
                     poolIntent.putExtra("wifi_ssid", device.wifiSSID);
                     context.startActivity(poolIntent);
                 });
@@ -459,201 +480,145 @@ public class DeviceAdapter extends BaseAdapter {
 
     // Fetch temperature from device using its known IP
     private void fetchTemperatureDataSimple(DeviceInfo device, int position) {
-        if (device.ipAddress == null || device.ipAddress.isEmpty() || device.ipAddress.equals("Discovering...")) {
-            Log.w(TAG, "Cannot fetch temperature - no IP address for " + device.name);
-            return;
+        String known = device.ipAddress;
+        if (known == null || known.isEmpty() || known.equals("Discovering...") || known.equals("Not Found")) {
+            // Last known address if any; otherwise a background re-resolve starts and calls applyResolvedIP
+            String cached = ipCache.lookup(device.address, device.name);
+            if (cached == null) {
+                Log.w(TAG, "Cannot fetch temperature - no IP address for " + device.name);
+                return;
+            }
+            device.ipAddress = cached;
         }
+        String ip = device.ipAddress;
 
-        // Submit task to executor
-        try {
-            executorService.execute(() -> {
-                Log.d(TAG, "Fetching temperature for: " + device.name + " at " + device.ipAddress);
-
-                // First check if we're on WiFi
-                if (!isWifiConnected()) {
-                    Log.e(TAG, "WiFi not connected");
-                    device.temperature = "No WiFi";
-                    device.status = "WiFi Disconnected";
-                    mainHandler.post(() -> notifyDataSetChanged());
-                    synchronized (fetchingDevices) {
-                        fetchingDevices.remove(position);
-                    }
-                    return;
-                }
+        // Looked for recently and not found, don't wait out another timeout
+        if (ipCache.getState(device.address, device.name) == IpResolutionCache.State.NOT_FOUND) {
+            markNotFound(device);
+            mainHandler.post(() -> notifyDataSetChanged());
+            return;
+        }
 
-                HttpURLConnection connection = null;
-                try {
-                    // Try the URL with explicit parameters
-                    URL url = new URL("http://" + device.ipAddress + "/data");
-                    Log.d(TAG, "Connecting to: " + url.toString());
-
-                    connection = (HttpURLConnection) url.openConnection();
-                    connection.setRequestMethod("GET");
-                    connection.setConnectTimeout(10000); // 10 seconds
-                    connection.setReadTimeout(10000);
-                    connection.setRequestProperty("Accept", "application/json, text/plain, */*");
-                    connection.setRequestProperty("User-Agent", "SmartWorks-Android/1.0");
-                    connection.setRequestProperty("Connection", "close");
-                    connection.setUseCaches(false);
-                    connection.setDoInput(true);
-
-                    int responseCode = connection.getResponseCode();
-                    Log.d(TAG, "Response code: " + responseCode);
-
-                    if (responseCode == 200) {
-                        BufferedReader reader = new BufferedReader(
-                                new InputStreamReader(connection.getInputStream()));
-                        StringBuilder response = new StringBuilder();
-                        String line;
-                        while ((line = reader.readLine()) != null) {
-                            response.append(line);
-                        }
-                        reader.close();
-
-                        String jsonResponse = response.toString();
-                        Log.d(TAG, "Response: " + jsonResponse);
-
-                        if (parseESP32Response(jsonResponse, device)) {
-                            Log.d(TAG, "Successfully parsed temperature: " + device.temperature);
-                            device.status = "Online";
-                        } else {
-                            device.temperature = "Parse Error";
-                            device.status = "Data Error";
-                        }
-                    } else {
-                        Log.e(TAG, "HTTP error code: " + responseCode);
-                        device.temperature = "HTTP " + responseCode;
-                        device.status = "Server Error";
-                    }
+        // First check if we're on WiFi, as last reported by the connectivity monitor
+        if (!connectivity.isLanAvailable()) {
+            Log.e(TAG, "WiFi not connected");
+            device.temperature = "No WiFi";
+            device.status = "WiFi Disconnected";
+            mainHandler.post(() -> notifyDataSetChanged());
+            return;
+        }
 
-                } catch (java.net.SocketTimeoutException e) {
-                    Log.e(TAG, "Socket timeout: " + e.getMessage());
-                    device.temperature = "Timeout";
-                    device.status = "Connection Timeout";
-                } catch (java.net.ConnectException e) {
-                    Log.e(TAG, "Connection refused: " + e.getMessage());
-                    device.temperature = "Cannot Reach Device";
-                    device.status = "Device Unreachable";
-
-                    // IP might have changed - trigger rediscovery
-                    mainHandler.post(() -> {
-                        Toast.makeText(context,
-                                device.name + " not responding at " + device.ipAddress + ". Searching for new IP...",
-                                Toast.LENGTH_SHORT).show();
-                    });
-
-                    // Clear IP and rediscover
-                    device.ipAddress = "Discovering...";
-                    discoverDeviceIP(device, position);
-                } catch (java.net.UnknownHostException e) {
-                    Log.e(TAG, "Unknown host: " + e.getMessage());
-                    device.temperature = "DNS Error";
-                    device.status = "Cannot Resolve IP";
-                } catch (Exception e) {
-                    Log.e(TAG, "Error fetching temperature: " + e.getClass().getSimpleName() + " - " + e.getMessage());
-                    device.temperature = "Error";
-                    device.status = "Connection Failed";
-                } finally {
-                    if (connection != null) {
-                        try {
-                            connection.disconnect();
-                        } catch (Exception ignored) {}
+        // Runs on the fleet poller under this device's key. Concurrent refreshes of the
+        // same device (from any screen) share one request.
+        String pollKey = device.pollKey();
+        Log.d(TAG, "Fetching temperature for: " + device.name + " at " + ip);
+        poller.submit(pollKey, FETCH_DEADLINE_MS, () -> {
+            CompletableFuture<ESP32PoolAPI.PoolData> read = ESP32PoolAPI.readPoolData(ip, FETCH_OPTIONS);
+            pendingReads.put(pollKey, read);
+            read.whenComplete((data, error) -> {
+                pendingReads.remove(pollKey, read);
+                if (error == null) {
+                    // Only a valid reading proves it's this device, not another host at a recycled address
+                    if (data.isValid) {
+                        ipCache.verified(device.address, device.name, ip);
                     }
-
-                    // Remove from fetching set
-                    synchronized (fetchingDevices) {
-                        fetchingDevices.remove(position);
+                    applyPoolData(data, device);
+                } else {
+                    Throwable cause = SingleFlight.unwrap(error);
+                    if (cause instanceof CancellationException) {
+                        return; // List torn down
                     }
+                    handleFetchError(cause, device, ip, position);
                 }
 
                 // Update UI
                 mainHandler.post(() -> notifyDataSetChanged());
             });
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to submit fetch task", e);
-            synchronized (fetchingDevices) {
-                fetchingDevices.remove(position);
+
+            // Hold this device's poller slot until the read finishes or hits its deadline
+            try {
+                read.join();
+            } catch (RuntimeException e) {
+                // Already handled above
             }
+        });
+    }
+
+    private void applyPoolData(ESP32PoolAPI.PoolData data, DeviceInfo device) {
+        if (data.isValid) {
+            applyReading(data, device);
+            Log.d(TAG, "Successfully parsed temperature: " + device.temperature);
+            device.status = "Online";
+        } else if (data.httpStatus == 200) {
+            device.temperature = "Parse Error";
+            device.status = "Data Error";
+        } else {
+            Log.e(TAG, "HTTP error code: " + data.httpStatus);
+            device.temperature = "HTTP " + data.httpStatus;
+            device.status = "Server Error";
         }
     }
 
-    private boolean isWifiConnected() {
-        try {
-            android.net.ConnectivityManager cm = (android.net.ConnectivityManager)
-                    context.getSystemService(Context.CONNECTIVITY_SERVICE);
-            android.net.NetworkInfo networkInfo = cm.getActiveNetworkInfo();
-            return networkInfo != null && networkInfo.isConnected() &&
-                    networkInfo.getType() == android.net.ConnectivityManager.TYPE_WIFI;
-        } catch (Exception e) {
-            Log.e(TAG, "Error checking WiFi status", e);
-            return false;
+    private void handleFetchError(Throwable e, DeviceInfo device, String ip, int position) {
+        if (ipCache.reportFailure(device.address, device.name, ip, e)) {
+            Log.e(TAG, device.name + " unreachable at " + ip + ": " + e.getMessage());
+            device.temperature = "Cannot Reach Device";
+            device.status = "Searching for new IP...";
+
+            // IP might have changed, the cache is already looking and calls applyResolvedIP
+            mainHandler.post(() -> {
+                Toast.makeText(context,
+                        device.name + " not responding at " + ip + ". Searching for new IP...",
+                        Toast.LENGTH_SHORT).show();
+            });
+            device.ipAddress = "Discovering...";
+        } else if (e instanceof java.net.SocketTimeoutException) {
+            Log.e(TAG, "Socket timeout: " + e.getMessage());
+            device.temperature = "Timeout";
+            device.status = "Connection Timeout";
+        } else if (e instanceof LanUnavailableException) {
+            Log.e(TAG, "WiFi lost while fetching " + device.name);
+            device.temperature = "No WiFi";
+            device.status = "WiFi Disconnected";
+        } else if (e instanceof java.net.UnknownHostException) {
+            Log.e(TAG, "Unknown host: " + e.getMessage());
+            device.temperature = "DNS Error";
+            device.status = "Cannot Resolve IP";
+        } else {
+            Log.e(TAG, "Error fetching temperature: " + e.getClass().getSimpleName() + " - " + e.getMessage());
+            device.temperature = "Error";
+            device.status = "Connection Failed";
         }
     }
 
     public void fetchDeviceData(DeviceInfo device, int position) {
-        synchronized (fetchingDevices) {
-            fetchingDevices.remove(position);
-        }
         fetchTemperatureDataSimple(device, position);
     }
 
     /**
-     * FIXED: Parse ESP32 response and store temperature as Celsius number only
+     * FIXED: Store temperature from an ESP32 reading as Celsius number only
      */
-    private boolean parseESP32Response(String response, DeviceInfo device) {
-        if (response == null || response.trim().isEmpty()) {
-            return false;
+    private void applyReading(ESP32PoolAPI.PoolData data, DeviceInfo device) {
+        // FIXED: Store temperature as plain Celsius number (no units)
+        // The convertTemperatureBasedOnPrefs method will handle unit conversion
+        device.temperature = PoolDataDecoder.formatTenths(data.temperatureCelsius);
+        Log.d(TAG, "Parsed temperature: " + data.temperatureCelsius + "°C");
+
+        if (!data.sensorFound) {
+            device.temperature = "Sensor Error";
+            device.status = "Sensor Not Found";
+            return;
         }
 
-        try {
-            JSONObject json = new JSONObject(response);
-
-            // FIXED: Store temperature as plain Celsius number (no units)
-            // The convertTemperatureBasedOnPrefs method will handle unit conversion
-            if (json.has("temperature_celsius")) {
-                double tempCelsius = json.getDouble("temperature_celsius");
-                device.temperature = String.format("%.1f", tempCelsius); // Store as plain number
-                Log.d(TAG, "Parsed temperature: " + tempCelsius + "°C");
-            } else if (json.has("temperature_fahrenheit")) {
-                // If ESP32 sends Fahrenheit, convert to Celsius for storage
-                double tempFahrenheit = json.getDouble("temperature_fahrenheit");
-                double tempCelsius = (tempFahrenheit - 32) * 5.0 / 9.0;
-                device.temperature = String.format("%.1f", tempCelsius);
-                Log.d(TAG, "Converted temperature: " + tempFahrenheit + "°F -> " + tempCelsius + "°C");
-            } else if (json.has("temperature")) {
-                // Assume this is in Celsius
-                double temp = json.getDouble("temperature");
-                device.temperature = String.format("%.1f", temp);
-            } else {
-                Log.w(TAG, "No temperature field in JSON");
-                return false;
-            }
-
-            if (json.has("sensor_found")) {
-                boolean sensorFound = json.getBoolean("sensor_found");
-                if (!sensorFound) {
-                    device.temperature = "Sensor Error";
-                    device.status = "Sensor Not Found";
-                    return true;
-                }
-            }
-
-            if (json.has("wifi_ssid")) {
-                device.wifiSSID = json.getString("wifi_ssid");
-            }
-
-            if (json.has("rssi")) {
-                device.rssi = json.getInt("rssi");
-                updateSignalStatus(device);
-            } else {
-                device.status = "Online";
-            }
-
-            return true;
+        if (data.wifiSSID != null) {
+            device.wifiSSID = data.wifiSSID;
+        }
 
-        } catch (JSONException e) {
-            Log.e(TAG, "JSON parsing error: " + e.getMessage());
-            return false;
+        if (data.rssi != 0) {
+            device.rssi = data.rssi;
+            updateSignalStatus(device);
+        } else {
+            device.status = "Online";
         }
     }
 
@@ -719,22 +684,34 @@ public class DeviceAdapter extends BaseAdapter {
             device.temperature = "Loading...";
             device.status = "Refreshing...";
 
-            synchronized (fetchingDevices) {
-                fetchingDevices.remove(position);
-            }
-
             fetchTemperatureDataSimple(device, position);
             notifyDataSetChanged();
         }
     }
 
+    /**
+     * Redraw just the visible rows showing these devices, e.g. after a sync
+     * that changed a few of them, instead of rebinding the whole list
+     */
+    public void refreshRows(android.widget.AbsListView list, java.util.Collection<DeviceInfo> changed) {
+        if (list == null || changed.isEmpty()) {
+            return;
+        }
+        Set<DeviceInfo> targets = java.util.Collections.newSetFromMap(new java.util.IdentityHashMap<>());
+        targets.addAll(changed);
+        int headers = list instanceof android.widget.ListView ? ((android.widget.ListView) list).getHeaderViewsCount() : 0;
+        int first = list.getFirstVisiblePosition();
+        for (int i = 0; i < list.getChildCount(); i++) {
+            int position = first + i - headers;
+            if (position >= 0 && position < devices.size() && targets.contains(devices.get(position))) {
+                getView(position, list.getChildAt(i), list);
+            }
+        }
+    }
+
     public void refreshAllDevices() {
         Log.d(TAG, "Refreshing all devices");
 
-        synchronized (fetchingDevices) {
-            fetchingDevices.clear();
-        }
-
         for (int i = 0; i < devices.size(); i++) {
             DeviceInfo device = devices.get(i);
             device.temperature = "Loading...";
@@ -744,22 +721,51 @@ public class DeviceAdapter extends BaseAdapter {
         notifyDataSetChanged();
     }
 
-    public void forceIPRediscovery() {
-        Log.d(TAG, "Force IP rediscovery for all devices");
+    /**
+     * Rediscovery progress and completion, delivered on the main thread
+     */
+    public interface OnDiscoveryListener {
+        void onDiscoveryProgress(int percent);
 
-        synchronized (fetchingDevices) {
-            fetchingDevices.clear();
-        }
+        void onDiscoveryComplete(int found, int total);
+    }
 
-        for (int i = 0; i < devices.size(); i++) {
-            DeviceInfo device = devices.get(i);
+    /**
+     * Look for every device with one shared subnet sweep, then start reading
+     * the ones that were found
+     */
+    public void forceIPRediscovery(OnDiscoveryListener listener) {
+        Log.d(TAG, "Force IP rediscovery for all devices");
+
+        for (DeviceInfo device : devices) {
             device.ipAddress = "Discovering...";
             device.temperature = "Loading...";
             device.status = "Searching...";
-            discoverDeviceIP(device, i);
         }
-
         notifyDataSetChanged();
+
+        directory.refresh();
+        discoverAll(new ArrayList<>(devices), (probed, total) -> {
+            int percent = probed * 100 / total;
+            mainHandler.post(() -> listener.onDiscoveryProgress(percent));
+        }).thenAccept(matched -> {
+            for (int i = 0; i < devices.size(); i++) {
+                DeviceInfo device = devices.get(i);
+                String deviceIP = matched.get(device);
+                if (deviceIP != null) {
+                    applyDiscoveredIP(device, deviceIP);
+                    fetchTemperatureDataSimple(device, i);
+                } else {
+                    markNotFound(device);
+                }
+            }
+            Log.d(TAG, "Rediscovery found " + matched.size() + " of " + devices.size() + " devices");
+
+            mainHandler.post(() -> {
+                notifyDataSetChanged();
+                listener.onDiscoveryComplete(matched.size(), devices.size());
+            });
+        });
     }
 
     public void updateStoredDeviceIP(DeviceInfo device, String newIP) {
@@ -775,9 +781,16 @@ public class DeviceAdapter extends BaseAdapter {
     }
 
     public void cleanup() {
-        synchronized (fetchingDevices) {
-            fetchingDevices.clear();
+        directory.removeListener(directoryListener);
+        ipCache.removeListener(ipListener);
+        // Drop this list's queued polls and abort its running reads, the shared poller itself stays up
+        for (DeviceInfo device : devices) {
+            poller.cancel(device.pollKey());
+        }
+        for (CompletableFuture<ESP32PoolAPI.PoolData> read : pendingReads.values()) {
+            read.cancel(true);
         }
+        pendingReads.clear();
     }
 
     private static class ViewHolder {
@@ -790,6 +803,7 @@ public class DeviceAdapter extends BaseAdapter {
         LinearLayout signalBars;
         View signalBar1, signalBar2, signalBar3, signalBar4, signalBar5;
         android.widget.ImageButton configButton;
+        TextView firmwareBadge;
     }
 
     public static class DeviceInfo {
@@ -801,6 +815,11 @@ public class DeviceAdapter extends BaseAdapter {
         public String status;
         public Integer rssi;
         public String firmwareVersion; // ADDED
+        public String deviceType;
+        // Newer firmware offered for this type and version, as of the last catalog check
+        public boolean updateAvailable;
+        // DeviceStore.keyOf the server device this row shows, null if it came from local storage
+        public String storeKey;
 
         public DeviceInfo(String name, String address, String wifiSSID) {
             this.name = name;
@@ -871,10 +890,8 @@ public class DeviceAdapter extends BaseAdapter {
                 
                 // IMPROVED: Load stored IP address if not already set
                 if ((device.ipAddress == null || device.ipAddress.isEmpty()) && context != null) {
-                    android.content.SharedPreferences mainPrefs = 
-                        context.getSharedPreferences("SmartWorks", Context.MODE_PRIVATE);
-                    String storedIP = mainPrefs.getString("device_ip_" + device.name, "");
-                    if (!storedIP.isEmpty()) {
+                    String storedIP = DeviceIpCache.getInstance(context).lookup(device.address, device.name);
+                    if (storedIP != null) {
                         device.ipAddress = storedIP;
                         Log.d("DeviceInfo", "Loaded stored IP for " + device.name + ": " + storedIP);
                     }
@@ -884,6 +901,13 @@ public class DeviceAdapter extends BaseAdapter {
             return device;
         }
 
+        /**
+         * Stable key for per-device polling - device ID when known, otherwise the name
+         */
+        public String pollKey() {
+            return address != null && !address.isEmpty() ? address : name;
+        }
+
         public String toStoredString() {
             StringBuilder sb = new StringBuilder();
             sb.append(name);
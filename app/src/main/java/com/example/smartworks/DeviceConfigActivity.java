@@ -15,6 +15,7 @@ import android.widget.Switch;
 import android.widget.TextView;
 import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
+import com.example.smartworks.api.RequestScheduler;
 import com.example.smartworks.api.SmartWorksApiService;
 import com.example.smartworks.auth.AuthenticationManager;
 
@@ -242,7 +243,8 @@ public class DeviceConfigActivity extends AppCompatActivity {
         
         Toast.makeText(this, "Checking for updates...", Toast.LENGTH_SHORT).show();
         
-        apiService.checkFirmwareUpdate("pool_monitor", currentVersion)
+        // The user tapped for this one, don't queue it behind background checks
+        apiService.checkFirmwareUpdate("pool_monitor", currentVersion, RequestScheduler.Priority.INTERACTIVE)
                 .thenAccept(result -> runOnUiThread(() -> {
                     if (result.success && result.data != null) {
                         if (result.data.available) {
@@ -291,7 +293,9 @@ public class DeviceConfigActivity extends AppCompatActivity {
         
         apiService.sendDeviceCommand(targetDeviceId, "update_firmware")
                 .thenAccept(result -> runOnUiThread(() -> {
-                    if (result.success) {
+                    if (result.queued) {
+                        Toast.makeText(this, result.message, Toast.LENGTH_LONG).show();
+                    } else if (result.success) {
                         Toast.makeText(this, "Update command sent! Device should update shortly.", Toast.LENGTH_LONG).show();
                     } else {
                         Toast.makeText(this, "Failed to send command: " + result.message, Toast.LENGTH_LONG).show();
@@ -430,7 +434,8 @@ public class DeviceConfigActivity extends AppCompatActivity {
                         mainEditor.putStringSet("provisioned_devices", deviceSet);
                         mainEditor.apply();
 
-                        Toast.makeText(this, "Device deleted successfully", Toast.LENGTH_SHORT).show();
+                        Toast.makeText(this, result.queued ? result.message : "Device deleted successfully",
+                                Toast.LENGTH_SHORT).show();
 
                         // Return to main activity with delete result
                         Intent resultIntent = new Intent();
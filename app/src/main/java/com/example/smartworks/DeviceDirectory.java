@@ -0,0 +1,147 @@
+// DeviceDirectory.java - Live device -> IP map from mDNS announcements
+package com.example.smartworks;
+
+import android.content.Context;
+import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.example.smartworks.network.MdnsBrowser;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Where each ESP32 is right now, as advertised over mDNS (_smartworks._tcp or
+ * _http._tcp). Screens showing devices start it while visible and are told
+ * whenever a device appears, changes address or leaves, so they never have
+ * to probe IPs to find one that announces itself.
+ */
+public class DeviceDirectory implements MdnsBrowser.Listener {
+    private static final String TAG = "DeviceDirectory";
+
+    private static DeviceDirectory instance;
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final CopyOnWriteArrayList<OnDirectoryChangedListener> listeners = new CopyOnWriteArrayList<>();
+    private MdnsBrowser browser;
+    private WifiManager.MulticastLock multicastLock;
+    private int users;
+
+    /**
+     * Called on the main thread
+     */
+    public interface OnDirectoryChangedListener {
+        void onDirectoryChanged();
+    }
+
+    private DeviceDirectory(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public static synchronized DeviceDirectory getInstance(Context context) {
+        if (instance == null) {
+            instance = new DeviceDirectory(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Start listening, or just count another user if already started. Pair every
+     * call with stop().
+     */
+    public synchronized void start() {
+        if (users++ > 0) {
+            return;
+        }
+        try {
+            // Without this lock most WiFi drivers drop multicast packets to save power
+            WifiManager wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+            multicastLock = wifiManager.createMulticastLock("SmartWorks-mdns");
+            multicastLock.setReferenceCounted(false);
+            multicastLock.acquire();
+        } catch (Exception e) {
+            Log.e(TAG, "Cannot acquire multicast lock", e);
+        }
+        browser = new MdnsBrowser(new MdnsBrowser.Config(), this);
+        browser.start();
+        Log.d(TAG, "Device directory started");
+    }
+
+    public synchronized void stop() {
+        if (users == 0 || --users > 0) {
+            return;
+        }
+        browser.close();
+        browser = null;
+        if (multicastLock != null && multicastLock.isHeld()) {
+            multicastLock.release();
+        }
+        multicastLock = null;
+        Log.d(TAG, "Device directory stopped");
+    }
+
+    /** Ask the network again now, e.g. when the user pulls to refresh */
+    public synchronized void refresh() {
+        if (browser != null) {
+            browser.refreshNow();
+        }
+    }
+
+    public void addListener(OnDirectoryChangedListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(OnDirectoryChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Host currently advertised by a device, matched by device ID first and then
+     * by name, or null if it isn't announcing itself
+     */
+    public String lookup(String deviceId, String deviceName) {
+        List<MdnsBrowser.Service> services;
+        synchronized (this) {
+            if (browser == null) {
+                return null;
+            }
+            services = browser.getServices();
+        }
+        if (deviceId != null && !deviceId.isEmpty()) {
+            for (MdnsBrowser.Service service : services) {
+                if (deviceId.equalsIgnoreCase(service.deviceId())) {
+                    return service.hostAndPort();
+                }
+            }
+        }
+        if (deviceName != null && !deviceName.isEmpty()) {
+            for (MdnsBrowser.Service service : services) {
+                if (deviceName.equalsIgnoreCase(service.deviceName())) {
+                    return service.hostAndPort();
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void onServiceResolved(MdnsBrowser.Service service) {
+        Log.d(TAG, "Device announced: " + service);
+        notifyChanged();
+    }
+
+    @Override
+    public void onServiceLost(MdnsBrowser.Service service) {
+        Log.d(TAG, "Device gone: " + service);
+        notifyChanged();
+    }
+
+    private void notifyChanged() {
+        mainHandler.post(() -> {
+            for (OnDirectoryChangedListener listener : listeners) {
+                listener.onDirectoryChanged();
+            }
+        });
+    }
+}
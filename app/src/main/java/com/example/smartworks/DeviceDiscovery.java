@@ -0,0 +1,216 @@
+// DeviceDiscovery.java - One shared network scan for every known device
+package com.example.smartworks;
+
+import android.content.Context;
+import android.util.Log;
+import com.example.smartworks.network.BroadcastDiscovery;
+import com.example.smartworks.network.DeviceIoExecutor;
+import com.example.smartworks.network.SingleFlight;
+import com.example.smartworks.network.SubnetScanner;
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Finds the ESP32s on the current network with a UDP broadcast query or a
+ * single subnet sweep and matches them to known devices by identity. Every
+ * caller that asks while a sweep of the same subnet is running (or just
+ * finished) shares its result, so rediscovering N devices costs one scan, not N.
+ */
+public class DeviceDiscovery {
+    private static final String TAG = "DeviceDiscovery";
+    private static final long RESULT_FRESHNESS_MS = 5000;
+    private static final long MAX_SCAN_MS = 60000;
+
+    private static DeviceDiscovery shared;
+
+    private final SubnetScanner scanner;
+    private final BroadcastDiscovery broadcast;
+    private final Executor executor;
+    // Keyed by subnet, an empty result is not kept so a retry scans again
+    private final SingleFlight<Map<String, ESP32PoolAPI.PoolData>> scans =
+            new SingleFlight<>(RESULT_FRESHNESS_MS, MAX_SCAN_MS, found -> !found.isEmpty());
+    private final SingleFlight<Map<String, ESP32PoolAPI.PoolData>> broadcasts =
+            new SingleFlight<>(RESULT_FRESHNESS_MS, MAX_SCAN_MS, found -> !found.isEmpty());
+    private final CopyOnWriteArrayList<SubnetScanner.ProgressListener> progressListeners =
+            new CopyOnWriteArrayList<>();
+
+    public DeviceDiscovery(SubnetScanner scanner, BroadcastDiscovery broadcast, Executor executor) {
+        this.scanner = scanner;
+        this.broadcast = broadcast;
+        this.executor = executor;
+    }
+
+    public DeviceDiscovery(SubnetScanner scanner, Executor executor) {
+        this(scanner, new BroadcastDiscovery(), executor);
+    }
+
+    public static synchronized DeviceDiscovery getShared() {
+        if (shared == null) {
+            shared = new DeviceDiscovery(new SubnetScanner(), new BroadcastDiscovery(),
+                    DeviceIoExecutor.getShared());
+        }
+        return shared;
+    }
+
+    /**
+     * Every ESP32 answering among hosts, as host -> its /data payload.
+     *
+     * @param progress optional, called on the scanning thread while the sweep runs,
+     *                 including a sweep started by another caller
+     */
+    public CompletableFuture<Map<String, ESP32PoolAPI.PoolData>> scan(List<InetAddress> hosts,
+                                                                      SubnetScanner.ProgressListener progress) {
+        if (progress != null) {
+            progressListeners.add(progress);
+        }
+        String key = hosts.isEmpty() ? "" : hosts.get(0).getHostAddress() + "+" + hosts.size();
+        CompletableFuture<Map<String, ESP32PoolAPI.PoolData>> result = scans.execute(key, executor, () -> {
+            SubnetScanner.Result<ESP32PoolAPI.PoolData> scan =
+                    scanner.scan(hosts, ESP32PoolAPI::identifyDevice, this::reportProgress);
+            Log.d(TAG, "Sweep of " + key + ": " + scan);
+            return scan.devices;
+        });
+        if (progress != null) {
+            result.whenComplete((found, error) -> progressListeners.remove(progress));
+        }
+        return result;
+    }
+
+    /**
+     * Every device answering the broadcast query, as host -> its identity (only
+     * deviceId and deviceName are set), so the result goes through match() like
+     * a sweep's. Concurrent callers share one query.
+     *
+     * @param expectedDevices stop listening once this many have answered, 0 for the whole window
+     */
+    public CompletableFuture<Map<String, ESP32PoolAPI.PoolData>> broadcast(int expectedDevices) {
+        return broadcasts.execute("broadcast", executor, () -> {
+            Map<String, ESP32PoolAPI.PoolData> found = new LinkedHashMap<>();
+            for (BroadcastDiscovery.Reply reply : broadcast.discover(expectedDevices)) {
+                ESP32PoolAPI.PoolData identity = new ESP32PoolAPI.PoolData();
+                identity.deviceId = reply.deviceId.isEmpty() ? null : reply.deviceId;
+                identity.deviceName = reply.deviceName.isEmpty() ? null : reply.deviceName;
+                found.put(reply.hostAndPort(), identity);
+            }
+            return found;
+        });
+    }
+
+    /**
+     * Where one device is now: broadcast first, then a sweep of hosts if it
+     * didn't answer. Only an exact device_id or name match counts, a lone
+     * unknown responder could be anyone's device.
+     *
+     * @param hosts subnet to sweep, null to skip the sweep
+     * @return the device's host, or null if it wasn't found
+     */
+    public CompletableFuture<String> locate(String deviceId, String deviceName, List<InetAddress> hosts) {
+        return broadcast(0)
+                .exceptionally(error -> new LinkedHashMap<>())
+                .thenCompose(answered -> {
+                    String host = findDevice(answered, deviceId, deviceName);
+                    if (host != null || hosts == null) {
+                        return CompletableFuture.completedFuture(host);
+                    }
+                    return scan(hosts, null).handle((swept, error) ->
+                            error != null ? null : findDevice(swept, deviceId, deviceName));
+                });
+    }
+
+    private static String findDevice(Map<String, ESP32PoolAPI.PoolData> found, String deviceId, String deviceName) {
+        String host = findHost(found, new HashSet<>(), deviceId, true);
+        return host != null ? host : findHost(found, new HashSet<>(), deviceName, false);
+    }
+
+    private void reportProgress(int probed, int total) {
+        for (SubnetScanner.ProgressListener listener : progressListeners) {
+            listener.onProgress(probed, total);
+        }
+    }
+
+    /**
+     * Pair known devices with the ESP32s a scan found: device_id against the
+     * stored device ID first, then device_name against the device name. A
+     * responder that matches neither is left alone, even if only one device is
+     * missing: on a shared LAN it may be a neighbour's.
+     *
+     * @return device -> host for the devices that were found
+     */
+    public static Map<DeviceAdapter.DeviceInfo, String> match(List<DeviceAdapter.DeviceInfo> devices,
+                                                             Map<String, ESP32PoolAPI.PoolData> found) {
+        Map<DeviceAdapter.DeviceInfo, String> matched = new LinkedHashMap<>();
+        Set<String> claimed = new HashSet<>();
+
+        for (DeviceAdapter.DeviceInfo device : devices) {
+            String host = findHost(found, claimed, device.address, true);
+            if (host == null) {
+                continue;
+            }
+            matched.put(device, host);
+            claimed.add(host);
+        }
+        for (DeviceAdapter.DeviceInfo device : devices) {
+            if (matched.containsKey(device)) {
+                continue;
+            }
+            String host = findHost(found, claimed, device.name, false);
+            if (host == null) {
+                continue;
+            }
+            matched.put(device, host);
+            claimed.add(host);
+        }
+        return matched;
+    }
+
+    private static String findHost(Map<String, ESP32PoolAPI.PoolData> found, Set<String> claimed,
+                                   String identity, boolean byId) {
+        if (identity == null || identity.isEmpty()) {
+            return null;
+        }
+        for (Map.Entry<String, ESP32PoolAPI.PoolData> entry : found.entrySet()) {
+            String reported = byId ? entry.getValue().deviceId : entry.getValue().deviceName;
+            if (!claimed.contains(entry.getKey()) && identity.equalsIgnoreCase(reported)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Hosts on the phone's current IPv4 subnet, using the real prefix length
+     * when the platform reports it and /24 otherwise, or null without an IPv4 address
+     */
+    public static List<InetAddress> currentSubnetHosts(Context context) throws java.net.UnknownHostException {
+        android.net.ConnectivityManager cm = (android.net.ConnectivityManager)
+                context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        android.net.LinkProperties link = cm.getLinkProperties(cm.getActiveNetwork());
+        if (link != null) {
+            for (android.net.LinkAddress address : link.getLinkAddresses()) {
+                if (address.getAddress() instanceof java.net.Inet4Address) {
+                    Log.d(TAG, "Phone IP: " + address);
+                    return SubnetScanner.subnetHosts(address.getAddress(), address.getPrefixLength());
+                }
+            }
+        }
+
+        android.net.wifi.WifiManager wifiManager = (android.net.wifi.WifiManager) context.getApplicationContext()
+                .getSystemService(Context.WIFI_SERVICE);
+        android.net.wifi.WifiInfo wifiInfo = wifiManager.getConnectionInfo();
+        int ipAddress = wifiInfo.getIpAddress();
+        if (ipAddress == 0) {
+            return null;
+        }
+        InetAddress phoneIP = InetAddress.getByAddress(new byte[] {
+                (byte) ipAddress, (byte) (ipAddress >> 8), (byte) (ipAddress >> 16), (byte) (ipAddress >> 24) });
+        Log.d(TAG, "Phone IP: " + phoneIP.getHostAddress() + " (assuming /24)");
+        return SubnetScanner.subnetHosts(phoneIP, 24);
+    }
+}
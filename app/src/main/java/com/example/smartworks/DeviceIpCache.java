@@ -0,0 +1,293 @@
+// DeviceIpCache.java - Shared device -> IP cache keyed by device identity
+package com.example.smartworks;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.example.smartworks.network.DeviceIoExecutor;
+import com.example.smartworks.network.IpResolutionCache;
+import com.example.smartworks.network.LanDeviceClient;
+import com.example.smartworks.network.NetworkSnapshot;
+import com.example.smartworks.network.SubnetScanner;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The one place device IPs are stored, for the device list, the pool monitor
+ * and BLE provisioning alike. Keyed by device ID (the BLE MAC or, failing
+ * that, the name for devices that never reported one), persisted in the
+ * SmartWorks prefs, and re-resolved in the background when a device stops
+ * answering at its address. When the phone moves to another LAN, only the
+ * devices no longer reachable at their cached address are looked for again.
+ */
+public class DeviceIpCache implements IpResolutionCache.Resolver, IpResolutionCache.Listener,
+        ConnectivityMonitor.OnNetworkChangedListener {
+    private static final String TAG = "DeviceIpCache";
+    private static final String PREFS_NAME = "SmartWorks";
+    private static final String KEY_PREFIX = "device_ip_cache_";
+    // Where older versions stored IPs, by device name
+    private static final String LEGACY_PREFIX = "device_ip_";
+
+    private static DeviceIpCache instance;
+
+    private final Context context;
+    private final SharedPreferences prefs;
+    private final IpResolutionCache cache;
+    private final ConnectivityMonitor connectivity;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Identity key -> device name, so devices can also be matched by name when re-resolving
+    private final Map<String, String> names = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<OnDeviceIpChangedListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Called on the main thread after a background re-resolve
+     */
+    public interface OnDeviceIpChangedListener {
+        /**
+         * @param identity the key passed to identity()
+         * @param host     the device's new host, or null if it couldn't be found
+         */
+        void onDeviceIpChanged(String identity, String host);
+    }
+
+    private DeviceIpCache(Context context) {
+        this.context = context.getApplicationContext();
+        this.prefs = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.cache = new IpResolutionCache(new IpResolutionCache.Config(), new PrefsStore(), this);
+        this.cache.addListener(this);
+        this.connectivity = ConnectivityMonitor.getInstance(this.context);
+        this.connectivity.addListener(this);
+    }
+
+    public static synchronized DeviceIpCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new DeviceIpCache(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Cache key for a device: its ID when it has one, otherwise the fallback
+     * (a MAC, or the name as a last resort)
+     */
+    public static String identity(String deviceId, String fallback) {
+        return IpResolutionCache.key(deviceId != null && !deviceId.trim().isEmpty() ? deviceId : fallback);
+    }
+
+    public void addListener(OnDeviceIpChangedListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(OnDeviceIpChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Host to use for a device, or null if it has none or was recently not found.
+     * Starts a background re-resolve when there's nothing usable cached.
+     */
+    public String lookup(String deviceId, String deviceName) {
+        String key = remember(deviceId, deviceName);
+        if (key.isEmpty()) {
+            return null;
+        }
+        if (cache.getState(key) == IpResolutionCache.State.MISSING && deviceName != null) {
+            String legacy = prefs.getString(LEGACY_PREFIX + deviceName, null);
+            if (legacy != null && !legacy.isEmpty()) {
+                // Still worth trying, but unconfirmed until the device answers there
+                cache.seed(key, legacy);
+                prefs.edit().remove(LEGACY_PREFIX + deviceName).apply();
+            }
+        }
+        return cache.lookup(key);
+    }
+
+    public IpResolutionCache.State getState(String deviceId, String deviceName) {
+        return cache.getState(identity(deviceId, deviceName));
+    }
+
+    /**
+     * Record an address someone else reported, e.g. the backend's last known IP
+     * for a device. Tried but unconfirmed until the device answers there, and
+     * never replaces an address the app has verified itself.
+     */
+    public void seed(String deviceId, String deviceName, String host) {
+        cache.seed(remember(deviceId, deviceName), host);
+    }
+
+    /**
+     * Record where a device was just found, e.g. by discovery or provisioning
+     */
+    public void put(String deviceId, String deviceName, String host) {
+        cache.put(remember(deviceId, deviceName), host);
+    }
+
+    /** The device answered at host */
+    public void verified(String deviceId, String deviceName, String host) {
+        cache.verified(remember(deviceId, deviceName), host);
+    }
+
+    /**
+     * A request to host failed. If the device is gone from that address the
+     * entry is dropped and re-resolved, and listeners hear the outcome.
+     *
+     * @return true if a re-resolve was started
+     */
+    public boolean reportFailure(String deviceId, String deviceName, String host, Throwable error) {
+        boolean invalidated = cache.reportFailure(remember(deviceId, deviceName), host, error);
+        if (invalidated) {
+            Log.d(TAG, deviceName + " unreachable at " + host + ", re-resolving");
+        }
+        return invalidated;
+    }
+
+    public void markNotFound(String deviceId, String deviceName) {
+        cache.markNotFound(remember(deviceId, deviceName));
+    }
+
+    private String remember(String deviceId, String deviceName) {
+        String key = identity(deviceId, deviceName);
+        if (!key.isEmpty() && deviceName != null && !deviceName.isEmpty()) {
+            names.put(key, deviceName);
+        }
+        return key;
+    }
+
+    /**
+     * mDNS announcement first, it costs nothing; then broadcast and sweep
+     */
+    @Override
+    public CompletableFuture<String> resolve(String key) {
+        String name = names.get(key);
+        // Without an ID the key is the name itself
+        String deviceId = name != null && IpResolutionCache.key(name).equals(key) ? null : key;
+
+        String announced = DeviceDirectory.getInstance(context).lookup(deviceId, name);
+        if (announced != null) {
+            return CompletableFuture.completedFuture(announced);
+        }
+        NetworkSnapshot network = connectivity.getSnapshot();
+        if (!network.allowsLan()) {
+            // Looked for again by onLanChanged once there's a LAN
+            return CompletableFuture.completedFuture(null);
+        }
+        return DeviceDiscovery.getShared().locate(deviceId, name, network.subnetHosts());
+    }
+
+    /**
+     * The phone joined a different LAN (or came back after being offline). Check
+     * each cached address with one TCP connect and re-resolve only the devices
+     * that no longer answer there, plus those that weren't found before.
+     */
+    @Override
+    public void onLanChanged(NetworkSnapshot previous, NetworkSnapshot current) {
+        Map<String, String> hosts = cache.hosts();
+        if (hosts.isEmpty()) {
+            return;
+        }
+        Log.d(TAG, "LAN changed to " + current + ", checking " + hosts.size() + " cached devices");
+        try {
+            DeviceIoExecutor.getShared().execute(() -> revalidate(hosts, current));
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Cannot check cached devices", e);
+        }
+    }
+
+    private void revalidate(Map<String, String> hosts, NetworkSnapshot network) {
+        // Port -> addresses on the new subnet worth a connect probe
+        Map<Integer, List<InetAddress>> toProbe = new HashMap<>();
+        for (Map.Entry<String, String> entry : hosts.entrySet()) {
+            String host = entry.getValue();
+            if (host == null || !network.contains(host)) {
+                // Never found, or certainly not here
+                cache.invalidate(entry.getKey(), host);
+                continue;
+            }
+            try {
+                int colon = host.indexOf(':');
+                int port = colon >= 0 ? Integer.parseInt(host.substring(colon + 1)) : 80;
+                InetAddress address = InetAddress.getByName(colon >= 0 ? host.substring(0, colon) : host);
+                toProbe.computeIfAbsent(port, p -> new ArrayList<>()).add(address);
+            } catch (Exception e) {
+                cache.invalidate(entry.getKey(), host);
+            }
+        }
+
+        Set<String> answering = new HashSet<>();
+        for (Map.Entry<Integer, List<InetAddress>> group : toProbe.entrySet()) {
+            SubnetScanner scanner = new SubnetScanner(new SubnetScanner.Config().setPort(group.getKey()),
+                    LanDeviceClient.getInstance());
+            try {
+                for (InetAddress open : scanner.probe(group.getValue())) {
+                    String ip = open.getHostAddress();
+                    answering.add(group.getKey() == 80 ? ip : ip + ":" + group.getKey());
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Probe of cached addresses failed", e);
+            }
+        }
+
+        int stale = 0;
+        for (Map.Entry<String, String> entry : hosts.entrySet()) {
+            String host = entry.getValue();
+            if (host != null && network.contains(host) && !answering.contains(host)) {
+                cache.invalidate(entry.getKey(), host);
+                stale++;
+            }
+        }
+        Log.d(TAG, answering.size() + " devices still answer, " + stale + " on this subnet need re-resolving");
+    }
+
+    @Override
+    public void onResolved(String key, String host) {
+        Log.d(TAG, "Re-resolved " + key + " to " + host);
+        notifyChanged(key, host);
+    }
+
+    @Override
+    public void onNotFound(String key) {
+        Log.d(TAG, "Could not re-resolve " + key);
+        notifyChanged(key, null);
+    }
+
+    private void notifyChanged(String key, String host) {
+        mainHandler.post(() -> {
+            for (OnDeviceIpChangedListener listener : listeners) {
+                listener.onDeviceIpChanged(key, host);
+            }
+        });
+    }
+
+    private class PrefsStore implements IpResolutionCache.Store {
+        @Override
+        public Map<String, String> load() {
+            Map<String, String> entries = new HashMap<>();
+            for (Map.Entry<String, ?> pref : prefs.getAll().entrySet()) {
+                if (pref.getKey().startsWith(KEY_PREFIX) && pref.getValue() instanceof String) {
+                    entries.put(pref.getKey().substring(KEY_PREFIX.length()), (String) pref.getValue());
+                }
+            }
+            return entries;
+        }
+
+        @Override
+        public void save(String key, String value) {
+            prefs.edit().putString(KEY_PREFIX + key, value).apply();
+        }
+
+        @Override
+        public void remove(String key) {
+            prefs.edit().remove(KEY_PREFIX + key).apply();
+        }
+    }
+}
@@ -0,0 +1,321 @@
+// ESP32LiveFeed.java - Pushed updates from an ESP32 with polling fallback
+package com.example.smartworks;
+
+import android.util.Log;
+import com.example.smartworks.network.LanDeviceClient;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import okhttp3.Call;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSource;
+
+/**
+ * Live temperature feed for one device.
+ *
+ * Subscribes to the device's Server-Sent Events stream on /events, where each
+ * event carries the /data fields that changed (temperature, rssi, free_heap, ...).
+ * If the device has no /events endpoint, or the stream drops, it falls back to
+ * polling /data through ESP32PoolAPI and keeps retrying the stream in the background.
+ */
+public class ESP32LiveFeed {
+    private static final String TAG = "ESP32LiveFeed";
+    private static final int STREAM_CONNECT_TIMEOUT = 5000;
+    // Firmware sends a ":" heartbeat every 15s, three missed ones means the stream is dead
+    private static final int STREAM_HEARTBEAT_TIMEOUT = 45000;
+    private static final long DEFAULT_POLL_INTERVAL = 30000;
+    private static final long DEFAULT_PUSH_RETRY = 60000;
+
+    public enum Mode {
+        CONNECTING,
+        PUSH,
+        POLLING,
+        STOPPED
+    }
+
+    public interface Listener {
+        /**
+         * Called on a background thread with a pushed update or a poll result.
+         * On a failed poll data is null and error is the network exception.
+         */
+        void onResult(ESP32PoolAPI.PoolData data, Throwable error, Mode via);
+
+        /**
+         * Called on a background thread whenever the feed switches between push and polling
+         */
+        void onModeChanged(Mode mode, String reason);
+    }
+
+    private final String host;
+    private final Listener listener;
+    private final LanDeviceClient.RequestOptions pollOptions;
+    private final ScheduledExecutorService scheduler;
+
+    private LongSupplier pollIntervalMs = () -> DEFAULT_POLL_INTERVAL;
+    private long pushRetryMs = DEFAULT_PUSH_RETRY;
+
+    // Guarded by this
+    private Mode mode = Mode.STOPPED;
+    private Call streamCall;
+    private CompletableFuture<ESP32PoolAPI.PoolData> pollCall;
+    private boolean pushSupported = true;
+    private boolean pollLoopRunning;
+    private int generation; // Bumped on every start/stop so stale callbacks are ignored
+
+    // Only touched by the stream thread
+    private final ESP32PoolAPI.PoolData snapshot = new ESP32PoolAPI.PoolData();
+
+    public ESP32LiveFeed(String host, LanDeviceClient.RequestOptions pollOptions, Listener listener) {
+        this.host = host;
+        this.listener = listener;
+        this.pollOptions = pollOptions;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ESP32LiveFeed-poll");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Interval between polls while the device is not pushing, re-read before every poll
+     */
+    public ESP32LiveFeed setPollInterval(LongSupplier pollIntervalMs) {
+        this.pollIntervalMs = pollIntervalMs;
+        return this;
+    }
+
+    /**
+     * How long to poll before trying the event stream again after it dropped
+     */
+    public ESP32LiveFeed setPushRetryMs(long pushRetryMs) {
+        this.pushRetryMs = pushRetryMs;
+        return this;
+    }
+
+    public void start() {
+        int gen;
+        synchronized (this) {
+            if (mode != Mode.STOPPED) {
+                return;
+            }
+            gen = ++generation;
+        }
+        connectStream(gen);
+    }
+
+    public void stop() {
+        Call call;
+        CompletableFuture<ESP32PoolAPI.PoolData> poll;
+        synchronized (this) {
+            if (mode == Mode.STOPPED) {
+                return;
+            }
+            generation++;
+            mode = Mode.STOPPED;
+            pollLoopRunning = false;
+            call = streamCall;
+            streamCall = null;
+            poll = pollCall;
+            pollCall = null;
+        }
+        // Abort the open stream and any poll still waiting on the device
+        if (call != null) {
+            call.cancel();
+        }
+        if (poll != null) {
+            poll.cancel(true);
+        }
+        Log.d(TAG, "Stopped feed for " + host);
+    }
+
+    /**
+     * Stop the feed and release its polling thread. The feed cannot be restarted.
+     */
+    public void shutdown() {
+        stop();
+        scheduler.shutdownNow();
+    }
+
+    public synchronized Mode getMode() {
+        return mode;
+    }
+
+    private void connectStream(int gen) {
+        setMode(gen, Mode.CONNECTING, "Connecting to " + host + "/events");
+
+        Thread thread = new Thread(() -> runStream(gen), "ESP32LiveFeed-stream");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void runStream(int gen) {
+        Request request = new Request.Builder()
+                .url("http://" + host + "/events")
+                .header("Accept", "text/event-stream")
+                .header("Cache-Control", "no-cache")
+                .build();
+
+        Call call = LanDeviceClient.getInstance()
+                .clientFor(STREAM_CONNECT_TIMEOUT, STREAM_HEARTBEAT_TIMEOUT, 0) // Long-lived, no call deadline
+                .newCall(request);
+        synchronized (this) {
+            if (gen != generation) {
+                return;
+            }
+            streamCall = call;
+        }
+
+        try (Response response = call.execute()) {
+            String contentType = response.header("Content-Type", "");
+            if (response.code() != 200 || !contentType.startsWith("text/event-stream")) {
+                // Older firmware - /events is missing or served as a normal page
+                synchronized (this) {
+                    pushSupported = false;
+                }
+                fallBackToPolling(gen, "Device has no event stream (HTTP " + response.code() + ")");
+                return;
+            }
+
+            setMode(gen, Mode.PUSH, "Receiving live updates");
+            readEvents(gen, response.body().source());
+            fallBackToPolling(gen, "Event stream closed by device");
+        } catch (IOException e) {
+            Log.d(TAG, "Event stream for " + host + " failed: " + e.getMessage());
+            fallBackToPolling(gen, "Event stream lost: " + e.getClass().getSimpleName());
+        } finally {
+            synchronized (this) {
+                if (streamCall == call) {
+                    streamCall = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Read SSE frames until the stream ends. Only "data:" lines of the default
+     * and "update" events are used; ids, retry hints and comments are ignored.
+     */
+    private void readEvents(int gen, BufferedSource source) throws IOException {
+        StringBuilder eventData = new StringBuilder();
+        String eventType = "";
+
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (!isCurrent(gen)) {
+                return;
+            }
+
+            if (line.isEmpty()) {
+                // Blank line ends the event
+                if (eventData.length() > 0 && (eventType.isEmpty() || eventType.equals("update"))) {
+                    dispatchEvent(gen, eventData.toString());
+                }
+                eventData.setLength(0);
+                eventType = "";
+            } else if (line.startsWith(":")) {
+                // Heartbeat comment
+            } else if (line.startsWith("data:")) {
+                if (eventData.length() > 0) {
+                    eventData.append('\n');
+                }
+                eventData.append(stripField(line, 5));
+            } else if (line.startsWith("event:")) {
+                eventType = stripField(line, 6);
+            }
+        }
+    }
+
+    private void dispatchEvent(int gen, String json) throws IOException {
+        if (!PoolDataDecoder.merge(new StringReader(json), snapshot)) {
+            Log.w(TAG, "Ignoring malformed event from " + host + ": " + json);
+            return;
+        }
+        if (snapshot.isValid && isCurrent(gen)) {
+            listener.onResult(snapshot.copy(), null, Mode.PUSH);
+        }
+    }
+
+    private static String stripField(String line, int nameLength) {
+        String value = line.substring(nameLength);
+        return value.startsWith(" ") ? value.substring(1) : value;
+    }
+
+    private void fallBackToPolling(int gen, String reason) {
+        boolean retryPush;
+        boolean startPolling;
+        synchronized (this) {
+            if (gen != generation || mode == Mode.STOPPED) {
+                return;
+            }
+            retryPush = pushSupported;
+            // A previous fallback may still be polling while the stream is retried
+            startPolling = !pollLoopRunning;
+            pollLoopRunning = true;
+        }
+        setMode(gen, Mode.POLLING, reason);
+        if (startPolling) {
+            schedulePoll(gen, 0);
+        }
+
+        if (retryPush) {
+            schedule(() -> {
+                if (isCurrent(gen) && getMode() == Mode.POLLING) {
+                    connectStream(gen);
+                }
+            }, pushRetryMs);
+        }
+    }
+
+    private void schedulePoll(int gen, long delayMs) {
+        schedule(() -> {
+            synchronized (this) {
+                // Stream came back (or feed stopped) - polling ends here
+                if (gen != generation || mode == Mode.PUSH || mode == Mode.STOPPED) {
+                    if (gen == generation) {
+                        pollLoopRunning = false;
+                    }
+                    return;
+                }
+            }
+            CompletableFuture<ESP32PoolAPI.PoolData> poll = ESP32PoolAPI.readPoolData(host, pollOptions);
+            synchronized (this) {
+                pollCall = poll;
+            }
+            poll.whenComplete((data, error) -> {
+                if (isCurrent(gen)) {
+                    listener.onResult(data, error, Mode.POLLING);
+                    // Next poll counts from the end of this one
+                    schedulePoll(gen, pollIntervalMs.getAsLong());
+                }
+            });
+        }, delayMs);
+    }
+
+    private void schedule(Runnable task, long delayMs) {
+        try {
+            scheduler.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            Log.d(TAG, "Feed for " + host + " already shut down");
+        }
+    }
+
+    private synchronized boolean isCurrent(int gen) {
+        return gen == generation && mode != Mode.STOPPED;
+    }
+
+    private void setMode(int gen, Mode newMode, String reason) {
+        synchronized (this) {
+            if (gen != generation || mode == newMode) {
+                return;
+            }
+            mode = newMode;
+        }
+        Log.d(TAG, host + " -> " + newMode + ": " + reason);
+        listener.onModeChanged(newMode, reason);
+    }
+}
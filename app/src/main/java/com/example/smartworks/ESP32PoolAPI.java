@@ -2,18 +2,30 @@
 package com.example.smartworks;
 
 import android.util.Log;
-import org.json.JSONException;
+import com.example.smartworks.network.DeviceIoExecutor;
+import com.example.smartworks.network.LanDeviceClient;
+import com.example.smartworks.network.SingleFlight;
 import org.json.JSONObject;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+import okhttp3.Response;
 
 public class ESP32PoolAPI {
     private static final String TAG = "ESP32PoolAPI";
     private static final int CONNECTION_TIMEOUT = 15000; // 15 seconds - increased for temperature sensor
     private static final int READ_TIMEOUT = 20000; // 20 seconds - longer read timeout for sensor data
+    private static final long READ_DEADLINE = 25000; // Whole /data read, including a hedged second attempt
+    private static final long DATA_FRESHNESS_MS = 2000; // Reuse a reading this young instead of asking again
+    private static final long DATA_MAX_IN_FLIGHT_MS = 60000;
+    
+    // Blocking device calls run here, never on ForkJoinPool.commonPool
+    private static Executor ioExecutor = DeviceIoExecutor.getShared();
+    
+    // One /data read per device at a time, shared by every screen that polls it
+    private static final SingleFlight<PoolData> dataReads =
+            new SingleFlight<>(DATA_FRESHNESS_MS, DATA_MAX_IN_FLIGHT_MS, data -> data.isValid);
     
     public static class PoolData {
         public double temperatureCelsius;
@@ -24,13 +36,32 @@ public class ESP32PoolAPI {
         public long uptimeSeconds;
         public int freeHeap;
         public String deviceName;
+        public String deviceId;
         public boolean isValid;
         public String errorMessage;
+        public int httpStatus;
         
         public PoolData() {
             this.isValid = false;
         }
         
+        public PoolData copy() {
+            PoolData copy = new PoolData();
+            copy.temperatureCelsius = temperatureCelsius;
+            copy.temperatureFahrenheit = temperatureFahrenheit;
+            copy.sensorFound = sensorFound;
+            copy.wifiSSID = wifiSSID;
+            copy.rssi = rssi;
+            copy.uptimeSeconds = uptimeSeconds;
+            copy.freeHeap = freeHeap;
+            copy.deviceName = deviceName;
+            copy.deviceId = deviceId;
+            copy.isValid = isValid;
+            copy.errorMessage = errorMessage;
+            copy.httpStatus = httpStatus;
+            return copy;
+        }
+        
         public String getTemperatureStatus() {
             if (!isValid || !sensorFound) return "❌ Sensor Error";
             
@@ -79,99 +110,146 @@ public class ESP32PoolAPI {
     }
     
     /**
-     * Fetch temperature and system data from ESP32
+     * Fetch temperature and system data from ESP32. Cancelling the returned
+     * future aborts the read, as with readPoolData.
      */
     public static CompletableFuture<PoolData> fetchPoolData(String ipAddress) {
-        return CompletableFuture.supplyAsync(() -> {
+        CompletableFuture<PoolData> read = readPoolData(ipAddress, new LanDeviceClient.RequestOptions()
+                .setConnectTimeoutMs(CONNECTION_TIMEOUT)
+                .setReadTimeoutMs(READ_TIMEOUT)
+                .setDeadlineMs(READ_DEADLINE)
+                .setHedge(true));
+        CompletableFuture<PoolData> result = read.handle((value, error) -> {
+            if (error == null) {
+                return value;
+            }
+            
             PoolData data = new PoolData();
+            Throwable cause = SingleFlight.unwrap(error);
+            if (cause instanceof java.net.SocketTimeoutException) {
+                data.errorMessage = "Temperature sensor timeout - ESP32 taking longer than expected. This is common with temperature readings. Try refreshing in a few seconds.";
+            } else if (cause instanceof java.net.ConnectException) {
+                data.errorMessage = "Cannot connect - check IP and ESP32 power";
+            } else if (cause instanceof java.net.UnknownHostException) {
+                data.errorMessage = "Invalid IP address";
+            } else if (cause instanceof java.net.NoRouteToHostException) {
+                data.errorMessage = "No route to device - check WiFi network";
+            } else {
+                data.errorMessage = "Error: " + cause.getMessage();
+            }
+            return data;
+        });
+        // handle() returns a new future, so pass a cancel back to the read
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                read.cancel(true);
+            }
+        });
+        return result;
+    }
+    
+    /**
+     * Read /data from a device, sharing the request with any other caller already
+     * reading the same device. The returned PoolData may be handed to several
+     * callers, treat it as read-only.
+     *
+     * Completes exceptionally with the network error (SocketTimeoutException,
+     * ConnectException, ...), including SocketTimeoutException once
+     * options.deadlineMs passes. HTTP and parse failures complete normally with
+     * isValid false and errorMessage/httpStatus set. Cancelling the future aborts
+     * the request unless another caller is still waiting on it.
+     */
+    public static CompletableFuture<PoolData> readPoolData(String ipAddress,
+                                                           LanDeviceClient.RequestOptions options) {
+        return dataReads.execute(ipAddress, () -> {
+            Log.d(TAG, "Fetching data from: http://" + ipAddress + "/data");
             
-            try {
-                URL url = new URL("http://" + ipAddress + "/data");
-                Log.d(TAG, "Fetching data from: " + url.toString());
-                
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("GET");
-                connection.setConnectTimeout(CONNECTION_TIMEOUT);
-                connection.setReadTimeout(READ_TIMEOUT);
-                connection.setRequestProperty("Cache-Control", "no-cache");
-                connection.setRequestProperty("Connection", "close"); // Force close to avoid keep-alive issues
-                connection.setRequestProperty("Accept", "application/json");
-                connection.setRequestProperty("User-Agent", "SmartWorks-Pool-Monitor/1.0");
-                connection.setUseCaches(false);
-                
-                int responseCode = connection.getResponseCode();
+            return LanDeviceClient.getInstance().getAsync(ipAddress, "/data", options, response -> {
+                PoolData data = new PoolData();
+                int responseCode = response.code();
                 
                 if (responseCode == 200) {
-                    BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(connection.getInputStream()));
-                    StringBuilder response = new StringBuilder();
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        response.append(line);
-                    }
-                    reader.close();
-                    
-                    String jsonResponse = response.toString();
-                    Log.d(TAG, "Response: " + jsonResponse);
-                    
-                    if (parsePoolData(jsonResponse, data)) {
-                        data.isValid = true;
+                    // Decode straight from the socket stream into the primitive fields
+                    if (PoolDataDecoder.decode(response.body().charStream(), data)) {
+                        Log.d(TAG, String.format("Parsed: %.1f°C (%.1f°F), WiFi: %s, RSSI: %d", 
+                            data.temperatureCelsius, data.temperatureFahrenheit, data.wifiSSID, data.rssi));
                     } else {
+                        Log.w(TAG, "No valid temperature data in response");
                         data.errorMessage = "Failed to parse response";
                     }
                 } else {
                     data.errorMessage = "HTTP " + responseCode;
                 }
-                
-                connection.disconnect();
-                
-            } catch (java.net.SocketTimeoutException e) {
-                data.errorMessage = "Temperature sensor timeout - ESP32 taking longer than expected. This is common with temperature readings. Try refreshing in a few seconds.";
-                Log.e(TAG, "Timeout connecting to " + ipAddress + ": " + e.getMessage());
-            } catch (java.net.ConnectException e) {
-                data.errorMessage = "Cannot connect - check IP and ESP32 power";
-                Log.e(TAG, "Connection refused to " + ipAddress + ": " + e.getMessage());
-            } catch (java.net.UnknownHostException e) {
-                data.errorMessage = "Invalid IP address";
-                Log.e(TAG, "Unknown host " + ipAddress + ": " + e.getMessage());
-            } catch (java.net.NoRouteToHostException e) {
-                data.errorMessage = "No route to device - check WiFi network";
-                Log.e(TAG, "No route to " + ipAddress + ": " + e.getMessage());
-            } catch (Exception e) {
-                data.errorMessage = "Error: " + e.getMessage();
-                Log.e(TAG, "Error fetching data: " + e.getMessage(), e);
-            }
-            
-            return data;
+                data.httpStatus = responseCode;
+                return data;
+            });
         });
     }
     
+    /**
+     * Forget any recent reading for a device, e.g. after its IP changed
+     */
+    public static void invalidatePoolData(String ipAddress) {
+        dataReads.invalidate(ipAddress);
+    }
+    
+    public static SingleFlight.Metrics getPoolDataMetrics() {
+        return dataReads.getMetrics();
+    }
+
+    /**
+     * Identify handler for network scans: the decoded /data payload if the
+     * response came from an ESP32 pool monitor, null for any other web server
+     */
+    public static PoolData identifyDevice(okhttp3.Response response) throws java.io.IOException {
+        if (response.code() != 200) {
+            return null;
+        }
+        PoolData data = new PoolData();
+        boolean hasReading = PoolDataDecoder.decode(response.body().charStream(), data);
+        // A device whose sensor is unplugged still reports its name
+        if (!hasReading && data.deviceName == null && data.deviceId == null) {
+            return null;
+        }
+        data.httpStatus = 200;
+        return data;
+    }
+
+    /**
+     * Replace the executor used for blocking device calls
+     */
+    public static synchronized void setIoExecutor(Executor executor) {
+        ioExecutor = executor;
+    }
+    
+    public static synchronized Executor getIoExecutor() {
+        return ioExecutor;
+    }
+    
+    private static <T> CompletableFuture<T> supplyIo(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, getIoExecutor());
+        } catch (RejectedExecutionException e) {
+            // Too many device calls already waiting - fail this one rather than block the caller
+            Log.w(TAG, "Device I/O executor saturated: " + e.getMessage());
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+    
     /**
      * Send WiFi configuration to ESP32
      */
     public static CompletableFuture<Boolean> configureWiFi(String ipAddress, WiFiConfig config) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                URL url = new URL("http://" + ipAddress + "/wifi");
-                Log.d(TAG, "Configuring WiFi at: " + url.toString());
-                
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("POST");
-                connection.setConnectTimeout(CONNECTION_TIMEOUT);
-                connection.setReadTimeout(READ_TIMEOUT);
-                connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-                connection.setDoOutput(true);
-                
-                // Send POST data
-                String postData = config.toPostData();
-                connection.getOutputStream().write(postData.getBytes());
-                
-                int responseCode = connection.getResponseCode();
-                connection.disconnect();
-                
+        return supplyIo(() -> {
+            Log.d(TAG, "Configuring WiFi at: http://" + ipAddress + "/wifi");
+            
+            try (Response response = LanDeviceClient.getInstance()
+                    .postForm(ipAddress, "/wifi", config.toPostData(), CONNECTION_TIMEOUT, READ_TIMEOUT)) {
+                int responseCode = response.code();
                 Log.d(TAG, "WiFi config response: " + responseCode);
                 return responseCode == 200;
-                
             } catch (Exception e) {
                 Log.e(TAG, "Error configuring WiFi: " + e.getMessage(), e);
                 return false;
@@ -183,55 +261,22 @@ public class ESP32PoolAPI {
      * Test basic connectivity to ESP32
      */
     public static CompletableFuture<Boolean> testConnection(String ipAddress) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                URL url = new URL("http://" + ipAddress + "/data");
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("GET");
-                connection.setConnectTimeout(5000);
-                connection.setReadTimeout(5000);
-                
-                int responseCode = connection.getResponseCode();
-                connection.disconnect();
-                
-                return responseCode == 200;
-                
-            } catch (Exception e) {
-                Log.e(TAG, "Connection test failed: " + e.getMessage());
-                return false;
-            }
-        });
+        return supplyIo(() ->
+                LanDeviceClient.getInstance().isReachable(ipAddress, "/data", 5000));
     }
     
     /**
      * Get system status from ESP32
      */
     public static CompletableFuture<PoolData> getSystemStatus(String ipAddress) {
-        return CompletableFuture.supplyAsync(() -> {
+        return supplyIo(() -> {
             PoolData data = new PoolData();
             
-            try {
-                URL url = new URL("http://" + ipAddress + "/status");
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("GET");
-                connection.setConnectTimeout(CONNECTION_TIMEOUT);
-                connection.setReadTimeout(READ_TIMEOUT);
-                connection.setRequestProperty("Accept", "application/json");
-                
-                int responseCode = connection.getResponseCode();
-                
-                if (responseCode == 200) {
-                    BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(connection.getInputStream()));
-                    StringBuilder response = new StringBuilder();
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        response.append(line);
-                    }
-                    reader.close();
-                    
+            try (Response response = LanDeviceClient.getInstance()
+                    .get(ipAddress, "/status", CONNECTION_TIMEOUT, READ_TIMEOUT)) {
+                if (response.code() == 200) {
                     // Parse system status JSON
-                    JSONObject json = new JSONObject(response.toString());
+                    JSONObject json = new JSONObject(response.body().string());
                     if (json.has("free_heap")) {
                         data.freeHeap = json.getInt("free_heap");
                     }
@@ -241,9 +286,6 @@ public class ESP32PoolAPI {
                     
                     data.isValid = true;
                 }
-                
-                connection.disconnect();
-                
             } catch (Exception e) {
                 Log.e(TAG, "Error getting system status: " + e.getMessage(), e);
                 data.errorMessage = e.getMessage();
@@ -252,65 +294,4 @@ public class ESP32PoolAPI {
             return data;
         });
     }
-    
-    private static boolean parsePoolData(String jsonResponse, PoolData data) {
-        try {
-            JSONObject json = new JSONObject(jsonResponse);
-            
-            // Parse temperature
-            if (json.has("temperature_celsius") && !json.isNull("temperature_celsius")) {
-                data.temperatureCelsius = json.getDouble("temperature_celsius");
-                
-                if (json.has("temperature_fahrenheit") && !json.isNull("temperature_fahrenheit")) {
-                    data.temperatureFahrenheit = json.getDouble("temperature_fahrenheit");
-                } else {
-                    // Calculate Fahrenheit if not provided
-                    data.temperatureFahrenheit = (data.temperatureCelsius * 9.0 / 5.0) + 32.0;
-                }
-            } else {
-                Log.w(TAG, "No valid temperature data in response");
-                return false;
-            }
-            
-            // Parse sensor status
-            if (json.has("sensor_found")) {
-                data.sensorFound = json.getBoolean("sensor_found");
-            } else {
-                data.sensorFound = true; // Assume sensor is found if not specified
-            }
-            
-            // Parse WiFi info
-            if (json.has("wifi_ssid")) {
-                data.wifiSSID = json.getString("wifi_ssid");
-            }
-            
-            if (json.has("rssi")) {
-                data.rssi = json.getInt("rssi");
-            }
-            
-            // Parse uptime
-            if (json.has("uptime_seconds")) {
-                data.uptimeSeconds = json.getLong("uptime_seconds");
-            }
-            
-            // Parse free heap
-            if (json.has("free_heap")) {
-                data.freeHeap = json.getInt("free_heap");
-            }
-            
-            // Parse device name
-            if (json.has("device_name")) {
-                data.deviceName = json.getString("device_name");
-            }
-            
-            Log.d(TAG, String.format("Parsed: %.1f°C (%.1f°F), WiFi: %s, RSSI: %d", 
-                data.temperatureCelsius, data.temperatureFahrenheit, data.wifiSSID, data.rssi));
-            
-            return true;
-            
-        } catch (JSONException e) {
-            Log.e(TAG, "JSON parsing error: " + e.getMessage());
-            return false;
-        }
-    }
 }
\ No newline at end of file
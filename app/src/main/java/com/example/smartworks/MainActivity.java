@@ -4,8 +4,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -14,10 +12,13 @@ import android.widget.ListView;
 import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
+import com.example.smartworks.api.DeviceStore;
+import com.example.smartworks.api.FirmwareCatalog;
 import com.example.smartworks.api.SmartWorksApiService;
 import com.example.smartworks.auth.AuthenticationManager;
 import com.example.smartworks.auth.LoginActivity;
 import com.example.smartworks.debug.SessionDebugger;
+import com.example.smartworks.network.LanDeviceClient;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -25,6 +26,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import okhttp3.Response;
 
 /**
  * MainActivity with proper device management and provisioning
@@ -43,6 +45,8 @@ public class MainActivity extends AppCompatActivity implements AuthenticationMan
     private List<DeviceAdapter.DeviceInfo> provisionedDevices;
     private ExecutorService executorService;
     private boolean isRefreshing = false;
+    // Rows mirror the API service's device store, so later syncs only touch what changed
+    private boolean rowsSynced = false;
 
     // Authentication
     private AuthenticationManager authManager;
@@ -94,6 +98,9 @@ public class MainActivity extends AppCompatActivity implements AuthenticationMan
     protected void onResume() {
         super.onResume();
 
+        // Listen for devices announcing themselves while the list is on screen
+        DeviceDirectory.getInstance(this).start();
+
         // Validate session when app comes to foreground
         if (authManager.isLoggedIn()) {
             validateSessionAndRefresh();
@@ -102,6 +109,12 @@ public class MainActivity extends AppCompatActivity implements AuthenticationMan
         }
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        DeviceDirectory.getInstance(this).stop();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
@@ -334,17 +347,35 @@ public class MainActivity extends AppCompatActivity implements AuthenticationMan
         // Show rediscovery message
         Toast.makeText(this, "Searching for devices on network...", Toast.LENGTH_LONG).show();
 
-        // Force IP rediscovery in adapter
-        if (devicesAdapter != null) {
-            devicesAdapter.forceIPRediscovery();
-        }
-
-        // Set a timer for completion
-        new Handler(Looper.getMainLooper()).postDelayed(() -> {
+        if (devicesAdapter == null) {
             isRefreshing = false;
             showProgress(false);
-            Toast.makeText(MainActivity.this, "Device search completed", Toast.LENGTH_SHORT).show();
-        }, 10000); // 10 seconds for IP discovery
+            return;
+        }
+
+        // One sweep for all devices, finished when the adapter says so
+        devicesAdapter.forceIPRediscovery(new DeviceAdapter.OnDiscoveryListener() {
+            @Override
+            public void onDiscoveryProgress(int percent) {
+                if (getSupportActionBar() != null) {
+                    getSupportActionBar().setSubtitle("Searching network... " + percent + "%");
+                }
+            }
+
+            @Override
+            public void onDiscoveryComplete(int found, int total) {
+                isRefreshing = false;
+                showProgress(false);
+                if (getSupportActionBar() != null) {
+                    getSupportActionBar().setSubtitle(null);
+                }
+                if (isFinishing() || isDestroyed()) {
+                    return;
+                }
+                Toast.makeText(MainActivity.this, "Device search completed: found " + found + " of " + total,
+                        Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
     private void loadProvisionedDevicesFromLocal() {
@@ -373,45 +404,39 @@ public class MainActivity extends AppCompatActivity implements AuthenticationMan
         // Initialize API service
         SmartWorksApiService apiService = SmartWorksApiService.getInstance(authManager);
 
-        apiService.getUserDevices()
+        // Only what changed since the last sync, or everything the first time
+        apiService.syncUserDevices(false)
                 .thenAccept(result -> runOnUiThread(() -> {
                     if (swipeRefreshLayout != null) {
                         swipeRefreshLayout.setRefreshing(false);
                     }
 
                     if (result.success && result.data != null) {
-                        // Success - update device list from server
-                        provisionedDevices.clear();
-
-                        for (SmartWorksApiService.Device serverDevice : result.data) {
-                            // Convert server Device to DeviceAdapter.DeviceInfo
-                            DeviceAdapter.DeviceInfo deviceInfo = new DeviceAdapter.DeviceInfo(
-                                    serverDevice.friendlyName,
-                                    serverDevice.deviceId,
-                                    serverDevice.wifiSsid
-                            );
-
-                            // Set data from server
-                            deviceInfo.ipAddress = serverDevice.ipAddress;
-                            deviceInfo.temperature = serverDevice.temperature != null ?
-                                    String.format("%.1f", serverDevice.temperature) : "N/A";
-                            deviceInfo.status = serverDevice.statusMessage != null ?
-                                    serverDevice.statusMessage : serverDevice.status;
-                            deviceInfo.rssi = serverDevice.rssi;
-                            deviceInfo.firmwareVersion = serverDevice.firmwareVersion; // ADDED
-
-                            provisionedDevices.add(deviceInfo);
-                        }
-
-                        if (devicesAdapter != null) {
-                            devicesAdapter.notifyDataSetChanged();
+                        // Success - merge server changes into the list
+                        DeviceStore store = apiService.getDeviceStore();
+                        DeviceStore.Changes changes = result.data;
+                        if (rowsSynced) {
+                            applyDeviceChanges(changes.upserted, changes.removed, changes.full, store);
+                        } else {
+                            // Rows came from local storage or are empty, bring them all in line
+                            applyDeviceChanges(store.getDevices(), changes.removed, true, store);
+                            rowsSynced = true;
                         }
 
                         updateEmptyState();
-                        Log.d(TAG, "Loaded " + provisionedDevices.size() + " devices from server");
+                        Log.d(TAG, "Loaded " + provisionedDevices.size() + " devices from server (" + changes + ")");
 
                         // Cache to local storage for offline use
-                        cacheDevicesToLocal(result.data);
+                        if (!changes.isEmpty()) {
+                            cacheDevicesToLocal(store.getDevices());
+                        }
+
+                        // One bulk check for whichever (type, version) pairs the catalog hasn't seen lately
+                        apiService.checkFleetFirmware(store.getDevices()).thenAccept(check -> {
+                            if (check.success && check.data > 0) {
+                                runOnUiThread(this::refreshFirmwareBadges);
+                            }
+                        });
 
                     } else {
                         // Server failed - fall back to local storage
@@ -443,6 +468,97 @@ public class MainActivity extends AppCompatActivity implements AuthenticationMan
                 });
     }
 
+    /**
+     * Update the rows of changed devices in place, add new ones and drop removed
+     * ones. Only a change in the set of rows redraws the whole list.
+     *
+     * @param prune also drop rows for devices the store doesn't have (after a full pull)
+     */
+    private void applyDeviceChanges(List<SmartWorksApiService.Device> upserted, List<String> removed,
+                                    boolean prune, DeviceStore store) {
+        java.util.Map<String, DeviceAdapter.DeviceInfo> rows = new java.util.HashMap<>();
+        for (DeviceAdapter.DeviceInfo row : provisionedDevices) {
+            String key = storeKeyOf(row);
+            if (key != null) {
+                rows.put(key, row);
+            }
+        }
+
+        FirmwareCatalog catalog = SmartWorksApiService.getInstance(authManager).getFirmwareCatalog();
+        boolean structural = false;
+        List<DeviceAdapter.DeviceInfo> changedRows = new ArrayList<>();
+        for (SmartWorksApiService.Device serverDevice : upserted) {
+            String key = DeviceStore.keyOf(serverDevice);
+            DeviceAdapter.DeviceInfo deviceInfo = rows.get(key);
+            if (deviceInfo == null) {
+                // Convert server Device to DeviceAdapter.DeviceInfo
+                deviceInfo = new DeviceAdapter.DeviceInfo(
+                        serverDevice.friendlyName,
+                        serverDevice.deviceId,
+                        serverDevice.wifiSsid
+                );
+                deviceInfo.storeKey = key;
+                provisionedDevices.add(deviceInfo);
+                structural = true;
+            } else {
+                deviceInfo.name = serverDevice.friendlyName;
+                deviceInfo.wifiSSID = serverDevice.wifiSsid;
+            }
+
+            // Set data from server
+            deviceInfo.ipAddress = serverDevice.ipAddress;
+            deviceInfo.temperature = serverDevice.temperature != null ?
+                    String.format("%.1f", serverDevice.temperature) : "N/A";
+            deviceInfo.status = serverDevice.statusMessage != null ?
+                    serverDevice.statusMessage : serverDevice.status;
+            deviceInfo.rssi = serverDevice.rssi;
+            deviceInfo.firmwareVersion = serverDevice.firmwareVersion; // ADDED
+            deviceInfo.deviceType = serverDevice.type;
+            deviceInfo.updateAvailable = catalog.isUpdateAvailable(serverDevice.type, serverDevice.firmwareVersion);
+            changedRows.add(deviceInfo);
+        }
+
+        Set<String> gone = new HashSet<>(removed);
+        if (provisionedDevices.removeIf(row -> {
+            String key = storeKeyOf(row);
+            return gone.contains(key) || (prune && (key == null || !store.contains(key)));
+        })) {
+            structural = true;
+        }
+
+        if (devicesAdapter != null) {
+            if (structural) {
+                devicesAdapter.notifyDataSetChanged();
+            } else {
+                devicesAdapter.refreshRows(devicesList, changedRows);
+            }
+        }
+    }
+
+    // The key DeviceStore files a row's device under; rows from local storage only know the device_id
+    private static String storeKeyOf(DeviceAdapter.DeviceInfo row) {
+        return row.storeKey != null ? row.storeKey : row.address;
+    }
+
+    /**
+     * Show or hide each row's update badge from the firmware catalog, without the network
+     */
+    private void refreshFirmwareBadges() {
+        if (isFinishing() || devicesAdapter == null) {
+            return;
+        }
+        FirmwareCatalog catalog = SmartWorksApiService.getInstance(authManager).getFirmwareCatalog();
+        List<DeviceAdapter.DeviceInfo> changedRows = new ArrayList<>();
+        for (DeviceAdapter.DeviceInfo row : provisionedDevices) {
+            boolean available = catalog.isUpdateAvailable(row.deviceType, row.firmwareVersion);
+            if (available != row.updateAvailable) {
+                row.updateAvailable = available;
+                changedRows.add(row);
+            }
+        }
+        devicesAdapter.refreshRows(devicesList, changedRows);
+    }
+
     /**
      * Load devices only from local SharedPreferences (offline mode)
      */
@@ -453,6 +569,7 @@ public class MainActivity extends AppCompatActivity implements AuthenticationMan
             Set<String> deviceSet = prefs.getStringSet("provisioned_devices", new HashSet<>());
 
             provisionedDevices.clear();
+            rowsSynced = false;
             if (deviceSet != null) {
                 for (String deviceString : deviceSet) {
                     DeviceAdapter.DeviceInfo device = DeviceAdapter.DeviceInfo.fromStoredString(deviceString, this);
@@ -505,9 +622,9 @@ public class MainActivity extends AppCompatActivity implements AuthenticationMan
 
                 deviceSet.add(deviceInfo);
 
-                // Also cache IP separately for quick lookup
+                // Also cache IP separately for quick lookup. The server's IP may be stale, so only as a hint
                 if (device.ipAddress != null) {
-                    editor.putString("device_ip_" + device.friendlyName, device.ipAddress);
+                    DeviceIpCache.getInstance(this).seed(device.deviceId, device.friendlyName, device.ipAddress);
                 }
             }
 
@@ -621,9 +738,9 @@ public class MainActivity extends AppCompatActivity implements AuthenticationMan
 
             editor.putStringSet("provisioned_devices", deviceSet);
             
-            // IMPORTANT: Also store IP with device-specific key for DeviceAdapter
+            // IMPORTANT: Also store IP in the shared cache for DeviceAdapter
             if (ipAddress != null && !ipAddress.trim().isEmpty()) {
-                editor.putString("device_ip_" + deviceName, ipAddress);
+                DeviceIpCache.getInstance(this).put(deviceAddress, deviceName, ipAddress);
             }
             
             editor.apply();
@@ -788,16 +905,8 @@ public class MainActivity extends AppCompatActivity implements AuthenticationMan
     private void testAndSetIP(String ipAddress, DeviceAdapter.DeviceInfo device, int position) {
         executorService.execute(() -> {
             boolean success = false;
-            try {
-                java.net.URL url = new java.net.URL("http://" + ipAddress + "/data");
-                java.net.HttpURLConnection connection = (java.net.HttpURLConnection) url.openConnection();
-                connection.setConnectTimeout(5000);
-                connection.setReadTimeout(5000);
-                connection.setRequestMethod("GET");
-                int responseCode = connection.getResponseCode();
-                connection.disconnect();
-
-                if (responseCode == 200) {
+            try (Response response = LanDeviceClient.getInstance().get(ipAddress, "/data", 5000, 5000)) {
+                if (response.code() == 200) {
                     success = true;
                     device.ipAddress = ipAddress;
                     device.status = "Manual IP Set";
@@ -923,16 +1032,9 @@ public class MainActivity extends AppCompatActivity implements AuthenticationMan
             boolean success = false;
             String errorMessage = "";
             
-            try {
-                // Test connection to the device
-                java.net.URL url = new java.net.URL("http://" + ipAddress + "/data");
-                java.net.HttpURLConnection connection = (java.net.HttpURLConnection) url.openConnection();
-                connection.setConnectTimeout(5000);
-                connection.setReadTimeout(5000);
-                connection.setRequestMethod("GET");
-                
-                int responseCode = connection.getResponseCode();
-                connection.disconnect();
+            // Test connection to the device
+            try (Response response = LanDeviceClient.getInstance().get(ipAddress, "/data", 5000, 5000)) {
+                int responseCode = response.code();
                 
                 if (responseCode == 200) {
                     success = true;
@@ -985,8 +1087,8 @@ public class MainActivity extends AppCompatActivity implements AuthenticationMan
 
             editor.putStringSet("provisioned_devices", deviceSet);
             
-            // Store IP with device-specific key for DeviceAdapter
-            editor.putString("device_ip_" + deviceName, ipAddress);
+            // Store IP in the shared cache for DeviceAdapter
+            DeviceIpCache.getInstance(this).put(null, deviceName, ipAddress);
             
             editor.apply();
 
@@ -10,13 +10,17 @@ import android.widget.Button;
 import android.widget.EditText;
 import android.widget.TextView;
 import androidx.appcompat.app.AppCompatActivity;
+import com.example.smartworks.api.ApiPipeline;
+import com.example.smartworks.api.CircuitBreaker;
+import com.example.smartworks.api.SmartWorksApiService;
+import com.example.smartworks.auth.AuthenticationManager;
+import com.example.smartworks.network.FleetPoller;
+import com.example.smartworks.network.LanDeviceClient;
 import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
 import java.net.InetAddress;
-import java.net.URL;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import okhttp3.Response;
 
 public class NetworkTestActivity extends AppCompatActivity {
     private static final String TAG = "NetworkTest";
@@ -97,57 +101,55 @@ public class NetworkTestActivity extends AppCompatActivity {
             }
             
             // Test 3: Try HTTP connection
-            try {
-                results.append("3. Testing HTTP connection:\n");
-                URL url = new URL("http://" + ip + "/");
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setConnectTimeout(5000);
-                conn.setReadTimeout(5000);
-                conn.setRequestMethod("GET");
-                
-                int responseCode = conn.getResponseCode();
+            results.append("3. Testing HTTP connection:\n");
+            try (Response response = LanDeviceClient.getInstance().get(ip, "/", 5000, 5000)) {
+                int responseCode = response.code();
                 results.append("   HTTP Response Code: ").append(responseCode).append("\n");
                 
                 if (responseCode == 200) {
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
+                    BufferedReader reader = new BufferedReader(response.body().charStream());
                     String firstLine = reader.readLine();
                     results.append("   First line of response: ").append(firstLine != null ? firstLine.substring(0, Math.min(50, firstLine.length())) : "empty").append("\n");
-                    reader.close();
                 }
-                conn.disconnect();
                 results.append("\n");
             } catch (Exception e) {
                 results.append("   HTTP error: ").append(e.getClass().getSimpleName()).append(" - ").append(e.getMessage()).append("\n\n");
             }
             
             // Test 4: Try /data endpoint
-            try {
-                results.append("4. Testing /data endpoint:\n");
-                URL url = new URL("http://" + ip + "/data");
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setConnectTimeout(5000);
-                conn.setReadTimeout(5000);
-                conn.setRequestMethod("GET");
-                conn.setRequestProperty("Accept", "application/json");
-                
-                int responseCode = conn.getResponseCode();
+            results.append("4. Testing /data endpoint:\n");
+            try (Response response = LanDeviceClient.getInstance().get(ip, "/data", 5000, 5000)) {
+                int responseCode = response.code();
                 results.append("   Response Code: ").append(responseCode).append("\n");
                 
                 if (responseCode == 200) {
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-                    StringBuilder response = new StringBuilder();
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        response.append(line);
-                    }
-                    reader.close();
-                    results.append("   Response: ").append(response.toString()).append("\n");
+                    results.append("   Response: ").append(response.body().string()).append("\n");
                 }
-                conn.disconnect();
             } catch (Exception e) {
                 results.append("   Error: ").append(e.getClass().getSimpleName()).append(" - ").append(e.getMessage()).append("\n");
             }
             
+            // Test 5: Pooled connection reuse
+            results.append("\n5. LAN connection pool:\n");
+            results.append("   Open connections: ").append(LanDeviceClient.getInstance().connectionCount())
+                    .append(" (idle: ").append(LanDeviceClient.getInstance().idleConnectionCount()).append(")\n");
+            results.append("   Fleet poller: ").append(FleetPoller.getShared().getMetrics()).append("\n");
+            results.append("   /data reads: ").append(ESP32PoolAPI.getPoolDataMetrics()).append("\n");
+            results.append("   Device I/O: ").append(ESP32PoolAPI.getIoExecutor()).append("\n");
+            LanDeviceClient lan = LanDeviceClient.getInstance();
+            results.append("   Hedges: ").append(lan.hedgesSent()).append(" sent, ").append(lan.hedgesWon())
+                    .append(" won; deadlines exceeded: ").append(lan.deadlinesExceeded())
+                    .append("; cancelled: ").append(lan.cancelledRequests()).append("\n");
+            
+            // Test 6: Backend health as the API layer sees it
+            results.append("\n6. Backend circuits:\n");
+            ApiPipeline pipeline = SmartWorksApiService.getInstance(AuthenticationManager.getInstance(this)).getPipeline();
+            for (CircuitBreaker breaker : pipeline.getBreakers()) {
+                results.append("   ").append(breaker).append("\n");
+            }
+            results.append("   Retries: ").append(pipeline.getRetries()).append(" (")
+                    .append(pipeline.getRecoveredByRetry()).append(" recovered)\n");
+            
             // Update UI
             mainHandler.post(() -> {
                 resultText.setText(results.toString());
@@ -0,0 +1,157 @@
+// PoolDataDecoder.java - Streaming decoder for the ESP32 /data payload
+package com.example.smartworks;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the ESP32 /data JSON straight from the response stream into a PoolData,
+ * without buffering the body into a String or building a JSONObject tree first.
+ * Shared by ESP32PoolAPI, PoolMonitorActivity and DeviceAdapter.
+ */
+public final class PoolDataDecoder {
+
+    private PoolDataDecoder() {}
+
+    /**
+     * Decode one /data payload into the given PoolData, overwriting previous values.
+     *
+     * Temperature is taken from temperature_celsius, falling back to
+     * temperature_fahrenheit and then a bare "temperature" (Celsius).
+     *
+     * @return true if the payload contained a temperature reading, false if it did not
+     *         or was not valid JSON
+     * @throws IOException if reading the underlying stream fails
+     */
+    public static boolean decode(Reader source, ESP32PoolAPI.PoolData data) throws IOException {
+        reset(data);
+        return read(source, data, true);
+    }
+
+    /**
+     * Apply a partial payload (e.g. a pushed event carrying only the fields that
+     * changed) on top of the values already in data.
+     *
+     * @return true if the payload was a valid object, false if it was not
+     * @throws IOException if reading the underlying stream fails
+     */
+    public static boolean merge(Reader source, ESP32PoolAPI.PoolData data) throws IOException {
+        return read(source, data, false);
+    }
+
+    private static boolean read(Reader source, ESP32PoolAPI.PoolData data,
+                                boolean requireTemperature) throws IOException {
+        boolean hasCelsius = false;
+        boolean hasFahrenheit = false;
+        boolean hasBareTemperature = false;
+        double bareTemperature = 0;
+
+        JsonReader reader = new JsonReader(source);
+        reader.setLenient(true); // Some firmware builds emit NaN when the sensor glitches
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "temperature_celsius":
+                        data.temperatureCelsius = reader.nextDouble();
+                        hasCelsius = true;
+                        break;
+                    case "temperature_fahrenheit":
+                        data.temperatureFahrenheit = reader.nextDouble();
+                        hasFahrenheit = true;
+                        break;
+                    case "temperature":
+                        bareTemperature = reader.nextDouble();
+                        hasBareTemperature = true;
+                        break;
+                    case "sensor_found":
+                        data.sensorFound = reader.nextBoolean();
+                        break;
+                    case "wifi_ssid":
+                        data.wifiSSID = reader.nextString();
+                        break;
+                    case "rssi":
+                        data.rssi = reader.nextInt();
+                        break;
+                    case "uptime_seconds":
+                        data.uptimeSeconds = reader.nextLong();
+                        break;
+                    case "free_heap":
+                        data.freeHeap = reader.nextInt();
+                        break;
+                    case "device_name":
+                        data.deviceName = reader.nextString();
+                        break;
+                    case "device_id":
+                        data.deviceId = reader.nextString();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // Not a /data object, or a field with an unexpected type
+            return false;
+        }
+
+        if (hasCelsius) {
+            if (!hasFahrenheit) {
+                data.temperatureFahrenheit = (data.temperatureCelsius * 9.0 / 5.0) + 32.0;
+            }
+        } else if (hasFahrenheit) {
+            data.temperatureCelsius = (data.temperatureFahrenheit - 32.0) * 5.0 / 9.0;
+        } else if (hasBareTemperature) {
+            data.temperatureCelsius = bareTemperature;
+            data.temperatureFahrenheit = (bareTemperature * 9.0 / 5.0) + 32.0;
+        } else if (requireTemperature) {
+            return false;
+        } else {
+            // Partial update without a temperature, previous reading still stands
+            return true;
+        }
+
+        data.isValid = true;
+        return true;
+    }
+
+    /**
+     * Format a temperature with one decimal place ("26.4") without going through
+     * String.format, and independent of the device locale's decimal separator.
+     */
+    public static String formatTenths(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return String.valueOf(value);
+        }
+        long tenths = Math.round(value * 10.0);
+        StringBuilder sb = new StringBuilder(8);
+        if (tenths < 0) {
+            sb.append('-');
+            tenths = -tenths;
+        }
+        return sb.append(tenths / 10).append('.').append(tenths % 10).toString();
+    }
+
+    private static void reset(ESP32PoolAPI.PoolData data) {
+        data.temperatureCelsius = 0;
+        data.temperatureFahrenheit = 0;
+        data.sensorFound = true; // Assume sensor is found if not specified
+        data.wifiSSID = null;
+        data.rssi = 0;
+        data.uptimeSeconds = 0;
+        data.freeHeap = 0;
+        data.deviceName = null;
+        data.deviceId = null;
+        data.isValid = false;
+        data.errorMessage = null;
+    }
+}
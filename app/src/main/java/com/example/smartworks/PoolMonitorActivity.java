@@ -17,28 +17,32 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
-import org.json.JSONException;
-import org.json.JSONObject;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import com.example.smartworks.network.AdaptivePollScheduler;
+import com.example.smartworks.network.LanDeviceClient;
+import com.example.smartworks.network.LanUnavailableException;
+import com.example.smartworks.network.SingleFlight;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 
 public class PoolMonitorActivity extends AppCompatActivity {
     private static final String TAG = "PoolMonitorActivity";
-    private static final long AUTO_REFRESH_INTERVAL = 30000; // 30 seconds
+    private static final long AUTO_REFRESH_INTERVAL = 30000; // 30 seconds - normal cadence, adapted at runtime
+    private static final long MIN_REFRESH_INTERVAL = 10000; // 10 seconds while temperature is changing
+    private static final long MAX_REFRESH_INTERVAL = 300000; // 5 minutes when stable or unreachable
+    private static final long REFRESH_INTERVAL_STEP = 15000; // Slow down 15s per stable reading
     private static final int CONNECTION_TIMEOUT = 15000; // 15 seconds - increased for temperature sensor
+    private static final int READ_TIMEOUT = 25000; // 25 seconds for temperature sensor reading
+    private static final long READ_DEADLINE = 25000; // Whole read - a stalled connection is hedged well before this
     
     // UI Elements
     private TextView temperatureCelsius;
     private TextView temperatureFahrenheit;
     private TextView statusText;
     private TextView lastUpdateText;
+    private TextView refreshIntervalText;
     private TextView deviceNameText;
     private TextView wifiStatusText;
     private TextView signalStrengthText;
@@ -52,12 +56,18 @@ public class PoolMonitorActivity extends AppCompatActivity {
     // Device Info
     private String deviceName = "Pool Monitor";
     private String deviceIP = "192.168.0.132"; // Your ESP32 IP
+    private String deviceId = ""; // BLE MAC or device_id, keys the shared IP cache
     private boolean isMonitoring = false;
+    private boolean isVisible = false;
     
     // Background Services
-    private ExecutorService executorService;
+    private CompletableFuture<ESP32PoolAPI.PoolData> pendingRead;
     private Handler mainHandler;
-    private Runnable autoRefreshRunnable;
+    private ESP32LiveFeed liveFeed;
+    private AdaptivePollScheduler pollScheduler;
+    private final DeviceDirectory.OnDirectoryChangedListener directoryListener = this::followAnnouncedAddress;
+    private DeviceIpCache ipCache;
+    private final DeviceIpCache.OnDeviceIpChangedListener ipListener = this::followResolvedAddress;
     
     // Temperature Data
     private double currentTempCelsius = Double.NaN;
@@ -81,8 +91,8 @@ public class PoolMonitorActivity extends AppCompatActivity {
         }
         
         // Initialize background services
-        executorService = Executors.newSingleThreadExecutor();
         mainHandler = new Handler(Looper.getMainLooper());
+        ipCache = DeviceIpCache.getInstance(this);
         
         // Load device settings
         loadDeviceSettings();
@@ -98,25 +108,35 @@ public class PoolMonitorActivity extends AppCompatActivity {
     protected void onDestroy() {
         super.onDestroy();
         stopMonitoring();
-        if (executorService != null && !executorService.isShutdown()) {
-            executorService.shutdown();
-        }
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        // Stop auto-refresh when not visible
-        if (autoRefreshRunnable != null) {
-            mainHandler.removeCallbacks(autoRefreshRunnable);
+        isVisible = false;
+        // Stop live updates when not visible, and abort a read nobody will see
+        if (liveFeed != null) {
+            liveFeed.stop();
         }
+        cancelPendingRead();
+        DeviceDirectory directory = DeviceDirectory.getInstance(this);
+        directory.removeListener(directoryListener);
+        directory.stop();
+        ipCache.removeListener(ipListener);
     }
 
     @Override
     protected void onResume() {
         super.onResume();
-        // Resume auto-refresh when visible
-        scheduleAutoRefresh();
+        isVisible = true;
+        // Follow the device if it announces a new address
+        DeviceDirectory directory = DeviceDirectory.getInstance(this);
+        directory.addListener(directoryListener);
+        directory.start();
+        ipCache.addListener(ipListener);
+        followAnnouncedAddress();
+        // Resume live updates when visible
+        startLiveFeed();
         // Refresh immediately when returning to activity
         refreshTemperatureData();
     }
@@ -129,6 +149,7 @@ public class PoolMonitorActivity extends AppCompatActivity {
         if (intent != null) {
             String intentIP = intent.getStringExtra("device_ip");
             String intentName = intent.getStringExtra("device_name");
+            String intentId = intent.getStringExtra("device_id");
             
             if (intentIP != null && !intentIP.isEmpty()) {
                 deviceIP = intentIP;
@@ -136,13 +157,28 @@ public class PoolMonitorActivity extends AppCompatActivity {
             if (intentName != null && !intentName.isEmpty()) {
                 deviceName = intentName;
             }
+            if (intentId != null) {
+                deviceId = intentId;
+            }
         }
         
         // Fallback to saved preferences
+        deviceName = prefs.getString("pool_monitor_name", deviceName);
+        if (deviceId.isEmpty()) {
+            deviceId = prefs.getString("pool_monitor_device_id", "");
+        }
         if (deviceIP.equals("192.168.0.132")) {
-            deviceIP = prefs.getString("pool_monitor_ip", "192.168.0.132");
+            // Where the device was last seen, then the address saved by this screen
+            String cachedIP = ipCache.lookup(deviceId, deviceName);
+            deviceIP = cachedIP != null ? cachedIP : prefs.getString("pool_monitor_ip", "192.168.0.132");
         }
-        deviceName = prefs.getString("pool_monitor_name", deviceName);
+        
+        // Refresh cadence bounds
+        pollScheduler = new AdaptivePollScheduler(new AdaptivePollScheduler.Config()
+                .setBaseIntervalMs(AUTO_REFRESH_INTERVAL)
+                .setMinIntervalMs(prefs.getLong("pool_monitor_min_interval", MIN_REFRESH_INTERVAL))
+                .setMaxIntervalMs(prefs.getLong("pool_monitor_max_interval", MAX_REFRESH_INTERVAL))
+                .setStepMs(prefs.getLong("pool_monitor_interval_step", REFRESH_INTERVAL_STEP)));
         
         Log.d(TAG, "Using device: " + deviceName + " at " + deviceIP);
     }
@@ -152,6 +188,11 @@ public class PoolMonitorActivity extends AppCompatActivity {
         SharedPreferences.Editor editor = prefs.edit();
         editor.putString("pool_monitor_ip", deviceIP);
         editor.putString("pool_monitor_name", deviceName);
+        editor.putString("pool_monitor_device_id", deviceId);
+        AdaptivePollScheduler.Config config = pollScheduler.getConfig();
+        editor.putLong("pool_monitor_min_interval", config.minIntervalMs);
+        editor.putLong("pool_monitor_max_interval", config.maxIntervalMs);
+        editor.putLong("pool_monitor_interval_step", config.stepMs);
         editor.apply();
     }
 
@@ -161,6 +202,7 @@ public class PoolMonitorActivity extends AppCompatActivity {
         temperatureFahrenheit = findViewById(R.id.temperatureFahrenheit);
         statusText = findViewById(R.id.statusText);
         lastUpdateText = findViewById(R.id.lastUpdateText);
+        refreshIntervalText = findViewById(R.id.refreshIntervalText);
         deviceNameText = findViewById(R.id.deviceNameText);
         wifiStatusText = findViewById(R.id.wifiStatusText);
         signalStrengthText = findViewById(R.id.signalStrengthText);
@@ -206,176 +248,228 @@ public class PoolMonitorActivity extends AppCompatActivity {
             isMonitoring = true;
             Log.d(TAG, "Starting pool monitoring");
             refreshTemperatureData();
-            scheduleAutoRefresh();
+            startLiveFeed();
         }
     }
 
     private void stopMonitoring() {
         isMonitoring = false;
-        if (autoRefreshRunnable != null) {
-            mainHandler.removeCallbacks(autoRefreshRunnable);
+        cancelPendingRead();
+        if (liveFeed != null) {
+            liveFeed.shutdown();
+            liveFeed = null;
         }
         Log.d(TAG, "Stopped pool monitoring");
     }
 
-    private void scheduleAutoRefresh() {
-        // Remove any existing callback
-        if (autoRefreshRunnable != null) {
-            mainHandler.removeCallbacks(autoRefreshRunnable);
+    /**
+     * Subscribe to pushed updates from the device, polling at the adaptive
+     * interval whenever the device can't push
+     */
+    private void startLiveFeed() {
+        if (!isMonitoring || !isVisible) {
+            return;
         }
         
-        // Create new runnable
-        autoRefreshRunnable = new Runnable() {
-            @Override
-            public void run() {
-                if (isMonitoring) {
-                    refreshTemperatureData();
-                    mainHandler.postDelayed(this, AUTO_REFRESH_INTERVAL);
-                }
-            }
-        };
-        
-        // Schedule first run
-        mainHandler.postDelayed(autoRefreshRunnable, AUTO_REFRESH_INTERVAL);
+        if (liveFeed == null) {
+            // The feed is rebuilt whenever the address changes, so its results are always from this one
+            String host = deviceIP;
+            liveFeed = new ESP32LiveFeed(host, readOptions(),
+                    new ESP32LiveFeed.Listener() {
+                        @Override
+                        public void onResult(ESP32PoolAPI.PoolData data, Throwable error, ESP32LiveFeed.Mode via) {
+                            handleReadResult(host, data, error);
+                        }
+
+                        @Override
+                        public void onModeChanged(ESP32LiveFeed.Mode mode, String reason) {
+                            mainHandler.post(() -> updateRefreshIntervalUI());
+                        }
+                    })
+                    .setPollInterval(() -> pollScheduler.getIntervalMs());
+        }
+        liveFeed.start();
+    }
+
+    /**
+     * Switch to the address the device is announcing over mDNS, if it moved
+     */
+    private void followAnnouncedAddress() {
+        String announced = DeviceDirectory.getInstance(this).lookup(null, deviceName);
+        if (announced == null || announced.equals(deviceIP)) {
+            return;
+        }
+        Log.d(TAG, deviceName + " moved from " + deviceIP + " to " + announced);
+        deviceIP = announced;
+        saveDeviceSettings();
+        if (liveFeed != null) {
+            restartLiveFeed();
+        }
+    }
+
+    /**
+     * The shared IP cache re-resolved this device after it stopped answering
+     */
+    private void followResolvedAddress(String identity, String host) {
+        if (host == null || !identity.equals(DeviceIpCache.identity(deviceId, deviceName)) || host.equals(deviceIP)) {
+            return;
+        }
+        Log.d(TAG, deviceName + " re-resolved from " + deviceIP + " to " + host);
+        deviceIP = host;
+        saveDeviceSettings();
+        restartLiveFeed();
+        refreshTemperatureData();
+    }
+
+    private void restartLiveFeed() {
+        if (liveFeed != null) {
+            liveFeed.shutdown();
+            liveFeed = null;
+        }
+        startLiveFeed();
+    }
+
+    private void updateRefreshIntervalUI() {
+        if (refreshIntervalText == null) {
+            return;
+        }
+        ESP32LiveFeed.Mode mode = liveFeed != null ? liveFeed.getMode() : ESP32LiveFeed.Mode.STOPPED;
+        if (mode == ESP32LiveFeed.Mode.PUSH) {
+            refreshIntervalText.setText("Live (device pushes changes)");
+        } else {
+            refreshIntervalText.setText((pollScheduler.getIntervalMs() / 1000) + "s (" + pollScheduler.getReason() + ")");
+        }
+    }
+
+    private void recordPollResult(boolean success, AdaptivePollScheduler.Failure failure) {
+        if (success) {
+            pollScheduler.onReading(currentTempCelsius, System.currentTimeMillis());
+        } else {
+            pollScheduler.onFailure(failure);
+        }
+        Log.d(TAG, "Poll interval " + pollScheduler.getIntervalMs() + "ms: " + pollScheduler.getReason());
+        updateRefreshIntervalUI();
     }
 
     private void refreshTemperatureData() {
         Log.d(TAG, "Refreshing temperature data from " + deviceIP);
         
+        // Only the latest manual refresh matters
+        cancelPendingRead();
         if (swipeRefreshLayout != null) {
             swipeRefreshLayout.setRefreshing(true);
         }
         
-        executorService.execute(() -> {
-            boolean success = false;
-            String errorMessage = "";
-            
-            HttpURLConnection connection = null;
-            try {
-                // Connect to ESP32 JSON API
-                URL url = new URL("http://" + deviceIP + "/data");
-                Log.d(TAG, "Connecting to: " + url.toString());
-                
-                connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("GET");
-                connection.setConnectTimeout(CONNECTION_TIMEOUT);
-                connection.setReadTimeout(25000); // 25 seconds for temperature sensor reading
-                connection.setRequestProperty("Cache-Control", "no-cache, no-store, must-revalidate");
-                connection.setRequestProperty("Pragma", "no-cache");
-                connection.setRequestProperty("Connection", "close");
-                connection.setRequestProperty("Accept", "application/json");
-                connection.setRequestProperty("User-Agent", "SmartWorks-Pool-Monitor/1.0");
-                connection.setUseCaches(false);
-                
-                int responseCode = connection.getResponseCode();
-                Log.d(TAG, "Response code: " + responseCode);
-                
-                if (responseCode == 200) {
-                    // Read response
-                    BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(connection.getInputStream()));
-                    StringBuilder response = new StringBuilder();
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        response.append(line);
-                    }
-                    reader.close();
-                    
-                    String jsonResponse = response.toString();
-                    Log.d(TAG, "Response: " + jsonResponse);
-                    
-                    // Parse JSON
-                    if (parseTemperatureData(jsonResponse)) {
-                        success = true;
-                    } else {
-                        errorMessage = "Failed to parse temperature data";
-                    }
-                } else {
-                    errorMessage = "HTTP " + responseCode;
-                }
-                
-            } catch (java.net.SocketTimeoutException e) {
-                errorMessage = "Temperature sensor timeout - This is normal for temperature readings. Device may be slow to respond. Wait a moment and try refreshing.";
-                Log.e(TAG, "Temperature timeout: " + e.getMessage());
-            } catch (java.net.ConnectException e) {
-                errorMessage = "Cannot connect - check IP address and WiFi";
-                Log.e(TAG, "Connection refused: " + e.getMessage());
-            } catch (Exception e) {
-                errorMessage = "Error: " + e.getMessage();
-                Log.e(TAG, "Error fetching data: " + e.getMessage(), e);
-            } finally {
-                if (connection != null) {
-                    try {
-                        connection.disconnect();
-                    } catch (Exception ignored) {}
-                }
-            }
-            
-            // Update UI on main thread
-            final boolean finalSuccess = success;
-            final String finalErrorMessage = errorMessage;
-            
-            mainHandler.post(() -> {
-                if (swipeRefreshLayout != null) {
-                    swipeRefreshLayout.setRefreshing(false);
-                }
-                
-                if (finalSuccess) {
-                    updateTemperatureUI();
-                } else {
-                    showErrorState(finalErrorMessage);
-                }
-            });
-        });
+        // Shares the read with any other screen already polling this device
+        String host = deviceIP;
+        CompletableFuture<ESP32PoolAPI.PoolData> read = ESP32PoolAPI.readPoolData(host, readOptions());
+        pendingRead = read;
+        read.whenComplete((data, error) -> handleReadResult(host, data, error));
     }
 
-    private boolean parseTemperatureData(String jsonResponse) {
-        try {
-            JSONObject json = new JSONObject(jsonResponse);
-            
-            // Parse temperature
-            if (json.has("temperature_celsius") && !json.isNull("temperature_celsius")) {
-                currentTempCelsius = json.getDouble("temperature_celsius");
-                
-                if (json.has("temperature_fahrenheit") && !json.isNull("temperature_fahrenheit")) {
-                    currentTempFahrenheit = json.getDouble("temperature_fahrenheit");
-                } else {
-                    // Calculate Fahrenheit if not provided
-                    currentTempFahrenheit = (currentTempCelsius * 9.0 / 5.0) + 32.0;
-                }
+    private LanDeviceClient.RequestOptions readOptions() {
+        return new LanDeviceClient.RequestOptions()
+                .setConnectTimeoutMs(CONNECTION_TIMEOUT)
+                .setReadTimeoutMs(READ_TIMEOUT)
+                .setDeadlineMs(READ_DEADLINE)
+                .setHedge(true);
+    }
+
+    private void cancelPendingRead() {
+        if (pendingRead != null) {
+            // Closes the socket unless another screen shares the read
+            pendingRead.cancel(true);
+            pendingRead = null;
+        }
+        if (swipeRefreshLayout != null) {
+            swipeRefreshLayout.setRefreshing(false);
+        }
+    }
+
+    /**
+     * Handle a manual refresh, fallback poll or pushed update. Called on a background thread.
+     *
+     * @param ip the address the request went to; deviceIP may have changed since
+     */
+    private void handleReadResult(String ip, ESP32PoolAPI.PoolData data, Throwable error) {
+        if (error != null && SingleFlight.unwrap(error) instanceof CancellationException) {
+            // Screen paused or a newer refresh replaced this one
+            return;
+        }
+        
+        boolean success = false;
+        String errorMessage = "";
+        AdaptivePollScheduler.Failure failure = AdaptivePollScheduler.Failure.OTHER;
+        
+        if (error == null) {
+            if (data.isValid) {
+                success = true;
+                ipCache.verified(deviceId, deviceName, ip);
+            } else if (data.httpStatus == 200) {
+                errorMessage = "Failed to parse temperature data";
             } else {
-                Log.w(TAG, "No valid temperature data in response");
-                return false;
+                errorMessage = "HTTP " + data.httpStatus;
             }
-            
-            // Parse sensor status
-            if (json.has("sensor_found")) {
-                sensorFound = json.getBoolean("sensor_found");
+        } else {
+            Throwable cause = SingleFlight.unwrap(error);
+            if (cause instanceof LanUnavailableException) {
+                // Fails instantly, nothing to back off from
+                errorMessage = "Not connected to WiFi - connect to the pool monitor's network";
+                Log.e(TAG, "No LAN: " + cause.getMessage());
+            } else if (ipCache.reportFailure(deviceId, deviceName, ip, cause)) {
+                // Answered by followResolvedAddress once the cache finds it again
+                errorMessage = "Device not responding at " + ip + " - searching for new IP...";
+                failure = AdaptivePollScheduler.Failure.CONNECT;
+                Log.e(TAG, "Unreachable at " + ip + ": " + cause.getMessage());
+            } else if (cause instanceof java.net.SocketTimeoutException) {
+                errorMessage = "Temperature sensor timeout - This is normal for temperature readings. Device may be slow to respond. Wait a moment and try refreshing.";
+                failure = AdaptivePollScheduler.Failure.TIMEOUT;
+                Log.e(TAG, "Temperature timeout: " + cause.getMessage());
+            } else if (cause instanceof java.net.ConnectException) {
+                errorMessage = "Cannot connect - check IP address and WiFi";
+                failure = AdaptivePollScheduler.Failure.CONNECT;
+                Log.e(TAG, "Connection refused: " + cause.getMessage());
+            } else {
+                errorMessage = "Error: " + cause.getMessage();
+                Log.e(TAG, "Error fetching data: " + cause.getMessage(), cause);
             }
-            
-            // Parse WiFi info
-            if (json.has("wifi_ssid")) {
-                deviceWifiSSID = json.getString("wifi_ssid");
+        }
+        
+        // Update UI on main thread
+        final boolean finalSuccess = success;
+        final String finalErrorMessage = errorMessage;
+        final AdaptivePollScheduler.Failure finalFailure = failure;
+        
+        mainHandler.post(() -> {
+            if (!isMonitoring) {
+                return; // Activity destroyed while the read was finishing
             }
-            
-            if (json.has("rssi")) {
-                deviceRSSI = json.getInt("rssi");
+            if (swipeRefreshLayout != null) {
+                swipeRefreshLayout.setRefreshing(false);
             }
             
-            // Parse uptime
-            if (json.has("uptime_seconds")) {
-                deviceUptime = json.getLong("uptime_seconds");
+            if (finalSuccess) {
+                applyTemperatureData(data);
+                updateTemperatureUI();
+            } else {
+                showErrorState(finalErrorMessage);
             }
-            
-            Log.d(TAG, String.format("Parsed: %.1f°C (%.1f°F), WiFi: %s, RSSI: %d", 
-                currentTempCelsius, currentTempFahrenheit, deviceWifiSSID, deviceRSSI));
-            
-            return true;
-            
-        } catch (JSONException e) {
-            Log.e(TAG, "JSON parsing error: " + e.getMessage());
-            return false;
+            recordPollResult(finalSuccess, finalFailure);
+        });
+    }
+
+    private void applyTemperatureData(ESP32PoolAPI.PoolData data) {
+        currentTempCelsius = data.temperatureCelsius;
+        currentTempFahrenheit = data.temperatureFahrenheit;
+        sensorFound = data.sensorFound;
+        if (data.wifiSSID != null) {
+            deviceWifiSSID = data.wifiSSID;
         }
+        deviceRSSI = data.rssi;
+        deviceUptime = data.uptimeSeconds;
+        
+        Log.d(TAG, String.format("Parsed: %.1f°C (%.1f°F), WiFi: %s, RSSI: %d", 
+            currentTempCelsius, currentTempFahrenheit, deviceWifiSSID, deviceRSSI));
     }
 
     private void updateTemperatureUI() {
@@ -504,6 +598,23 @@ public class PoolMonitorActivity extends AppCompatActivity {
         nameInput.setHint("Pool Monitor");
         nameInput.setText(deviceName);
         
+        // Create input fields for the refresh cadence (seconds)
+        AdaptivePollScheduler.Config pollConfig = pollScheduler.getConfig();
+        final android.widget.EditText minIntervalInput = new android.widget.EditText(this);
+        minIntervalInput.setHint("Fastest (s)");
+        minIntervalInput.setText(String.valueOf(pollConfig.minIntervalMs / 1000));
+        minIntervalInput.setInputType(android.text.InputType.TYPE_CLASS_NUMBER);
+        
+        final android.widget.EditText maxIntervalInput = new android.widget.EditText(this);
+        maxIntervalInput.setHint("Slowest (s)");
+        maxIntervalInput.setText(String.valueOf(pollConfig.maxIntervalMs / 1000));
+        maxIntervalInput.setInputType(android.text.InputType.TYPE_CLASS_NUMBER);
+        
+        final android.widget.EditText stepInput = new android.widget.EditText(this);
+        stepInput.setHint("Slow-down step (s)");
+        stepInput.setText(String.valueOf(pollConfig.stepMs / 1000));
+        stepInput.setInputType(android.text.InputType.TYPE_CLASS_NUMBER);
+        
         // Create layout
         android.widget.LinearLayout layout = new android.widget.LinearLayout(this);
         layout.setOrientation(android.widget.LinearLayout.VERTICAL);
@@ -522,6 +633,15 @@ public class PoolMonitorActivity extends AppCompatActivity {
         layout.addView(nameLabel);
         layout.addView(nameInput);
         
+        android.widget.TextView intervalLabel = new android.widget.TextView(this);
+        intervalLabel.setText("Refresh interval - fastest / slowest / step (seconds):");
+        intervalLabel.setPadding(0, 20, 0, 10);
+        
+        layout.addView(intervalLabel);
+        layout.addView(minIntervalInput);
+        layout.addView(maxIntervalInput);
+        layout.addView(stepInput);
+        
         builder.setView(layout);
         
         builder.setPositiveButton("Save & Test", (dialog, which) -> {
@@ -539,7 +659,12 @@ public class PoolMonitorActivity extends AppCompatActivity {
                 }
             }
             
+            applyIntervalSettings(minIntervalInput.getText().toString().trim(),
+                    maxIntervalInput.getText().toString().trim(),
+                    stepInput.getText().toString().trim());
+            
             saveDeviceSettings();
+            restartLiveFeed();
             
             // Test new connection
             Toast.makeText(this, "Testing connection to " + deviceIP + "...", Toast.LENGTH_SHORT).show();
@@ -558,6 +683,33 @@ public class PoolMonitorActivity extends AppCompatActivity {
         builder.show();
     }
 
+    private void applyIntervalSettings(String minSeconds, String maxSeconds, String stepSeconds) {
+        AdaptivePollScheduler.Config config = pollScheduler.getConfig();
+        long min = config.minIntervalMs;
+        long max = config.maxIntervalMs;
+        long step = config.stepMs;
+        try {
+            if (!minSeconds.isEmpty()) min = Long.parseLong(minSeconds) * 1000;
+            if (!maxSeconds.isEmpty()) max = Long.parseLong(maxSeconds) * 1000;
+            if (!stepSeconds.isEmpty()) step = Long.parseLong(stepSeconds) * 1000;
+        } catch (NumberFormatException e) {
+            Toast.makeText(this, "Invalid refresh interval, keeping previous values", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        
+        if (min < 1000 || max < min) {
+            Toast.makeText(this, "Fastest interval must be at least 1s and not above slowest", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        
+        // Fresh scheduler so the new bounds apply from the next reading
+        pollScheduler = new AdaptivePollScheduler(new AdaptivePollScheduler.Config()
+                .setBaseIntervalMs(Math.max(min, Math.min(max, AUTO_REFRESH_INTERVAL)))
+                .setMinIntervalMs(min)
+                .setMaxIntervalMs(max)
+                .setStepMs(step));
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         menu.add(0, 1, 0, "Refresh")
@@ -0,0 +1,386 @@
+package com.example.smartworks.api;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * One asynchronous request path for every backend call: enqueue on OkHttp's
+ * dispatcher, decode the body straight from its stream with Gson, always
+ * close the response, and turn every failure into an ApiException or
+ * IOException the caller maps the same way. No thread waits on a response;
+ * the dispatcher only needs threads for calls actively in flight, capped per host.
+ *
+ * Given a CircuitBreaker.Config, each endpoint gets a breaker that refuses
+ * calls while the endpoint is down, and idempotent calls that fail
+ * transiently are retried per the RetryPolicy.
+ */
+public class ApiPipeline {
+    // Retry delays for every pipeline
+    private static final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ApiPipeline-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final OkHttpClient client;
+    private final Gson gson;
+    // Null to enqueue every call straight away
+    private final RequestScheduler scheduler;
+    // Null for no circuit breaking or retries
+    private final CircuitBreaker.Config breakerConfig;
+    private final RetryPolicy retryPolicy;
+    // By URL path, query left out
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong recovered = new AtomicLong();
+
+    /**
+     * Turns a response into a value. Runs on an OkHttp dispatcher thread,
+     * and the response is closed once it returns or throws.
+     */
+    public interface Decoder<T> {
+        T decode(Response response) throws IOException;
+    }
+
+    /**
+     * The backend answered, but not with what was asked for: a non-2xx status,
+     * or a body that isn't the expected JSON
+     */
+    public static class ApiException extends IOException {
+        public final int httpCode;
+        // The backend's own message, null if it gave none
+        public final String serverMessage;
+
+        public ApiException(int httpCode, String serverMessage) {
+            super(serverMessage != null ? serverMessage : "HTTP " + httpCode);
+            this.httpCode = httpCode;
+            this.serverMessage = serverMessage;
+        }
+    }
+
+    // Every backend error body looks like this
+    private static class ErrorBody {
+        String status;
+        String message;
+    }
+
+    public ApiPipeline(OkHttpClient client, Gson gson) {
+        this(client, gson, null);
+    }
+
+    public ApiPipeline(OkHttpClient client, Gson gson, RequestScheduler scheduler) {
+        this(client, gson, scheduler, null, null);
+    }
+
+    public ApiPipeline(OkHttpClient client, Gson gson, RequestScheduler scheduler,
+                       CircuitBreaker.Config breakerConfig, RetryPolicy retryPolicy) {
+        this.client = client;
+        this.gson = gson;
+        this.scheduler = scheduler;
+        this.breakerConfig = breakerConfig;
+        this.retryPolicy = retryPolicy != null ? retryPolicy : new RetryPolicy().setMaxAttempts(1);
+    }
+
+    /**
+     * Send request at NORMAL priority
+     */
+    public <T> CompletableFuture<T> call(Request request, Decoder<T> decoder) {
+        return call(RequestScheduler.Priority.NORMAL, request, decoder);
+    }
+
+    /**
+     * Send request without blocking, once the scheduler gives priority a slot.
+     * Cancelling the returned future cancels the call, and any retry still to come.
+     * Fails with CircuitBreaker.OpenException, without sending, while the
+     * endpoint's circuit is open.
+     */
+    public <T> CompletableFuture<T> call(RequestScheduler.Priority priority, Request request, Decoder<T> decoder) {
+        if (breakerConfig == null) {
+            return submit(priority, request, decoder);
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Retrying<T> retrying = new Retrying<>(priority, request, decoder, result);
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                retrying.cancel();
+            }
+        });
+        retrying.send(null);
+        return result;
+    }
+
+    private <T> CompletableFuture<T> submit(RequestScheduler.Priority priority, Request request, Decoder<T> decoder) {
+        if (scheduler == null) {
+            return enqueue(request, decoder);
+        }
+        return scheduler.submit(priority, () -> enqueue(request, decoder));
+    }
+
+    /**
+     * One call and its retries, each attempt let through by the endpoint's breaker
+     */
+    private final class Retrying<T> {
+        final RequestScheduler.Priority priority;
+        final Request request;
+        final Decoder<T> decoder;
+        final CompletableFuture<T> result;
+        final CircuitBreaker breaker;
+        final boolean idempotent;
+        final long startedAt = System.currentTimeMillis();
+        // Attempts run one after another, each started from the previous one's completion
+        int attempts;
+        long lastDelayMs;
+        // Guarded by this, so a cancel can't miss an attempt that is just being started
+        private boolean cancelled;
+        private CompletableFuture<T> current;
+        private ScheduledFuture<?> pendingRetry;
+
+        Retrying(RequestScheduler.Priority priority, Request request, Decoder<T> decoder, CompletableFuture<T> result) {
+            this.priority = priority;
+            this.request = request;
+            this.decoder = decoder;
+            this.result = result;
+            this.breaker = breakerFor(request);
+            this.idempotent = RetryPolicy.isIdempotent(request);
+        }
+
+        // lastError is the previous attempt's, reported instead if the circuit has opened since
+        void send(Throwable lastError) {
+            CompletableFuture<T> call;
+            synchronized (this) {
+                if (cancelled || result.isDone()) {
+                    return;
+                }
+                if (breaker.tryAcquire()) {
+                    attempts++;
+                    call = submit(priority, request, decoder);
+                    current = call;
+                } else {
+                    call = null;
+                }
+            }
+            if (call == null) {
+                result.completeExceptionally(lastError != null ? lastError
+                        : new CircuitBreaker.OpenException(breaker.getName(), breaker.getRetryAfterMs()));
+                return;
+            }
+            call.whenComplete(this::onAttempt);
+        }
+
+        private void onAttempt(T value, Throwable error) {
+            if (error == null) {
+                breaker.onSuccess();
+                if (attempts > 1) {
+                    recovered.incrementAndGet();
+                }
+                result.complete(value);
+                return;
+            }
+            Throwable cause = unwrap(error);
+            if (cause instanceof CancellationException) {
+                breaker.onAbandoned();
+                result.completeExceptionally(cause);
+                return;
+            }
+            if (!RetryPolicy.isBackendFailure(cause)) {
+                // Answered, just not with what we wanted
+                breaker.onSuccess();
+                result.completeExceptionally(cause);
+                return;
+            }
+            breaker.onFailure();
+
+            long delayMs = retryPolicy.nextDelayMs(lastDelayMs);
+            if (!idempotent || attempts >= retryPolicy.maxAttempts || !RetryPolicy.isTransient(cause)
+                    || System.currentTimeMillis() - startedAt + delayMs > retryPolicy.maxElapsedMs) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            lastDelayMs = delayMs;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                retries.incrementAndGet();
+                pendingRetry = timers.schedule(() -> send(cause), delayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        void cancel() {
+            ScheduledFuture<?> retry;
+            CompletableFuture<T> call;
+            synchronized (this) {
+                cancelled = true;
+                retry = pendingRetry;
+                call = current;
+            }
+            if (retry != null) {
+                retry.cancel(false);
+            }
+            if (call != null) {
+                call.cancel(true);
+            }
+        }
+    }
+
+    private CircuitBreaker breakerFor(Request request) {
+        String endpoint = request.url().encodedPath();
+        return breakers.computeIfAbsent(endpoint, key -> new CircuitBreaker(key, breakerConfig));
+    }
+
+    /**
+     * Every endpoint's breaker so far, by path
+     */
+    public List<CircuitBreaker> getBreakers() {
+        List<CircuitBreaker> all = new ArrayList<>(breakers.values());
+        all.sort(Comparator.comparing(CircuitBreaker::getName));
+        return all;
+    }
+
+    /**
+     * Close every circuit, e.g. when the device gets a network back
+     */
+    public void resetBreakers() {
+        for (CircuitBreaker breaker : breakers.values()) {
+            breaker.reset();
+        }
+    }
+
+    /** Attempts made after a first one failed */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /** Calls that failed at first and succeeded on a retry */
+    public long getRecoveredByRetry() {
+        return recovered.get();
+    }
+
+    private <T> CompletableFuture<T> enqueue(Request request, Decoder<T> decoder) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Call call = client.newCall(request);
+        future.whenComplete((value, error) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    future.complete(decoder.decode(r));
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Decoder for a JSON body of the given type. A non-2xx status throws
+     * ApiException with the backend's message, if the body has one.
+     */
+    public <T> Decoder<T> json(Type type) {
+        return response -> {
+            if (!response.isSuccessful()) {
+                throw error(response);
+            }
+            return parse(response, type);
+        };
+    }
+
+    /**
+     * Decode a JSON or MessagePack body regardless of status
+     */
+    public <T> T parse(Response response, Type type) throws IOException {
+        ResponseBody body = response.body();
+        if (body == null) {
+            throw new ApiException(response.code(), null);
+        }
+        try (JsonReader reader = WireFormat.reader(body)) {
+            T value = gson.fromJson(reader, type);
+            if (value == null) {
+                throw new ApiException(response.code(), "Empty response from server");
+            }
+            return value;
+        } catch (JsonParseException e) {
+            throw new ApiException(response.code(), "Invalid response from server");
+        }
+    }
+
+    /**
+     * ApiException for a failed response, with the message from its error body if any
+     */
+    public ApiException error(Response response) {
+        String message = null;
+        ResponseBody body = response.body();
+        if (body != null) {
+            try (JsonReader reader = WireFormat.reader(body)) {
+                ErrorBody error = gson.fromJson(reader, ErrorBody.class);
+                message = error != null ? error.message : null;
+            } catch (IOException | RuntimeException e) {
+                // Not JSON, e.g. a proxy's HTML error page
+            }
+        }
+        return new ApiException(response.code(), message);
+    }
+
+    /**
+     * User-facing message for a failed call, the same for every endpoint
+     *
+     * @param fallback used when the backend answered without a message of its own
+     */
+    public static String messageFor(Throwable error, String fallback) {
+        Throwable cause = unwrap(error);
+        if (cause instanceof ApiException) {
+            ApiException api = (ApiException) cause;
+            return api.serverMessage != null ? api.serverMessage : fallback;
+        }
+        if (cause instanceof JsonParseException) {
+            return "Invalid response from server";
+        }
+        if (cause instanceof CancellationException) {
+            return "Cancelled";
+        }
+        if (cause instanceof CircuitBreaker.OpenException) {
+            return cause.getMessage();
+        }
+        return "Network error: " + cause.getMessage();
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.smartworks.api;
+
+import com.example.smartworks.config.ApiConfig;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * The one OkHttpClient for talking to the SmartWorks backend. Login, session
+ * checks and device calls all go to the same host, so they share a connection
+ * pool, dispatcher and TLS session cache: once any of them has connected, the
+ * rest reuse that connection (multiplexed over HTTP/2 when the server offers
+ * it) instead of paying for their own TCP and TLS handshakes.
+ *
+ * Callers that need a cache, interceptors or other timeouts derive from get()
+ * with newBuilder(), which keeps all of the above shared.
+ */
+public final class BackendClient {
+    // Everything goes to one host, so this caps the dispatcher's threads however many calls are queued
+    public static final int MAX_CONCURRENT_REQUESTS = 4;
+    // Idle connections kept for the next request; with HTTP/2 one is usually all there is
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private static final Stats stats = new Stats();
+    private static OkHttpClient shared;
+
+    private BackendClient() {
+    }
+
+    public static synchronized OkHttpClient get() {
+        if (shared == null) {
+            shared = newClient(stats);
+        }
+        return shared;
+    }
+
+    /** Connection counters for every client derived from get() */
+    public static Stats stats() {
+        return stats;
+    }
+
+    static OkHttpClient newClient(EventListener listener) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_CONCURRENT_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_CONCURRENT_REQUESTS);
+
+        return new OkHttpClient.Builder()
+                .connectTimeout(ApiConfig.CONNECT_TIMEOUT, TimeUnit.MILLISECONDS)
+                .readTimeout(ApiConfig.READ_TIMEOUT, TimeUnit.MILLISECONDS)
+                .writeTimeout(ApiConfig.WRITE_TIMEOUT, TimeUnit.MILLISECONDS)
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .dispatcher(dispatcher)
+                .eventListener(listener)
+                .build();
+    }
+
+    /**
+     * How often calls had to open a connection, versus reusing one already
+     * open. Shared by every call, so it's a process-wide tally.
+     */
+    public static class Stats extends EventListener {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong connects = new AtomicLong();
+        private final AtomicLong tlsHandshakes = new AtomicLong();
+        private final AtomicLong http2Connections = new AtomicLong();
+        private final AtomicLong acquired = new AtomicLong();
+
+        @Override
+        public void callStart(Call call) {
+            calls.incrementAndGet();
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+            connects.incrementAndGet();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            tlsHandshakes.incrementAndGet();
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol) {
+            if (protocol == Protocol.HTTP_2) {
+                http2Connections.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void connectFailed(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol,
+                                  IOException e) {
+            // Counted in connects; nothing was established
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            acquired.incrementAndGet();
+        }
+
+        public long calls() {
+            return calls.get();
+        }
+
+        /** TCP connects attempted */
+        public long connects() {
+            return connects.get();
+        }
+
+        /** TLS handshakes completed */
+        public long tlsHandshakes() {
+            return tlsHandshakes.get();
+        }
+
+        public long http2Connections() {
+            return http2Connections.get();
+        }
+
+        /** Calls that found a pooled connection and skipped every handshake */
+        public long reusedConnections() {
+            return Math.max(0, acquired.get() - connects.get());
+        }
+
+        @Override
+        public String toString() {
+            return calls() + " calls, " + connects() + " connects, " + tlsHandshakes() + " TLS handshakes, "
+                    + reusedConnections() + " reused, " + http2Connections() + " over HTTP/2";
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.smartworks.api;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calling a backend endpoint that keeps failing. After failureThreshold
+ * failures in a row the circuit opens and calls are refused on the spot instead
+ * of each waiting out the connect and read timeouts. Once openMs has passed one
+ * call is let through as a probe (half-open): if it succeeds the circuit closes,
+ * if not it opens again for twice as long, up to maxOpenMs.
+ *
+ * Only failures that say the backend is unwell count: no answer at all, or a
+ * 5xx. A 4xx or a body the app can't use still proves the endpoint is up.
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    public static class Config {
+        // Failures in a row that open the circuit
+        public int failureThreshold = 5;
+        // How long the circuit stays open the first time
+        public long openMs = 30_000;
+        // Repeated failed probes double the open time up to this
+        public long maxOpenMs = 5 * 60_000;
+
+        public Config setFailureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        public Config setOpenMs(long openMs) {
+            this.openMs = openMs;
+            return this;
+        }
+
+        public Config setMaxOpenMs(long maxOpenMs) {
+            this.maxOpenMs = maxOpenMs;
+            return this;
+        }
+    }
+
+    private final String name;
+    private final Config config;
+    private final LongSupplier clock;
+
+    // Guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long currentOpenMs;
+    private boolean probeInFlight;
+    private long trips;
+    private long rejected;
+
+    public CircuitBreaker(String name, Config config) {
+        this(name, config, System::currentTimeMillis);
+    }
+
+    CircuitBreaker(String name, Config config, LongSupplier clock) {
+        this.name = name;
+        this.config = config;
+        this.clock = clock;
+        this.currentOpenMs = config.openMs;
+    }
+
+    /**
+     * Whether a call may go out now. Every true must be followed by exactly one
+     * of onSuccess, onFailure or onAbandoned once the call is over.
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && clock.getAsLong() - openedAt >= currentOpenMs) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.HALF_OPEN && !probeInFlight) {
+            probeInFlight = true;
+            return true;
+        }
+        rejected++;
+        return false;
+    }
+
+    /** The endpoint answered */
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        currentOpenMs = config.openMs;
+        state = State.CLOSED;
+    }
+
+    /** The endpoint didn't answer, or answered with a 5xx */
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+            currentOpenMs = Math.min(currentOpenMs * 2, config.maxOpenMs);
+            open();
+        } else if (state == State.CLOSED && consecutiveFailures >= config.failureThreshold) {
+            open();
+        }
+    }
+
+    /** The call was cancelled before it said anything about the endpoint */
+    public synchronized void onAbandoned() {
+        probeInFlight = false;
+    }
+
+    /**
+     * Close the circuit and forget past failures, e.g. once the device is back
+     * on a network: the failures were most likely ours, not the server's
+     */
+    public synchronized void reset() {
+        onSuccess();
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = clock.getAsLong();
+        trips++;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && clock.getAsLong() - openedAt >= currentOpenMs) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /** Time until an open circuit lets a probe through, 0 if it would now */
+    public synchronized long getRetryAfterMs() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openedAt + currentOpenMs - clock.getAsLong());
+    }
+
+    /** Times the circuit has opened */
+    public synchronized long getTrips() {
+        return trips;
+    }
+
+    /** Calls refused without being sent */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder out = new StringBuilder(name).append(": ").append(getState());
+        long retryAfterMs = getRetryAfterMs();
+        if (retryAfterMs > 0) {
+            out.append(" (probe in ").append((retryAfterMs + 999) / 1000).append("s)");
+        }
+        return out.append(", failures=").append(consecutiveFailures)
+                .append(" trips=").append(trips)
+                .append(" rejected=").append(rejected)
+                .toString();
+    }
+
+    /**
+     * Refused by an open circuit. An IOException with no response, so callers
+     * treat it as they would the timeout it saves them from waiting for.
+     */
+    public static class OpenException extends java.io.IOException {
+        public final String endpoint;
+        public final long retryAfterMs;
+
+        public OpenException(String endpoint, long retryAfterMs) {
+            super("Server unavailable, try again in " + Math.max(1, (retryAfterMs + 999) / 1000) + "s");
+            this.endpoint = endpoint;
+            this.retryAfterMs = retryAfterMs;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.example.smartworks.api;
+
+import android.util.Log;
+import com.google.gson.annotations.SerializedName;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Gathers device commands issued within a short window into one multi-device
+ * request, then hands each device its own result. Turning off a site's pumps
+ * becomes one round trip instead of one per device.
+ *
+ * A lone command in its window goes out as a single send. When the server
+ * has no batch endpoint (404, 405 or 501) the batch is sent as single
+ * commands instead, at most maxParallelSingles at a time, and batching is
+ * not tried again until unsupportedRecheckMs has passed.
+ */
+public class CommandBatcher {
+    private static final String TAG = "CommandBatcher";
+    static final String FAILURE = "Failed to send command";
+
+    // Window timers for every batcher
+    private static final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CommandBatcher-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Config config;
+    private final Transport transport;
+    private final LongSupplier clock;
+
+    // Guarded by this
+    private final Map<String, Pending> window = new LinkedHashMap<>();
+    private ScheduledFuture<?> windowTimer;
+    private final ArrayDeque<Pending> singles = new ArrayDeque<>();
+    private int singlesInFlight;
+    private long batchUnsupportedUntil;
+    private long batchesSent;
+    private long commandsBatched;
+    private long singlesSent;
+    private long coalesced;
+
+    public static class Config {
+        // How long the first command in a window waits for others to join it
+        public long windowMs = 50;
+        // Commands per request; a full window is sent at once
+        public int maxBatch = 50;
+        // Single sends in flight at once when batching isn't available
+        public int maxParallelSingles = 4;
+        // How long to keep sending singles after the server turned a batch down
+        public long unsupportedRecheckMs = 30 * 60 * 1000;
+
+        public Config setWindowMs(long windowMs) {
+            this.windowMs = windowMs;
+            return this;
+        }
+
+        public Config setMaxBatch(int maxBatch) {
+            this.maxBatch = maxBatch;
+            return this;
+        }
+
+        public Config setMaxParallelSingles(int maxParallelSingles) {
+            this.maxParallelSingles = maxParallelSingles;
+            return this;
+        }
+
+        public Config setUnsupportedRecheckMs(long unsupportedRecheckMs) {
+            this.unsupportedRecheckMs = unsupportedRecheckMs;
+            return this;
+        }
+    }
+
+    /** One command for one device, as sent in a batch */
+    public static class Command {
+        @SerializedName("device_id")
+        public final String deviceId;
+        public final String command;
+
+        public Command(String deviceId, String command) {
+            this.deviceId = deviceId;
+            this.command = command;
+        }
+
+        String key() {
+            return deviceId + "\n" + command;
+        }
+    }
+
+    /** The server's answer for one command of a batch */
+    public static class CommandResult {
+        @SerializedName("device_id")
+        public String deviceId;
+        public String command;
+        public String status;
+        public String message;
+    }
+
+    /**
+     * How commands reach the server
+     */
+    public interface Transport {
+        /**
+         * Send every command in one request. Fails with an ApiPipeline.ApiException
+         * carrying 404, 405 or 501 if the server has no batch endpoint.
+         */
+        CompletableFuture<List<CommandResult>> sendBatch(List<Command> commands);
+
+        CompletableFuture<SmartWorksApiService.ApiResult<Void>> sendOne(Command command);
+    }
+
+    // A distinct command in the current window, and everyone waiting on it
+    private static class Pending {
+        final Command command;
+        final List<CompletableFuture<SmartWorksApiService.ApiResult<Void>>> waiters = new ArrayList<>(1);
+
+        Pending(Command command) {
+            this.command = command;
+        }
+
+        void complete(SmartWorksApiService.ApiResult<Void> result) {
+            for (CompletableFuture<SmartWorksApiService.ApiResult<Void>> waiter : waiters) {
+                waiter.complete(result);
+            }
+        }
+    }
+
+    public CommandBatcher(Config config, Transport transport) {
+        this(config, transport, System::currentTimeMillis);
+    }
+
+    CommandBatcher(Config config, Transport transport, LongSupplier clock) {
+        this.config = config;
+        this.transport = transport;
+        this.clock = clock;
+    }
+
+    /**
+     * Queue command for deviceId. The same command for the same device
+     * submitted twice in one window is sent once and both callers get its result.
+     */
+    public CompletableFuture<SmartWorksApiService.ApiResult<Void>> submit(String deviceId, String command) {
+        CompletableFuture<SmartWorksApiService.ApiResult<Void>> future = new CompletableFuture<>();
+        List<Pending> full = null;
+        synchronized (this) {
+            Command cmd = new Command(deviceId, command);
+            Pending pending = window.get(cmd.key());
+            if (pending == null) {
+                pending = new Pending(cmd);
+                window.put(cmd.key(), pending);
+            } else {
+                coalesced++;
+            }
+            pending.waiters.add(future);
+
+            if (window.size() >= config.maxBatch) {
+                full = takeWindow();
+            } else if (windowTimer == null) {
+                windowTimer = timers.schedule(this::flush, config.windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return future;
+    }
+
+    /**
+     * Send whatever is in the current window now
+     */
+    public void flush() {
+        List<Pending> batch;
+        synchronized (this) {
+            batch = takeWindow();
+        }
+        dispatch(batch);
+    }
+
+    /** False while the server is known not to accept batches */
+    public synchronized boolean isBatchingAvailable() {
+        return clock.getAsLong() >= batchUnsupportedUntil;
+    }
+
+    public synchronized long getBatchesSent() {
+        return batchesSent;
+    }
+
+    /** Commands that went out as part of a batch */
+    public synchronized long getCommandsBatched() {
+        return commandsBatched;
+    }
+
+    public synchronized long getSinglesSent() {
+        return singlesSent;
+    }
+
+    /** Submissions answered by an identical command already in the window */
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    // Caller holds the lock
+    private List<Pending> takeWindow() {
+        if (windowTimer != null) {
+            windowTimer.cancel(false);
+            windowTimer = null;
+        }
+        List<Pending> batch = new ArrayList<>(window.values());
+        window.clear();
+        return batch;
+    }
+
+    private void dispatch(List<Pending> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (batch.size() == 1 || !isBatchingAvailable()) {
+            sendSingles(batch);
+            return;
+        }
+
+        List<Command> commands = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            commands.add(pending.command);
+        }
+        synchronized (this) {
+            batchesSent++;
+            commandsBatched += commands.size();
+        }
+        transport.sendBatch(commands).whenComplete((results, error) -> {
+            if (error == null) {
+                demultiplex(batch, results);
+            } else if (isUnsupported(error)) {
+                synchronized (this) {
+                    batchUnsupportedUntil = clock.getAsLong() + config.unsupportedRecheckMs;
+                    batchesSent--;
+                    commandsBatched -= commands.size();
+                }
+                Log.d(TAG, "Server has no batch endpoint, sending " + batch.size() + " commands singly");
+                sendSingles(batch);
+            } else {
+                // The server may have run some of them; resending could repeat a command
+                SmartWorksApiService.ApiResult<Void> failed =
+                        SmartWorksApiService.ApiResult.error(ApiPipeline.messageFor(error, FAILURE));
+                for (Pending pending : batch) {
+                    pending.complete(failed);
+                }
+            }
+        });
+    }
+
+    // Results are matched by device and command; ones without them by position
+    private void demultiplex(List<Pending> batch, List<CommandResult> results) {
+        Map<String, CommandResult> byKey = new HashMap<>();
+        if (results != null) {
+            for (CommandResult result : results) {
+                if (result != null && result.deviceId != null && result.command != null) {
+                    byKey.put(new Command(result.deviceId, result.command).key(), result);
+                }
+            }
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Pending pending = batch.get(i);
+            CommandResult result = byKey.get(pending.command.key());
+            if (result == null && results != null && i < results.size() && results.get(i) != null
+                    && results.get(i).deviceId == null) {
+                result = results.get(i);
+            }
+            if (result == null) {
+                pending.complete(SmartWorksApiService.ApiResult.error("No result from server"));
+            } else if ("ok".equals(result.status)) {
+                pending.complete(SmartWorksApiService.ApiResult.success("Command sent successfully"));
+            } else {
+                pending.complete(SmartWorksApiService.ApiResult.error(
+                        result.message != null ? result.message : FAILURE));
+            }
+        }
+    }
+
+    private void sendSingles(List<Pending> batch) {
+        synchronized (this) {
+            singles.addAll(batch);
+        }
+        drainSingles();
+    }
+
+    private void drainSingles() {
+        while (true) {
+            Pending next;
+            synchronized (this) {
+                if (singlesInFlight >= config.maxParallelSingles || singles.isEmpty()) {
+                    return;
+                }
+                next = singles.poll();
+                singlesInFlight++;
+                singlesSent++;
+            }
+            CompletableFuture<SmartWorksApiService.ApiResult<Void>> sent;
+            try {
+                sent = transport.sendOne(next.command);
+            } catch (RuntimeException e) {
+                sent = new CompletableFuture<>();
+                sent.completeExceptionally(e);
+            }
+            sent.whenComplete((result, error) -> {
+                next.complete(error == null ? result
+                        : SmartWorksApiService.ApiResult.error(ApiPipeline.messageFor(error, FAILURE)));
+                synchronized (this) {
+                    singlesInFlight--;
+                }
+                drainSingles();
+            });
+        }
+    }
+
+    private static boolean isUnsupported(Throwable error) {
+        Throwable cause = error;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (!(cause instanceof ApiPipeline.ApiException)) {
+            return false;
+        }
+        int code = ((ApiPipeline.ApiException) cause).httpCode;
+        return code == 404 || code == 405 || code == 501;
+    }
+
+    @Override
+    public String toString() {
+        return "batches=" + getBatchesSent() + " batched=" + getCommandsBatched()
+                + " singles=" + getSinglesSent() + " coalesced=" + getCoalesced();
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.smartworks.api;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.CacheControl;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * The device list last decoded for each account, along with the ETag (or
+ * Last-Modified) it came with. The HTTP cache revalidates the list on every
+ * refresh; when the server answers 304 the list decoded last time is handed
+ * back as is, so an unchanged list costs neither the download nor the parse.
+ */
+public class DeviceListCache {
+    /**
+     * Always ask the server, but conditionally: the HTTP cache adds
+     * If-None-Match / If-Modified-Since from the stored response
+     */
+    public static final CacheControl REVALIDATE = new CacheControl.Builder()
+            .maxAge(0, TimeUnit.SECONDS)
+            .build();
+
+    private final Gson gson;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong decoded = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    private static class Entry {
+        final String validator;
+        final SmartWorksApiService.DeviceListResponse list;
+
+        Entry(String validator, SmartWorksApiService.DeviceListResponse list) {
+            this.validator = validator;
+            this.list = list;
+        }
+    }
+
+    public DeviceListCache(Gson gson) {
+        this.gson = gson;
+    }
+
+    /** The request with the cache control that makes it a conditional GET */
+    public static Request revalidating(Request request) {
+        return request.newBuilder().cacheControl(REVALIDATE).build();
+    }
+
+    /**
+     * Decode a successful device list response for account, or return the
+     * list decoded last time if the server confirmed it unchanged (304). The
+     * caller still closes the response.
+     */
+    SmartWorksApiService.DeviceListResponse decode(String account, Response response) throws IOException {
+        String validator = validatorOf(response);
+        Response network = response.networkResponse();
+        boolean unchanged = response.cacheResponse() != null
+                && (network == null || network.code() == 304);
+
+        Entry last = entries.get(account);
+        if (unchanged && last != null && validator != null && validator.equals(last.validator)) {
+            reused.incrementAndGet();
+            return last.list;
+        }
+
+        SmartWorksApiService.DeviceListResponse list;
+        ResponseBody body = response.body();
+        if (body == null) {
+            throw new IOException("Empty device list response");
+        }
+        try (JsonReader reader = WireFormat.reader(body)) {
+            list = gson.fromJson(reader, SmartWorksApiService.DeviceListResponse.class);
+        }
+        decoded.incrementAndGet();
+        if (list == null) {
+            throw new IOException("Empty device list response");
+        }
+
+        if (validator != null && "ok".equals(list.status)) {
+            entries.put(account, new Entry(validator, list));
+        } else {
+            entries.remove(account);
+        }
+        return list;
+    }
+
+    /** Forget every decoded list, e.g. on logout */
+    public void clear() {
+        entries.clear();
+    }
+
+    /** Responses parsed from their body */
+    public long decodedCount() {
+        return decoded.get();
+    }
+
+    /** Responses answered with the previously decoded list */
+    public long reusedCount() {
+        return reused.get();
+    }
+
+    private static String validatorOf(Response response) {
+        String etag = response.header("ETag");
+        if (etag != null) {
+            return etag;
+        }
+        String lastModified = response.header("Last-Modified");
+        return lastModified != null ? "modified:" + lastModified : null;
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.smartworks.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The account's devices as last synced with the backend, plus the watermark
+ * to ask for changes since. A full pull replaces the contents, a delta pull
+ * merges changed devices and drops removed ones; both report exactly which
+ * devices changed, so the list only has to redraw those rows.
+ */
+public class DeviceStore {
+    private final Map<String, SmartWorksApiService.Device> devices = new LinkedHashMap<>();
+    private String account;
+    private String watermark;
+
+    /**
+     * What one sync changed
+     */
+    public static class Changes {
+        // New or modified devices, in server order
+        public final List<SmartWorksApiService.Device> upserted = new ArrayList<>();
+        // Keys (see keyOf) of devices that are gone
+        public final List<String> removed = new ArrayList<>();
+        // True if this came from a full pull, so anything not in the store is stale
+        public boolean full;
+
+        public boolean isEmpty() {
+            return upserted.isEmpty() && removed.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return (full ? "full" : "delta") + ": " + upserted.size() + " changed, " + removed.size() + " removed";
+        }
+    }
+
+    /** Stable key for a device: its device_id, or its row id if it has none */
+    public static String keyOf(SmartWorksApiService.Device device) {
+        return device.deviceId != null && !device.deviceId.isEmpty() ? device.deviceId : "id:" + device.id;
+    }
+
+    /**
+     * Watermark to send as since for account, or null if a full pull is
+     * needed first (nothing synced yet, or another account's data)
+     */
+    public synchronized String getWatermark(String account) {
+        return Objects.equals(this.account, account) ? watermark : null;
+    }
+
+    /**
+     * Replace everything with a full pull
+     *
+     * @param watermark from the server, or null to derive it from the newest updated_at
+     */
+    public synchronized Changes replaceAll(String account, List<SmartWorksApiService.Device> list, String watermark) {
+        Changes changes = new Changes();
+        changes.full = true;
+        if (!Objects.equals(this.account, account)) {
+            devices.clear();
+            this.account = account;
+        }
+
+        Map<String, SmartWorksApiService.Device> previous = new LinkedHashMap<>(devices);
+        devices.clear();
+        for (SmartWorksApiService.Device device : list) {
+            String key = keyOf(device);
+            SmartWorksApiService.Device old = previous.remove(key);
+            if (old == null || changed(old, device)) {
+                changes.upserted.add(device);
+            }
+            devices.put(key, device);
+        }
+        changes.removed.addAll(previous.keySet());
+        this.watermark = watermark != null ? watermark : newestUpdate(devices.values());
+        return changes;
+    }
+
+    /**
+     * Merge a delta pull. Must follow a full pull for the same account.
+     */
+    public synchronized Changes applyDelta(String account, List<SmartWorksApiService.Device> changed,
+                                           List<String> removed, String watermark) {
+        if (!Objects.equals(this.account, account)) {
+            throw new IllegalStateException("Delta for " + account + " without a full pull");
+        }
+        Changes changes = new Changes();
+        for (SmartWorksApiService.Device device : changed) {
+            SmartWorksApiService.Device old = devices.put(keyOf(device), device);
+            if (old == null || changed(old, device)) {
+                changes.upserted.add(device);
+            }
+        }
+        for (String key : removed) {
+            if (devices.remove(key) != null) {
+                changes.removed.add(key);
+            }
+        }
+        if (watermark != null) {
+            this.watermark = watermark;
+        } else {
+            String newest = newestUpdate(changed);
+            if (newest != null && (this.watermark == null || newest.compareTo(this.watermark) > 0)) {
+                this.watermark = newest;
+            }
+        }
+        return changes;
+    }
+
+    /** Every device, in server order */
+    public synchronized List<SmartWorksApiService.Device> getDevices() {
+        return new ArrayList<>(devices.values());
+    }
+
+    public synchronized boolean contains(String key) {
+        return devices.containsKey(key);
+    }
+
+    public synchronized int size() {
+        return devices.size();
+    }
+
+    /** Forget everything, the next sync is a full pull */
+    public synchronized void clear() {
+        devices.clear();
+        account = null;
+        watermark = null;
+    }
+
+    // Anything the list shows that the server can change without bumping updated_at
+    private static boolean changed(SmartWorksApiService.Device a, SmartWorksApiService.Device b) {
+        return !Objects.equals(a.updatedAt, b.updatedAt)
+                || !Objects.equals(a.lastSeen, b.lastSeen)
+                || !Objects.equals(a.temperatureTime, b.temperatureTime)
+                || !Objects.equals(a.temperature, b.temperature)
+                || !Objects.equals(a.status, b.status)
+                || !Objects.equals(a.statusMessage, b.statusMessage)
+                || !Objects.equals(a.ipAddress, b.ipAddress)
+                || !Objects.equals(a.friendlyName, b.friendlyName)
+                || !Objects.equals(a.rssi, b.rssi)
+                || !Objects.equals(a.firmwareVersion, b.firmwareVersion);
+    }
+
+    // updated_at is "yyyy-MM-dd HH:mm:ss", so the newest sorts last
+    private static String newestUpdate(Collection<SmartWorksApiService.Device> list) {
+        String newest = null;
+        for (SmartWorksApiService.Device device : list) {
+            if (device.updatedAt != null && (newest == null || device.updatedAt.compareTo(newest) > 0)) {
+                newest = device.updatedAt;
+            }
+        }
+        return newest;
+    }
+}
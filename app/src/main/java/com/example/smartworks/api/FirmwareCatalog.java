@@ -0,0 +1,412 @@
+package com.example.smartworks.api;
+
+import android.util.Log;
+import com.google.gson.annotations.SerializedName;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.LongSupplier;
+
+/**
+ * The backend's answer to "is there newer firmware for this type at this
+ * version?", remembered per (type, version) for ttlMs. A fleet is mostly a
+ * few such pairs, so a config screen opening, a list refresh and a fleet-wide
+ * check all share the same few answers.
+ *
+ * checkAll() asks about every stale pair in one bulk request. When the server
+ * has no bulk endpoint (404, 405 or 501) the pairs are checked one by one
+ * instead, and bulk is not tried again until unsupportedRecheckMs has passed.
+ * peek() and isUpdateAvailable() only read the cache and never go to the network.
+ */
+public class FirmwareCatalog {
+    private static final String TAG = "FirmwareCatalog";
+    // Every device registered so far is a pool monitor
+    public static final String DEFAULT_TYPE = "pool_monitor";
+
+    private final Config config;
+    private final Transport transport;
+    private final LongSupplier clock;
+
+    // Guarded by this
+    private final Map<Key, Entry> entries = new HashMap<>();
+    private final Map<Key, CompletableFuture<SmartWorksApiService.FirmwareUpdateResponse>> inFlight = new HashMap<>();
+    private long bulkUnsupportedUntil;
+    private long hits;
+    private long checked;
+    private long bulkRequests;
+
+    public static class Config {
+        // How long an answer is used without asking again
+        public long ttlMs = 6 * 60 * 60 * 1000;
+        // Pairs per bulk request
+        public int maxBulk = 100;
+        // How long to check singly after the server turned a bulk request down
+        public long unsupportedRecheckMs = 30 * 60 * 1000;
+
+        public Config setTtlMs(long ttlMs) {
+            this.ttlMs = ttlMs;
+            return this;
+        }
+
+        public Config setMaxBulk(int maxBulk) {
+            this.maxBulk = maxBulk;
+            return this;
+        }
+
+        public Config setUnsupportedRecheckMs(long unsupportedRecheckMs) {
+            this.unsupportedRecheckMs = unsupportedRecheckMs;
+            return this;
+        }
+    }
+
+    /**
+     * A firmware type and the version a device runs, normalized so "v1.0.3"
+     * and "1.0.3 " are the same pair. The server is still sent the version as
+     * the device reported it.
+     */
+    public static final class Key {
+        @SerializedName("device_type")
+        public final String type;
+        // Normalized, for matching only
+        public final transient String version;
+        @SerializedName("current_version")
+        public final String reportedVersion;
+
+        private Key(String type, String version, String reportedVersion) {
+            this.type = type;
+            this.version = version;
+            this.reportedVersion = reportedVersion;
+        }
+
+        /**
+         * @return null if the version is unknown, as there is nothing to compare against
+         */
+        public static Key of(String type, String version) {
+            if (version == null) {
+                return null;
+            }
+            String v = version.trim();
+            if (v.startsWith("v") || v.startsWith("V")) {
+                v = v.substring(1).trim();
+            }
+            if (v.isEmpty() || v.equalsIgnoreCase("unknown")) {
+                return null;
+            }
+            String t = type == null || type.trim().isEmpty() ? DEFAULT_TYPE : type.trim();
+            return new Key(t, v, version);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return type.equals(key.type) && version.equals(key.version);
+        }
+
+        @Override
+        public int hashCode() {
+            return type.hashCode() * 31 + version.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return type + "@" + version;
+        }
+    }
+
+    /** The server's answer for one pair of a bulk check */
+    public static class BulkResult {
+        @SerializedName("device_type")
+        public String type;
+        @SerializedName("current_version")
+        public String currentVersion;
+        public boolean available;
+        public String version;
+        public String url;
+        public String notes;
+        public String message;
+
+        SmartWorksApiService.FirmwareUpdateResponse toResponse() {
+            SmartWorksApiService.FirmwareUpdateResponse response = new SmartWorksApiService.FirmwareUpdateResponse();
+            response.available = available;
+            response.version = version;
+            response.url = url;
+            response.notes = notes;
+            response.message = message;
+            return response;
+        }
+    }
+
+    /**
+     * How checks reach the server
+     */
+    public interface Transport {
+        /**
+         * Check every pair in one request. Fails with an ApiPipeline.ApiException
+         * carrying 404, 405 or 501 if the server has no bulk endpoint.
+         */
+        CompletableFuture<List<BulkResult>> checkBulk(List<Key> keys);
+
+        CompletableFuture<SmartWorksApiService.FirmwareUpdateResponse> checkOne(Key key, RequestScheduler.Priority priority);
+    }
+
+    private static class Entry {
+        final SmartWorksApiService.FirmwareUpdateResponse response;
+        final long checkedAt;
+
+        Entry(SmartWorksApiService.FirmwareUpdateResponse response, long checkedAt) {
+            this.response = response;
+            this.checkedAt = checkedAt;
+        }
+    }
+
+    public FirmwareCatalog(Config config, Transport transport) {
+        this(config, transport, System::currentTimeMillis);
+    }
+
+    FirmwareCatalog(Config config, Transport transport, LongSupplier clock) {
+        this.config = config;
+        this.transport = transport;
+        this.clock = clock;
+    }
+
+    /**
+     * The last answer for this pair however old, or null if it was never checked
+     */
+    public synchronized SmartWorksApiService.FirmwareUpdateResponse peek(String type, String version) {
+        Key key = Key.of(type, version);
+        Entry entry = key != null ? entries.get(key) : null;
+        return entry != null ? entry.response : null;
+    }
+
+    /** True if the last answer for this pair offered an update; false if not, or never checked */
+    public boolean isUpdateAvailable(String type, String version) {
+        SmartWorksApiService.FirmwareUpdateResponse response = peek(type, version);
+        return response != null && response.available;
+    }
+
+    /**
+     * The answer for one pair: from the cache while fresh, otherwise one
+     * request shared with anyone else asking about the same pair
+     */
+    public CompletableFuture<SmartWorksApiService.FirmwareUpdateResponse> check(String type, String version,
+                                                                              RequestScheduler.Priority priority) {
+        Key key = Key.of(type, version);
+        if (key == null) {
+            CompletableFuture<SmartWorksApiService.FirmwareUpdateResponse> unknown = new CompletableFuture<>();
+            unknown.completeExceptionally(new IllegalArgumentException("Unknown firmware version"));
+            return unknown;
+        }
+        CompletableFuture<SmartWorksApiService.FirmwareUpdateResponse> future;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (isFresh(entry)) {
+                hits++;
+                return CompletableFuture.completedFuture(entry.response);
+            }
+            CompletableFuture<SmartWorksApiService.FirmwareUpdateResponse> pending = inFlight.get(key);
+            if (pending != null) {
+                hits++;
+                return pending;
+            }
+            future = new CompletableFuture<>();
+            inFlight.put(key, future);
+            checked++;
+        }
+        sendOne(key, future, priority);
+        return future;
+    }
+
+    /**
+     * Bring every distinct pair among these up to date, in one bulk request
+     * where the server allows it. Fresh and already-pending pairs aren't asked
+     * about again.
+     *
+     * @param keys may hold nulls and repeats, e.g. one per device
+     * @return the number of pairs that had to be checked; never fails, errors are logged
+     */
+    public CompletableFuture<Integer> checkAll(Collection<Key> keys) {
+        Set<Key> distinct = new LinkedHashSet<>(keys);
+        distinct.remove(null);
+        List<Key> stale = new ArrayList<>();
+        List<CompletableFuture<?>> waits = new ArrayList<>();
+        Map<Key, CompletableFuture<SmartWorksApiService.FirmwareUpdateResponse>> claimed = new HashMap<>();
+        boolean bulk;
+        synchronized (this) {
+            for (Key key : distinct) {
+                if (isFresh(entries.get(key))) {
+                    hits++;
+                    continue;
+                }
+                CompletableFuture<SmartWorksApiService.FirmwareUpdateResponse> pending = inFlight.get(key);
+                if (pending != null) {
+                    waits.add(pending);
+                    continue;
+                }
+                CompletableFuture<SmartWorksApiService.FirmwareUpdateResponse> future = new CompletableFuture<>();
+                inFlight.put(key, future);
+                claimed.put(key, future);
+                stale.add(key);
+                waits.add(future);
+            }
+            checked += stale.size();
+            bulk = stale.size() > 1 && clock.getAsLong() >= bulkUnsupportedUntil;
+        }
+
+        if (bulk) {
+            for (int i = 0; i < stale.size(); i += config.maxBulk) {
+                sendBulk(stale.subList(i, Math.min(stale.size(), i + config.maxBulk)), claimed);
+            }
+        } else {
+            for (Key key : stale) {
+                sendOne(key, claimed.get(key), RequestScheduler.Priority.BACKGROUND);
+            }
+        }
+
+        int count = stale.size();
+        return CompletableFuture.allOf(waits.toArray(new CompletableFuture[0]))
+                .handle((ignored, error) -> {
+                    if (error != null) {
+                        Log.w(TAG, "Firmware check failed: " + ApiPipeline.messageFor(error, "no answer"));
+                    }
+                    return count;
+                });
+    }
+
+    /** Forget every answer */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /** Answers served from the cache or a request already in flight */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** Pairs sent to the server, singly or in bulk */
+    public synchronized long getChecked() {
+        return checked;
+    }
+
+    public synchronized long getBulkRequests() {
+        return bulkRequests;
+    }
+
+    // Caller holds the lock
+    private boolean isFresh(Entry entry) {
+        return entry != null && clock.getAsLong() - entry.checkedAt < config.ttlMs;
+    }
+
+    private void sendOne(Key key, CompletableFuture<SmartWorksApiService.FirmwareUpdateResponse> future,
+                         RequestScheduler.Priority priority) {
+        CompletableFuture<SmartWorksApiService.FirmwareUpdateResponse> sent;
+        try {
+            sent = transport.checkOne(key, priority);
+        } catch (RuntimeException e) {
+            sent = new CompletableFuture<>();
+            sent.completeExceptionally(e);
+        }
+        sent.whenComplete((response, error) -> {
+            if (error == null && response != null) {
+                store(key, response, future);
+            } else {
+                fail(key, error != null ? error : new ApiPipeline.ApiException(200, null), future);
+            }
+        });
+    }
+
+    private void sendBulk(List<Key> keys, Map<Key, CompletableFuture<SmartWorksApiService.FirmwareUpdateResponse>> claimed) {
+        List<Key> batch = new ArrayList<>(keys);
+        synchronized (this) {
+            bulkRequests++;
+        }
+        transport.checkBulk(batch).whenComplete((results, error) -> {
+            if (error == null) {
+                demultiplex(batch, results, claimed);
+            } else if (isUnsupported(error)) {
+                synchronized (this) {
+                    bulkUnsupportedUntil = clock.getAsLong() + config.unsupportedRecheckMs;
+                    bulkRequests--;
+                }
+                Log.d(TAG, "Server has no bulk firmware check, checking " + batch.size() + " pairs singly");
+                for (Key key : batch) {
+                    sendOne(key, claimed.get(key), RequestScheduler.Priority.BACKGROUND);
+                }
+            } else {
+                for (Key key : batch) {
+                    fail(key, error, claimed.get(key));
+                }
+            }
+        });
+    }
+
+    // Results are matched by type and version; ones without them by position
+    private void demultiplex(List<Key> batch, List<BulkResult> results,
+                             Map<Key, CompletableFuture<SmartWorksApiService.FirmwareUpdateResponse>> claimed) {
+        Map<Key, BulkResult> byKey = new HashMap<>();
+        if (results != null) {
+            for (BulkResult result : results) {
+                Key key = result != null ? Key.of(result.type, result.currentVersion) : null;
+                if (key != null) {
+                    byKey.put(key, result);
+                }
+            }
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Key key = batch.get(i);
+            BulkResult result = byKey.get(key);
+            if (result == null && results != null && i < results.size() && results.get(i) != null
+                    && results.get(i).currentVersion == null) {
+                result = results.get(i);
+            }
+            if (result != null) {
+                store(key, result.toResponse(), claimed.get(key));
+            } else {
+                // Left out of the reply; ask about it on its own
+                sendOne(key, claimed.get(key), RequestScheduler.Priority.BACKGROUND);
+            }
+        }
+    }
+
+    private void store(Key key, SmartWorksApiService.FirmwareUpdateResponse response,
+                       CompletableFuture<SmartWorksApiService.FirmwareUpdateResponse> future) {
+        synchronized (this) {
+            entries.put(key, new Entry(response, clock.getAsLong()));
+            inFlight.remove(key);
+        }
+        future.complete(response);
+    }
+
+    // Failures aren't cached: the next check asks again
+    private void fail(Key key, Throwable error, CompletableFuture<SmartWorksApiService.FirmwareUpdateResponse> future) {
+        synchronized (this) {
+            inFlight.remove(key);
+        }
+        future.completeExceptionally(error);
+    }
+
+    private static boolean isUnsupported(Throwable error) {
+        Throwable cause = error;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (!(cause instanceof ApiPipeline.ApiException)) {
+            return false;
+        }
+        int code = ((ApiPipeline.ApiException) cause).httpCode;
+        return code == 404 || code == 405 || code == 501;
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + getHits() + " checked=" + getChecked() + " bulk=" + getBulkRequests();
+    }
+}
@@ -0,0 +1,486 @@
+package com.example.smartworks.api;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streams a MessagePack document through Gson's JsonReader API, so the same
+ * type adapters and hand-written decoders (ReadingsDecoder) read either wire
+ * format. Maps become objects with their keys as names; integer and string
+ * keys are both accepted since PHP's packer emits list-like arrays as maps.
+ *
+ * Extension types and non-string map keys such as nested maps aren't part of
+ * what the backend sends and are rejected as malformed. Like JsonTreeReader
+ * this can't serve Gson's complex Map keys, which no API model uses.
+ */
+final class MessagePackReader extends JsonReader {
+    private final InputStream in;
+    private final byte[] buffer = new byte[8192];
+    private int pos;
+    private int limit;
+
+    // Open arrays and maps; a map of n entries counts 2n items, key first
+    private int[] remaining = new int[16];
+    private boolean[] isMap = new boolean[16];
+    private int depth;
+    private boolean documentRead;
+
+    // The value peek() read the header of, null until the next peek
+    private JsonToken peeked;
+    private long longValue;
+    private double doubleValue;
+    private boolean isDouble;
+    // A uint64 past Long.MAX_VALUE: doubleValue approximates it, longValue holds its bits
+    private boolean isUnsigned64;
+    private String stringValue;
+    private int containerSize;
+
+    // Every row repeats the same field names; short keys are decoded once
+    private static final int KEY_CACHE_SIZE = 64;
+    private static final int MAX_CACHED_KEY = 32;
+    private final byte[][] keyBytes = new byte[KEY_CACHE_SIZE][];
+    private final String[] keyStrings = new String[KEY_CACHE_SIZE];
+    private boolean readingKey;
+
+    MessagePackReader(InputStream in) {
+        // JsonReader needs a Reader; every method that would use it is overridden
+        super(new StringReader(""));
+        this.in = in;
+    }
+
+    @Override
+    public JsonToken peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+        if (depth == 0) {
+            if (documentRead) {
+                return peeked = JsonToken.END_DOCUMENT;
+            }
+        } else if (remaining[depth - 1] == 0) {
+            return peeked = isMap[depth - 1] ? JsonToken.END_OBJECT : JsonToken.END_ARRAY;
+        }
+
+        readingKey = depth > 0 && isMap[depth - 1] && remaining[depth - 1] % 2 == 0;
+        JsonToken token = readHeader();
+        if (readingKey) {
+            if (token == JsonToken.NUMBER) {
+                stringValue = numberText();
+            } else if (token != JsonToken.STRING) {
+                throw new MalformedJsonException("Map key must be a string or integer, was " + token);
+            }
+            token = JsonToken.NAME;
+        }
+        return peeked = token;
+    }
+
+    private JsonToken readHeader() throws IOException {
+        int b = readByte();
+        isDouble = false;
+        isUnsigned64 = false;
+        if (b <= 0x7f) {
+            longValue = b;
+            return JsonToken.NUMBER;
+        }
+        if (b >= 0xe0) {
+            longValue = (byte) b;
+            return JsonToken.NUMBER;
+        }
+        if (b <= 0x8f) {
+            containerSize = b & 0x0f;
+            return JsonToken.BEGIN_OBJECT;
+        }
+        if (b <= 0x9f) {
+            containerSize = b & 0x0f;
+            return JsonToken.BEGIN_ARRAY;
+        }
+        if (b <= 0xbf) {
+            stringValue = readString(b & 0x1f);
+            return JsonToken.STRING;
+        }
+        switch (b) {
+            case 0xc0:
+                return JsonToken.NULL;
+            case 0xc2:
+                longValue = 0;
+                return JsonToken.BOOLEAN;
+            case 0xc3:
+                longValue = 1;
+                return JsonToken.BOOLEAN;
+            case 0xc4:
+            case 0xd9:
+                stringValue = readString(readByte());
+                return JsonToken.STRING;
+            case 0xc5:
+            case 0xda:
+                stringValue = readString(readUnsignedShort());
+                return JsonToken.STRING;
+            case 0xc6:
+            case 0xdb:
+                stringValue = readString(readLength());
+                return JsonToken.STRING;
+            case 0xca:
+                isDouble = true;
+                doubleValue = Float.intBitsToFloat(readInt());
+                return JsonToken.NUMBER;
+            case 0xcb:
+                isDouble = true;
+                doubleValue = Double.longBitsToDouble(readLong());
+                return JsonToken.NUMBER;
+            case 0xcc:
+                longValue = readByte();
+                return JsonToken.NUMBER;
+            case 0xcd:
+                longValue = readUnsignedShort();
+                return JsonToken.NUMBER;
+            case 0xce:
+                longValue = readInt() & 0xffffffffL;
+                return JsonToken.NUMBER;
+            case 0xcf:
+                longValue = readLong();
+                if (longValue < 0) {
+                    // Above Long.MAX_VALUE; only a double can hold it, and not exactly
+                    isDouble = true;
+                    isUnsigned64 = true;
+                    doubleValue = (longValue >>> 1) * 2.0 + (longValue & 1);
+                }
+                return JsonToken.NUMBER;
+            case 0xd0:
+                longValue = (byte) readByte();
+                return JsonToken.NUMBER;
+            case 0xd1:
+                longValue = (short) readUnsignedShort();
+                return JsonToken.NUMBER;
+            case 0xd2:
+                longValue = readInt();
+                return JsonToken.NUMBER;
+            case 0xd3:
+                longValue = readLong();
+                return JsonToken.NUMBER;
+            case 0xdc:
+                containerSize = readUnsignedShort();
+                return JsonToken.BEGIN_ARRAY;
+            case 0xdd:
+                containerSize = readLength();
+                return JsonToken.BEGIN_ARRAY;
+            case 0xde:
+                containerSize = readUnsignedShort();
+                return JsonToken.BEGIN_OBJECT;
+            case 0xdf:
+                containerSize = readLength();
+                return JsonToken.BEGIN_OBJECT;
+            default:
+                throw new MalformedJsonException("Unsupported MessagePack type 0x" + Integer.toHexString(b));
+        }
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        expect(JsonToken.BEGIN_ARRAY);
+        open(containerSize, false);
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        expect(JsonToken.END_ARRAY);
+        pop();
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        expect(JsonToken.BEGIN_OBJECT);
+        if (containerSize > Integer.MAX_VALUE / 2) {
+            throw new MalformedJsonException("Map too large: " + containerSize);
+        }
+        open(containerSize * 2, true);
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        expect(JsonToken.END_OBJECT);
+        pop();
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        JsonToken token = peek();
+        return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        expect(JsonToken.NAME);
+        consumed();
+        return stringValue;
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        JsonToken token = peek();
+        String value;
+        if (token == JsonToken.STRING) {
+            value = stringValue;
+        } else if (token == JsonToken.NUMBER) {
+            value = numberText();
+        } else {
+            throw unexpected("a string", token);
+        }
+        consumed();
+        return value;
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+        expect(JsonToken.BOOLEAN);
+        consumed();
+        return longValue != 0;
+    }
+
+    @Override
+    public void nextNull() throws IOException {
+        expect(JsonToken.NULL);
+        consumed();
+    }
+
+    @Override
+    public double nextDouble() throws IOException {
+        JsonToken token = peek();
+        double value;
+        if (token == JsonToken.NUMBER) {
+            value = isDouble ? doubleValue : longValue;
+        } else if (token == JsonToken.STRING) {
+            value = Double.parseDouble(stringValue);
+        } else {
+            throw unexpected("a double", token);
+        }
+        consumed();
+        return value;
+    }
+
+    @Override
+    public long nextLong() throws IOException {
+        JsonToken token = peek();
+        long value;
+        if (token == JsonToken.NUMBER && !isDouble) {
+            value = longValue;
+        } else if (token == JsonToken.NUMBER || token == JsonToken.STRING) {
+            value = wholeNumber(token == JsonToken.NUMBER ? doubleValue : Double.parseDouble(stringValue));
+        } else {
+            throw unexpected("a long", token);
+        }
+        consumed();
+        return value;
+    }
+
+    @Override
+    public int nextInt() throws IOException {
+        JsonToken token = peek();
+        long value;
+        if (token == JsonToken.NUMBER && !isDouble) {
+            value = longValue;
+        } else if (token == JsonToken.NUMBER || token == JsonToken.STRING) {
+            value = wholeNumber(token == JsonToken.NUMBER ? doubleValue : Double.parseDouble(stringValue));
+        } else {
+            throw unexpected("an int", token);
+        }
+        if (value != (int) value) {
+            throw new NumberFormatException("Expected an int but was " + value);
+        }
+        consumed();
+        return (int) value;
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+        int startDepth = depth;
+        do {
+            switch (peek()) {
+                case BEGIN_ARRAY:
+                    beginArray();
+                    break;
+                case BEGIN_OBJECT:
+                    beginObject();
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    break;
+                case END_DOCUMENT:
+                    return;
+                default:
+                    // Strings were already read whole by peek(); a name is skipped on its own as in JsonReader
+                    consumed();
+                    break;
+            }
+        } while (depth > startDepth);
+    }
+
+    @Override
+    public void close() throws IOException {
+        peeked = null;
+        depth = 0;
+        documentRead = true;
+        in.close();
+    }
+
+    @Override
+    public String getPath() {
+        return "$";
+    }
+
+    @Override
+    public String toString() {
+        return "MessagePackReader";
+    }
+
+    private void expect(JsonToken expected) throws IOException {
+        JsonToken token = peek();
+        if (token != expected) {
+            throw unexpected(expected.toString(), token);
+        }
+    }
+
+    private IllegalStateException unexpected(String expected, JsonToken actual) {
+        return new IllegalStateException("Expected " + expected + " but was " + actual);
+    }
+
+    // The peeked value has been read; count it against its container
+    private void consumed() {
+        peeked = null;
+        if (depth == 0) {
+            documentRead = true;
+        } else {
+            remaining[depth - 1]--;
+        }
+    }
+
+    private void pop() {
+        peeked = null;
+        depth--;
+    }
+
+    private void open(int size, boolean map) {
+        consumed();
+        if (depth == remaining.length) {
+            remaining = Arrays.copyOf(remaining, depth * 2);
+            isMap = Arrays.copyOf(isMap, depth * 2);
+        }
+        remaining[depth] = size;
+        isMap[depth] = map;
+        depth++;
+    }
+
+    private String numberText() {
+        if (isUnsigned64) {
+            return Long.toUnsignedString(longValue);
+        }
+        return isDouble ? Double.toString(doubleValue) : Long.toString(longValue);
+    }
+
+    private static long wholeNumber(double value) {
+        long whole = (long) value;
+        // The cast saturates, and 2^63 itself would compare equal to Long.MAX_VALUE
+        if (whole != value || value >= 0x1p63) {
+            throw new NumberFormatException("Expected a whole number but was " + value);
+        }
+        return whole;
+    }
+
+    private int readByte() throws IOException {
+        if (pos == limit && !fill()) {
+            throw new EOFException("End of MessagePack input");
+        }
+        return buffer[pos++] & 0xff;
+    }
+
+    private int readUnsignedShort() throws IOException {
+        return readByte() << 8 | readByte();
+    }
+
+    private int readInt() throws IOException {
+        return readUnsignedShort() << 16 | readUnsignedShort();
+    }
+
+    private long readLong() throws IOException {
+        return (long) readInt() << 32 | (readInt() & 0xffffffffL);
+    }
+
+    // 32-bit lengths are unsigned; anything past an int can't be buffered anyway
+    private int readLength() throws IOException {
+        int length = readInt();
+        if (length < 0) {
+            throw new MalformedJsonException("Length too large: " + (length & 0xffffffffL));
+        }
+        return length;
+    }
+
+    private String readString(int length) throws IOException {
+        if (readingKey && length <= MAX_CACHED_KEY && length <= limit - pos) {
+            return readKey(length);
+        }
+        if (length <= limit - pos) {
+            String value = new String(buffer, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        int read = limit - pos;
+        System.arraycopy(buffer, pos, bytes, 0, read);
+        pos = limit;
+        while (read < length) {
+            int n = in.read(bytes, read, length - read);
+            if (n < 0) {
+                throw new EOFException("End of MessagePack input");
+            }
+            read += n;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private String readKey(int length) {
+        int hash = length;
+        for (int i = pos; i < pos + length; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        int slot = (hash ^ hash >>> 16) & (KEY_CACHE_SIZE - 1);
+        byte[] cached = keyBytes[slot];
+        String key;
+        if (cached != null && cached.length == length && regionEquals(cached, length)) {
+            key = keyStrings[slot];
+        } else {
+            key = new String(buffer, pos, length, StandardCharsets.UTF_8);
+            keyBytes[slot] = Arrays.copyOfRange(buffer, pos, pos + length);
+            keyStrings[slot] = key;
+        }
+        pos += length;
+        return key;
+    }
+
+    private boolean regionEquals(byte[] cached, int length) {
+        for (int i = 0; i < length; i++) {
+            if (cached[i] != buffer[pos + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buffer, 0, buffer.length);
+        if (n <= 0) {
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+}
@@ -0,0 +1,715 @@
+package com.example.smartworks.api;
+
+import android.util.Log;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mutations made while the backend can't be reached, kept in an append-only
+ * log on disk until they have been sent. Replayed strictly in the order they
+ * were made, one at a time, with exponential backoff between failed attempts.
+ *
+ * Each line of the log is one JSON record: "add" for a new item, "update" when
+ * a later change was merged into it, then "sent" or "failed" once it is
+ * finished. A crash can leave a torn last line; it is skipped on load and the
+ * log is rewritten with only the live items. An item whose "sent" record was
+ * lost to a crash is sent again, so delivery is at least once.
+ *
+ * The queue itself lives in memory; reading, appending to and rewriting the log
+ * happen behind it on a background thread, so enqueueing from a click handler
+ * never waits on the disk. Until the log has been read hasPending() is true, so
+ * nothing made meanwhile can overtake what it holds.
+ *
+ * A 401 or 403 pauses replay rather than dropping the item: the change is
+ * still wanted, the credentials are what's wrong. setAuthorized(true) resumes.
+ */
+public class Outbox {
+    private static final String TAG = "Outbox";
+    // Finished items remembered for status reporting
+    private static final int RECENT_LIMIT = 50;
+
+    // Retry timers for every outbox
+    private static final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Outbox-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Log reads and writes for every outbox, run one at a time in the order they were queued
+    private static final ExecutorService io = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Outbox-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public enum Status { PENDING, SENDING, SENT, FAILED }
+
+    public static class Config {
+        // Wait after the first failed attempt, doubled per consecutive failure
+        public long baseBackoffMs = 2000;
+        public long maxBackoffMs = 5 * 60 * 1000;
+        // Finished records in the log before it is rewritten
+        public int compactAfter = 256;
+
+        public Config setBaseBackoffMs(long baseBackoffMs) {
+            this.baseBackoffMs = baseBackoffMs;
+            return this;
+        }
+
+        public Config setMaxBackoffMs(long maxBackoffMs) {
+            this.maxBackoffMs = maxBackoffMs;
+            return this;
+        }
+
+        public Config setCompactAfter(int compactAfter) {
+            this.compactAfter = compactAfter;
+            return this;
+        }
+    }
+
+    /** One queued mutation */
+    public static class Item {
+        public final long seq;
+        // What to send: "command", "update", "delete"...
+        public final String type;
+        // Device it applies to, as the endpoint expects it
+        public final String device;
+        // Items with the same key are merged while pending, null for never
+        final String collapseKey;
+
+        // Guarded by the outbox
+        private String body;
+        private Status status = Status.PENDING;
+        private int attempts;
+        private String lastError;
+
+        Item(long seq, String type, String device, String body, String collapseKey) {
+            this.seq = seq;
+            this.type = type;
+            this.device = device;
+            this.body = body;
+            this.collapseKey = collapseKey;
+        }
+
+        /** JSON request body, null if none */
+        public synchronized String getBody() {
+            return body;
+        }
+
+        public synchronized Status getStatus() {
+            return status;
+        }
+
+        /** Send attempts made so far */
+        public synchronized int getAttempts() {
+            return attempts;
+        }
+
+        /** Why the last attempt failed, or null */
+        public synchronized String getLastError() {
+            return lastError;
+        }
+
+        synchronized void set(String body) {
+            this.body = body;
+        }
+
+        synchronized void set(Status status, String error) {
+            this.status = status;
+            if (error != null) {
+                this.lastError = error;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "#" + seq + " " + type + " " + device + " " + getStatus();
+        }
+    }
+
+    /**
+     * Sends one item. Completing normally means the server accepted it; an
+     * ApiPipeline.ApiException with a 4xx (other than 401/403/408/429) or a 2xx
+     * status means it was rejected and won't be retried. 401/403 pause replay
+     * until setAuthorized(true). Anything else is retried.
+     */
+    public interface Sender {
+        CompletableFuture<?> send(Item item);
+    }
+
+    /**
+     * Called whenever an item changes status, on the thread that changed it
+     */
+    public interface Listener {
+        void onItemChanged(Item item);
+    }
+
+    // Log record
+    private static class Record {
+        String op;
+        long seq;
+        String type;
+        String device;
+        JsonElement body;
+        String key;
+        String error;
+    }
+
+    private final File file;
+    private final Config config;
+    private final Sender sender;
+    private final Gson gson = new Gson();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    // Runs this outbox's log reads and writes, one at a time
+    private final Executor disk;
+    private final CompletableFuture<Void> opening;
+
+    // Guarded by this
+    private final Map<Long, Item> pending = new LinkedHashMap<>();
+    private final Map<Long, Item> recent = new LinkedHashMap<Long, Item>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Item> eldest) {
+            return size() > RECENT_LIMIT;
+        }
+    };
+    private long nextSeq = 1;
+    private int finishedRecords;
+    private boolean online;
+    // False after a 401/403 until the credentials change
+    private boolean authorized = true;
+    private Item inFlight;
+    private ScheduledFuture<?> retryTimer;
+    private int consecutiveFailures;
+    private boolean closed;
+    // False until the log has been read
+    private boolean opened;
+    private boolean clearedBeforeOpen;
+
+    // Only touched on the disk executor
+    private Writer writer;
+    private FileOutputStream stream;
+
+    /**
+     * Start loading whatever the log at file still holds, in the background.
+     * Nothing is sent until it has been read and setOnline(true).
+     */
+    public Outbox(File file, Config config, Sender sender) {
+        this(file, config, sender, io);
+    }
+
+    Outbox(File file, Config config, Sender sender, Executor disk) {
+        this.file = file;
+        this.config = config;
+        this.sender = sender;
+        this.disk = disk;
+        this.opening = CompletableFuture.runAsync(this::open, disk);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queue a mutation behind everything already queued.
+     *
+     * @param collapseKey if the last pending item for this device has the same
+     *                    key, this change is merged into it where it stands
+     *                    instead of being queued; if both bodies are JSON objects,
+     *                    fields the new body leaves out are kept from the old one.
+     *                    Null to never collapse.
+     * @return the queued item, or the one it was merged into
+     */
+    public Item enqueue(String type, String device, String body, String collapseKey) {
+        Item item;
+        synchronized (this) {
+            item = collapseKey != null ? collapseTarget(device, collapseKey) : null;
+            if (item != null) {
+                String merged = merge(item.getBody(), body);
+                item.set(merged);
+                Record record = new Record();
+                record.op = "update";
+                record.seq = item.seq;
+                record.body = merged != null ? JsonParser.parseString(merged) : null;
+                append(record);
+            } else {
+                item = new Item(nextSeq++, type, device, body, collapseKey);
+                Record record = new Record();
+                record.op = "add";
+                record.seq = item.seq;
+                record.type = type;
+                record.device = device;
+                record.body = body != null ? JsonParser.parseString(body) : null;
+                record.key = collapseKey;
+                append(record);
+                pending.put(item.seq, item);
+            }
+        }
+        notifyChanged(item);
+        drain();
+        return item;
+    }
+
+    /**
+     * The item a change with this key can be merged into: the device's last
+     * pending item, if it has the same key and isn't on the wire. Merging into
+     * anything earlier would move the change ahead of a later one for the device.
+     * Caller holds the lock.
+     */
+    private Item collapseTarget(String device, String collapseKey) {
+        Item target = null;
+        for (Item item : pending.values()) {
+            if (Objects.equals(device, item.device)) {
+                target = item != inFlight && collapseKey.equals(item.collapseKey) ? item : null;
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Whether the backend is reachable. Going online sends whatever is queued
+     * straight away, without waiting out an earlier backoff.
+     */
+    public void setOnline(boolean online) {
+        synchronized (this) {
+            this.online = online;
+            if (online) {
+                consecutiveFailures = 0;
+                if (retryTimer != null) {
+                    retryTimer.cancel(false);
+                    retryTimer = null;
+                }
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Whether the credentials are believed valid. A 401 or 403 sets this false
+     * and holds everything queued; call with true once the user has signed in again.
+     */
+    public void setAuthorized(boolean authorized) {
+        synchronized (this) {
+            this.authorized = authorized;
+        }
+        drain();
+    }
+
+    public synchronized boolean isAuthorized() {
+        return authorized;
+    }
+
+    /** True if anything is queued, or may be because the log hasn't been read yet */
+    public synchronized boolean hasPending() {
+        return !opened || !pending.isEmpty();
+    }
+
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    /** Pending items in send order, then recently finished ones */
+    public synchronized List<Item> getItems() {
+        List<Item> items = new ArrayList<>(pending.values());
+        items.addAll(recent.values());
+        return items;
+    }
+
+    /** Pending or recently finished item by seq, or null */
+    public synchronized Item getItem(long seq) {
+        Item item = pending.get(seq);
+        return item != null ? item : recent.get(seq);
+    }
+
+    /**
+     * Drop every queued item and empty the log, e.g. when the user logs out
+     */
+    public synchronized void clear() {
+        if (!opened) {
+            clearedBeforeOpen = true;
+        }
+        pending.clear();
+        recent.clear();
+        if (retryTimer != null) {
+            retryTimer.cancel(false);
+            retryTimer = null;
+        }
+        consecutiveFailures = 0;
+        authorized = true;
+        compact();
+    }
+
+    /**
+     * Stop sending and write out the log. Blocks until the disk has caught up.
+     */
+    public void close() {
+        // Whatever the log held is part of what gets written back
+        opening.exceptionally(e -> null).join();
+        synchronized (this) {
+            if (retryTimer != null) {
+                retryTimer.cancel(false);
+                retryTimer = null;
+            }
+            compact();
+            disk.execute(this::closeWriter);
+            closed = true;
+        }
+        written().join();
+    }
+
+    /** Completes once the log has been read and what it held is queued */
+    CompletableFuture<Void> opened() {
+        return opening;
+    }
+
+    /** Completes once everything queued for the disk so far has been written */
+    CompletableFuture<Void> written() {
+        return CompletableFuture.runAsync(() -> { }, disk);
+    }
+
+    // Send pending items, oldest first, until one is waiting on the network or a backoff
+    private void drain() {
+        while (true) {
+            Item next = null;
+            synchronized (this) {
+                if (closed || !opened || !online || !authorized || inFlight != null || retryTimer != null) {
+                    return;
+                }
+                for (Item item : pending.values()) {
+                    next = item;
+                    break;
+                }
+                if (next == null) {
+                    return;
+                }
+                inFlight = next;
+                synchronized (next) {
+                    next.attempts++;
+                    next.status = Status.SENDING;
+                }
+            }
+            notifyChanged(next);
+
+            Item sending = next;
+            CompletableFuture<?> sent;
+            try {
+                sent = sender.send(sending);
+            } catch (RuntimeException e) {
+                sent = new CompletableFuture<>();
+                sent.completeExceptionally(e);
+            }
+            if (!sent.isDone()) {
+                sent.whenComplete((result, error) -> {
+                    sendFinished(sending, error);
+                    drain();
+                });
+                return;
+            }
+            // Already answered: loop rather than recurse, a long backlog would overflow the stack
+            Throwable error = null;
+            try {
+                sent.join();
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            sendFinished(sending, error);
+        }
+    }
+
+    private void sendFinished(Item item, Throwable error) {
+        synchronized (this) {
+            inFlight = null;
+            if (closed || !pending.containsKey(item.seq)) {
+                // Cleared while it was being sent
+                return;
+            }
+            if (error == null) {
+                consecutiveFailures = 0;
+                finish(item, Status.SENT, "sent", null);
+            } else if (isUnauthorized(error)) {
+                item.set(Status.PENDING, ApiPipeline.messageFor(error, "Not authorized"));
+                authorized = false;
+                Log.w(TAG, item + " not authorized (" + item.getLastError() + "), holding the outbox");
+            } else if (isRejection(error)) {
+                String message = ApiPipeline.messageFor(error, "Rejected by server");
+                Log.w(TAG, item + " rejected: " + message);
+                finish(item, Status.FAILED, "failed", message);
+            } else {
+                item.set(Status.PENDING, ApiPipeline.messageFor(error, "Failed"));
+                long delay = backoff(++consecutiveFailures);
+                Log.d(TAG, item + " failed (" + item.getLastError() + "), retrying in " + delay + "ms");
+                retryTimer = timers.schedule(() -> {
+                    synchronized (this) {
+                        retryTimer = null;
+                    }
+                    drain();
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+        notifyChanged(item);
+    }
+
+    long backoff(int failures) {
+        long delay = config.baseBackoffMs;
+        for (int i = 1; i < failures && delay < config.maxBackoffMs; i++) {
+            delay *= 2;
+        }
+        return Math.min(delay, config.maxBackoffMs);
+    }
+
+    static boolean isRejection(Throwable error) {
+        int code = httpCode(error);
+        return (code >= 200 && code < 300)
+                || (code >= 400 && code < 500 && code != 401 && code != 403 && code != 408 && code != 429);
+    }
+
+    static boolean isUnauthorized(Throwable error) {
+        int code = httpCode(error);
+        return code == 401 || code == 403;
+    }
+
+    // The status the server answered with, 0 if it didn't
+    private static int httpCode(Throwable error) {
+        Throwable cause = error;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof ApiPipeline.ApiException ? ((ApiPipeline.ApiException) cause).httpCode : 0;
+    }
+
+    // Caller holds the lock
+    private void finish(Item item, Status status, String op, String error) {
+        item.set(status, error);
+        pending.remove(item.seq);
+        recent.put(item.seq, item);
+        Record record = new Record();
+        record.op = op;
+        record.seq = item.seq;
+        record.error = error;
+        append(record);
+        if (++finishedRecords >= config.compactAfter) {
+            compact();
+        }
+    }
+
+    // Newer fields win; anything but two JSON objects is simply replaced
+    private static String merge(String older, String newer) {
+        if (older == null || newer == null) {
+            return newer;
+        }
+        try {
+            JsonElement a = JsonParser.parseString(older);
+            JsonElement b = JsonParser.parseString(newer);
+            if (!a.isJsonObject() || !b.isJsonObject()) {
+                return newer;
+            }
+            JsonObject merged = a.getAsJsonObject().deepCopy();
+            for (Map.Entry<String, JsonElement> field : b.getAsJsonObject().entrySet()) {
+                merged.add(field.getKey(), field.getValue());
+            }
+            return merged.toString();
+        } catch (RuntimeException e) {
+            return newer;
+        }
+    }
+
+    // On the disk executor: read the log, then queue what it held ahead of anything enqueued meanwhile
+    private void open() {
+        Map<Long, Item> loaded = new LinkedHashMap<>();
+        long lastSeq = load(loaded);
+        List<Item> restored = new ArrayList<>();
+        List<String> lines;
+        synchronized (this) {
+            if (!clearedBeforeOpen) {
+                nextSeq = Math.max(nextSeq, lastSeq + 1);
+                for (Item item : loaded.values()) {
+                    // Only an item enqueued while the log was being read can already have this seq
+                    if (pending.containsKey(item.seq)) {
+                        item = new Item(nextSeq++, item.type, item.device, item.getBody(), item.collapseKey);
+                    }
+                    restored.add(item);
+                }
+            }
+            Map<Long, Item> newer = new LinkedHashMap<>(pending);
+            pending.clear();
+            for (Item item : restored) {
+                pending.put(item.seq, item);
+            }
+            pending.putAll(newer);
+            opened = true;
+            lines = records(restored);
+        }
+        // Anything written for the newer items is queued behind this, so it follows the rewrite
+        rewrite(lines);
+        for (Item item : restored) {
+            notifyChanged(item);
+        }
+        drain();
+    }
+
+    // Items in the log at file, returning the highest seq it mentions
+    private long load(Map<Long, Item> items) {
+        long lastSeq = 0;
+        if (!file.exists()) {
+            return lastSeq;
+        }
+        int skipped = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Record record;
+                try {
+                    record = gson.fromJson(line, Record.class);
+                } catch (RuntimeException e) {
+                    record = null;
+                }
+                if (record == null || record.op == null) {
+                    skipped++;
+                    continue;
+                }
+                lastSeq = Math.max(lastSeq, record.seq);
+                String body = record.body != null && !record.body.isJsonNull() ? record.body.toString() : null;
+                if ("add".equals(record.op)) {
+                    items.put(record.seq, new Item(record.seq, record.type, record.device, body, record.key));
+                } else if ("update".equals(record.op)) {
+                    Item item = items.get(record.seq);
+                    if (item != null) {
+                        item.set(body);
+                    }
+                } else {
+                    // "sent", "failed", or "superseded" from before changes were merged in place
+                    items.remove(record.seq);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading " + file, e);
+        }
+        Log.d(TAG, "Loaded " + items.size() + " pending items" + (skipped > 0 ? ", skipped " + skipped + " torn records" : ""));
+        return lastSeq;
+    }
+
+    // Queue a rewrite of the log with only pending items. Caller holds the lock.
+    private void compact() {
+        finishedRecords = 0;
+        List<String> lines = records(pending.values());
+        disk.execute(() -> rewrite(lines));
+    }
+
+    // An "add" line per item, with its current body
+    private List<String> records(Iterable<Item> items) {
+        List<String> lines = new ArrayList<>();
+        for (Item item : items) {
+            Record record = new Record();
+            record.op = "add";
+            record.seq = item.seq;
+            record.type = item.type;
+            record.device = item.device;
+            String body = item.getBody();
+            record.body = body != null ? JsonParser.parseString(body) : null;
+            record.key = item.collapseKey;
+            lines.add(gson.toJson(record));
+        }
+        return lines;
+    }
+
+    // On the disk executor
+    private void rewrite(List<String> lines) {
+        closeWriter();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                w.write(line);
+                w.write('\n');
+            }
+            w.flush();
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Error compacting " + file, e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.e(TAG, "Cannot replace " + file);
+            tmp.delete();
+        }
+    }
+
+    // Queue a record for the end of the log. Caller holds the lock.
+    private void append(Record record) {
+        if (closed) {
+            return;
+        }
+        String line = gson.toJson(record) + "\n";
+        // A queued change the user was told about must survive even a power cut; losing
+        // a finished record to one only means sending that item again
+        boolean sync = "add".equals(record.op) || "update".equals(record.op);
+        disk.execute(() -> write(line, sync));
+    }
+
+    // On the disk executor
+    private void write(String line, boolean sync) {
+        try {
+            if (writer == null) {
+                stream = new FileOutputStream(file, true);
+                writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+            }
+            writer.write(line);
+            writer.flush();
+            if (sync) {
+                stream.getFD().sync();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing " + file, e);
+            closeWriter();
+        }
+    }
+
+    // On the disk executor
+    private void closeWriter() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing " + file, e);
+            }
+            writer = null;
+            stream = null;
+        }
+    }
+
+    private void notifyChanged(Item item) {
+        for (Listener listener : listeners) {
+            listener.onItemChanged(item);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.smartworks.api;
+
+/**
+ * One page of a device's readings history, stored by column: reading i was
+ * taken at timesMs[i] (epoch millis, UTC) and read temperatures[i] Celsius.
+ * A year of 5-minute samples is two arrays instead of ~100k reading objects
+ * each holding its own timestamp string.
+ */
+public class ReadingBlock {
+    public final long[] timesMs;
+    public final float[] temperatures;
+    // Pass to the next request for the page after this one; null on the last page
+    public final String nextCursor;
+    // Rows dropped because their timestamp or temperature was missing or unreadable
+    public final int skipped;
+
+    // Set by ReadingsDecoder from the envelope
+    final String status;
+    final String message;
+
+    ReadingBlock(long[] timesMs, float[] temperatures, String nextCursor, int skipped,
+                 String status, String message) {
+        this.timesMs = timesMs;
+        this.temperatures = temperatures;
+        this.nextCursor = nextCursor;
+        this.skipped = skipped;
+        this.status = status;
+        this.message = message;
+    }
+
+    public int size() {
+        return timesMs.length;
+    }
+
+    public boolean isEmpty() {
+        return timesMs.length == 0;
+    }
+
+    /** Reading time of the first row, or 0 if the page is empty */
+    public long firstTimeMs() {
+        return timesMs.length == 0 ? 0 : timesMs[0];
+    }
+
+    /** Reading time of the last row, or 0 if the page is empty */
+    public long lastTimeMs() {
+        return timesMs.length == 0 ? 0 : timesMs[timesMs.length - 1];
+    }
+
+    @Override
+    public String toString() {
+        return "ReadingBlock{rows=" + size() + ", skipped=" + skipped
+                + ", next=" + (nextCursor != null ? nextCursor : "end") + "}";
+    }
+}
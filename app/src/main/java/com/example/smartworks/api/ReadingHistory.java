@@ -0,0 +1,152 @@
+package com.example.smartworks.api;
+
+import android.util.Log;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Walks a device's readings history one page at a time, following the cursor
+ * each page hands back. Only the page being read is held in memory; a
+ * consumer that folds pages into a chart or an average never has the whole
+ * history at once.
+ *
+ * Not an Iterator because pages arrive asynchronously: call next() again once
+ * the previous page has arrived, until hasNext() is false. A failed page can
+ * be retried with next(); the cursor only moves on success.
+ */
+public class ReadingHistory {
+    private static final String TAG = "ReadingHistory";
+    static final String FAILURE = "Failed to retrieve readings";
+
+    /**
+     * Fetches the page at cursor, null for the first one
+     */
+    public interface PageLoader {
+        CompletableFuture<SmartWorksApiService.ApiResult<ReadingBlock>> load(String cursor);
+    }
+
+    private final PageLoader loader;
+
+    // Guarded by this
+    private String cursor;
+    private boolean finished;
+    private boolean loading;
+    private int pages;
+    private long rows;
+
+    public ReadingHistory(PageLoader loader) {
+        this.loader = loader;
+    }
+
+    public synchronized boolean hasNext() {
+        return !finished;
+    }
+
+    /**
+     * Fetch the next page
+     *
+     * @throws IllegalStateException if there are no more pages, or the previous one hasn't arrived
+     */
+    public CompletableFuture<SmartWorksApiService.ApiResult<ReadingBlock>> next() {
+        String requested;
+        synchronized (this) {
+            if (finished) {
+                throw new IllegalStateException("No more pages");
+            }
+            if (loading) {
+                throw new IllegalStateException("Previous page still loading");
+            }
+            loading = true;
+            requested = cursor;
+        }
+        CompletableFuture<SmartWorksApiService.ApiResult<ReadingBlock>> page;
+        try {
+            page = loader.load(requested);
+        } catch (RuntimeException e) {
+            page = new CompletableFuture<>();
+            page.completeExceptionally(e);
+        }
+        return page.handle((result, error) -> {
+            synchronized (this) {
+                loading = false;
+                if (error != null) {
+                    return SmartWorksApiService.ApiResult.<ReadingBlock>error(ApiPipeline.messageFor(error, FAILURE));
+                }
+                if (result == null) {
+                    return SmartWorksApiService.ApiResult.<ReadingBlock>error(FAILURE);
+                }
+                if (!result.success) {
+                    return result;
+                }
+                pages++;
+                rows += result.data.size();
+                String next = result.data.nextCursor;
+                if (next != null && next.equals(requested)) {
+                    // The server ignored the cursor; following it would loop forever
+                    Log.w(TAG, "Cursor " + next + " did not advance, stopping");
+                    next = null;
+                }
+                cursor = next;
+                finished = next == null;
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Hand every remaining page to consumer in order, on whichever thread
+     * delivered it. Stops at the first failed page.
+     *
+     * @return the number of rows read, or the failed page's error
+     */
+    public CompletableFuture<SmartWorksApiService.ApiResult<Long>> forEachPage(Consumer<ReadingBlock> consumer) {
+        CompletableFuture<SmartWorksApiService.ApiResult<Long>> done = new CompletableFuture<>();
+        readFrom(consumer, done);
+        return done;
+    }
+
+    // Loops while pages arrive synchronously, so a long history can't overflow the stack
+    private void readFrom(Consumer<ReadingBlock> consumer,
+                          CompletableFuture<SmartWorksApiService.ApiResult<Long>> done) {
+        while (hasNext()) {
+            CompletableFuture<SmartWorksApiService.ApiResult<ReadingBlock>> page = next();
+            if (!page.isDone()) {
+                page.thenAccept(result -> {
+                    if (deliver(result, consumer, done)) {
+                        readFrom(consumer, done);
+                    }
+                });
+                return;
+            }
+            if (!deliver(page.join(), consumer, done)) {
+                return;
+            }
+        }
+        done.complete(SmartWorksApiService.ApiResult.success("Readings retrieved successfully", getRows()));
+    }
+
+    // False once done has been completed with an error
+    private static boolean deliver(SmartWorksApiService.ApiResult<ReadingBlock> result, Consumer<ReadingBlock> consumer,
+                                   CompletableFuture<SmartWorksApiService.ApiResult<Long>> done) {
+        if (!result.success) {
+            done.complete(SmartWorksApiService.ApiResult.error(result.message));
+            return false;
+        }
+        try {
+            consumer.accept(result.data);
+        } catch (RuntimeException e) {
+            done.completeExceptionally(e);
+            return false;
+        }
+        return true;
+    }
+
+    public synchronized int getPages() {
+        return pages;
+    }
+
+    /** Rows read so far, across every page */
+    public synchronized long getRows() {
+        return rows;
+    }
+}
@@ -0,0 +1,326 @@
+package com.example.smartworks.api;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Reads a get_readings.php page straight from the response stream, JSON or
+ * MessagePack, into a ReadingBlock:
+ * {"status":"ok","readings":[{"timestamp":"2026-10-01 12:00:00","temperature":26.4,...}],"next_cursor":"..."}
+ *
+ * No reading objects are built; each row's timestamp is parsed to epoch
+ * millis as it is read and only the two columns are kept. Timestamps are
+ * "yyyy-MM-dd HH:mm:ss" as the backend stores them (taken as UTC), ISO 8601
+ * with an optional fraction and Z or offset, or epoch seconds or millis.
+ */
+public final class ReadingsDecoder {
+    static final long INVALID = Long.MIN_VALUE;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    // Below this a numeric timestamp is taken as seconds (until the year 5138)
+    private static final long MAX_EPOCH_SECONDS = 100_000_000_000L;
+
+    private ReadingsDecoder() {}
+
+    /**
+     * Decode one page. Rows without a readable timestamp or temperature are
+     * counted in skipped rather than failing the page.
+     *
+     * @param expectedRows initial column capacity, usually the requested page size
+     * @throws JsonSyntaxException if the body is not a readings page
+     * @throws IOException if reading the underlying stream fails
+     */
+    public static ReadingBlock decode(Reader source, int expectedRows) throws IOException {
+        return decode(new JsonReader(source), expectedRows);
+    }
+
+    /**
+     * Decode one page from a JSON or MessagePack reader, see WireFormat
+     */
+    public static ReadingBlock decode(JsonReader reader, int expectedRows) throws IOException {
+        String status = null;
+        String message = null;
+        String nextCursor = null;
+        Columns columns = new Columns(Math.max(expectedRows, 16));
+
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "status":
+                        status = reader.nextString();
+                        break;
+                    case "message":
+                        message = reader.nextString();
+                        break;
+                    case "next_cursor":
+                        nextCursor = reader.nextString();
+                        break;
+                    case "readings":
+                        readRows(reader, columns);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+
+        if (nextCursor != null && nextCursor.isEmpty()) {
+            nextCursor = null;
+        }
+        return new ReadingBlock(columns.times(), columns.temperatures(), nextCursor, columns.skipped,
+                status, message);
+    }
+
+    private static void readRows(JsonReader reader, Columns columns) throws IOException {
+        TimestampParser timestamps = new TimestampParser();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            long timeMs = INVALID;
+            float temperature = 0;
+            boolean hasTemperature = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "timestamp":
+                        try {
+                            timeMs = reader.peek() == JsonToken.NUMBER
+                                    ? fromEpoch(reader.nextLong())
+                                    : timestamps.parse(reader.nextString());
+                        } catch (NumberFormatException e) {
+                            // A fractional epoch; the reader keeps the value, so step over it
+                            reader.skipValue();
+                            timeMs = INVALID;
+                        }
+                        break;
+                    case "temperature":
+                        // PHP often sends numeric columns as strings; nextDouble takes both
+                        try {
+                            temperature = (float) reader.nextDouble();
+                            hasTemperature = true;
+                        } catch (NumberFormatException e) {
+                            // e.g. "" for a reading the sensor didn't give
+                            reader.skipValue();
+                            hasTemperature = false;
+                        }
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+
+            if (timeMs == INVALID || !hasTemperature) {
+                columns.skipped++;
+            } else {
+                columns.add(timeMs, temperature);
+            }
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Epoch millis for one timestamp, or INVALID if it can't be read
+     */
+    static long parseTimestamp(String text) {
+        return new TimestampParser().parse(text);
+    }
+
+    private static long fromEpoch(long value) {
+        return value < MAX_EPOCH_SECONDS ? value * 1000 : value;
+    }
+
+    // Growable column pair, trimmed once at the end of the page
+    private static final class Columns {
+        long[] times;
+        float[] temperatures;
+        int size;
+        int skipped;
+
+        Columns(int capacity) {
+            times = new long[capacity];
+            temperatures = new float[capacity];
+        }
+
+        void add(long timeMs, float temperature) {
+            if (size == times.length) {
+                int capacity = size + (size >> 1);
+                times = Arrays.copyOf(times, capacity);
+                temperatures = Arrays.copyOf(temperatures, capacity);
+            }
+            times[size] = timeMs;
+            temperatures[size] = temperature;
+            size++;
+        }
+
+        long[] times() {
+            return size == times.length ? times : Arrays.copyOf(times, size);
+        }
+
+        float[] temperatures() {
+            return size == temperatures.length ? temperatures : Arrays.copyOf(temperatures, size);
+        }
+    }
+
+    /**
+     * Rows of one page mostly share a date, so the date part is converted to
+     * days once and reused while it stays the same
+     */
+    private static final class TimestampParser {
+        private String lastDate;
+        private long lastDayMs;
+
+        long parse(String text) {
+            int n = text.length();
+            if (n == 0) {
+                return INVALID;
+            }
+            if (allDigits(text)) {
+                return n > 18 ? INVALID : fromEpoch(Long.parseLong(text));
+            }
+            // yyyy-MM-dd HH:mm at least
+            if (n < 16 || text.charAt(4) != '-' || text.charAt(7) != '-'
+                    || (text.charAt(10) != ' ' && text.charAt(10) != 'T') || text.charAt(13) != ':') {
+                return INVALID;
+            }
+
+            long dayMs;
+            if (lastDate != null && text.regionMatches(0, lastDate, 0, 10)) {
+                dayMs = lastDayMs;
+            } else {
+                int year = digits(text, 0, 4);
+                int month = digits(text, 5, 2);
+                int day = digits(text, 8, 2);
+                if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+                    return INVALID;
+                }
+                dayMs = daysFromCivil(year, month, day) * DAY_MS;
+                lastDate = text.substring(0, 10);
+                lastDayMs = dayMs;
+            }
+
+            int hour = digits(text, 11, 2);
+            int minute = digits(text, 14, 2);
+            int second = 0;
+            int pos = 16;
+            if (pos < n && text.charAt(pos) == ':') {
+                second = digits(text, pos + 1, 2);
+                pos += 3;
+            }
+            if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60) {
+                return INVALID;
+            }
+
+            int millis = 0;
+            if (pos < n && text.charAt(pos) == '.') {
+                pos++;
+                int scale = 100;
+                while (pos < n && isDigit(text.charAt(pos))) {
+                    millis += (text.charAt(pos) - '0') * scale;
+                    scale /= 10;
+                    pos++;
+                }
+            }
+
+            long offsetMs = 0;
+            if (pos < n) {
+                char sign = text.charAt(pos);
+                if (sign == 'Z') {
+                    pos++;
+                } else if (sign == '+' || sign == '-') {
+                    int offsetHours = digits(text, pos + 1, 2);
+                    pos += 3;
+                    if (pos < n && text.charAt(pos) == ':') {
+                        pos++;
+                    }
+                    int offsetMinutes = pos < n ? digits(text, pos, 2) : 0;
+                    if (pos < n) {
+                        pos += 2;
+                    }
+                    if (offsetHours < 0 || offsetMinutes < 0) {
+                        return INVALID;
+                    }
+                    offsetMs = (offsetHours * 60L + offsetMinutes) * 60000L * (sign == '+' ? 1 : -1);
+                }
+            }
+            if (pos != n) {
+                return INVALID;
+            }
+            return dayMs + hour * 3600000L + minute * 60000L + second * 1000L + millis - offsetMs;
+        }
+
+        private static boolean allDigits(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                if (!isDigit(text.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isDigit(char c) {
+            return c >= '0' && c <= '9';
+        }
+
+        // Value of count digits at start, or -1 if any of them isn't a digit
+        private static int digits(String text, int start, int count) {
+            if (start + count > text.length()) {
+                return -1;
+            }
+            int value = 0;
+            for (int i = start; i < start + count; i++) {
+                char c = text.charAt(i);
+                if (!isDigit(c)) {
+                    return -1;
+                }
+                value = value * 10 + (c - '0');
+            }
+            return value;
+        }
+
+        private static int daysInMonth(int year, int month) {
+            switch (month) {
+                case 2:
+                    boolean leap = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+                    return leap ? 29 : 28;
+                case 4:
+                case 6:
+                case 9:
+                case 11:
+                    return 30;
+                default:
+                    return 31;
+            }
+        }
+
+        // Days since 1970-01-01 in the proleptic Gregorian calendar; java.time needs API 26
+        private static long daysFromCivil(int year, int month, int day) {
+            long y = month <= 2 ? year - 1 : year;
+            long era = Math.floorDiv(y, 400);
+            long yearOfEra = y - era * 400;
+            long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+            long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+            return era * 146097 + dayOfEra - 719468;
+        }
+    }
+}
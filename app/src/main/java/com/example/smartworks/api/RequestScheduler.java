@@ -0,0 +1,251 @@
+package com.example.smartworks.api;
+
+import com.example.smartworks.network.LatencyTracker;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Decides which backend call goes out next. Calls wait in one queue per
+ * priority; whenever a slot frees up the highest-priority waiting call gets it,
+ * so a tap never queues behind prefetches that were submitted earlier. Each
+ * priority also has its own in-flight limit, which keeps background work from
+ * taking every connection on a slow link.
+ *
+ * Only decides when a call starts: a background call already on the wire is
+ * left to finish.
+ */
+public class RequestScheduler {
+
+    public enum Priority {
+        // The user is waiting on it: refresh, delete, command
+        INTERACTIVE,
+        // Needed soon, nobody is staring at a spinner: outbox replay, delta sync
+        NORMAL,
+        // Prefetches and checks nobody asked for
+        BACKGROUND
+    }
+
+    public static class Config {
+        // Calls in flight across every priority; at most the dispatcher's limit
+        public int maxConcurrent = BackendClient.MAX_CONCURRENT_REQUESTS;
+        // NORMAL and BACKGROUND together stay below maxConcurrent, so a tap finds a free slot
+        final Map<Priority, Integer> limits = new EnumMap<>(Priority.class);
+
+        public Config() {
+            limits.put(Priority.INTERACTIVE, maxConcurrent);
+            limits.put(Priority.NORMAL, 2);
+            limits.put(Priority.BACKGROUND, 1);
+        }
+
+        /** Also lets INTERACTIVE use every slot; set its limit afterwards to lower it */
+        public Config setMaxConcurrent(int maxConcurrent) {
+            this.maxConcurrent = maxConcurrent;
+            limits.put(Priority.INTERACTIVE, maxConcurrent);
+            return this;
+        }
+
+        /** Calls of this priority in flight at once */
+        public Config setLimit(Priority priority, int limit) {
+            limits.put(priority, limit);
+            return this;
+        }
+    }
+
+    /**
+     * Point-in-time view of one priority's queue
+     */
+    public static class LaneMetrics {
+        public final long started;
+        public final int queued;
+        public final int inFlight;
+        // Times a call of this priority was held back for a higher one that arrived later
+        public final long preempted;
+        public final long waitP50Ms;
+        public final long waitP95Ms;
+        public final long maxWaitMs;
+
+        LaneMetrics(long started, int queued, int inFlight, long preempted,
+                    long waitP50Ms, long waitP95Ms, long maxWaitMs) {
+            this.started = started;
+            this.queued = queued;
+            this.inFlight = inFlight;
+            this.preempted = preempted;
+            this.waitP50Ms = waitP50Ms;
+            this.waitP95Ms = waitP95Ms;
+            this.maxWaitMs = maxWaitMs;
+        }
+
+        @Override
+        public String toString() {
+            return "started=" + started + " queued=" + queued + " inFlight=" + inFlight
+                    + " preempted=" + preempted + " wait p50=" + waitP50Ms + "ms p95=" + waitP95Ms
+                    + "ms max=" + maxWaitMs + "ms";
+        }
+    }
+
+    private static class Task<T> {
+        final Priority priority;
+        final Supplier<CompletableFuture<T>> work;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final long queuedAt;
+
+        Task(Priority priority, Supplier<CompletableFuture<T>> work, long queuedAt) {
+            this.priority = priority;
+            this.work = work;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private static class Lane {
+        final ArrayDeque<Task<?>> queue = new ArrayDeque<>();
+        int inFlight;
+        long started;
+        long preempted;
+        long maxWaitMs;
+    }
+
+    private final Config config;
+    private final LongSupplier clock;
+    private final LatencyTracker waits = new LatencyTracker(128, 1);
+
+    // Guarded by this
+    private final Map<Priority, Lane> lanes = new EnumMap<>(Priority.class);
+    private int inFlight;
+
+    public RequestScheduler(Config config) {
+        this(config, System::currentTimeMillis);
+    }
+
+    RequestScheduler(Config config, LongSupplier clock) {
+        this.config = config;
+        this.clock = clock;
+        for (Priority priority : Priority.values()) {
+            lanes.put(priority, new Lane());
+        }
+    }
+
+    /**
+     * Run work once a slot for priority is free. Cancelling the returned future
+     * before then drops the call without ever starting it; after, it cancels
+     * the future work returned.
+     */
+    public <T> CompletableFuture<T> submit(Priority priority, Supplier<CompletableFuture<T>> work) {
+        Task<T> task = new Task<>(priority, work, clock.getAsLong());
+        task.result.whenComplete((value, error) -> {
+            if (task.result.isCancelled()) {
+                synchronized (this) {
+                    lanes.get(priority).queue.remove(task);
+                }
+            }
+        });
+        synchronized (this) {
+            lanes.get(priority).queue.add(task);
+        }
+        pump();
+        return task.result;
+    }
+
+    public synchronized LaneMetrics getMetrics(Priority priority) {
+        Lane lane = lanes.get(priority);
+        String key = priority.name();
+        return new LaneMetrics(lane.started, lane.queue.size(), lane.inFlight, lane.preempted,
+                waits.percentile(key, 0.5, 0), waits.percentile(key, 0.95, 0), lane.maxWaitMs);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        for (Priority priority : Priority.values()) {
+            out.append(priority).append(": ").append(getMetrics(priority)).append('\n');
+        }
+        return out.toString();
+    }
+
+    // Start as many waiting calls as the limits allow, highest priority first
+    private void pump() {
+        while (true) {
+            Task<?> next = null;
+            synchronized (this) {
+                if (inFlight >= config.maxConcurrent) {
+                    return;
+                }
+                // The last free slot is kept for INTERACTIVE whatever the other limits say,
+                // unless there is only the one
+                int reserved = config.maxConcurrent > 1 ? 1 : 0;
+                boolean othersMayStart =
+                        inFlight - lanes.get(Priority.INTERACTIVE).inFlight < config.maxConcurrent - reserved;
+                for (Priority priority : Priority.values()) {
+                    Lane lane = lanes.get(priority);
+                    if (priority != Priority.INTERACTIVE && !othersMayStart) {
+                        break;
+                    }
+                    if (!lane.queue.isEmpty() && lane.inFlight < config.limits.get(priority)) {
+                        next = lane.queue.poll();
+                        break;
+                    }
+                }
+                if (next == null) {
+                    return;
+                }
+                Lane lane = lanes.get(next.priority);
+                lane.inFlight++;
+                lane.started++;
+                inFlight++;
+                long waitMs = clock.getAsLong() - next.queuedAt;
+                lane.maxWaitMs = Math.max(lane.maxWaitMs, waitMs);
+                waits.record(next.priority.name(), waitMs);
+                // Anything older still waiting in a lower lane just got overtaken
+                for (Priority lower : Priority.values()) {
+                    if (lower.ordinal() > next.priority.ordinal()) {
+                        Task<?> oldest = lanes.get(lower).queue.peek();
+                        if (oldest != null && oldest.queuedAt <= next.queuedAt) {
+                            lanes.get(lower).preempted++;
+                        }
+                    }
+                }
+            }
+            start(next);
+        }
+    }
+
+    private <T> void start(Task<T> task) {
+        if (task.result.isDone()) {
+            // Cancelled while it was being taken off the queue
+            release(task);
+            return;
+        }
+        CompletableFuture<T> running;
+        try {
+            running = task.work.get();
+        } catch (RuntimeException e) {
+            running = new CompletableFuture<>();
+            running.completeExceptionally(e);
+        }
+        CompletableFuture<T> call = running;
+        task.result.whenComplete((value, error) -> {
+            if (task.result.isCancelled()) {
+                call.cancel(true);
+            }
+        });
+        call.whenComplete((value, error) -> {
+            if (error != null) {
+                task.result.completeExceptionally(error);
+            } else {
+                task.result.complete(value);
+            }
+            release(task);
+        });
+    }
+
+    private void release(Task<?> task) {
+        synchronized (this) {
+            lanes.get(task.priority).inFlight--;
+            inFlight--;
+        }
+        pump();
+    }
+}
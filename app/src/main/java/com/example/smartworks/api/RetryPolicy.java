@@ -0,0 +1,103 @@
+package com.example.smartworks.api;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleSupplier;
+import okhttp3.Request;
+
+/**
+ * When and how soon to try an idempotent call again. Delays use decorrelated
+ * jitter: each is drawn between baseDelayMs and three times the previous one,
+ * capped at maxDelayMs, so clients that failed together don't come back
+ * together. Retries stop once maxElapsedMs would be exceeded, since a user
+ * tapping refresh would rather see the cached list than wait.
+ */
+public class RetryPolicy {
+    // Attempts in total, the first included
+    public int maxAttempts = 3;
+    public long baseDelayMs = 250;
+    public long maxDelayMs = 4_000;
+    // No retry starts later than this after the first attempt did
+    public long maxElapsedMs = 20_000;
+
+    private final DoubleSupplier random;
+
+    public RetryPolicy() {
+        this(() -> ThreadLocalRandom.current().nextDouble());
+    }
+
+    RetryPolicy(DoubleSupplier random) {
+        this.random = random;
+    }
+
+    public RetryPolicy setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public RetryPolicy setBaseDelayMs(long baseDelayMs) {
+        this.baseDelayMs = baseDelayMs;
+        return this;
+    }
+
+    public RetryPolicy setMaxDelayMs(long maxDelayMs) {
+        this.maxDelayMs = maxDelayMs;
+        return this;
+    }
+
+    public RetryPolicy setMaxElapsedMs(long maxElapsedMs) {
+        this.maxElapsedMs = maxElapsedMs;
+        return this;
+    }
+
+    /**
+     * Delay before the next attempt
+     *
+     * @param previousDelayMs the delay before the last retry, 0 before the first
+     */
+    public long nextDelayMs(long previousDelayMs) {
+        long previous = Math.max(previousDelayMs, baseDelayMs);
+        long upper = previous * 3;
+        long delay = baseDelayMs + (long) (random.getAsDouble() * (upper - baseDelayMs));
+        return Math.min(maxDelayMs, delay);
+    }
+
+    /**
+     * Sending request twice has the same effect as sending it once. POSTs
+     * (registration, commands) never are as far as the client can tell.
+     */
+    public static boolean isIdempotent(Request request) {
+        switch (request.method()) {
+            case "GET":
+            case "HEAD":
+            case "PUT":
+            case "DELETE":
+            case "OPTIONS":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * The backend didn't answer or is unwell; counts against the circuit
+     */
+    public static boolean isBackendFailure(Throwable error) {
+        if (error instanceof ApiPipeline.ApiException) {
+            return ((ApiPipeline.ApiException) error).httpCode >= 500;
+        }
+        return error instanceof IOException && !(error instanceof CircuitBreaker.OpenException);
+    }
+
+    /**
+     * Worth trying again: no answer, or a gateway or server saying it's
+     * momentarily unavailable. A plain 500 is usually the same bug next time.
+     */
+    public static boolean isTransient(Throwable error) {
+        if (error instanceof ApiPipeline.ApiException) {
+            int code = ((ApiPipeline.ApiException) error).httpCode;
+            return code == 502 || code == 503 || code == 504;
+        }
+        return error instanceof IOException && !(error instanceof CircuitBreaker.OpenException);
+    }
+}
@@ -1,14 +1,17 @@
 package com.example.smartworks.api;
 
 import android.util.Log;
+import com.example.smartworks.ConnectivityMonitor;
+import com.example.smartworks.api.RequestScheduler.Priority;
 import com.example.smartworks.auth.AuthenticationManager;
 import com.google.gson.Gson;
 import com.google.gson.annotations.SerializedName;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.function.Function;
 import okhttp3.*;
 
 /**
@@ -18,27 +21,108 @@ import okhttp3.*;
 public class SmartWorksApiService {
     private static final String TAG = "ApiService";
     private static final String BASE_URL = "https://smartworkstech.com/server/"; // Updated to match new API structure
+    private static final long HTTP_CACHE_BYTES = 5 * 1024 * 1024; // Device lists are a few KB each
+    private static final CacheControl DELTA_CACHE_CONTROL = new CacheControl.Builder().noCache().noStore().build();
+    private static final MediaType JSON = MediaType.get("application/json");
+    // Outbox item types
+    private static final String OUTBOX_UPDATE = "update";
+    private static final String OUTBOX_DELETE = "delete";
+    private static final String OUTBOX_COMMAND = "command";
     
     private static SmartWorksApiService instance;
     private final OkHttpClient httpClient;
     private final Gson gson;
-    private final ExecutorService executorService;
+    private final ApiPipeline pipeline;
     private final AuthenticationManager authManager;
+    private final Cache httpCache;
+    private final DeviceListCache deviceLists;
+    private final DeviceStore deviceStore = new DeviceStore();
+    private final CommandBatcher commandBatcher;
+    private final Outbox outbox;
+    private final ConnectivityMonitor connectivity;
+    private final RequestScheduler scheduler;
+    private final FirmwareCatalog firmwareCatalog;
     
     private SmartWorksApiService(AuthenticationManager authManager) {
         this.authManager = authManager;
         this.gson = new Gson();
-        this.executorService = Executors.newCachedThreadPool();
+        this.deviceLists = new DeviceListCache(gson);
         
-        // Initialize OkHttp with timeouts and interceptors
-        this.httpClient = new OkHttpClient.Builder()
+        // Disk cache so unchanged responses are revalidated (304) instead of downloaded again
+        this.httpCache = new Cache(new File(authManager.getContext().getCacheDir(), "api-http"), HTTP_CACHE_BYTES);
+        
+        // Derived from the shared backend client: same pool, dispatcher and TLS sessions as login,
+        // with the longer timeouts device calls need. Calls are enqueued, never run on our own threads.
+        this.httpClient = BackendClient.get().newBuilder()
                 .connectTimeout(15, java.util.concurrent.TimeUnit.SECONDS)
                 .readTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
                 .writeTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-                .cache(null)  // Disable caching completely
+                .cache(httpCache)
                 .addInterceptor(new AuthInterceptor(authManager))
+                .addInterceptor(new WireFormat.Negotiator())
                 .addInterceptor(new LoggingInterceptor())
                 .build();
+        // Taps go out ahead of queued prefetches and firmware checks
+        this.scheduler = new RequestScheduler(new RequestScheduler.Config());
+        // An endpoint that keeps failing is refused on the spot rather than waited out, see CircuitBreaker
+        this.pipeline = new ApiPipeline(httpClient, gson, scheduler, new CircuitBreaker.Config(), new RetryPolicy());
+        this.commandBatcher = new CommandBatcher(new CommandBatcher.Config(), new CommandBatcher.Transport() {
+            @Override
+            public CompletableFuture<List<CommandBatcher.CommandResult>> sendBatch(List<CommandBatcher.Command> commands) {
+                return sendCommandBatch(commands);
+            }
+            
+            @Override
+            public CompletableFuture<ApiResult<Void>> sendOne(CommandBatcher.Command command) {
+                return sendSingleCommand(command.deviceId, command.command);
+            }
+        });
+        
+        // One answer per (type, version) for the whole fleet
+        this.firmwareCatalog = new FirmwareCatalog(new FirmwareCatalog.Config(), new FirmwareCatalog.Transport() {
+            @Override
+            public CompletableFuture<List<FirmwareCatalog.BulkResult>> checkBulk(List<FirmwareCatalog.Key> keys) {
+                return sendFirmwareBulk(keys);
+            }
+            
+            @Override
+            public CompletableFuture<FirmwareUpdateResponse> checkOne(FirmwareCatalog.Key key, Priority priority) {
+                return sendFirmwareCheck(key, priority);
+            }
+        });
+        
+        // Changes made offline wait here, on disk, until the backend can be reached
+        this.outbox = new Outbox(new File(authManager.getContext().getFilesDir(), "api-outbox.log"),
+                new Outbox.Config(), this::replay);
+        this.connectivity = ConnectivityMonitor.getInstance(authManager.getContext());
+        outbox.setOnline(connectivity.isConnected());
+        connectivity.addListener(new ConnectivityMonitor.OnNetworkChangedListener() {
+            @Override
+            public void onLanChanged(com.example.smartworks.network.NetworkSnapshot previous,
+                                     com.example.smartworks.network.NetworkSnapshot current) {
+                // Any connection will do for the backend, see onConnectedChanged
+            }
+            
+            @Override
+            public void onConnectedChanged(boolean connected) {
+                if (connected) {
+                    // Failures while offline said nothing about the server
+                    pipeline.resetBreakers();
+                }
+                outbox.setOnline(connected);
+            }
+        });
+        
+        // Another account must never see this one's cached devices, or send its queued changes
+        authManager.addAuthStateListener((isLoggedIn, user) -> {
+            if (!isLoggedIn) {
+                clearCaches();
+                outbox.clear();
+            } else {
+                // New credentials: retry whatever a 401/403 was holding back
+                outbox.setAuthorized(true);
+            }
+        });
     }
     
     public static synchronized SmartWorksApiService getInstance(AuthenticationManager authManager) {
@@ -49,305 +133,527 @@ public class SmartWorksApiService {
     }
     
     /**
-     * Register a new device for the authenticated user
+     * Drop every cached response and decoded list
      */
-    public CompletableFuture<ApiResult<Device>> registerDevice(String deviceMac, String type, String friendlyName) {
-        CompletableFuture<ApiResult<Device>> future = new CompletableFuture<>();
-        
-        executorService.execute(() -> {
+    public void clearCaches() {
+        deviceLists.clear();
+        deviceStore.clear();
+        firmwareCatalog.clear();
+        httpClient.dispatcher().executorService().execute(() -> {
             try {
-                RegisterDeviceRequest request = new RegisterDeviceRequest(deviceMac, type, friendlyName);
-                RequestBody body = RequestBody.create(
-                        gson.toJson(request),
-                        MediaType.get("application/json")
-                );
-                
-                Request httpRequest = new Request.Builder()
-                        .url(BASE_URL + "register_device.php")
-                        .post(body)
-                        .header("Content-Type", "application/json")
-                        .build();
-                
-                Response response = httpClient.newCall(httpRequest).execute();
-                String responseBody = response.body().string();
-                
-                if (response.isSuccessful()) {
-                    RegisterDeviceResponse deviceResponse = gson.fromJson(responseBody, RegisterDeviceResponse.class);
-                    
-                    if ("ok".equals(deviceResponse.status)) {
-                        future.complete(ApiResult.success("Device registered successfully", deviceResponse.device));
-                    } else {
-                        future.complete(ApiResult.error(deviceResponse.message));
-                    }
-                } else {
-                    ErrorResponse errorResponse = gson.fromJson(responseBody, ErrorResponse.class);
-                    String errorMessage = errorResponse != null ? errorResponse.message : "Device registration failed";
-                    future.complete(ApiResult.error(errorMessage));
-                }
-                
-            } catch (Exception e) {
-                Log.e(TAG, "Device registration error", e);
-                future.complete(ApiResult.error("Network error: " + e.getMessage()));
+                httpCache.evictAll();
+            } catch (IOException e) {
+                Log.e(TAG, "Error clearing HTTP cache", e);
             }
         });
+    }
+    
+    /**
+     * Register a new device for the authenticated user
+     */
+    public CompletableFuture<ApiResult<Device>> registerDevice(String deviceMac, String type, String friendlyName) {
+        RegisterDeviceRequest request = new RegisterDeviceRequest(deviceMac, type, friendlyName);
+        Request httpRequest = new Request.Builder()
+                .url(BASE_URL + "register_device.php")
+                .post(RequestBody.create(gson.toJson(request), JSON))
+                .build();
         
-        return future;
+        return send(Priority.INTERACTIVE, httpRequest, pipeline.json(RegisterDeviceResponse.class), "Device registration failed",
+                (RegisterDeviceResponse response) -> "ok".equals(response.status)
+                        ? ApiResult.success("Device registered successfully", response.device)
+                        : ApiResult.error(response.message));
     }
     
     /**
-     * Get all devices for the authenticated user
+     * Get all devices for the authenticated user. Revalidated with the server
+     * every time; an unchanged list comes back as the previously decoded objects.
      */
     public CompletableFuture<ApiResult<List<Device>>> getUserDevices() {
-        CompletableFuture<ApiResult<List<Device>>> future = new CompletableFuture<>();
+        return loadDeviceList().thenApply(result -> result.success
+                ? ApiResult.success("Devices retrieved successfully", result.data.devices)
+                : ApiResult.error(result.message));
+    }
+    
+    /**
+     * Bring getDeviceStore() up to date and report what changed.
+     *
+     * Once a full list has been pulled, asks only for devices changed since the
+     * last watermark: get_user_devices.php?since=... answers
+     * {"status":"ok","delta":true,"devices":[changed],"removed":[device_ids],"watermark":"..."}.
+     * If the server rejects the watermark (409, 410 or status "resync") a full
+     * pull runs instead, as it does for a server that ignores since.
+     *
+     * @param forceFull skip the delta and pull the whole list
+     */
+    public CompletableFuture<ApiResult<DeviceStore.Changes>> syncUserDevices(boolean forceFull) {
+        String account = String.valueOf(authManager.getUserId());
+        String since = forceFull ? null : deviceStore.getWatermark(account);
+        CompletableFuture<ApiResult<DeviceStore.Changes>> delta = since != null
+                ? loadDelta(account, since)
+                : CompletableFuture.completedFuture(null);
         
-        executorService.execute(() -> {
-            try {
-                // Add timestamp to force fresh data (cache busting)
-                String url = BASE_URL + "api/get_user_devices.php?_t=" + System.currentTimeMillis();
-                
-                Request httpRequest = new Request.Builder()
-                        .url(url)
-                        .get()
-                        .build();
-                
-                Response response = httpClient.newCall(httpRequest).execute();
-                String responseBody = response.body().string();
-                
-                if (response.isSuccessful()) {
-                    DeviceListResponse deviceResponse = gson.fromJson(responseBody, DeviceListResponse.class);
-                    
-                    if ("ok".equals(deviceResponse.status)) {
-                        future.complete(ApiResult.success("Devices retrieved successfully", deviceResponse.devices));
-                    } else {
-                        future.complete(ApiResult.error(deviceResponse.message));
-                    }
-                } else {
-                    // Try to parse error message from response body
-                    try {
-                        ErrorResponse errorResponse = gson.fromJson(responseBody, ErrorResponse.class);
-                        String errorMessage = errorResponse != null && errorResponse.message != null ? 
-                                errorResponse.message : "Server error: " + response.code();
-                        future.complete(ApiResult.error(errorMessage));
-                    } catch (Exception e) {
-                        future.complete(ApiResult.error("Failed to retrieve devices: " + response.code()));
-                    }
-                }
-                
-            } catch (Exception e) {
-                Log.e(TAG, "Get devices error", e);
-                future.complete(ApiResult.error("Network error: " + e.getMessage()));
+        return delta.thenCompose(result -> {
+            if (result != null) {
+                return CompletableFuture.completedFuture(result);
             }
-        });
+            if (since != null) {
+                Log.d(TAG, "Watermark " + since + " rejected, running a full sync");
+            }
+            return loadDeviceList().thenApply(full -> {
+                if (!full.success) {
+                    return ApiResult.<DeviceStore.Changes>error(full.message);
+                }
+                DeviceStore.Changes changes = deviceStore.replaceAll(account, full.data.devices, full.data.watermark);
+                Log.d(TAG, "Device sync " + changes);
+                return ApiResult.success("Devices retrieved successfully", changes);
+            });
+        }).exceptionally(e -> failed(e, "Failed to sync devices"));
+    }
+    
+    /**
+     * Devices as of the last syncUserDevices
+     */
+    public DeviceStore getDeviceStore() {
+        return deviceStore;
+    }
+    
+    /**
+     * The whole device list, as a conditional GET
+     */
+    private CompletableFuture<ApiResult<DeviceListResponse>> loadDeviceList() {
+        // Conditional GET: fresh data without downloading an unchanged list
+        Request httpRequest = DeviceListCache.revalidating(new Request.Builder()
+                .url(BASE_URL + "api/get_user_devices.php")
+                .get()
+                .build());
+        String account = String.valueOf(authManager.getUserId());
         
-        return future;
+        return send(Priority.INTERACTIVE, httpRequest, response -> {
+            if (!response.isSuccessful()) {
+                throw pipeline.error(response);
+            }
+            return deviceLists.decode(account, response);
+        }, "Failed to retrieve devices", (DeviceListResponse response) ->
+                "ok".equals(response.status) && response.devices != null
+                        ? ApiResult.success("Devices retrieved successfully", response)
+                        : ApiResult.error(response.message));
     }
     
     /**
-     * Update device settings
+     * Changes since the watermark merged into the store, or null if the
+     * watermark was rejected and a full pull is needed
      */
-    public CompletableFuture<ApiResult<Device>> updateDevice(int deviceId, DeviceUpdateRequest updateRequest) {
-        CompletableFuture<ApiResult<Device>> future = new CompletableFuture<>();
+    private CompletableFuture<ApiResult<DeviceStore.Changes>> loadDelta(String account, String since) {
+        // Every delta URL is different, keep them out of the disk cache
+        Request httpRequest = new Request.Builder()
+                .url(HttpUrl.get(BASE_URL + "api/get_user_devices.php").newBuilder()
+                        .addQueryParameter("since", since)
+                        .build())
+                .get()
+                .cacheControl(DELTA_CACHE_CONTROL)
+                .build();
         
-        executorService.execute(() -> {
-            try {
-                RequestBody body = RequestBody.create(
-                        gson.toJson(updateRequest),
-                        MediaType.get("application/json")
-                );
-                
-                Request httpRequest = new Request.Builder()
-                        .url(BASE_URL + "api/update_device.php?device_id=" + deviceId)
-                        .put(body)
-                        .header("Content-Type", "application/json")
-                        .build();
-                
-                Response response = httpClient.newCall(httpRequest).execute();
-                String responseBody = response.body().string();
-                
-                if (response.isSuccessful()) {
-                    UpdateDeviceResponse deviceResponse = gson.fromJson(responseBody, UpdateDeviceResponse.class);
-                    
-                    if ("ok".equals(deviceResponse.status)) {
-                        future.complete(ApiResult.success("Device updated successfully", deviceResponse.device));
-                    } else {
-                        future.complete(ApiResult.error(deviceResponse.message));
-                    }
-                } else {
-                    future.complete(ApiResult.error("Failed to update device"));
-                }
-                
-            } catch (Exception e) {
-                Log.e(TAG, "Update device error", e);
-                future.complete(ApiResult.error("Network error: " + e.getMessage()));
+        return send(Priority.NORMAL, httpRequest, response -> {
+            if (response.code() == 409 || response.code() == 410) {
+                return null;
+            }
+            if (!response.isSuccessful()) {
+                throw pipeline.error(response);
+            }
+            DeviceListResponse delta = pipeline.parse(response, DeviceListResponse.class);
+            return "resync".equals(delta.status) ? null : delta;
+        }, "Failed to retrieve devices", (DeviceListResponse delta) -> {
+            if (delta == null) {
+                return null;
+            }
+            if (!"ok".equals(delta.status) || delta.devices == null) {
+                return ApiResult.error(delta.message);
             }
+            
+            DeviceStore.Changes changes;
+            if (Boolean.TRUE.equals(delta.delta)) {
+                changes = deviceStore.applyDelta(account, delta.devices,
+                        delta.removed != null ? delta.removed : new ArrayList<>(), delta.watermark);
+            } else {
+                // Server without delta support sent the whole list
+                changes = deviceStore.replaceAll(account, delta.devices, delta.watermark);
+            }
+            Log.d(TAG, "Device sync " + changes);
+            return ApiResult.success("Devices retrieved successfully", changes);
         });
-        
-        return future;
     }
     
     /**
-     * Delete a device
+     * Update device settings. Saved to the outbox if the backend can't be reached.
      */
+    public CompletableFuture<ApiResult<Device>> updateDevice(int deviceId, DeviceUpdateRequest updateRequest) {
+        String device = String.valueOf(deviceId);
+        String body = gson.toJson(updateRequest);
+        
+        return sendOrQueue(Priority.INTERACTIVE, OUTBOX_UPDATE, device, body, OUTBOX_UPDATE + ":" + device,
+                updateRequest(device, body), UpdateDeviceResponse.class, "Failed to update device",
+                (UpdateDeviceResponse response) -> "ok".equals(response.status)
+                        ? ApiResult.success("Device updated successfully", response.device)
+                        : ApiResult.error(response.message));
+    }
+    
     /**
-     * Delete a device
+     * Delete a device. Saved to the outbox if the backend can't be reached.
      */
     public CompletableFuture<ApiResult<Void>> deleteDevice(String deviceId) {
-        CompletableFuture<ApiResult<Void>> future = new CompletableFuture<>();
-        
-        executorService.execute(() -> {
-            try {
-                Request httpRequest = new Request.Builder()
-                        .url(BASE_URL + "api/devices/register.php?device_id=" + deviceId)
-                        .delete()
-                        .build();
-                
-                Response response = httpClient.newCall(httpRequest).execute();
-                String responseBody = response.body().string();
-                
-                if (response.isSuccessful()) {
-                    BasicResponse basicResponse = gson.fromJson(responseBody, BasicResponse.class);
-                    
-                    if ("ok".equals(basicResponse.status)) {
-                        future.complete(ApiResult.success("Device deleted successfully"));
-                    } else {
-                        future.complete(ApiResult.error(basicResponse.message));
-                    }
-                } else {
-                    future.complete(ApiResult.error("Failed to delete device"));
+        return sendOrQueue(Priority.INTERACTIVE, OUTBOX_DELETE, deviceId, null, OUTBOX_DELETE + ":" + deviceId,
+                deleteRequest(deviceId), BasicResponse.class, "Failed to delete device",
+                (BasicResponse response) -> "ok".equals(response.status)
+                        ? ApiResult.success("Device deleted successfully")
+                        : ApiResult.error(response.message));
+    }
+    
+    /**
+     * Send command to device. Commands sent to several devices within a few
+     * milliseconds of each other go to the server as one batch. Saved to the
+     * outbox instead while offline.
+     */
+    public CompletableFuture<ApiResult<Void>> sendDeviceCommand(String deviceId, String command) {
+        if (mustQueue()) {
+            return CompletableFuture.completedFuture(queue(OUTBOX_COMMAND, deviceId,
+                    gson.toJson(new DeviceCommandRequest(deviceId, command)), null));
+        }
+        return commandBatcher.submit(deviceId, command);
+    }
+    
+    /**
+     * Send the same command to every device, as one request where the server allows it
+     *
+     * @return each device's result, in the order given
+     */
+    public List<CompletableFuture<ApiResult<Void>>> sendDeviceCommands(List<String> deviceIds, String command) {
+        List<CompletableFuture<ApiResult<Void>>> results = new ArrayList<>(deviceIds.size());
+        for (String deviceId : deviceIds) {
+            results.add(sendDeviceCommand(deviceId, command));
+        }
+        commandBatcher.flush();
+        return results;
+    }
+    
+    public CommandBatcher getCommandBatcher() {
+        return commandBatcher;
+    }
+    
+    private CompletableFuture<ApiResult<Void>> sendSingleCommand(String deviceId, String command) {
+        return send(Priority.INTERACTIVE, commandRequest(gson.toJson(new DeviceCommandRequest(deviceId, command))),
+                pipeline.json(BasicResponse.class), CommandBatcher.FAILURE,
+                (BasicResponse response) -> "ok".equals(response.status)
+                        ? ApiResult.success("Command sent successfully")
+                        : ApiResult.error(response.message));
+    }
+    
+    /**
+     * Circuit breaker state per endpoint and retry counts
+     */
+    public ApiPipeline getPipeline() {
+        return pipeline;
+    }
+    
+    /**
+     * Per-priority queue lengths and waits for backend calls
+     */
+    public RequestScheduler getScheduler() {
+        return scheduler;
+    }
+    
+    /**
+     * Queued changes waiting for the backend, with the status of each
+     */
+    public Outbox getOutbox() {
+        return outbox;
+    }
+    
+    // Anything already queued must go first, so later changes can't overtake it
+    private boolean mustQueue() {
+        return outbox.hasPending() || !connectivity.isConnected();
+    }
+    
+    private <T> ApiResult<T> queue(String type, String device, String body, String collapseKey) {
+        Outbox.Item item = outbox.enqueue(type, device, body, collapseKey);
+        Log.d(TAG, "Queued " + item);
+        return ApiResult.queued("Saved offline, will be sent when back online");
+    }
+    
+    /**
+     * Send an idempotent change now, or queue it in the outbox if offline or
+     * if the request never got an answer
+     */
+    private <R, T> CompletableFuture<ApiResult<T>> sendOrQueue(Priority priority, String type,
+                                                               String device, String body,
+                                                               String collapseKey, Request request,
+                                                               Class<R> responseType, String failure,
+                                                               Function<R, ApiResult<T>> onResponse) {
+        if (mustQueue()) {
+            return CompletableFuture.completedFuture(queue(type, device, body, collapseKey));
+        }
+        return pipeline.call(priority, request, pipeline.<R>json(responseType)).handle((response, error) -> {
+            if (error == null) {
+                try {
+                    return onResponse.apply(response);
+                } catch (RuntimeException e) {
+                    return failed(e, failure);
                 }
-                
-            } catch (Exception e) {
-                Log.e(TAG, "Delete device error", e);
-                future.complete(ApiResult.error("Network error: " + e.getMessage()));
             }
+            if (isUnanswered(error)) {
+                return queue(type, device, body, collapseKey);
+            }
+            return failed(error, failure);
         });
-        
-        return future;
+    }
+    
+    // Transport failure with no response at all, as opposed to the server saying no
+    private static boolean isUnanswered(Throwable error) {
+        Throwable cause = error;
+        while (cause instanceof java.util.concurrent.CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof IOException && !(cause instanceof ApiPipeline.ApiException);
     }
     
     /**
-     * Send command to device
+     * Outbox sender: the same request the live call would have made
      */
-    public CompletableFuture<ApiResult<Void>> sendDeviceCommand(String deviceId, String command) {
-        CompletableFuture<ApiResult<Void>> future = new CompletableFuture<>();
-        
-        executorService.execute(() -> {
-            try {
-                DeviceCommandRequest request = new DeviceCommandRequest(deviceId, command);
-                RequestBody body = RequestBody.create(
-                        gson.toJson(request),
-                        MediaType.get("application/json")
-                );
-                
-                Request httpRequest = new Request.Builder()
-                        .url(BASE_URL + "api/send_command.php")
-                        .post(body)
-                        .header("Content-Type", "application/json")
-                        .build();
-                
-                Response response = httpClient.newCall(httpRequest).execute();
-                String responseBody = response.body().string();
-                
-                if (response.isSuccessful()) {
-                    BasicResponse basicResponse = gson.fromJson(responseBody, BasicResponse.class);
-                    
-                    if ("ok".equals(basicResponse.status)) {
-                        future.complete(ApiResult.success("Command sent successfully"));
-                    } else {
-                        future.complete(ApiResult.error(basicResponse.message));
-                    }
-                } else {
-                    future.complete(ApiResult.error("Failed to send command"));
-                }
-                
-            } catch (Exception e) {
-                Log.e(TAG, "Send command error", e);
-                future.complete(ApiResult.error("Network error: " + e.getMessage()));
+    private CompletableFuture<BasicResponse> replay(Outbox.Item item) {
+        Request request;
+        switch (item.type) {
+            case OUTBOX_UPDATE:
+                request = updateRequest(item.device, item.getBody());
+                break;
+            case OUTBOX_DELETE:
+                request = deleteRequest(item.device);
+                break;
+            case OUTBOX_COMMAND:
+                request = commandRequest(item.getBody());
+                break;
+            default:
+                CompletableFuture<BasicResponse> unknown = new CompletableFuture<>();
+                unknown.completeExceptionally(new ApiPipeline.ApiException(400, "Unknown outbox item " + item.type));
+                return unknown;
+        }
+        return pipeline.call(Priority.NORMAL, request, response -> {
+            if (!response.isSuccessful()) {
+                throw pipeline.error(response);
+            }
+            BasicResponse body = pipeline.parse(response, BasicResponse.class);
+            if (!"ok".equals(body.status)) {
+                throw new ApiPipeline.ApiException(response.code(), body.message);
             }
+            return body;
         });
+    }
+    
+    private Request updateRequest(String deviceId, String body) {
+        return new Request.Builder()
+                .url(HttpUrl.get(BASE_URL + "api/update_device.php").newBuilder()
+                        .addQueryParameter("device_id", deviceId)
+                        .build())
+                .put(RequestBody.create(body, JSON))
+                .build();
+    }
+    
+    private Request deleteRequest(String deviceId) {
+        return new Request.Builder()
+                .url(HttpUrl.get(BASE_URL + "api/devices/register.php").newBuilder()
+                        .addQueryParameter("device_id", deviceId)
+                        .build())
+                .delete()
+                .build();
+    }
+    
+    private Request commandRequest(String body) {
+        return new Request.Builder()
+                .url(BASE_URL + "api/send_command.php")
+                .post(RequestBody.create(body, JSON))
+                .build();
+    }
+    
+    /**
+     * POST api/send_commands.php {"commands":[{"device_id","command"}...]}, answered with
+     * {"status":"ok","results":[{"device_id","command","status","message"}...]}
+     */
+    private CompletableFuture<List<CommandBatcher.CommandResult>> sendCommandBatch(List<CommandBatcher.Command> commands) {
+        Request httpRequest = new Request.Builder()
+                .url(BASE_URL + "api/send_commands.php")
+                .post(RequestBody.create(gson.toJson(new CommandBatchRequest(commands)), JSON))
+                .build();
         
-        return future;
+        return pipeline.call(Priority.INTERACTIVE, httpRequest, response -> {
+            if (!response.isSuccessful()) {
+                throw pipeline.error(response);
+            }
+            CommandBatchResponse batch = pipeline.parse(response, CommandBatchResponse.class);
+            if (!"ok".equals(batch.status)) {
+                throw new ApiPipeline.ApiException(response.code(), batch.message);
+            }
+            return batch.results;
+        });
     }
     
     /**
-     * Get device readings/data
+     * Get device readings/data. Runs at background priority, behind anything the user is waiting on.
      */
     public CompletableFuture<ApiResult<List<DeviceReading>>> getDeviceReadings(String deviceId, int limit) {
-        CompletableFuture<ApiResult<List<DeviceReading>>> future = new CompletableFuture<>();
+        HttpUrl.Builder url = HttpUrl.get(BASE_URL + "api/get_readings.php").newBuilder()
+                .addQueryParameter("device_id", deviceId);
+        if (limit > 0) {
+            url.addQueryParameter("limit", String.valueOf(limit));
+        }
+        Request httpRequest = new Request.Builder()
+                .url(url.build())
+                .get()
+                .build();
         
-        executorService.execute(() -> {
-            try {
-                String url = BASE_URL + "api/get_readings.php?device_id=" + deviceId;
-                if (limit > 0) {
-                    url += "&limit=" + limit;
+        return send(Priority.BACKGROUND, httpRequest, pipeline.json(ReadingsResponse.class), "Failed to retrieve readings",
+                (ReadingsResponse response) -> "ok".equals(response.status)
+                        ? ApiResult.success("Readings retrieved successfully", response.readings)
+                        : ApiResult.error(response.message));
+    }
+    
+    /**
+     * Readings history for deviceId, newest pages last, fetched pageSize rows
+     * at a time: get_readings.php?device_id=...&limit=...&cursor=... answers
+     * {"status":"ok","readings":[...],"next_cursor":"..."}, next_cursor null on
+     * the last page. Each page is decoded straight into a ReadingBlock. A
+     * server that ignores cursor answers everything in one page.
+     */
+    public ReadingHistory getReadingHistory(String deviceId, int pageSize) {
+        return getReadingHistory(deviceId, pageSize, Priority.BACKGROUND);
+    }
+    
+    /**
+     * Readings history at the given priority; INTERACTIVE when the user is waiting on a chart
+     */
+    public ReadingHistory getReadingHistory(String deviceId, int pageSize, Priority priority) {
+        return new ReadingHistory(cursor -> {
+            HttpUrl.Builder url = HttpUrl.get(BASE_URL + "api/get_readings.php").newBuilder()
+                    .addQueryParameter("device_id", deviceId)
+                    .addQueryParameter("limit", String.valueOf(pageSize));
+            if (cursor != null) {
+                url.addQueryParameter("cursor", cursor);
+            }
+            Request httpRequest = new Request.Builder()
+                    .url(url.build())
+                    .get()
+                    .build();
+            
+            return send(priority, httpRequest, response -> {
+                if (!response.isSuccessful()) {
+                    throw pipeline.error(response);
                 }
-                
-                Request httpRequest = new Request.Builder()
-                        .url(url)
-                        .get()
-                        .build();
-                
-                Response response = httpClient.newCall(httpRequest).execute();
-                String responseBody = response.body().string();
-                
-                if (response.isSuccessful()) {
-                    ReadingsResponse readingsResponse = gson.fromJson(responseBody, ReadingsResponse.class);
-                    
-                    if ("ok".equals(readingsResponse.status)) {
-                        future.complete(ApiResult.success("Readings retrieved successfully", readingsResponse.readings));
-                    } else {
-                        future.complete(ApiResult.error(readingsResponse.message));
-                    }
-                } else {
-                    future.complete(ApiResult.error("Failed to retrieve readings"));
+                ResponseBody body = response.body();
+                if (body == null) {
+                    throw new ApiPipeline.ApiException(response.code(), null);
                 }
-                
-            } catch (Exception e) {
-                Log.e(TAG, "Get readings error", e);
-                future.complete(ApiResult.error("Network error: " + e.getMessage()));
-            }
+                try (com.google.gson.stream.JsonReader reader = WireFormat.reader(body)) {
+                    return ReadingsDecoder.decode(reader, pageSize);
+                } catch (com.google.gson.JsonParseException e) {
+                    throw new ApiPipeline.ApiException(response.code(), "Invalid response from server");
+                }
+            }, ReadingHistory.FAILURE, (ReadingBlock page) -> "ok".equals(page.status)
+                    ? ApiResult.success("Readings retrieved successfully", page)
+                    : ApiResult.error(page.message));
         });
-        
-        return future;
     }
     
     /**
-     * Check for firmware updates
+     * Check for firmware updates in the background
      */
     public CompletableFuture<ApiResult<FirmwareUpdateResponse>> checkFirmwareUpdate(String deviceType, String currentVersion) {
-        CompletableFuture<ApiResult<FirmwareUpdateResponse>> future = new CompletableFuture<>();
+        return checkFirmwareUpdate(deviceType, currentVersion, Priority.BACKGROUND);
+    }
+    
+    /**
+     * Check for firmware updates; INTERACTIVE when the user asked for the check.
+     * Answered from getFirmwareCatalog() while its answer for this type and version is fresh.
+     */
+    public CompletableFuture<ApiResult<FirmwareUpdateResponse>> checkFirmwareUpdate(String deviceType, String currentVersion,
+                                                                                   Priority priority) {
+        return firmwareCatalog.check(deviceType, currentVersion, priority).handle((response, error) ->
+                error == null ? ApiResult.success("Check complete", response)
+                        : failed(error, "Failed to check for updates"));
+    }
+    
+    /**
+     * Check every distinct (type, version) among devices whose cached answer is
+     * stale, in one request where the server allows it. Afterwards
+     * getFirmwareCatalog().isUpdateAvailable() answers for each of them without the network.
+     *
+     * @return the number of pairs that had to be asked about
+     */
+    public CompletableFuture<ApiResult<Integer>> checkFleetFirmware(List<Device> devices) {
+        List<FirmwareCatalog.Key> keys = new ArrayList<>(devices.size());
+        for (Device device : devices) {
+            keys.add(FirmwareCatalog.Key.of(device.type, device.firmwareVersion));
+        }
+        return firmwareCatalog.checkAll(keys).thenApply(checked -> ApiResult.success("Check complete", checked));
+    }
+    
+    public FirmwareCatalog getFirmwareCatalog() {
+        return firmwareCatalog;
+    }
+    
+    private CompletableFuture<FirmwareUpdateResponse> sendFirmwareCheck(FirmwareCatalog.Key key, Priority priority) {
+        Request httpRequest = new Request.Builder()
+                .url(HttpUrl.get(BASE_URL + "api/firmware/check.php").newBuilder()
+                        .addQueryParameter("device_type", key.type)
+                        .addQueryParameter("current_version", key.reportedVersion)
+                        .build())
+                .get()
+                .build();
+        
+        return pipeline.call(priority, httpRequest, pipeline.json(FirmwareUpdateResponse.class));
+    }
+    
+    /**
+     * POST api/firmware/check_bulk.php {"devices":[{"device_type","current_version"}...]}, answered with
+     * {"status":"ok","results":[{"device_type","current_version","available","version","url","notes"}...]}
+     */
+    private CompletableFuture<List<FirmwareCatalog.BulkResult>> sendFirmwareBulk(List<FirmwareCatalog.Key> keys) {
+        Request httpRequest = new Request.Builder()
+                .url(BASE_URL + "api/firmware/check_bulk.php")
+                .post(RequestBody.create(gson.toJson(new FirmwareBulkRequest(keys)), JSON))
+                .build();
         
-        executorService.execute(() -> {
+        return pipeline.call(Priority.BACKGROUND, httpRequest, response -> {
+            if (!response.isSuccessful()) {
+                throw pipeline.error(response);
+            }
+            FirmwareBulkResponse bulk = pipeline.parse(response, FirmwareBulkResponse.class);
+            if (!"ok".equals(bulk.status)) {
+                throw new ApiPipeline.ApiException(response.code(), bulk.message);
+            }
+            return bulk.results;
+        });
+    }
+    
+    /**
+     * Run a call through the pipeline and turn its body into an ApiResult.
+     * Transport, HTTP and parse errors all come back as ApiResult.error, with
+     * the backend's message when it sent one and failure otherwise.
+     */
+    private <R, T> CompletableFuture<ApiResult<T>> send(Priority priority, Request request,
+                                                        ApiPipeline.Decoder<R> decoder, String failure,
+                                                        Function<R, ApiResult<T>> onResponse) {
+        return pipeline.call(priority, request, decoder).handle((body, error) -> {
+            if (error != null) {
+                return failed(error, failure);
+            }
             try {
-                String url = BASE_URL + "api/firmware/check.php?device_type=" + deviceType + "&current_version=" + currentVersion;
-                
-                Request httpRequest = new Request.Builder()
-                        .url(url)
-                        .get()
-                        .build();
-                
-                Response response = httpClient.newCall(httpRequest).execute();
-                String responseBody = response.body().string();
-                
-                if (response.isSuccessful()) {
-                    FirmwareUpdateResponse updateResponse = gson.fromJson(responseBody, FirmwareUpdateResponse.class);
-                    
-                    if (updateResponse != null) {
-                        future.complete(ApiResult.success("Check complete", updateResponse));
-                    } else {
-                        future.complete(ApiResult.error("Invalid response from server"));
-                    }
-                } else {
-                    future.complete(ApiResult.error("Failed to check for updates"));
-                }
-                
-            } catch (Exception e) {
-                Log.e(TAG, "Check firmware error", e);
-                future.complete(ApiResult.error("Network error: " + e.getMessage()));
+                return onResponse.apply(body);
+            } catch (RuntimeException e) {
+                return failed(e, failure);
             }
         });
-        
-        return future;
+    }
+    
+    private static <T> ApiResult<T> failed(Throwable error, String failure) {
+        Log.e(TAG, failure, error);
+        return ApiResult.error(ApiPipeline.messageFor(error, failure));
     }
     
     // Data classes for API communication
@@ -355,23 +661,30 @@ public class SmartWorksApiService {
         public final boolean success;
         public final String message;
         public final T data;
+        // Accepted into the outbox rather than sent; data is null
+        public final boolean queued;
         
-        private ApiResult(boolean success, String message, T data) {
+        private ApiResult(boolean success, String message, T data, boolean queued) {
             this.success = success;
             this.message = message;
             this.data = data;
+            this.queued = queued;
         }
         
         public static <T> ApiResult<T> success(String message) {
-            return new ApiResult<>(true, message, null);
+            return new ApiResult<>(true, message, null, false);
         }
         
         public static <T> ApiResult<T> success(String message, T data) {
-            return new ApiResult<>(true, message, data);
+            return new ApiResult<>(true, message, data, false);
         }
         
         public static <T> ApiResult<T> error(String message) {
-            return new ApiResult<>(false, message, null);
+            return new ApiResult<>(false, message, null, false);
+        }
+        
+        public static <T> ApiResult<T> queued(String message) {
+            return new ApiResult<>(true, message, null, true);
         }
     }
     
@@ -449,10 +762,14 @@ public class SmartWorksApiService {
         Device device;
     }
     
-    private static class DeviceListResponse {
+    static class DeviceListResponse {
         String status;
         String message;
         List<Device> devices;
+        // Delta sync only
+        Boolean delta;
+        List<String> removed;
+        String watermark;
     }
     
     public static class DeviceUpdateRequest {
@@ -511,18 +828,41 @@ public class SmartWorksApiService {
         }
     }
     
-    private static class ReadingsResponse {
+    private static class CommandBatchRequest {
+        final List<CommandBatcher.Command> commands;
+        
+        CommandBatchRequest(List<CommandBatcher.Command> commands) {
+            this.commands = commands;
+        }
+    }
+    
+    private static class FirmwareBulkRequest {
+        final List<FirmwareCatalog.Key> devices;
+        
+        FirmwareBulkRequest(List<FirmwareCatalog.Key> devices) {
+            this.devices = devices;
+        }
+    }
+    
+    private static class FirmwareBulkResponse {
         String status;
         String message;
-        List<DeviceReading> readings;
+        List<FirmwareCatalog.BulkResult> results;
     }
     
-    private static class BasicResponse {
+    private static class CommandBatchResponse {
         String status;
         String message;
+        List<CommandBatcher.CommandResult> results;
     }
     
-    private static class ErrorResponse {
+    private static class ReadingsResponse {
+        String status;
+        String message;
+        List<DeviceReading> readings;
+    }
+    
+    private static class BasicResponse {
         String status;
         String message;
     }
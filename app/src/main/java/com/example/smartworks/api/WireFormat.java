@@ -0,0 +1,59 @@
+package com.example.smartworks.api;
+
+import com.google.gson.stream.JsonReader;
+import java.io.IOException;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Response encoding negotiated with the backend. Every API request prefers
+ * MessagePack, which drops the repeated quoted field names and sends numbers
+ * as binary, and accepts JSON otherwise. OkHttp already asks for gzip and
+ * inflates it transparently, so a backend that can't pack still saves most of
+ * the bytes by compressing its JSON, and one that does neither is read as before.
+ *
+ * Decoders get a JsonReader either way and don't need to know which was sent.
+ */
+public final class WireFormat {
+    public static final String MSGPACK = "application/msgpack";
+    // What msgpack-php and most older packers label it
+    public static final String MSGPACK_LEGACY = "application/x-msgpack";
+    static final String ACCEPT = MSGPACK + ", " + MSGPACK_LEGACY + ";q=0.9, application/json;q=0.5";
+
+    private WireFormat() {}
+
+    public static boolean isMessagePack(MediaType type) {
+        if (type == null) {
+            return false;
+        }
+        String subtype = type.subtype();
+        return "msgpack".equalsIgnoreCase(subtype) || "x-msgpack".equalsIgnoreCase(subtype);
+    }
+
+    /**
+     * Reader over body in whichever format the server chose. Closing it closes the body.
+     */
+    public static JsonReader reader(ResponseBody body) {
+        if (isMessagePack(body.contentType())) {
+            return new MessagePackReader(body.byteStream());
+        }
+        return new JsonReader(body.charStream());
+    }
+
+    /**
+     * Asks for the compact format on requests that didn't set an Accept of their own
+     */
+    static final class Negotiator implements Interceptor {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            if (request.header("Accept") != null) {
+                return chain.proceed(request);
+            }
+            return chain.proceed(request.newBuilder().header("Accept", ACCEPT).build());
+        }
+    }
+}
@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import com.example.smartworks.api.BackendClient;
 import com.example.smartworks.config.ApiConfig;
 
 import okhttp3.*;
@@ -52,12 +53,8 @@ public class AuthenticationManager {
             
             this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
             
-            // Initialize OkHttp with configuration from ApiConfig
-            this.httpClient = new OkHttpClient.Builder()
-                    .connectTimeout(ApiConfig.CONNECT_TIMEOUT, java.util.concurrent.TimeUnit.SECONDS)
-                    .readTimeout(ApiConfig.READ_TIMEOUT, java.util.concurrent.TimeUnit.SECONDS)
-                    .writeTimeout(ApiConfig.WRITE_TIMEOUT, java.util.concurrent.TimeUnit.SECONDS)
-                    .build();
+            // Shared with SmartWorksApiService, so login warms the connection device calls reuse
+            this.httpClient = BackendClient.get();
             
             loadUserData();
             Log.d(TAG, "AuthenticationManager initialized successfully");
@@ -466,6 +463,13 @@ public class AuthenticationManager {
         }
     }
     
+    /**
+     * Application context, e.g. for services that keep files alongside the session
+     */
+    public Context getContext() {
+        return context;
+    }
+    
     /**
      * Get current user
      */
@@ -0,0 +1,151 @@
+package com.example.smartworks.network;
+
+import java.util.Random;
+
+/**
+ * Picks the delay before the next poll of a single device from what the last
+ * polls returned: faster while the temperature is moving, slower while it is
+ * stable, and exponential backoff with jitter while the device is unreachable.
+ */
+public class AdaptivePollScheduler {
+
+    public enum Failure {
+        TIMEOUT,   // SocketTimeoutException - device busy or asleep
+        CONNECT,   // ConnectException - device offline or IP changed
+        OTHER      // HTTP / parse errors - device answered, poll at the normal rate
+    }
+
+    /**
+     * Interval bounds. All values in milliseconds except the temperature thresholds.
+     */
+    public static class Config {
+        public long minIntervalMs = 10000;
+        public long baseIntervalMs = 30000;
+        public long maxIntervalMs = 300000;
+        // Added to the interval after each stable reading
+        public long stepMs = 15000;
+        // Change rate (°C per minute) above which we poll faster
+        public double fastChangePerMinute = 0.2;
+        // Change (°C) below which a reading counts as stable
+        public double stableDelta = 0.1;
+
+        public Config setMinIntervalMs(long minIntervalMs) {
+            this.minIntervalMs = minIntervalMs;
+            return this;
+        }
+
+        public Config setBaseIntervalMs(long baseIntervalMs) {
+            this.baseIntervalMs = baseIntervalMs;
+            return this;
+        }
+
+        public Config setMaxIntervalMs(long maxIntervalMs) {
+            this.maxIntervalMs = maxIntervalMs;
+            return this;
+        }
+
+        public Config setStepMs(long stepMs) {
+            this.stepMs = stepMs;
+            return this;
+        }
+
+        public Config setFastChangePerMinute(double fastChangePerMinute) {
+            this.fastChangePerMinute = fastChangePerMinute;
+            return this;
+        }
+
+        public Config setStableDelta(double stableDelta) {
+            this.stableDelta = stableDelta;
+            return this;
+        }
+    }
+
+    private final Config config;
+    private final Random random;
+
+    private long intervalMs;
+    private String reason = "Starting up";
+    private int consecutiveFailures;
+    private double lastTemperature = Double.NaN;
+    private long lastReadingAt;
+
+    public AdaptivePollScheduler(Config config) {
+        this(config, new Random());
+    }
+
+    public AdaptivePollScheduler(Config config, Random random) {
+        this.config = config;
+        this.random = random;
+        this.intervalMs = clamp(config.baseIntervalMs);
+    }
+
+    /**
+     * Record a successful reading taken at nowMs
+     */
+    public synchronized void onReading(double temperatureCelsius, long nowMs) {
+        consecutiveFailures = 0;
+
+        if (Double.isNaN(lastTemperature) || nowMs <= lastReadingAt) {
+            intervalMs = clamp(config.baseIntervalMs);
+            reason = "First reading";
+        } else {
+            double delta = Math.abs(temperatureCelsius - lastTemperature);
+            double perMinute = delta / ((nowMs - lastReadingAt) / 60000.0);
+
+            if (perMinute >= config.fastChangePerMinute) {
+                intervalMs = clamp(Math.min(intervalMs, config.baseIntervalMs) / 2);
+                reason = String.format(java.util.Locale.US, "Temperature changing %.2f°C/min", perMinute);
+            } else if (delta < config.stableDelta) {
+                intervalMs = clamp(intervalMs + config.stepMs);
+                reason = "Readings stable";
+            } else {
+                intervalMs = clamp(config.baseIntervalMs);
+                reason = "Normal";
+            }
+        }
+
+        lastTemperature = temperatureCelsius;
+        lastReadingAt = nowMs;
+    }
+
+    /**
+     * Record a failed poll
+     */
+    public synchronized void onFailure(Failure failure) {
+        if (failure == Failure.OTHER) {
+            intervalMs = clamp(config.baseIntervalMs);
+            reason = "Device error";
+            return;
+        }
+
+        consecutiveFailures++;
+        // base * 2^n, capped, then "equal jitter": keep half, randomize the other half.
+        // Never below base, so a failing device isn't polled faster than a healthy one
+        long backoff = config.baseIntervalMs << Math.min(consecutiveFailures, 16);
+        backoff = Math.min(backoff, config.maxIntervalMs);
+        long half = backoff / 2;
+        intervalMs = clamp(Math.max(config.baseIntervalMs, half + (long) (random.nextDouble() * half)));
+        reason = (failure == Failure.TIMEOUT ? "Device timing out" : "Cannot connect")
+                + ", backing off (" + consecutiveFailures + ")";
+    }
+
+    public synchronized long getIntervalMs() {
+        return intervalMs;
+    }
+
+    public synchronized String getReason() {
+        return reason;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    private long clamp(long value) {
+        return Math.max(config.minIntervalMs, Math.min(config.maxIntervalMs, value));
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.smartworks.network;
+
+import android.util.Log;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One-packet LAN discovery: a UDP broadcast query that every SmartWorks
+ * device answers with a small identity datagram. Much cheaper than probing
+ * addresses over HTTP, and it finds devices that don't run mDNS.
+ *
+ * Wire format, all integers big-endian:
+ * <pre>
+ * query: "SWDQ" | version (1) | nonce (4)
+ * reply: "SWDR" | version (1) | nonce (4) | http port (2)
+ *        | id length (1) | device_id | fw length (1) | firmware_version
+ *        | name length (1) | device_name
+ * </pre>
+ * Replies echo the query's nonce so late answers to an earlier query are ignored.
+ */
+public class BroadcastDiscovery {
+    private static final String TAG = "BroadcastDiscovery";
+    public static final int DEFAULT_PORT = 39001;
+    public static final int PROTOCOL_VERSION = 1;
+    static final byte[] QUERY_MAGIC = {'S', 'W', 'D', 'Q'};
+    static final byte[] REPLY_MAGIC = {'S', 'W', 'D', 'R'};
+    private static final int MAX_DATAGRAM = 512;
+
+    private final Config config;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Query settings
+     */
+    public static class Config {
+        public int port = DEFAULT_PORT;
+        // Limited broadcast by default; a subnet-directed address works too
+        public String broadcastAddress = "255.255.255.255";
+        // How long to collect replies
+        public long windowMs = 1500;
+        // The query is sent this many times across the first third of the window, UDP can drop one
+        public int sends = 2;
+
+        public Config setPort(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public Config setBroadcastAddress(String broadcastAddress) {
+            this.broadcastAddress = broadcastAddress;
+            return this;
+        }
+
+        public Config setWindowMs(long windowMs) {
+            this.windowMs = windowMs;
+            return this;
+        }
+
+        public Config setSends(int sends) {
+            this.sends = sends;
+            return this;
+        }
+    }
+
+    /**
+     * One device's answer
+     */
+    public static class Reply {
+        public final String deviceId;
+        public final String firmwareVersion;
+        public final String deviceName;
+        public final InetAddress address;
+        public final int httpPort;
+        // From the first query sent to this reply arriving
+        public long latencyMs;
+
+        public Reply(String deviceId, String firmwareVersion, String deviceName, InetAddress address, int httpPort) {
+            this.deviceId = deviceId;
+            this.firmwareVersion = firmwareVersion;
+            this.deviceName = deviceName;
+            this.address = address;
+            this.httpPort = httpPort;
+        }
+
+        /** Host string for LanDeviceClient: "ip" on port 80, "ip:port" otherwise */
+        public String hostAndPort() {
+            return httpPort == 80 ? address.getHostAddress() : address.getHostAddress() + ":" + httpPort;
+        }
+
+        @Override
+        public String toString() {
+            return deviceId + " (" + deviceName + ", fw " + firmwareVersion + ") at " + hostAndPort();
+        }
+    }
+
+    public BroadcastDiscovery(Config config) {
+        this.config = config;
+    }
+
+    public BroadcastDiscovery() {
+        this(new Config());
+    }
+
+    /**
+     * Broadcast the query and collect replies for the configured window.
+     * Blocks the calling thread.
+     *
+     * @return one reply per device, in arrival order
+     */
+    public List<Reply> discover() throws IOException {
+        return discover(0);
+    }
+
+    /**
+     * Like discover(), but returns as soon as expectedDevices distinct devices
+     * have answered (0 waits for the whole window)
+     */
+    public List<Reply> discover(int expectedDevices) throws IOException {
+        int nonce = random.nextInt();
+        byte[] query = encodeQuery(nonce);
+        InetSocketAddress target = new InetSocketAddress(config.broadcastAddress, config.port);
+        Map<String, Reply> replies = new LinkedHashMap<>();
+        int duplicates = 0;
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setBroadcast(true);
+            socket.setReceiveBufferSize(256 * 1024); // Every device answers at about the same time
+
+            long start = System.nanoTime();
+            long end = start + TimeUnit.MILLISECONDS.toNanos(config.windowMs);
+            long resendEvery = TimeUnit.MILLISECONDS.toNanos(config.windowMs / 3) / Math.max(1, config.sends);
+            long nextSend = start;
+            int sent = 0;
+            byte[] buffer = new byte[MAX_DATAGRAM];
+
+            while (true) {
+                long now = System.nanoTime();
+                if (sent < config.sends && now >= nextSend) {
+                    socket.send(new DatagramPacket(query, query.length, target));
+                    sent++;
+                    nextSend = start + resendEvery * sent;
+                }
+                long until = sent < config.sends ? Math.min(end, nextSend) : end;
+                long waitMs = TimeUnit.NANOSECONDS.toMillis(until - now);
+                if (now >= end || (expectedDevices > 0 && replies.size() >= expectedDevices)) {
+                    break;
+                }
+                socket.setSoTimeout((int) Math.max(1, waitMs));
+
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                try {
+                    socket.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    continue;
+                }
+                Reply reply = decodeReply(packet.getData(), packet.getLength(), packet.getAddress(), nonce);
+                if (reply == null) {
+                    continue;
+                }
+                reply.latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                // Each device answers every copy of the query
+                String key = reply.deviceId.isEmpty() ? reply.hostAndPort() : reply.deviceId;
+                if (replies.putIfAbsent(key, reply) != null) {
+                    duplicates++;
+                }
+            }
+        }
+
+        Log.d(TAG, "Broadcast discovery: " + replies.size() + " devices, " + duplicates + " duplicate replies");
+        return new ArrayList<>(replies.values());
+    }
+
+    public static byte[] encodeQuery(int nonce) {
+        return ByteBuffer.allocate(9).put(QUERY_MAGIC).put((byte) PROTOCOL_VERSION).putInt(nonce).array();
+    }
+
+    /**
+     * Nonce of a well-formed query, or null if the datagram isn't one
+     */
+    public static Integer decodeQuery(byte[] data, int length) {
+        if (length < 9 || !startsWith(data, QUERY_MAGIC)) {
+            return null;
+        }
+        return ByteBuffer.wrap(data, 5, 4).getInt();
+    }
+
+    public static byte[] encodeReply(int nonce, int httpPort, String deviceId, String firmwareVersion,
+                                     String deviceName) {
+        byte[] id = shortString(deviceId);
+        byte[] firmware = shortString(firmwareVersion);
+        byte[] name = shortString(deviceName);
+        return ByteBuffer.allocate(14 + id.length + firmware.length + name.length)
+                .put(REPLY_MAGIC).put((byte) PROTOCOL_VERSION).putInt(nonce).putShort((short) httpPort)
+                .put((byte) id.length).put(id)
+                .put((byte) firmware.length).put(firmware)
+                .put((byte) name.length).put(name)
+                .array();
+    }
+
+    /**
+     * @return the reply, or null if the datagram is malformed or answers another query
+     */
+    public static Reply decodeReply(byte[] data, int length, InetAddress from, int expectedNonce) {
+        if (length < 14 || !startsWith(data, REPLY_MAGIC)) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        buffer.position(5);
+        if (buffer.getInt() != expectedNonce) {
+            return null;
+        }
+        int httpPort = buffer.getShort() & 0xffff;
+        String deviceId = readShortString(buffer);
+        String firmwareVersion = readShortString(buffer);
+        String deviceName = readShortString(buffer);
+        if (deviceId == null || firmwareVersion == null || deviceName == null) {
+            return null;
+        }
+        return new Reply(deviceId, firmwareVersion, deviceName, from, httpPort);
+    }
+
+    private static boolean startsWith(byte[] data, byte[] magic) {
+        for (int i = 0; i < magic.length; i++) {
+            if (data[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] shortString(String value) {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= 255) {
+            return bytes;
+        }
+        byte[] truncated = new byte[255];
+        System.arraycopy(bytes, 0, truncated, 0, 255);
+        return truncated;
+    }
+
+    private static String readShortString(ByteBuffer buffer) {
+        if (!buffer.hasRemaining()) {
+            return null;
+        }
+        int length = buffer.get() & 0xff;
+        if (buffer.remaining() < length) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.smartworks.network;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size pool for blocking device I/O, so socket reads that sit on a 15-20s
+ * timeout never run on ForkJoinPool.commonPool and starve CPU-bound async work.
+ */
+public class DeviceIoExecutor implements Executor {
+    private static DeviceIoExecutor shared;
+
+    private final String name;
+    private final ThreadPoolExecutor pool;
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param threads       maximum blocking calls running at once
+     * @param queueCapacity calls allowed to wait for a thread before new ones are rejected
+     */
+    public DeviceIoExecutor(String name, int threads, int queueCapacity) {
+        this.name = name;
+        AtomicInteger count = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        // Idle threads exit, the app isn't always talking to devices
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Executor for ESP32PoolAPI's blocking calls
+     */
+    public static synchronized DeviceIoExecutor getShared() {
+        if (shared == null || shared.isShutdown()) {
+            shared = new DeviceIoExecutor("esp32-io", 4, 64);
+        }
+        return shared;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        try {
+            pool.execute(command);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /** Calls waiting for a free thread */
+    public int getQueueDepth() {
+        return pool.getQueue().size();
+    }
+
+    /** Threads currently inside a device call */
+    public int getActiveThreads() {
+        return pool.getActiveCount();
+    }
+
+    public int getMaxThreads() {
+        return pool.getMaximumPoolSize();
+    }
+
+    public long getCompletedTasks() {
+        return pool.getCompletedTaskCount();
+    }
+
+    public long getRejectedTasks() {
+        return rejected.get();
+    }
+
+    public boolean isShutdown() {
+        return pool.isShutdown();
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return name + ": active=" + getActiveThreads() + "/" + getMaxThreads()
+                + " queued=" + getQueueDepth() + " completed=" + getCompletedTasks()
+                + " rejected=" + getRejectedTasks();
+    }
+}
@@ -0,0 +1,314 @@
+package com.example.smartworks.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of the DNS wire format for mDNS service discovery: questions
+ * and PTR, SRV, TXT and A records. Names are written uncompressed and read
+ * with compression pointers followed.
+ */
+public final class DnsMessage {
+    public static final int TYPE_A = 1;
+    public static final int TYPE_PTR = 12;
+    public static final int TYPE_TXT = 16;
+    public static final int TYPE_SRV = 33;
+    private static final int CLASS_IN = 1;
+    // mDNS reuses the top bit of the class: unicast-response in questions, cache-flush in records
+    private static final int CLASS_FLAG = 0x8000;
+    private static final int FLAG_RESPONSE = 0x8400; // QR + AA
+
+    public int id;
+    public boolean response;
+    public final List<Question> questions = new ArrayList<>();
+    public final List<Record> answers = new ArrayList<>();
+    // Authority and additional sections
+    public final List<Record> additionals = new ArrayList<>();
+
+    public static class Question {
+        public final String name;
+        public final int type;
+
+        public Question(String name, int type) {
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    /**
+     * One resource record; which data fields are set depends on type
+     */
+    public static class Record {
+        public final String name;
+        public final int type;
+        public long ttlSeconds;
+        public boolean cacheFlush;
+
+        // PTR target or SRV target host
+        public String target;
+        public int port;
+        public Map<String, String> txt = new LinkedHashMap<>();
+        public InetAddress address;
+
+        public Record(String name, int type, long ttlSeconds) {
+            this.name = name;
+            this.type = type;
+            this.ttlSeconds = ttlSeconds;
+        }
+
+        public static Record ptr(String name, String target, long ttlSeconds) {
+            Record record = new Record(name, TYPE_PTR, ttlSeconds);
+            record.target = target;
+            return record;
+        }
+
+        public static Record srv(String name, String target, int port, long ttlSeconds) {
+            Record record = new Record(name, TYPE_SRV, ttlSeconds);
+            record.target = target;
+            record.port = port;
+            return record;
+        }
+
+        public static Record txt(String name, Map<String, String> txt, long ttlSeconds) {
+            Record record = new Record(name, TYPE_TXT, ttlSeconds);
+            record.txt.putAll(txt);
+            return record;
+        }
+
+        public static Record a(String name, InetAddress address, long ttlSeconds) {
+            Record record = new Record(name, TYPE_A, ttlSeconds);
+            record.address = address;
+            return record;
+        }
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        writeShort(out, id);
+        writeShort(out, response ? FLAG_RESPONSE : 0);
+        writeShort(out, questions.size());
+        writeShort(out, answers.size());
+        writeShort(out, 0);
+        writeShort(out, additionals.size());
+        for (Question question : questions) {
+            writeName(out, question.name);
+            writeShort(out, question.type);
+            writeShort(out, CLASS_IN);
+        }
+        for (Record record : answers) {
+            writeRecord(out, record);
+        }
+        for (Record record : additionals) {
+            writeRecord(out, record);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IOException if the packet is truncated or not a DNS message
+     */
+    public static DnsMessage decode(byte[] packet, int length) throws IOException {
+        Reader reader = new Reader(packet, length);
+        DnsMessage message = new DnsMessage();
+        message.id = reader.readShort();
+        message.response = (reader.readShort() & 0x8000) != 0;
+        int questionCount = reader.readShort();
+        int answerCount = reader.readShort();
+        int authorityCount = reader.readShort();
+        int additionalCount = reader.readShort();
+
+        for (int i = 0; i < questionCount; i++) {
+            String name = reader.readName();
+            int type = reader.readShort();
+            reader.readShort(); // Class
+            message.questions.add(new Question(name, type));
+        }
+        for (int i = 0; i < answerCount; i++) {
+            message.answers.add(reader.readRecord());
+        }
+        for (int i = 0; i < authorityCount + additionalCount; i++) {
+            message.additionals.add(reader.readRecord());
+        }
+        return message;
+    }
+
+    /** Lower-case, dot-terminated form so names from different packets compare equal */
+    public static String normalize(String name) {
+        String lower = name.toLowerCase(java.util.Locale.ROOT);
+        return lower.endsWith(".") ? lower : lower + ".";
+    }
+
+    private static void writeRecord(ByteArrayOutputStream out, Record record) {
+        writeName(out, record.name);
+        writeShort(out, record.type);
+        writeShort(out, CLASS_IN | (record.cacheFlush ? CLASS_FLAG : 0));
+        writeShort(out, (int) (record.ttlSeconds >>> 16));
+        writeShort(out, (int) record.ttlSeconds);
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        switch (record.type) {
+            case TYPE_PTR:
+                writeName(data, record.target);
+                break;
+            case TYPE_SRV:
+                writeShort(data, 0); // Priority
+                writeShort(data, 0); // Weight
+                writeShort(data, record.port);
+                writeName(data, record.target);
+                break;
+            case TYPE_TXT:
+                if (record.txt.isEmpty()) {
+                    data.write(0);
+                }
+                for (Map.Entry<String, String> entry : record.txt.entrySet()) {
+                    byte[] item = (entry.getKey() + "=" + entry.getValue()).getBytes(StandardCharsets.UTF_8);
+                    data.write(Math.min(item.length, 255));
+                    data.write(item, 0, Math.min(item.length, 255));
+                }
+                break;
+            case TYPE_A:
+                data.write(record.address.getAddress(), 0, 4);
+                break;
+            default:
+                break;
+        }
+        writeShort(out, data.size());
+        out.write(data.toByteArray(), 0, data.size());
+    }
+
+    private static void writeName(ByteArrayOutputStream out, String name) {
+        for (String label : name.split("\\.")) {
+            if (label.isEmpty()) {
+                continue;
+            }
+            byte[] bytes = label.getBytes(StandardCharsets.UTF_8);
+            out.write(Math.min(bytes.length, 63));
+            out.write(bytes, 0, Math.min(bytes.length, 63));
+        }
+        out.write(0);
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write((value >> 8) & 0xff);
+        out.write(value & 0xff);
+    }
+
+    private static class Reader {
+        final byte[] packet;
+        final int length;
+        int position;
+
+        Reader(byte[] packet, int length) {
+            this.packet = packet;
+            this.length = length;
+        }
+
+        int readByte() throws IOException {
+            if (position >= length) {
+                throw new IOException("Truncated DNS message");
+            }
+            return packet[position++] & 0xff;
+        }
+
+        int readShort() throws IOException {
+            return (readByte() << 8) | readByte();
+        }
+
+        long readInt() throws IOException {
+            return ((long) readShort() << 16) | readShort();
+        }
+
+        String readName() throws IOException {
+            StringBuilder name = new StringBuilder();
+            int resumeAt = -1;
+            int jumps = 0;
+            while (true) {
+                int labelLength = readByte();
+                if (labelLength == 0) {
+                    break;
+                }
+                if ((labelLength & 0xc0) == 0xc0) {
+                    int offset = ((labelLength & 0x3f) << 8) | readByte();
+                    if (++jumps > 32 || offset >= length) {
+                        throw new IOException("Bad name compression pointer");
+                    }
+                    if (resumeAt < 0) {
+                        resumeAt = position;
+                    }
+                    position = offset;
+                    continue;
+                }
+                if (position + labelLength > length) {
+                    throw new IOException("Truncated DNS name");
+                }
+                name.append(new String(packet, position, labelLength, StandardCharsets.UTF_8)).append('.');
+                position += labelLength;
+            }
+            if (resumeAt >= 0) {
+                position = resumeAt;
+            }
+            return name.length() == 0 ? "." : name.toString();
+        }
+
+        Record readRecord() throws IOException {
+            String name = readName();
+            int type = readShort();
+            int recordClass = readShort();
+            long ttl = readInt();
+            int dataLength = readShort();
+            int end = position + dataLength;
+            if (end > length) {
+                throw new IOException("Truncated DNS record");
+            }
+
+            Record record = new Record(name, type, ttl);
+            record.cacheFlush = (recordClass & CLASS_FLAG) != 0;
+            switch (type) {
+                case TYPE_PTR:
+                    record.target = readName();
+                    break;
+                case TYPE_SRV:
+                    readShort(); // Priority
+                    readShort(); // Weight
+                    record.port = readShort();
+                    record.target = readName();
+                    break;
+                case TYPE_TXT:
+                    while (position < end) {
+                        int itemLength = readByte();
+                        if (itemLength == 0 || position + itemLength > end) {
+                            position += Math.max(0, Math.min(itemLength, end - position));
+                            continue;
+                        }
+                        String item = new String(packet, position, itemLength, StandardCharsets.UTF_8);
+                        position += itemLength;
+                        int equals = item.indexOf('=');
+                        if (equals > 0) {
+                            record.txt.put(item.substring(0, equals).toLowerCase(java.util.Locale.ROOT),
+                                    item.substring(equals + 1));
+                        } else {
+                            record.txt.put(item.toLowerCase(java.util.Locale.ROOT), "");
+                        }
+                    }
+                    break;
+                case TYPE_A:
+                    if (dataLength == 4) {
+                        byte[] address = new byte[4];
+                        System.arraycopy(packet, position, address, 0, 4);
+                        record.address = InetAddress.getByAddress(address);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            position = end;
+            return record;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.smartworks.network;
+
+import android.util.Log;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded-concurrency scheduler for polling a fleet of devices.
+ *
+ * Each device gets its own backlog and at most one poll in flight (an ESP32 can
+ * only serve one sensor read at a time). Devices with pending work take turns
+ * round-robin, so a hung device holds one worker at most and never starves the rest.
+ */
+public class FleetPoller {
+    private static final String TAG = "FleetPoller";
+    public static final long DEFAULT_DEADLINE_MS = 30000;
+
+    private static FleetPoller shared;
+
+    private final int maxConcurrent;
+    private final int maxPendingPerDevice;
+    private final ExecutorService workers;
+
+    // Guarded by this
+    private final Map<String, ArrayDeque<PollTask>> pending = new HashMap<>();
+    private final ArrayDeque<String> readyDevices = new ArrayDeque<>();
+    private final Set<String> inFlightDevices = new HashSet<>();
+    private int running;
+    private boolean shutdown;
+
+    // Counters
+    private long submitted;
+    private long completed;
+    private long dropped;
+    private long late;
+
+    private static class PollTask {
+        final String deviceKey;
+        final Runnable work;
+        final long deadline;
+
+        PollTask(String deviceKey, Runnable work, long deadline) {
+            this.deviceKey = deviceKey;
+            this.work = work;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Point-in-time view of the poller counters
+     */
+    public static class Metrics {
+        public final long submitted;
+        public final long completed;
+        public final long dropped;
+        public final long late;
+        public final int inFlight;
+        public final int queued;
+
+        Metrics(long submitted, long completed, long dropped, long late, int inFlight, int queued) {
+            this.submitted = submitted;
+            this.completed = completed;
+            this.dropped = dropped;
+            this.late = late;
+            this.inFlight = inFlight;
+            this.queued = queued;
+        }
+
+        @Override
+        public String toString() {
+            return "completed=" + completed + " late=" + late + " dropped=" + dropped
+                    + " inFlight=" + inFlight + " queued=" + queued;
+        }
+    }
+
+    public FleetPoller(int maxConcurrent, int maxPendingPerDevice) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxPendingPerDevice = maxPendingPerDevice;
+        this.workers = Executors.newFixedThreadPool(maxConcurrent, namedThreads("FleetPoller-worker"));
+    }
+
+    /**
+     * Poller shared by all device lists in the app
+     */
+    public static synchronized FleetPoller getShared() {
+        if (shared == null || shared.isShutdown()) {
+            shared = new FleetPoller(3, 4);
+        }
+        return shared;
+    }
+
+    /**
+     * Queue a one-off poll for a device.
+     *
+     * @param deadlineMs how long the poll may wait and run; polls still queued past it are dropped
+     * @return false if the poller has been shut down
+     */
+    public boolean submit(String deviceKey, long deadlineMs, Runnable work) {
+        synchronized (this) {
+            if (shutdown) {
+                return false;
+            }
+            submitted++;
+
+            ArrayDeque<PollTask> backlog = pending.get(deviceKey);
+            if (backlog == null) {
+                backlog = new ArrayDeque<>();
+                pending.put(deviceKey, backlog);
+            }
+            if (backlog.size() >= maxPendingPerDevice) {
+                // Only this device's own oldest request is discarded, never another device's
+                backlog.pollFirst();
+                dropped++;
+                Log.w(TAG, "Backlog full for " + deviceKey + ", dropped oldest poll");
+            }
+            backlog.addLast(new PollTask(deviceKey, work, System.currentTimeMillis() + deadlineMs));
+
+            if (backlog.size() == 1 && !inFlightDevices.contains(deviceKey)) {
+                readyDevices.addLast(deviceKey);
+            }
+        }
+        dispatch();
+        return true;
+    }
+
+    public boolean submit(String deviceKey, Runnable work) {
+        return submit(deviceKey, DEFAULT_DEADLINE_MS, work);
+    }
+
+    /**
+     * Discard a device's queued polls
+     */
+    public synchronized void cancel(String deviceKey) {
+        ArrayDeque<PollTask> backlog = pending.remove(deviceKey);
+        if (backlog != null) {
+            dropped += backlog.size();
+            readyDevices.remove(deviceKey);
+        }
+    }
+
+    public synchronized Metrics getMetrics() {
+        int queued = 0;
+        for (ArrayDeque<PollTask> backlog : pending.values()) {
+            queued += backlog.size();
+        }
+        return new Metrics(submitted, completed, dropped, late, running, queued);
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            for (ArrayDeque<PollTask> backlog : pending.values()) {
+                dropped += backlog.size();
+            }
+            pending.clear();
+            readyDevices.clear();
+        }
+        workers.shutdown();
+    }
+
+    private void dispatch() {
+        List<PollTask> toRun = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            while (running < maxConcurrent && !readyDevices.isEmpty()) {
+                String deviceKey = readyDevices.pollFirst();
+                ArrayDeque<PollTask> backlog = pending.get(deviceKey);
+                PollTask task = backlog != null ? backlog.pollFirst() : null;
+
+                // Polls that waited past their deadline are stale, skip straight to the next one
+                while (task != null && now > task.deadline) {
+                    dropped++;
+                    task = backlog.pollFirst();
+                }
+                if (backlog != null && backlog.isEmpty()) {
+                    pending.remove(deviceKey);
+                }
+                if (task == null) {
+                    continue;
+                }
+
+                running++;
+                inFlightDevices.add(deviceKey);
+                toRun.add(task);
+            }
+        }
+
+        for (PollTask task : toRun) {
+            workers.execute(() -> runTask(task));
+        }
+    }
+
+    private void runTask(PollTask task) {
+        try {
+            task.work.run();
+        } catch (Exception e) {
+            Log.e(TAG, "Poll failed for " + task.deviceKey, e);
+        } finally {
+            synchronized (this) {
+                running--;
+                completed++;
+                if (System.currentTimeMillis() > task.deadline) {
+                    late++;
+                }
+                inFlightDevices.remove(task.deviceKey);
+
+                // Back of the line so every other waiting device gets a turn first
+                ArrayDeque<PollTask> backlog = pending.get(task.deviceKey);
+                if (backlog != null && !backlog.isEmpty()) {
+                    readyDevices.addLast(task.deviceKey);
+                }
+            }
+            dispatch();
+        }
+    }
+
+    private static java.util.concurrent.ThreadFactory namedThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,444 @@
+package com.example.smartworks.network;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+/**
+ * Where each device was last seen, keyed by its identity (device_id, or MAC
+ * when it has none) rather than its display name, so renaming a device
+ * doesn't lose its address.
+ *
+ * Entries are fresh for ttlMs after the device last answered there, and only
+ * a hint after that. When a device is unreachable at its cached address (or a
+ * stale one times out) the address stops being handed out at once and the
+ * device is re-resolved in the background; if that finds nothing the device is
+ * remembered as not found for negativeTtlMs, so polls skip it instead of each
+ * waiting out a connect timeout, and then its last address gets one more try.
+ */
+public class IpResolutionCache {
+    private final Config config;
+    private final Store store;
+    private final Resolver resolver;
+    private final LongSupplier clock;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, CompletableFuture<String>> resolving = new HashMap<>();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public enum State {
+        // Answered at this address within the TTL
+        FRESH,
+        // Not confirmed within the TTL, only a hint until the device answers there
+        STALE,
+        // Recently looked for and not found
+        NOT_FOUND,
+        MISSING
+    }
+
+    /**
+     * Cache settings
+     */
+    public static class Config {
+        public long ttlMs = 10 * 60 * 1000;
+        public long negativeTtlMs = 60 * 1000;
+
+        public Config setTtlMs(long ttlMs) {
+            this.ttlMs = ttlMs;
+            return this;
+        }
+
+        public Config setNegativeTtlMs(long negativeTtlMs) {
+            this.negativeTtlMs = negativeTtlMs;
+            return this;
+        }
+    }
+
+    /**
+     * Persists entries across restarts, one string per key
+     */
+    public interface Store {
+        Map<String, String> load();
+
+        void save(String key, String value);
+
+        void remove(String key);
+    }
+
+    /**
+     * Finds a device's current host, completing with null if it can't be found
+     */
+    public interface Resolver {
+        CompletableFuture<String> resolve(String key);
+    }
+
+    /**
+     * Told about the outcome of every background re-resolve
+     */
+    public interface Listener {
+        void onResolved(String key, String host);
+
+        void onNotFound(String key);
+    }
+
+    private static class Entry {
+        // Last address the device answered at, kept while not found to retry later
+        String host;
+        long verifiedAtMs;
+        long notFoundUntilMs;
+        // Last verifiedAtMs written to the store
+        long savedVerifiedAtMs;
+        // Failed at host and not found again yet; host isn't handed out meanwhile
+        boolean invalidated;
+
+        String encode() {
+            return host + "\n" + verifiedAtMs + "\n" + notFoundUntilMs;
+        }
+
+        static Entry decode(String value) {
+            String[] parts = value.split("\n");
+            if (parts.length != 3) {
+                return null;
+            }
+            try {
+                Entry entry = new Entry();
+                entry.host = parts[0].isEmpty() || parts[0].equals("null") ? null : parts[0];
+                entry.verifiedAtMs = Long.parseLong(parts[1]);
+                entry.notFoundUntilMs = Long.parseLong(parts[2]);
+                entry.savedVerifiedAtMs = entry.verifiedAtMs;
+                return entry;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    public IpResolutionCache(Config config, Store store, Resolver resolver) {
+        this(config, store, resolver, System::currentTimeMillis);
+    }
+
+    IpResolutionCache(Config config, Store store, Resolver resolver, LongSupplier clock) {
+        this.config = config;
+        this.store = store;
+        this.resolver = resolver;
+        this.clock = clock;
+        for (Map.Entry<String, String> saved : store.load().entrySet()) {
+            Entry entry = Entry.decode(saved.getValue());
+            if (entry != null) {
+                entries.put(saved.getKey(), entry);
+            }
+        }
+    }
+
+    /** Identity keys compare case-insensitively, MACs and IDs come in both cases */
+    public static String key(String identity) {
+        return identity == null ? "" : identity.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Every device with an entry, as key -> last known host (null for devices
+     * never found), e.g. to check them all after a network change
+     */
+    public synchronized Map<String, String> hosts() {
+        Map<String, String> hosts = new HashMap<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            hosts.put(entry.getKey(), entry.getValue().host);
+        }
+        return hosts;
+    }
+
+    public synchronized State getState(String identity) {
+        return stateOf(entries.get(key(identity)), clock.getAsLong());
+    }
+
+    /**
+     * Host to try for a device, or null if it has none yet or was recently not
+     * found. A missing entry, or a not-found one that expired, also starts a
+     * background re-resolve; an expired not-found entry still returns the last
+     * known host so it gets one more try meanwhile.
+     */
+    public String lookup(String identity) {
+        String key = key(identity);
+        if (key.isEmpty()) {
+            return null;
+        }
+        Entry entry;
+        State state;
+        synchronized (this) {
+            entry = entries.get(key);
+            state = stateOf(entry, clock.getAsLong());
+        }
+        if (state == State.NOT_FOUND) {
+            return null;
+        }
+        if (state == State.MISSING || (entry != null && entry.notFoundUntilMs != 0)) {
+            resolve(key);
+        }
+        return state != State.MISSING ? entry.host : null;
+    }
+
+    /**
+     * Record an address nobody has confirmed yet, e.g. one saved by an older
+     * version of the app or reported by the backend. Only replaces an entry
+     * that was itself never confirmed; a verified or not-found entry is kept.
+     */
+    public void seed(String identity, String host) {
+        String key = key(identity);
+        if (key.isEmpty() || host == null || host.isEmpty()) {
+            return;
+        }
+        Entry entry = new Entry();
+        entry.host = host;
+        synchronized (this) {
+            Entry existing = entries.get(key);
+            if (existing != null && (existing.verifiedAtMs != 0 || existing.notFoundUntilMs != 0
+                    || existing.invalidated || host.equals(existing.host))) {
+                return;
+            }
+            entries.put(key, entry);
+        }
+        store.save(key, entry.encode());
+    }
+
+    /**
+     * Record where a device is, e.g. from discovery or provisioning
+     */
+    public void put(String identity, String host) {
+        String key = key(identity);
+        if (key.isEmpty() || host == null || host.isEmpty()) {
+            return;
+        }
+        Entry entry = new Entry();
+        entry.host = host;
+        entry.verifiedAtMs = clock.getAsLong();
+        entry.savedVerifiedAtMs = entry.verifiedAtMs;
+        synchronized (this) {
+            entries.put(key, entry);
+        }
+        store.save(key, entry.encode());
+    }
+
+    /**
+     * The device just answered at host: keep the entry fresh. Written to the
+     * store at most a few times per TTL, this runs on every successful poll.
+     */
+    public void verified(String identity, String host) {
+        String key = key(identity);
+        if (key.isEmpty() || host == null || host.isEmpty()) {
+            return;
+        }
+        String encoded;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null || !host.equals(entry.host) || entry.notFoundUntilMs != 0 || entry.invalidated) {
+                encoded = null;
+            } else {
+                entry.verifiedAtMs = clock.getAsLong();
+                if (entry.verifiedAtMs - entry.savedVerifiedAtMs < config.ttlMs / 4) {
+                    return;
+                }
+                entry.savedVerifiedAtMs = entry.verifiedAtMs;
+                encoded = entry.encode();
+            }
+        }
+        if (encoded != null) {
+            store.save(key, encoded);
+        } else {
+            // Answered somewhere the cache didn't know about
+            put(key, host);
+        }
+    }
+
+    /**
+     * Report a failed request to host. If it means the device isn't there
+     * (connection refused, no route), or a stale address timed out, the entry
+     * is dropped and re-resolved in the background. A fresh address timing out
+     * is a slow device and left alone.
+     *
+     * @return true if the entry was invalidated
+     */
+    public boolean reportFailure(String identity, String host, Throwable error) {
+        boolean staleTimeout = getState(identity) == State.STALE && isTimeout(error);
+        if (!isUnreachable(error) && !staleTimeout) {
+            return false;
+        }
+        invalidate(identity, host);
+        return true;
+    }
+
+    /**
+     * Stop handing out host for a device and look for it again. The host is
+     * kept, to try once more if the device isn't found anywhere else. Ignored
+     * if the entry already points somewhere else, so a late failure from the
+     * old address can't undo a newer resolution.
+     */
+    public void invalidate(String identity, String host) {
+        String key = key(identity);
+        if (key.isEmpty()) {
+            return;
+        }
+        String encoded = null;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && host != null && entry.host != null && !host.equals(entry.host)) {
+                return;
+            }
+            if (entry != null) {
+                entry.invalidated = true;
+                entry.verifiedAtMs = 0;
+                entry.savedVerifiedAtMs = 0;
+                entry.notFoundUntilMs = 0;
+                encoded = entry.encode();
+            }
+        }
+        if (encoded != null) {
+            store.save(key, encoded);
+        }
+        resolve(key);
+    }
+
+    /**
+     * Re-resolve a device now. Concurrent calls for the same device share one
+     * resolution. Completes with the new host, or null if not found.
+     */
+    public CompletableFuture<String> resolve(String identity) {
+        String key = key(identity);
+        CompletableFuture<String> result;
+        Entry looking;
+        long lookingVerifiedAtMs;
+        synchronized (this) {
+            CompletableFuture<String> running = resolving.get(key);
+            if (running != null) {
+                return running;
+            }
+            result = new CompletableFuture<>();
+            resolving.put(key, result);
+            looking = entries.get(key);
+            lookingVerifiedAtMs = looking != null ? looking.verifiedAtMs : 0;
+        }
+
+        CompletableFuture<String> resolution;
+        try {
+            resolution = resolver.resolve(key);
+        } catch (RuntimeException e) {
+            resolution = CompletableFuture.completedFuture(null);
+        }
+        resolution.whenComplete((host, error) -> {
+            String found = error == null ? host : null;
+            if (found != null) {
+                put(key, found);
+            } else {
+                markNotFound(key, looking, lookingVerifiedAtMs);
+            }
+            synchronized (this) {
+                resolving.remove(key, result);
+            }
+            for (Listener listener : listeners) {
+                if (found != null) {
+                    listener.onResolved(key, found);
+                } else {
+                    listener.onNotFound(key);
+                }
+            }
+            result.complete(found);
+        });
+        return result;
+    }
+
+    /**
+     * Remember a device as not found, e.g. after a discovery that missed it
+     */
+    public void markNotFound(String identity) {
+        String key = key(identity);
+        if (key.isEmpty()) {
+            return;
+        }
+        String encoded;
+        synchronized (this) {
+            Entry entry = entries.computeIfAbsent(key, k -> new Entry());
+            entry.notFoundUntilMs = clock.getAsLong() + config.negativeTtlMs;
+            encoded = entry.encode();
+        }
+        store.save(key, encoded);
+    }
+
+    /**
+     * A resolve that started when the entry was looking found nothing. Ignored
+     * if the device has been put somewhere or answered since, so a resolve that
+     * raced discovery can't mark a device not found at the address it was just found at.
+     */
+    private void markNotFound(String key, Entry looking, long lookingVerifiedAtMs) {
+        String encoded;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != looking || (entry != null && entry.verifiedAtMs != lookingVerifiedAtMs)) {
+                return;
+            }
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+            entry.notFoundUntilMs = clock.getAsLong() + config.negativeTtlMs;
+            encoded = entry.encode();
+        }
+        store.save(key, encoded);
+    }
+
+    private State stateOf(Entry entry, long now) {
+        if (entry == null) {
+            return State.MISSING;
+        }
+        if (entry.notFoundUntilMs != 0) {
+            // Once the negative entry expires, the old host is worth one more try
+            if (now < entry.notFoundUntilMs) {
+                return State.NOT_FOUND;
+            }
+            return entry.host != null ? State.STALE : State.MISSING;
+        }
+        if (entry.invalidated) {
+            return State.MISSING;
+        }
+        return now - entry.verifiedAtMs < config.ttlMs ? State.FRESH : State.STALE;
+    }
+
+    /**
+     * True for failures meaning nothing is listening at the address anymore,
+     * as opposed to a slow or busy device
+     */
+    public static boolean isUnreachable(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof NoRouteToHostException) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isTimeout(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+}
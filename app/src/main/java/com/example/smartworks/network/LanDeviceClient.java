@@ -0,0 +1,427 @@
+package com.example.smartworks.network;
+
+import android.util.Log;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Shared HTTP client for talking to ESP32 devices on the local network.
+ * Keeps connections to each device alive in a dedicated pool so repeated
+ * polls skip the TCP handshake instead of opening a new socket every time.
+ */
+public class LanDeviceClient {
+    private static final String TAG = "LanDeviceClient";
+    private static final String USER_AGENT = "SmartWorks-Android/1.0";
+    private static final MediaType FORM = MediaType.get("application/x-www-form-urlencoded");
+    // Hedge delay used until an endpoint has enough latency history
+    private static final long DEFAULT_HEDGE_DELAY_MS = 3000;
+    private static final long MIN_HEDGE_DELAY_MS = 250;
+
+    // Deadlines and hedges for every client instance
+    private static final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "LanDeviceClient-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static LanDeviceClient instance;
+    // Checked before every request, shared by all instances like the timers
+    private static volatile BooleanSupplier lanAvailable = () -> true;
+
+    private final OkHttpClient baseClient;
+    private final ConnectionPool connectionPool;
+    private final Config config;
+
+    // Per-timeout derivations of the base client - they all share the same pool
+    private final Map<String, OkHttpClient> clientsByTimeout = new ConcurrentHashMap<>();
+
+    private final LatencyTracker latencies = new LatencyTracker(64, 10);
+    private final AtomicLong hedgesSent = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+    private final AtomicLong deadlinesExceeded = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    /**
+     * Per-request timeouts for async calls
+     */
+    public static class RequestOptions {
+        public int connectTimeoutMs = 5000;
+        public int readTimeoutMs = 10000;
+        // Whole request including any hedge, the future fails with SocketTimeoutException after this
+        public long deadlineMs = 15000;
+        // Idempotent requests only: send a second attempt if the first is slower than the endpoint's p95
+        public boolean hedge = false;
+
+        public RequestOptions setConnectTimeoutMs(int connectTimeoutMs) {
+            this.connectTimeoutMs = connectTimeoutMs;
+            return this;
+        }
+
+        public RequestOptions setReadTimeoutMs(int readTimeoutMs) {
+            this.readTimeoutMs = readTimeoutMs;
+            return this;
+        }
+
+        public RequestOptions setDeadlineMs(long deadlineMs) {
+            this.deadlineMs = deadlineMs;
+            return this;
+        }
+
+        public RequestOptions setHedge(boolean hedge) {
+            this.hedge = hedge;
+            return this;
+        }
+    }
+
+    /**
+     * Turns a device response into a result. Runs on an OkHttp thread; the response
+     * is closed afterwards.
+     */
+    public interface ResponseHandler<T> {
+        T handle(Response response) throws IOException;
+    }
+
+    /**
+     * Pool settings for LAN connections
+     */
+    public static class Config {
+        // ESP32 web servers only keep a handful of sockets open, keep this small
+        public int maxIdleConnections = 8;
+        // Evict idle connections before the device's own idle timeout closes them
+        public long keepAliveMillis = 15000;
+
+        public Config setMaxIdleConnections(int maxIdleConnections) {
+            this.maxIdleConnections = maxIdleConnections;
+            return this;
+        }
+
+        public Config setKeepAliveMillis(long keepAliveMillis) {
+            this.keepAliveMillis = keepAliveMillis;
+            return this;
+        }
+    }
+
+    public LanDeviceClient(Config config) {
+        this.config = config;
+        this.connectionPool = new ConnectionPool(
+                config.maxIdleConnections, config.keepAliveMillis, TimeUnit.MILLISECONDS);
+
+        this.baseClient = new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .retryOnConnectionFailure(true) // Retry once if the device dropped a pooled socket
+                .followRedirects(false)
+                .cache(null)
+                .addInterceptor(chain -> {
+                    Request request = chain.request();
+                    if (!lanAvailable.getAsBoolean()) {
+                        throw new LanUnavailableException("Not on a local network: " + request.url().host());
+                    }
+                    Request.Builder builder = request.newBuilder();
+                    if (request.header("User-Agent") == null) {
+                        builder.header("User-Agent", USER_AGENT);
+                    }
+                    if (request.header("Accept") == null) {
+                        builder.header("Accept", "application/json");
+                    }
+                    return chain.proceed(builder.build());
+                })
+                .build();
+    }
+
+    public static synchronized LanDeviceClient getInstance() {
+        if (instance == null) {
+            instance = new LanDeviceClient(new Config());
+        }
+        return instance;
+    }
+
+    /**
+     * Replace the shared client with new pool settings. Existing idle connections are closed.
+     */
+    public static synchronized void configure(Config config) {
+        if (instance != null) {
+            instance.evictAll();
+        }
+        instance = new LanDeviceClient(config);
+    }
+
+    /**
+     * Where requests ask whether the phone is on a local network. Requests made
+     * while it says no fail with LanUnavailableException without touching the network.
+     */
+    public static void setLanAvailability(BooleanSupplier available) {
+        lanAvailable = available != null ? available : () -> true;
+    }
+
+    /**
+     * GET a path on a device. Caller must close the returned response.
+     *
+     * @param host device IP, optionally with ":port"
+     * @param path request path starting with "/"
+     */
+    public Response get(String host, String path, int connectTimeoutMs, int readTimeoutMs) throws IOException {
+        Request request = new Request.Builder()
+                .url("http://" + host + path)
+                .get()
+                .header("Cache-Control", "no-cache")
+                .build();
+
+        return clientFor(connectTimeoutMs, readTimeoutMs).newCall(request).execute();
+    }
+
+    /**
+     * POST a url-encoded form to a device. Caller must close the returned response.
+     */
+    public Response postForm(String host, String path, String formData,
+                             int connectTimeoutMs, int readTimeoutMs) throws IOException {
+        Request request = new Request.Builder()
+                .url("http://" + host + path)
+                .post(RequestBody.create(formData, FORM))
+                .build();
+
+        return clientFor(connectTimeoutMs, readTimeoutMs).newCall(request).execute();
+    }
+
+    /**
+     * GET a path on a device asynchronously.
+     *
+     * The returned future fails with SocketTimeoutException once options.deadlineMs
+     * has passed. Cancelling it aborts the socket of every attempt still running.
+     */
+    public <T> CompletableFuture<T> getAsync(String host, String path, RequestOptions options,
+                                             ResponseHandler<T> handler) {
+        Request request = new Request.Builder()
+                .url("http://" + host + path)
+                .get()
+                .header("Cache-Control", "no-cache")
+                .build();
+        // The deadline is enforced below so it always surfaces as SocketTimeoutException
+        OkHttpClient client = clientFor(options.connectTimeoutMs, options.readTimeoutMs, 0);
+        return new HedgedCall<>(host + path, request, client, options, handler).start();
+    }
+
+    /**
+     * One logical request: the primary attempt plus at most one hedge
+     */
+    private class HedgedCall<T> {
+        final String endpoint;
+        final Request request;
+        final OkHttpClient client;
+        final RequestOptions options;
+        final ResponseHandler<T> handler;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        // First attempt (or the deadline) to settle the request wins
+        final AtomicBoolean settled = new AtomicBoolean();
+
+        // Guarded by this
+        final List<Call> calls = new ArrayList<>();
+        int running;
+        boolean hedged;
+        ScheduledFuture<?> hedgeTimer;
+        ScheduledFuture<?> deadlineTimer;
+
+        HedgedCall(String endpoint, Request request, OkHttpClient client,
+                   RequestOptions options, ResponseHandler<T> handler) {
+            this.endpoint = endpoint;
+            this.request = request;
+            this.client = client;
+            this.options = options;
+            this.handler = handler;
+        }
+
+        CompletableFuture<T> start() {
+            result.whenComplete((value, error) -> finish());
+
+            synchronized (this) {
+                deadlineTimer = timers.schedule(() -> {
+                    if (settled.compareAndSet(false, true)) {
+                        deadlinesExceeded.incrementAndGet();
+                        result.completeExceptionally(new SocketTimeoutException(
+                                "Deadline of " + options.deadlineMs + "ms exceeded for " + endpoint));
+                    }
+                }, options.deadlineMs, TimeUnit.MILLISECONDS);
+
+                if (options.hedge) {
+                    long p95 = latencies.percentile(endpoint, 0.95, DEFAULT_HEDGE_DELAY_MS);
+                    long delay = Math.max(MIN_HEDGE_DELAY_MS, Math.min(p95, options.deadlineMs / 2));
+                    hedgeTimer = timers.schedule(this::sendHedge, delay, TimeUnit.MILLISECONDS);
+                }
+            }
+            attempt(false);
+            return result;
+        }
+
+        private void sendHedge() {
+            synchronized (this) {
+                if (result.isDone() || hedged) {
+                    return;
+                }
+                hedged = true;
+            }
+            hedgesSent.incrementAndGet();
+            Log.d(TAG, "Hedging slow request to " + endpoint);
+            attempt(true);
+        }
+
+        private void attempt(boolean isHedge) {
+            Call call = client.newCall(request);
+            long startedAt = System.currentTimeMillis();
+            synchronized (this) {
+                if (result.isDone()) {
+                    return;
+                }
+                calls.add(call);
+                running++;
+            }
+
+            call.enqueue(new Callback() {
+                @Override
+                public void onResponse(Call call, Response response) {
+                    try (Response r = response) {
+                        T value = handler.handle(r);
+                        latencies.record(endpoint, System.currentTimeMillis() - startedAt);
+                        if (settled.compareAndSet(false, true)) {
+                            if (isHedge) {
+                                hedgesWon.incrementAndGet();
+                            }
+                            result.complete(value);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        onFailure(call, e instanceof IOException ? (IOException) e : new IOException(e));
+                    }
+                }
+
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    boolean sendHedgeNow;
+                    boolean lastAttempt;
+                    synchronized (HedgedCall.this) {
+                        running--;
+                        // Failed fast before the hedge went out - use the hedge as the retry
+                        sendHedgeNow = options.hedge && !hedged;
+                        lastAttempt = running == 0 && !sendHedgeNow;
+                    }
+                    if (sendHedgeNow) {
+                        sendHedge();
+                    } else if (lastAttempt && settled.compareAndSet(false, true)) {
+                        result.completeExceptionally(e);
+                    }
+                }
+            });
+        }
+
+        private void finish() {
+            List<Call> toCancel;
+            synchronized (this) {
+                if (hedgeTimer != null) {
+                    hedgeTimer.cancel(false);
+                }
+                if (deadlineTimer != null) {
+                    deadlineTimer.cancel(false);
+                }
+                toCancel = new ArrayList<>(calls);
+                calls.clear();
+            }
+            if (result.isCancelled()) {
+                cancelled.incrementAndGet();
+            }
+            // Close the socket of the losing or abandoned attempts
+            for (Call call : toCancel) {
+                call.cancel();
+            }
+        }
+    }
+
+    /**
+     * Quick check that a device answers 200 on the given path
+     */
+    public boolean isReachable(String host, String path, int timeoutMs) {
+        try (Response response = get(host, path, timeoutMs, timeoutMs)) {
+            return response.code() == 200;
+        } catch (Exception e) {
+            Log.d(TAG, "Device at " + host + " not reachable: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Client with the given timeouts that shares this instance's connection pool and dispatcher.
+     * Whole calls are bounded by connect + read timeout.
+     */
+    public OkHttpClient clientFor(int connectTimeoutMs, int readTimeoutMs) {
+        return clientFor(connectTimeoutMs, readTimeoutMs, (long) connectTimeoutMs + readTimeoutMs);
+    }
+
+    /**
+     * @param callTimeoutMs deadline for the whole call, 0 for none (long-lived streams)
+     */
+    public OkHttpClient clientFor(int connectTimeoutMs, int readTimeoutMs, long callTimeoutMs) {
+        String key = connectTimeoutMs + "/" + readTimeoutMs + "/" + callTimeoutMs;
+        return clientsByTimeout.computeIfAbsent(key, k -> baseClient.newBuilder()
+                .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+                .callTimeout(callTimeoutMs, TimeUnit.MILLISECONDS)
+                .build());
+    }
+
+    public LatencyTracker getLatencies() {
+        return latencies;
+    }
+
+    public long hedgesSent() {
+        return hedgesSent.get();
+    }
+
+    public long hedgesWon() {
+        return hedgesWon.get();
+    }
+
+    public long deadlinesExceeded() {
+        return deadlinesExceeded.get();
+    }
+
+    public long cancelledRequests() {
+        return cancelled.get();
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    public int connectionCount() {
+        return connectionPool.connectionCount();
+    }
+
+    public int idleConnectionCount() {
+        return connectionPool.idleConnectionCount();
+    }
+
+    /**
+     * Close every pooled connection, e.g. after the phone changes WiFi network
+     */
+    public void evictAll() {
+        connectionPool.evictAll();
+        Log.d(TAG, "Evicted all LAN connections");
+    }
+}
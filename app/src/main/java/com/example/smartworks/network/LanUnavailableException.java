@@ -0,0 +1,13 @@
+package com.example.smartworks.network;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a device request while the phone isn't on a
+ * local network, so callers fail at once rather than after a connect timeout
+ */
+public class LanUnavailableException extends IOException {
+    public LanUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.smartworks.network;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Recent request latencies per endpoint, used to pick hedge delays.
+ * Keeps a fixed window of the latest samples so the percentiles follow the
+ * device's current behaviour rather than its whole history.
+ */
+public class LatencyTracker {
+    private final int windowSize;
+    private final int minSamples;
+
+    // Guarded by this
+    private final Map<String, Window> windows = new HashMap<>();
+
+    private static class Window {
+        final long[] samples;
+        int count;
+        int next;
+
+        Window(int size) {
+            samples = new long[size];
+        }
+    }
+
+    /**
+     * @param windowSize how many recent samples to keep per endpoint
+     * @param minSamples below this many samples percentile() returns the fallback
+     */
+    public LatencyTracker(int windowSize, int minSamples) {
+        this.windowSize = windowSize;
+        this.minSamples = minSamples;
+    }
+
+    public synchronized void record(String endpoint, long latencyMs) {
+        Window window = windows.get(endpoint);
+        if (window == null) {
+            window = new Window(windowSize);
+            windows.put(endpoint, window);
+        }
+        window.samples[window.next] = latencyMs;
+        window.next = (window.next + 1) % windowSize;
+        if (window.count < windowSize) {
+            window.count++;
+        }
+    }
+
+    /**
+     * Latency below which the given fraction (0..1) of recent requests completed,
+     * or fallbackMs if there is not enough history yet
+     */
+    public long percentile(String endpoint, double fraction, long fallbackMs) {
+        long[] sorted;
+        synchronized (this) {
+            Window window = windows.get(endpoint);
+            if (window == null || window.count < minSamples) {
+                return fallbackMs;
+            }
+            sorted = Arrays.copyOf(window.samples, window.count);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    public synchronized int sampleCount(String endpoint) {
+        Window window = windows.get(endpoint);
+        return window != null ? window.count : 0;
+    }
+}
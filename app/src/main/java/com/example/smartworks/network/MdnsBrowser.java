@@ -0,0 +1,483 @@
+package com.example.smartworks.network;
+
+import android.util.Log;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multicast DNS service browser (RFC 6762/6763) for devices advertising
+ * _smartworks._tcp or _http._tcp. Keeps a live table of resolved services
+ * and reports when one appears, moves to another address or goes away,
+ * without any HTTP probing. Plain Java sockets, so it also runs off-device.
+ */
+public class MdnsBrowser {
+    private static final String TAG = "MdnsBrowser";
+    public static final String SMARTWORKS_SERVICE = "_smartworks._tcp.local.";
+    public static final String HTTP_SERVICE = "_http._tcp.local.";
+    private static final long EXPIRY_CHECK_MS = 1000;
+    private static final long FOLLOW_UP_INTERVAL_MS = 1000;
+
+    private final Config config;
+    private final Listener listener;
+    private final List<String> serviceTypes = new ArrayList<>();
+
+    // Guarded by this
+    private final Map<String, Entry> instances = new HashMap<>();
+    private final Map<String, HostAddress> hostAddresses = new HashMap<>();
+    private final Map<String, Long> lastFollowUp = new HashMap<>();
+    private long queryIntervalMs;
+
+    private volatile MulticastSocket socket;
+    private volatile boolean closed;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Browse settings
+     */
+    public static class Config {
+        public String group = "224.0.0.251";
+        public int port = 5353;
+        // Null joins on the system's default multicast interface
+        public NetworkInterface networkInterface;
+        public List<String> serviceTypes = Arrays.asList(SMARTWORKS_SERVICE, HTTP_SERVICE);
+        // Queries start at this interval and double up to the maximum
+        public long initialQueryIntervalMs = 1000;
+        public long maxQueryIntervalMs = 60000;
+
+        public Config setGroup(String group) {
+            this.group = group;
+            return this;
+        }
+
+        public Config setPort(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public Config setNetworkInterface(NetworkInterface networkInterface) {
+            this.networkInterface = networkInterface;
+            return this;
+        }
+
+        public Config setServiceTypes(List<String> serviceTypes) {
+            this.serviceTypes = serviceTypes;
+            return this;
+        }
+
+        public Config setInitialQueryIntervalMs(long initialQueryIntervalMs) {
+            this.initialQueryIntervalMs = initialQueryIntervalMs;
+            return this;
+        }
+
+        public Config setMaxQueryIntervalMs(long maxQueryIntervalMs) {
+            this.maxQueryIntervalMs = maxQueryIntervalMs;
+            return this;
+        }
+    }
+
+    /**
+     * A fully resolved service instance: name, address, port and TXT data
+     */
+    public static class Service {
+        // Full instance name, e.g. "Pool Monitor._smartworks._tcp.local."
+        public final String instance;
+        public final String type;
+        public final String hostName;
+        public final InetAddress address;
+        public final int port;
+        public final Map<String, String> txt;
+
+        Service(String instance, String type, String hostName, InetAddress address, int port,
+                Map<String, String> txt) {
+            this.instance = instance;
+            this.type = type;
+            this.hostName = hostName;
+            this.address = address;
+            this.port = port;
+            this.txt = Collections.unmodifiableMap(new LinkedHashMap<>(txt));
+        }
+
+        /** Instance label without the service type, e.g. "Pool Monitor" */
+        public String label() {
+            int end = instance.toLowerCase(java.util.Locale.ROOT).lastIndexOf("." + type);
+            return end > 0 ? instance.substring(0, end) : instance;
+        }
+
+        /** device_id from the TXT record, if advertised */
+        public String deviceId() {
+            String id = txt.get("id");
+            return id != null ? id : txt.get("device_id");
+        }
+
+        /** Name from the TXT record, falling back to the instance label */
+        public String deviceName() {
+            String name = txt.get("name");
+            if (name == null) {
+                name = txt.get("device_name");
+            }
+            return name != null ? name : label();
+        }
+
+        /** Host string for LanDeviceClient: "ip" on port 80, "ip:port" otherwise */
+        public String hostAndPort() {
+            return port == 80 ? address.getHostAddress() : address.getHostAddress() + ":" + port;
+        }
+
+        boolean sameAs(Service other) {
+            return other != null && address.equals(other.address) && port == other.port
+                    && txt.equals(other.txt) && Objects.equals(hostName, other.hostName);
+        }
+
+        @Override
+        public String toString() {
+            return label() + " (" + type + ") at " + hostAndPort() + " " + txt;
+        }
+    }
+
+    /**
+     * Called on the browser's own threads
+     */
+    public interface Listener {
+        /** A service was resolved for the first time, or its address, port or TXT changed */
+        void onServiceResolved(Service service);
+
+        /** A service said goodbye or its records expired */
+        void onServiceLost(Service service);
+    }
+
+    private static class Entry {
+        String instance;
+        String type;
+        long ptrExpiresAt;
+        String target;
+        int port;
+        long srvExpiresAt;
+        Map<String, String> txt = Collections.emptyMap();
+        Service resolved;
+    }
+
+    private static class HostAddress {
+        final InetAddress address;
+        final long expiresAt;
+
+        HostAddress(InetAddress address, long expiresAt) {
+            this.address = address;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public MdnsBrowser(Config config, Listener listener) {
+        this.config = config;
+        this.listener = listener;
+        for (String type : config.serviceTypes) {
+            serviceTypes.add(DnsMessage.normalize(type));
+        }
+    }
+
+    /**
+     * Join the multicast group and start querying. Returns immediately, the
+     * socket is opened on the browser's thread.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        closed = false;
+        queryIntervalMs = config.initialQueryIntervalMs;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MdnsBrowser-query");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.execute(this::open);
+        scheduler.scheduleWithFixedDelay(this::expire, EXPIRY_CHECK_MS, EXPIRY_CHECK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Query again right away and restart the query backoff, e.g. after the
+     * network changed or the screen came back
+     */
+    public void refreshNow() {
+        ScheduledExecutorService current;
+        synchronized (this) {
+            queryIntervalMs = config.initialQueryIntervalMs;
+            current = scheduler;
+        }
+        if (current != null) {
+            current.execute(this::sendBrowseQuery);
+        }
+    }
+
+    public void close() {
+        ScheduledExecutorService current;
+        synchronized (this) {
+            closed = true;
+            current = scheduler;
+            scheduler = null;
+        }
+        if (current != null) {
+            current.shutdownNow();
+        }
+        MulticastSocket open = socket;
+        socket = null;
+        if (open != null) {
+            open.close();
+        }
+    }
+
+    /** Currently resolved services */
+    public synchronized List<Service> getServices() {
+        List<Service> services = new ArrayList<>();
+        for (Entry entry : instances.values()) {
+            if (entry.resolved != null) {
+                services.add(entry.resolved);
+            }
+        }
+        return services;
+    }
+
+    private void open() {
+        try {
+            MulticastSocket multicast = new MulticastSocket(null);
+            multicast.setReuseAddress(true);
+            multicast.bind(new InetSocketAddress(config.port));
+            multicast.setTimeToLive(255);
+            if (config.networkInterface != null) {
+                multicast.setNetworkInterface(config.networkInterface);
+            }
+            multicast.joinGroup(new InetSocketAddress(config.group, config.port), config.networkInterface);
+
+            synchronized (this) {
+                if (closed) {
+                    multicast.close();
+                    return;
+                }
+                socket = multicast;
+                Thread receiver = new Thread(() -> receive(multicast), "MdnsBrowser-receive");
+                receiver.setDaemon(true);
+                receiver.start();
+            }
+            Log.d(TAG, "Browsing " + serviceTypes + " on " + config.group + ":" + config.port);
+            queryLoop();
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot join mDNS group", e);
+        }
+    }
+
+    private void queryLoop() {
+        sendBrowseQuery();
+        synchronized (this) {
+            if (closed || scheduler == null) {
+                return;
+            }
+            scheduler.schedule(this::queryLoop, queryIntervalMs, TimeUnit.MILLISECONDS);
+            queryIntervalMs = Math.min(queryIntervalMs * 2, config.maxQueryIntervalMs);
+        }
+    }
+
+    private void sendBrowseQuery() {
+        DnsMessage query = new DnsMessage();
+        for (String type : serviceTypes) {
+            query.questions.add(new DnsMessage.Question(type, DnsMessage.TYPE_PTR));
+        }
+        send(query);
+    }
+
+    private void send(DnsMessage message) {
+        MulticastSocket current = socket;
+        if (current == null || message.questions.isEmpty()) {
+            return;
+        }
+        byte[] bytes = message.encode();
+        try {
+            current.send(new DatagramPacket(bytes, bytes.length,
+                    new InetSocketAddress(config.group, config.port)));
+        } catch (IOException e) {
+            if (!closed) {
+                Log.w(TAG, "mDNS query failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void receive(MulticastSocket multicast) {
+        byte[] buffer = new byte[9000];
+        while (!closed) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                multicast.receive(packet);
+            } catch (IOException e) {
+                if (!closed) {
+                    Log.e(TAG, "mDNS receive failed", e);
+                }
+                return;
+            }
+            try {
+                DnsMessage message = DnsMessage.decode(packet.getData(), packet.getLength());
+                if (message.response) {
+                    handleResponse(message);
+                }
+            } catch (IOException e) {
+                Log.d(TAG, "Ignoring malformed mDNS packet from " + packet.getAddress());
+            }
+        }
+    }
+
+    void handleResponse(DnsMessage message) {
+        List<DnsMessage.Record> records = new ArrayList<>(message.answers);
+        records.addAll(message.additionals);
+        long now = System.currentTimeMillis();
+        List<Runnable> events = new ArrayList<>();
+        DnsMessage followUp = new DnsMessage();
+
+        synchronized (this) {
+            // PTRs first, the SRV/TXT for a new instance may come before its PTR
+            for (DnsMessage.Record record : records) {
+                if (record.type != DnsMessage.TYPE_PTR || !serviceTypes.contains(DnsMessage.normalize(record.name))) {
+                    continue;
+                }
+                String key = DnsMessage.normalize(record.target);
+                Entry entry = instances.get(key);
+                if (entry == null) {
+                    if (record.ttlSeconds == 0) {
+                        continue;
+                    }
+                    entry = new Entry();
+                    instances.put(key, entry);
+                }
+                entry.instance = record.target;
+                entry.type = DnsMessage.normalize(record.name);
+                entry.ptrExpiresAt = now + record.ttlSeconds * 1000;
+            }
+            for (DnsMessage.Record record : records) {
+                switch (record.type) {
+                    case DnsMessage.TYPE_SRV: {
+                        Entry entry = instances.get(DnsMessage.normalize(record.name));
+                        if (entry != null) {
+                            entry.target = DnsMessage.normalize(record.target);
+                            entry.port = record.port;
+                            entry.srvExpiresAt = now + record.ttlSeconds * 1000;
+                        }
+                        break;
+                    }
+                    case DnsMessage.TYPE_TXT: {
+                        Entry entry = instances.get(DnsMessage.normalize(record.name));
+                        if (entry != null && record.ttlSeconds > 0) {
+                            entry.txt = record.txt;
+                        }
+                        break;
+                    }
+                    case DnsMessage.TYPE_A:
+                        if (record.address != null) {
+                            hostAddresses.put(DnsMessage.normalize(record.name),
+                                    new HostAddress(record.address, now + record.ttlSeconds * 1000));
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            refreshLocked(now, events);
+            collectFollowUpsLocked(now, followUp);
+        }
+
+        fire(events);
+        send(followUp);
+    }
+
+    private void expire() {
+        List<Runnable> events = new ArrayList<>();
+        synchronized (this) {
+            refreshLocked(System.currentTimeMillis(), events);
+        }
+        fire(events);
+    }
+
+    /** Re-derive every instance's resolved state from its records */
+    private void refreshLocked(long now, List<Runnable> events) {
+        hostAddresses.values().removeIf(host -> host.expiresAt <= now);
+        lastFollowUp.values().removeIf(askedAt -> now - askedAt >= FOLLOW_UP_INTERVAL_MS);
+
+        List<String> gone = new ArrayList<>();
+        for (Map.Entry<String, Entry> item : instances.entrySet()) {
+            Entry entry = item.getValue();
+            Service current = null;
+            if (entry.ptrExpiresAt > now && entry.srvExpiresAt > now) {
+                HostAddress host = hostAddresses.get(entry.target);
+                if (host != null) {
+                    current = new Service(entry.instance, entry.type, entry.target, host.address,
+                            entry.port, entry.txt);
+                }
+            }
+
+            if (current == null && entry.resolved != null) {
+                Service lost = entry.resolved;
+                entry.resolved = null;
+                Log.d(TAG, "Lost " + lost);
+                events.add(() -> listener.onServiceLost(lost));
+            } else if (current != null && !current.sameAs(entry.resolved)) {
+                Service resolved = current;
+                entry.resolved = resolved;
+                Log.d(TAG, "Resolved " + resolved);
+                events.add(() -> listener.onServiceResolved(resolved));
+            }
+            if (entry.ptrExpiresAt <= now) {
+                gone.add(item.getKey());
+            }
+        }
+        for (String key : gone) {
+            instances.remove(key);
+        }
+    }
+
+    /** Ask directly for records a responder left out of its answer */
+    private void collectFollowUpsLocked(long now, DnsMessage followUp) {
+        for (Map.Entry<String, Entry> item : instances.entrySet()) {
+            Entry entry = item.getValue();
+            if (entry.ptrExpiresAt <= now) {
+                continue;
+            }
+            if (entry.srvExpiresAt <= now) {
+                addFollowUpLocked(now, followUp, entry.instance, DnsMessage.TYPE_SRV);
+                addFollowUpLocked(now, followUp, entry.instance, DnsMessage.TYPE_TXT);
+            } else if (!hostAddresses.containsKey(entry.target)) {
+                addFollowUpLocked(now, followUp, entry.target, DnsMessage.TYPE_A);
+            }
+        }
+    }
+
+    private void addFollowUpLocked(long now, DnsMessage followUp, String name, int type) {
+        String key = type + " " + DnsMessage.normalize(name);
+        Long last = lastFollowUp.get(key);
+        if (last != null && now - last < FOLLOW_UP_INTERVAL_MS) {
+            return;
+        }
+        lastFollowUp.put(key, now);
+        followUp.questions.add(new DnsMessage.Question(name, type));
+    }
+
+    private void fire(List<Runnable> events) {
+        for (Runnable event : events) {
+            try {
+                event.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "mDNS listener failed", e);
+            }
+        }
+    }
+}
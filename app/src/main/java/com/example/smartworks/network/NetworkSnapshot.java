@@ -0,0 +1,148 @@
+package com.example.smartworks.network;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * What the phone's default network looked like at one moment: whether it is
+ * up, whether it's a local network ESP32s can be on, its IPv4 subnet and SSID.
+ * Immutable, so it can be read from any thread without asking the platform
+ * again before every request.
+ */
+public class NetworkSnapshot {
+    public static final NetworkSnapshot DISCONNECTED = new NetworkSnapshot(false, false, false, false, null, null, 0);
+
+    public final boolean connected;
+    // WiFi or Ethernet, where the devices live
+    public final boolean local;
+    // The platform confirmed internet access
+    public final boolean validated;
+    public final boolean metered;
+    // Null when unknown, e.g. without location permission
+    public final String ssid;
+    // Phone's own IPv4 address, null if it has none
+    public final InetAddress address;
+    public final int prefixLength;
+
+    public NetworkSnapshot(boolean connected, boolean local, boolean validated, boolean metered,
+                           String ssid, InetAddress address, int prefixLength) {
+        this.connected = connected;
+        this.local = local;
+        this.validated = validated;
+        this.metered = metered;
+        this.ssid = normalizeSsid(ssid);
+        this.address = address instanceof Inet4Address ? address : null;
+        this.prefixLength = this.address != null ? Math.max(0, Math.min(32, prefixLength)) : 0;
+    }
+
+    /** True if LAN requests to devices can possibly succeed */
+    public boolean allowsLan() {
+        return connected && local;
+    }
+
+    /** Network address of the phone's subnet, e.g. "192.168.1.0/24", or null without IPv4 */
+    public String subnet() {
+        if (address == null) {
+            return null;
+        }
+        int network = toInt(address.getAddress()) & mask();
+        return ((network >>> 24) & 0xFF) + "." + ((network >>> 16) & 0xFF) + "."
+                + ((network >>> 8) & 0xFF) + "." + (network & 0xFF) + "/" + prefixLength;
+    }
+
+    /**
+     * Whether host (an IPv4 literal, optionally with ":port") is on the phone's
+     * subnet. False for names and when the phone has no IPv4 address.
+     */
+    public boolean contains(String host) {
+        if (address == null || host == null) {
+            return false;
+        }
+        int colon = host.indexOf(':');
+        String ip = colon >= 0 ? host.substring(0, colon) : host;
+        String[] octets = ip.split("\\.");
+        if (octets.length != 4) {
+            return false;
+        }
+        int value = 0;
+        try {
+            for (String octet : octets) {
+                int part = Integer.parseInt(octet);
+                if (part < 0 || part > 255) {
+                    return false;
+                }
+                value = (value << 8) | part;
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return (value & mask()) == (toInt(address.getAddress()) & mask());
+    }
+
+    /**
+     * Whether other is the same LAN: same subnet, and same SSID when both
+     * are known. Two home networks can both be 192.168.1.0/24.
+     */
+    public boolean sameLan(NetworkSnapshot other) {
+        if (other == null || !Objects.equals(subnet(), other.subnet())) {
+            return false;
+        }
+        return ssid == null || other.ssid == null || ssid.equals(other.ssid);
+    }
+
+    /** Hosts to sweep on this subnet, or null without IPv4 */
+    public List<InetAddress> subnetHosts() {
+        return address != null ? SubnetScanner.subnetHosts(address, prefixLength) : null;
+    }
+
+    private int mask() {
+        return prefixLength == 0 ? 0 : -1 << (32 - prefixLength);
+    }
+
+    private static int toInt(byte[] octets) {
+        return ((octets[0] & 0xFF) << 24) | ((octets[1] & 0xFF) << 16) | ((octets[2] & 0xFF) << 8) | (octets[3] & 0xFF);
+    }
+
+    // WifiInfo quotes SSIDs and reports "<unknown ssid>" when it may not say
+    private static String normalizeSsid(String ssid) {
+        if (ssid == null) {
+            return null;
+        }
+        String trimmed = ssid.trim();
+        if (trimmed.length() >= 2 && trimmed.startsWith("\"") && trimmed.endsWith("\"")) {
+            trimmed = trimmed.substring(1, trimmed.length() - 1);
+        }
+        if (trimmed.isEmpty() || trimmed.equals("<unknown ssid>")) {
+            return null;
+        }
+        return trimmed;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof NetworkSnapshot)) {
+            return false;
+        }
+        NetworkSnapshot other = (NetworkSnapshot) o;
+        return connected == other.connected && local == other.local && validated == other.validated
+                && metered == other.metered && prefixLength == other.prefixLength
+                && Objects.equals(ssid, other.ssid) && Objects.equals(address, other.address);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(connected, local, validated, metered, ssid, address, prefixLength);
+    }
+
+    @Override
+    public String toString() {
+        if (!connected) {
+            return "disconnected";
+        }
+        return (local ? "LAN" : "non-local") + " " + (subnet() != null ? subnet() : "no IPv4")
+                + (ssid != null ? " \"" + ssid + "\"" : "")
+                + (validated ? " validated" : "") + (metered ? " metered" : "");
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.smartworks.network;
+
+import android.util.Log;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * In-flight request registry keyed by device. Concurrent callers asking for the
+ * same key share one pending load instead of each opening their own request,
+ * and a successful result is reused for a short freshness window.
+ *
+ * The load itself is cancelled only once every caller sharing it has cancelled.
+ */
+public class SingleFlight<T> {
+    private static final String TAG = "SingleFlight";
+
+    private final long freshnessMs;
+    private final long maxInFlightMs;
+    private final Predicate<T> cacheable;
+
+    // Guarded by this
+    private final Map<String, Flight<T>> inFlight = new HashMap<>();
+    private final Map<String, Cached<T>> recent = new HashMap<>();
+    private long issued;
+    private long coalesced;
+    private long cacheHits;
+    private long abandoned;
+
+    private static class Flight<T> {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final long startedAt;
+        CompletableFuture<T> load;
+        int waiters;
+
+        Flight(long startedAt) {
+            this.startedAt = startedAt;
+        }
+    }
+
+    private static class Cached<T> {
+        final T value;
+        final long loadedAt;
+
+        Cached(T value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    /**
+     * Point-in-time view of the registry counters
+     */
+    public static class Metrics {
+        public final long issued;
+        public final long coalesced;
+        public final long cacheHits;
+        public final long abandoned;
+        public final int inFlight;
+
+        Metrics(long issued, long coalesced, long cacheHits, long abandoned, int inFlight) {
+            this.issued = issued;
+            this.coalesced = coalesced;
+            this.cacheHits = cacheHits;
+            this.abandoned = abandoned;
+            this.inFlight = inFlight;
+        }
+
+        @Override
+        public String toString() {
+            return "issued=" + issued + " coalesced=" + coalesced + " cacheHits=" + cacheHits
+                    + " abandoned=" + abandoned + " inFlight=" + inFlight;
+        }
+    }
+
+    /**
+     * @param freshnessMs   how long a successful result is handed out without a new load
+     * @param maxInFlightMs a load pending longer than this is presumed lost (e.g. dropped by
+     *                      the executor) and the next caller starts a fresh one
+     */
+    public SingleFlight(long freshnessMs, long maxInFlightMs) {
+        this(freshnessMs, maxInFlightMs, value -> true);
+    }
+
+    /**
+     * @param cacheable results failing this check are still shared with the callers
+     *                  waiting on them, but not reused afterwards
+     */
+    public SingleFlight(long freshnessMs, long maxInFlightMs, Predicate<T> cacheable) {
+        this.freshnessMs = freshnessMs;
+        this.maxInFlightMs = maxInFlightMs;
+        this.cacheable = cacheable;
+    }
+
+    /**
+     * Return the pending or recent result for key, or run the blocking loader on executor.
+     */
+    public CompletableFuture<T> execute(String key, Executor executor, Callable<T> loader) {
+        return execute(key, () -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return loader.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor));
+    }
+
+    /**
+     * Return the pending or recent result for key, or start loader.
+     *
+     * Each caller gets its own dependent future, so cancelling one does not
+     * affect the others sharing the load. When all of them have cancelled,
+     * the load future is cancelled too.
+     */
+    public CompletableFuture<T> execute(String key, Supplier<CompletableFuture<T>> loader) {
+        Flight<T> flight;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+
+            Cached<T> cached = recent.get(key);
+            if (cached != null) {
+                if (now - cached.loadedAt <= freshnessMs) {
+                    cacheHits++;
+                    return CompletableFuture.completedFuture(cached.value);
+                }
+                recent.remove(key);
+            }
+
+            Flight<T> existing = inFlight.get(key);
+            if (existing != null) {
+                if (now - existing.startedAt <= maxInFlightMs) {
+                    coalesced++;
+                    return join(key, existing);
+                }
+                // Never completed - let anyone still waiting on it go
+                abandoned++;
+                inFlight.remove(key);
+                existing.future.completeExceptionally(
+                        new TimeoutException("Request for " + key + " never completed"));
+            }
+
+            issued++;
+            flight = new Flight<>(now);
+            inFlight.put(key, flight);
+        }
+
+        CompletableFuture<T> caller = join(key, flight);
+        CompletableFuture<T> load;
+        try {
+            load = loader.get();
+        } catch (RuntimeException e) {
+            // Executor rejected the load (shut down or full)
+            finish(key, flight, null, e);
+            return caller;
+        }
+
+        boolean cancelNow;
+        synchronized (this) {
+            flight.load = load;
+            cancelNow = flight.waiters == 0;
+        }
+        load.whenComplete((value, error) -> finish(key, flight, value, error));
+        if (cancelNow) {
+            load.cancel(true);
+        }
+        return caller;
+    }
+
+    private CompletableFuture<T> join(String key, Flight<T> flight) {
+        CompletableFuture<T> caller = flight.future.thenApply(value -> value);
+        synchronized (this) {
+            flight.waiters++;
+        }
+        caller.whenComplete((value, error) -> {
+            if (caller.isCancelled()) {
+                leave(key, flight);
+            }
+        });
+        return caller;
+    }
+
+    private void leave(String key, Flight<T> flight) {
+        CompletableFuture<T> load;
+        synchronized (this) {
+            if (--flight.waiters > 0 || flight.future.isDone()) {
+                return;
+            }
+            // Nobody is waiting any more - stop the request
+            if (inFlight.get(key) == flight) {
+                inFlight.remove(key);
+            }
+            load = flight.load;
+        }
+        if (load != null) {
+            load.cancel(true);
+        }
+    }
+
+    private void finish(String key, Flight<T> flight, T value, Throwable error) {
+        error = error != null ? unwrap(error) : null;
+        synchronized (this) {
+            if (inFlight.get(key) == flight) {
+                inFlight.remove(key);
+            }
+            if (error == null && freshnessMs > 0 && cacheable.test(value)) {
+                recent.put(key, new Cached<>(value, System.currentTimeMillis()));
+            }
+        }
+
+        if (error == null) {
+            flight.future.complete(value);
+        } else {
+            Log.d(TAG, "Load failed for " + key + ": " + error.getMessage());
+            flight.future.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Drop the cached result for key so the next caller loads it again
+     */
+    public synchronized void invalidate(String key) {
+        recent.remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        recent.clear();
+    }
+
+    public synchronized Metrics getMetrics() {
+        return new Metrics(issued, coalesced, cacheHits, abandoned, inFlight.size());
+    }
+
+    /**
+     * The exception a load actually failed with, without CompletionException wrapping
+     */
+    public static Throwable unwrap(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.smartworks.network;
+
+import android.util.Log;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds ESP32 devices on the local subnet in two stages: non-blocking TCP
+ * connects to every host with a few hundred in flight at once, then an HTTP
+ * identify request only to the hosts that accepted the connection. Hosts that
+ * don't exist cost one shared connect timeout instead of one each.
+ */
+public class SubnetScanner {
+    private static final String TAG = "SubnetScanner";
+    // Larger networks are scanned as the /22 around the phone, about 1000 hosts
+    public static final int MIN_PREFIX_LENGTH = 22;
+
+    private final Config config;
+    private final LanDeviceClient client;
+
+    /**
+     * Scan settings
+     */
+    public static class Config {
+        public int port = 80;
+        // Silent hosts (no ARP reply) are given up on after this
+        public int connectTimeoutMs = 1000;
+        public int maxInFlight = 256;
+        public String identifyPath = "/data";
+        public LanDeviceClient.RequestOptions identifyOptions = new LanDeviceClient.RequestOptions()
+                .setConnectTimeoutMs(1000)
+                .setReadTimeoutMs(2000)
+                .setDeadlineMs(3000);
+
+        public Config setPort(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public Config setConnectTimeoutMs(int connectTimeoutMs) {
+            this.connectTimeoutMs = connectTimeoutMs;
+            return this;
+        }
+
+        public Config setMaxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        public Config setIdentifyPath(String identifyPath) {
+            this.identifyPath = identifyPath;
+            return this;
+        }
+
+        public Config setIdentifyOptions(LanDeviceClient.RequestOptions identifyOptions) {
+            this.identifyOptions = identifyOptions;
+            return this;
+        }
+    }
+
+    /**
+     * Outcome of one scan
+     */
+    public static class Result<T> {
+        // Host (as passed to LanDeviceClient) -> identify result, in address order
+        public final Map<String, T> devices = new LinkedHashMap<>();
+        public int probed;
+        public int answered;
+        public long connectMs;
+        public long elapsedMs;
+
+        @Override
+        public String toString() {
+            return "probed=" + probed + " answered=" + answered + " devices=" + devices.size()
+                    + " connect=" + connectMs + "ms total=" + elapsedMs + "ms";
+        }
+    }
+
+    /**
+     * Connect-stage progress, called on the scanning thread each time another
+     * percent of the addresses has been probed
+     */
+    public interface ProgressListener {
+        void onProgress(int probed, int total);
+    }
+
+    private static class Probe {
+        final InetAddress address;
+        final SocketChannel channel;
+        final long deadlineNanos;
+        boolean done;
+
+        Probe(InetAddress address, SocketChannel channel, long deadlineNanos) {
+            this.address = address;
+            this.channel = channel;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+
+    public SubnetScanner(Config config, LanDeviceClient client) {
+        this.config = config;
+        this.client = client;
+    }
+
+    public SubnetScanner() {
+        this(new Config(), LanDeviceClient.getInstance());
+    }
+
+    /**
+     * Every host address in the subnet of self, except self and the network
+     * and broadcast addresses. Prefixes shorter than MIN_PREFIX_LENGTH are narrowed.
+     */
+    public static List<InetAddress> subnetHosts(InetAddress self, int prefixLength) {
+        if (!(self instanceof Inet4Address)) {
+            throw new IllegalArgumentException("IPv4 address required: " + self);
+        }
+        int prefix = Math.max(MIN_PREFIX_LENGTH, Math.min(30, prefixLength));
+        int ip = toInt(self.getAddress());
+        int mask = -1 << (32 - prefix);
+        int network = ip & mask;
+        int broadcast = network | ~mask;
+
+        List<InetAddress> hosts = new ArrayList<>(broadcast - network - 1);
+        for (int host = network + 1; host < broadcast; host++) {
+            if (host != ip) {
+                hosts.add(fromInt(host));
+            }
+        }
+        return hosts;
+    }
+
+    /**
+     * Stage 1: addresses that accept a TCP connection on the configured port.
+     * Blocks the calling thread until every probe has connected, failed or timed out.
+     */
+    public List<InetAddress> probe(List<InetAddress> addresses) throws IOException {
+        return probe(addresses, null);
+    }
+
+    public List<InetAddress> probe(List<InetAddress> addresses, ProgressListener progress) throws IOException {
+        List<InetAddress> open = new ArrayList<>();
+        int total = addresses.size();
+        int started = 0;
+        int lastPercent = -1;
+        Iterator<InetAddress> pending = addresses.iterator();
+        // Probes are started with the same timeout, so the oldest always expires first
+        ArrayDeque<Probe> inFlight = new ArrayDeque<>();
+        int active = 0;
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.connectTimeoutMs);
+
+        try (Selector selector = Selector.open()) {
+            while (pending.hasNext() || active > 0) {
+                while (active < config.maxInFlight && pending.hasNext()) {
+                    InetAddress address = pending.next();
+                    started++;
+                    SocketChannel channel = SocketChannel.open();
+                    try {
+                        channel.configureBlocking(false);
+                        Probe probe = new Probe(address, channel, System.nanoTime() + timeoutNanos);
+                        if (channel.connect(new InetSocketAddress(address, config.port))) {
+                            open.add(address);
+                            channel.close();
+                        } else {
+                            channel.register(selector, SelectionKey.OP_CONNECT, probe);
+                            inFlight.add(probe);
+                            active++;
+                        }
+                    } catch (IOException e) {
+                        // Unreachable right away, e.g. no route
+                        channel.close();
+                    }
+                }
+
+                Probe oldest = inFlight.peek();
+                long waitMs = oldest == null ? 1
+                        : TimeUnit.NANOSECONDS.toMillis(oldest.deadlineNanos - System.nanoTime());
+                selector.select(Math.max(1, waitMs));
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Probe probe = (Probe) key.attachment();
+                    try {
+                        if (probe.channel.finishConnect()) {
+                            open.add(probe.address);
+                        }
+                    } catch (IOException e) {
+                        // Refused: a live host without a web server on this port
+                    }
+                    probe.done = true;
+                    probe.channel.close();
+                    active--;
+                }
+                selector.selectedKeys().clear();
+
+                long now = System.nanoTime();
+                while (!inFlight.isEmpty() && (inFlight.peek().done || inFlight.peek().deadlineNanos <= now)) {
+                    Probe probe = inFlight.poll();
+                    if (!probe.done) {
+                        probe.done = true;
+                        probe.channel.close();
+                        active--;
+                    }
+                }
+
+                int probed = started - active;
+                if (progress != null && total > 0 && probed * 100 / total != lastPercent) {
+                    lastPercent = probed * 100 / total;
+                    progress.onProgress(probed, total);
+                }
+            }
+        } finally {
+            for (Probe probe : inFlight) {
+                probe.channel.close();
+            }
+        }
+        open.sort(Comparator.comparingInt(address -> toInt(address.getAddress())));
+        return open;
+    }
+
+    /**
+     * Both stages: connect to every address, then ask each host that answered
+     * for identifyPath. Hosts whose handler returns null (or fails) are not devices.
+     * Blocks the calling thread.
+     */
+    public <T> Result<T> scan(List<InetAddress> addresses,
+                              LanDeviceClient.ResponseHandler<T> identify) throws IOException {
+        return scan(addresses, identify, null);
+    }
+
+    public <T> Result<T> scan(List<InetAddress> addresses, LanDeviceClient.ResponseHandler<T> identify,
+                              ProgressListener progress) throws IOException {
+        Result<T> result = new Result<>();
+        long start = System.nanoTime();
+        result.probed = addresses.size();
+
+        List<InetAddress> open = probe(addresses, progress);
+        result.answered = open.size();
+        result.connectMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Identify all responders at once over the async client
+        Map<String, CompletableFuture<T>> requests = new LinkedHashMap<>();
+        for (InetAddress address : open) {
+            String host = hostFor(address);
+            requests.put(host, client.getAsync(host, config.identifyPath, config.identifyOptions, identify));
+        }
+        for (Map.Entry<String, CompletableFuture<T>> request : requests.entrySet()) {
+            try {
+                T device = request.getValue().get();
+                if (device != null) {
+                    result.devices.put(request.getKey(), device);
+                }
+            } catch (ExecutionException e) {
+                Log.d(TAG, request.getKey() + " answered but is not a device: " + e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (CompletableFuture<T> pending : requests.values()) {
+                    pending.cancel(true);
+                }
+                throw new IOException("Scan interrupted", e);
+            }
+        }
+
+        result.elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Log.d(TAG, "Scan finished: " + result);
+        return result;
+    }
+
+    private String hostFor(InetAddress address) {
+        return config.port == 80 ? address.getHostAddress() : address.getHostAddress() + ":" + config.port;
+    }
+
+    private static int toInt(byte[] octets) {
+        return ((octets[0] & 0xff) << 24) | ((octets[1] & 0xff) << 16)
+                | ((octets[2] & 0xff) << 8) | (octets[3] & 0xff);
+    }
+
+    private static InetAddress fromInt(int ip) {
+        try {
+            return InetAddress.getByAddress(new byte[] {
+                    (byte) (ip >>> 24), (byte) (ip >>> 16), (byte) (ip >>> 8), (byte) ip });
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e); // Only thrown for a wrong array length
+        }
+    }
+}
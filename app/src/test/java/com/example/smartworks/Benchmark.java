@@ -0,0 +1,8 @@
+package com.example.smartworks;
+
+/**
+ * JUnit category for tests that time something and print the numbers. Left
+ * out of the unit test run unless Gradle is given -Pbenchmarks.
+ */
+public interface Benchmark {
+}
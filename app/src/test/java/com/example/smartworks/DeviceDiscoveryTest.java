@@ -0,0 +1,136 @@
+package com.example.smartworks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.smartworks.network.DeviceIoExecutor;
+import com.example.smartworks.network.FakeEsp32Device;
+import com.example.smartworks.network.LanDeviceClient;
+import com.example.smartworks.network.SubnetScanner;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class DeviceDiscoveryTest {
+
+    @Test
+    public void matchesByDeviceIdThenName() {
+        DeviceAdapter.DeviceInfo deck = new DeviceAdapter.DeviceInfo("Deck Pool", "pool_thermo_01", "");
+        DeviceAdapter.DeviceInfo spa = new DeviceAdapter.DeviceInfo("Spa", "", "");
+        DeviceAdapter.DeviceInfo lost = new DeviceAdapter.DeviceInfo("Pond", "pool_thermo_09", "");
+
+        Map<String, ESP32PoolAPI.PoolData> found = new LinkedHashMap<>();
+        // The renamed device still reports its old name, its ID wins
+        found.put("192.168.1.20", reading("Spa", "pool_thermo_01"));
+        found.put("192.168.1.21", reading("spa", null));
+        found.put("192.168.1.22", reading("Neighbour", "pool_thermo_77"));
+
+        Map<DeviceAdapter.DeviceInfo, String> matched =
+                DeviceDiscovery.match(Arrays.asList(deck, spa, lost), found);
+
+        assertEquals("192.168.1.20", matched.get(deck));
+        assertEquals("192.168.1.21", matched.get(spa));
+        // Neither its ID nor its name answered
+        assertNull(matched.get(lost));
+    }
+
+    @Test
+    public void unknownResponderIsNeverGuessedToBeTheLastDevice() {
+        DeviceAdapter.DeviceInfo deck = new DeviceAdapter.DeviceInfo("Deck Pool", "pool_thermo_01", "");
+        DeviceAdapter.DeviceInfo spa = new DeviceAdapter.DeviceInfo("Spa", "", "");
+
+        Map<String, ESP32PoolAPI.PoolData> found = new LinkedHashMap<>();
+        found.put("192.168.1.20", reading(null, "pool_thermo_01"));
+        // Could be the Spa with old firmware, or the neighbour's
+        found.put("192.168.1.30", reading(null, null));
+
+        Map<DeviceAdapter.DeviceInfo, String> matched = DeviceDiscovery.match(Arrays.asList(deck, spa), found);
+        assertEquals("192.168.1.20", matched.get(deck));
+        assertNull(matched.get(spa));
+    }
+
+    @Test
+    public void concurrentDiscoveriesShareOneSweep() throws Exception {
+        FakeEsp32Device.assumeLoopbackSubnet();
+        List<FakeEsp32Device> devices = new ArrayList<>();
+        LanDeviceClient client = new LanDeviceClient(new LanDeviceClient.Config());
+        DeviceIoExecutor executor = new DeviceIoExecutor("test-discovery", 2, 8);
+        try {
+            int port = 0;
+            for (int host : new int[] {31, 32, 33}) {
+                FakeEsp32Device device = new FakeEsp32Device("127.0.0." + host, port);
+                device.setPayload(FakeEsp32Device.DEFAULT_PAYLOAD.replace("Pool Monitor", "Pool " + host));
+                port = device.port();
+                devices.add(device);
+            }
+            DeviceDiscovery discovery = new DeviceDiscovery(new SubnetScanner(
+                    new SubnetScanner.Config().setPort(port), client), executor);
+            List<InetAddress> hosts = SubnetScanner.subnetHosts(InetAddress.getByName("127.0.0.1"), 24);
+
+            // Three devices lost their IP at once, plus the user pressing Find Devices
+            AtomicInteger lastProgress = new AtomicInteger();
+            List<CompletableFuture<Map<String, ESP32PoolAPI.PoolData>>> scans = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                scans.add(discovery.scan(hosts, null));
+            }
+            scans.add(discovery.scan(hosts, (probed, total) -> lastProgress.set(probed * 100 / total)));
+
+            Map<String, ESP32PoolAPI.PoolData> first = scans.get(0).get(10, TimeUnit.SECONDS);
+            assertEquals(3, first.size());
+            for (CompletableFuture<Map<String, ESP32PoolAPI.PoolData>> scan : scans) {
+                assertEquals(first, scan.get(10, TimeUnit.SECONDS));
+            }
+            for (FakeEsp32Device device : devices) {
+                assertEquals(1, device.requestCount());
+            }
+            assertEquals(100, lastProgress.get());
+
+            DeviceAdapter.DeviceInfo pool32 = new DeviceAdapter.DeviceInfo("Pool 32", "", "");
+            Map<DeviceAdapter.DeviceInfo, String> matched = DeviceDiscovery.match(Arrays.asList(pool32), first);
+            assertEquals("127.0.0.32:" + port, matched.get(pool32));
+        } finally {
+            for (FakeEsp32Device device : devices) {
+                device.close();
+            }
+            client.evictAll();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void emptySweepIsNotReused() throws Exception {
+        LanDeviceClient client = new LanDeviceClient(new LanDeviceClient.Config());
+        DeviceIoExecutor executor = new DeviceIoExecutor("test-discovery", 2, 8);
+        AtomicInteger sweeps = new AtomicInteger();
+        SubnetScanner scanner = new SubnetScanner(new SubnetScanner.Config().setPort(1), client);
+        DeviceDiscovery discovery = new DeviceDiscovery(scanner, executor);
+        List<InetAddress> hosts = Arrays.asList(InetAddress.getByName("127.0.0.40"));
+        try {
+            for (int i = 0; i < 2; i++) {
+                assertTrue(discovery.scan(hosts, (probed, total) -> sweeps.incrementAndGet())
+                        .get(10, TimeUnit.SECONDS).isEmpty());
+            }
+            assertEquals(2, sweeps.get());
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static ESP32PoolAPI.PoolData reading(String name, String id) {
+        ESP32PoolAPI.PoolData data = new ESP32PoolAPI.PoolData();
+        data.deviceName = name;
+        data.deviceId = id;
+        data.isValid = true;
+        return data;
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.smartworks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.smartworks.network.FakeEsp32Device;
+import com.example.smartworks.network.LanDeviceClient;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ESP32LiveFeedTest {
+
+    private FakeEsp32Device device;
+    private ESP32LiveFeed feed;
+    private final BlockingQueue<ESP32PoolAPI.PoolData> results = new LinkedBlockingQueue<>();
+    private final BlockingQueue<ESP32LiveFeed.Mode> modes = new LinkedBlockingQueue<>();
+    private final BlockingQueue<ESP32LiveFeed.Mode> resultSources = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        device = new FakeEsp32Device();
+        LanDeviceClient.RequestOptions options = new LanDeviceClient.RequestOptions()
+                .setConnectTimeoutMs(2000).setReadTimeoutMs(2000);
+        feed = new ESP32LiveFeed(device.host(), options, new ESP32LiveFeed.Listener() {
+            @Override
+            public void onResult(ESP32PoolAPI.PoolData data, Throwable error, ESP32LiveFeed.Mode via) {
+                if (data != null) {
+                    resultSources.add(via);
+                    results.add(data);
+                }
+            }
+
+            @Override
+            public void onModeChanged(ESP32LiveFeed.Mode mode, String reason) {
+                modes.add(mode);
+            }
+        }).setPollInterval(() -> 100).setPushRetryMs(300);
+    }
+
+    @After
+    public void tearDown() {
+        feed.shutdown();
+        device.close();
+    }
+
+    @Test
+    public void pushedChangesArriveWithoutPolling() throws Exception {
+        device.setEventsEnabled(true);
+        feed.start();
+
+        awaitMode(ESP32LiveFeed.Mode.PUSH);
+        ESP32PoolAPI.PoolData snapshot = results.poll(5, TimeUnit.SECONDS);
+        assertNotNull(snapshot);
+        assertEquals(26.4, snapshot.temperatureCelsius, 0.001);
+        awaitStreams();
+
+        device.pushEvent("{\"temperature_celsius\":27.1}");
+        ESP32PoolAPI.PoolData update = results.poll(5, TimeUnit.SECONDS);
+        assertEquals(27.1, update.temperatureCelsius, 0.001);
+        assertEquals(-58, update.rssi); // Unchanged fields carried over
+
+        device.pushEvent("{\"rssi\":-71,\"free_heap\":150000}");
+        update = results.poll(5, TimeUnit.SECONDS);
+        assertEquals(-71, update.rssi);
+        assertEquals(150000, update.freeHeap);
+        assertEquals(27.1, update.temperatureCelsius, 0.001);
+
+        for (ESP32LiveFeed.Mode source : resultSources) {
+            assertEquals(ESP32LiveFeed.Mode.PUSH, source);
+        }
+        assertEquals(0, device.requestCount());
+    }
+
+    @Test
+    public void fallsBackToPollingWhenDeviceHasNoEventStream() throws Exception {
+        feed.start();
+
+        awaitMode(ESP32LiveFeed.Mode.POLLING);
+        for (int i = 0; i < 3; i++) {
+            ESP32PoolAPI.PoolData polled = results.poll(5, TimeUnit.SECONDS);
+            assertNotNull(polled);
+            assertTrue(polled.isValid);
+        }
+        // Polls this close together are partly served from the shared 2s freshness window
+        assertTrue(device.requestCount() >= 1);
+
+        // Unsupported push is not retried
+        Thread.sleep(500);
+        assertNull(modes.poll());
+    }
+
+    @Test
+    public void pollsWhileStreamIsDownAndSwitchesBackWhenItReturns() throws Exception {
+        device.setEventsEnabled(true);
+        feed.start();
+        awaitMode(ESP32LiveFeed.Mode.PUSH);
+        awaitStreams();
+
+        device.dropEventStreams();
+        awaitMode(ESP32LiveFeed.Mode.POLLING);
+        int polledBefore = device.requestCount();
+
+        awaitMode(ESP32LiveFeed.Mode.PUSH);
+        assertTrue(device.requestCount() > polledBefore);
+
+        // Polling stops once the stream is back
+        Thread.sleep(300);
+        int polledAfter = device.requestCount();
+        Thread.sleep(500);
+        assertEquals(polledAfter, device.requestCount());
+    }
+
+    @Test
+    public void stopClosesTheStream() throws Exception {
+        device.setEventsEnabled(true);
+        feed.start();
+        awaitMode(ESP32LiveFeed.Mode.PUSH);
+        awaitStreams();
+
+        feed.stop();
+        assertEquals(ESP32LiveFeed.Mode.STOPPED, feed.getMode());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (device.eventStreamCount() > 0 && System.currentTimeMillis() < deadline) {
+            device.pushEvent("{\"rssi\":-60}"); // Write fails once the client is gone
+            Thread.sleep(20);
+        }
+        assertEquals(0, device.eventStreamCount());
+    }
+
+    private void awaitMode(ESP32LiveFeed.Mode expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            ESP32LiveFeed.Mode mode = modes.poll(100, TimeUnit.MILLISECONDS);
+            if (mode == expected) {
+                return;
+            }
+        }
+        throw new AssertionError("Feed never reached " + expected + ", now " + feed.getMode());
+    }
+
+    private void awaitStreams() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (device.eventStreamCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.smartworks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.smartworks.network.DeviceIoExecutor;
+import com.example.smartworks.network.FakeEsp32Device;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Hung device reads must not hold up unrelated work on ForkJoinPool.commonPool.
+ * The common pool is sized from the CPU count (and has no workers at all on a
+ * single-core build machine), so a pool with a phone's typical parallelism
+ * stands in for it.
+ */
+public class ESP32PoolAPIExecutorTest {
+    private static final long DEVICE_STALL_MS = 2000;
+    private static final int PHONE_PARALLELISM = 3;
+
+    private FakeEsp32Device device;
+    private Executor previousExecutor;
+    private ForkJoinPool commonPool;
+
+    @Before
+    public void setUp() throws Exception {
+        device = new FakeEsp32Device();
+        device.setDelayMillis(DEVICE_STALL_MS);
+        previousExecutor = ESP32PoolAPI.getIoExecutor();
+        commonPool = new ForkJoinPool(PHONE_PARALLELISM);
+    }
+
+    @After
+    public void tearDown() {
+        ESP32PoolAPI.setIoExecutor(previousExecutor);
+        commonPool.shutdownNow();
+        device.close();
+    }
+
+    @Test
+    public void commonPoolStaysResponsiveWhileDevicesHang() throws Exception {
+        DeviceIoExecutor io = new DeviceIoExecutor("test-io", 4, 64);
+        ESP32PoolAPI.setIoExecutor(io);
+        int hungCalls = blockingCallCount();
+
+        List<CompletableFuture<Boolean>> calls = startHungCalls(hungCalls);
+        Thread.sleep(100);
+
+        // Gauges show the backlog instead of it hiding in the common pool
+        assertEquals(4, io.getActiveThreads());
+        assertEquals(hungCalls - 4, io.getQueueDepth());
+
+        long cpuMs = timeCpuWorkOnCommonPool();
+        assertTrue("common pool work delayed " + cpuMs + "ms while " + hungCalls + " device calls hung (" + io + ")",
+                cpuMs < DEVICE_STALL_MS / 2);
+
+        for (CompletableFuture<Boolean> call : calls) {
+            assertTrue(call.get(30, TimeUnit.SECONDS));
+        }
+        io.shutdown();
+    }
+
+    @Test
+    public void commonPoolIsStarvedWhenDeviceCallsShareIt() throws Exception {
+        // What fetchPoolData & co. did before: blocking reads straight on the common pool
+        ESP32PoolAPI.setIoExecutor(commonPool);
+        int hungCalls = blockingCallCount();
+
+        List<CompletableFuture<Boolean>> calls = startHungCalls(hungCalls);
+        Thread.sleep(100);
+
+        long cpuMs = timeCpuWorkOnCommonPool();
+        assertTrue("expected starvation, took " + cpuMs + "ms", cpuMs >= DEVICE_STALL_MS / 2);
+
+        for (CompletableFuture<Boolean> call : calls) {
+            call.get(60, TimeUnit.SECONDS);
+        }
+    }
+
+    private static int blockingCallCount() {
+        // Enough to occupy every common pool worker
+        return PHONE_PARALLELISM * 3;
+    }
+
+    private List<CompletableFuture<Boolean>> startHungCalls(int count) {
+        List<CompletableFuture<Boolean>> calls = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            calls.add(ESP32PoolAPI.testConnection(device.host()));
+        }
+        return calls;
+    }
+
+    private long timeCpuWorkOnCommonPool() throws Exception {
+        long start = System.nanoTime();
+        List<CompletableFuture<Long>> work = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            work.add(CompletableFuture.supplyAsync(() -> {
+                long sum = 0;
+                for (int n = 0; n < 2_000_000; n++) {
+                    sum += n % 7;
+                }
+                return sum;
+            }, commonPool));
+        }
+        for (CompletableFuture<Long> future : work) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
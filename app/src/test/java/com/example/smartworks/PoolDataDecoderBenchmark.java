@@ -0,0 +1,94 @@
+package com.example.smartworks;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Streaming /data decoder versus the old readLine + JSONObject path.
+ * Reports ns/op and bytes allocated per parse.
+ */
+public class PoolDataDecoderBenchmark {
+    private static final byte[] PAYLOAD_BYTES = PoolDataDecoderTest.PAYLOAD.getBytes(StandardCharsets.UTF_8);
+    private static final int ITERATIONS = Integer.getInteger("decoder.bench.iterations", 50000);
+
+    private interface Parse {
+        double run() throws Exception;
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void streamingVersusJsonObject() throws Exception {
+        ESP32PoolAPI.PoolData reused = new ESP32PoolAPI.PoolData();
+        Parse streaming = () -> {
+            PoolDataDecoder.decode(new InputStreamReader(
+                    new ByteArrayInputStream(PAYLOAD_BYTES), StandardCharsets.UTF_8), reused);
+            return reused.temperatureCelsius;
+        };
+        Parse legacy = () -> {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new ByteArrayInputStream(PAYLOAD_BYTES), StandardCharsets.UTF_8));
+            StringBuilder response = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                response.append(line);
+            }
+            reader.close();
+            JSONObject json = new JSONObject(response.toString());
+            double celsius = json.getDouble("temperature_celsius");
+            json.getDouble("temperature_fahrenheit");
+            json.getBoolean("sensor_found");
+            json.getString("wifi_ssid");
+            json.getInt("rssi");
+            json.getLong("uptime_seconds");
+            json.getInt("free_heap");
+            json.getString("device_name");
+            return celsius;
+        };
+
+        double[] legacyResult = measure("readLine + JSONObject", legacy);
+        double[] streamingResult = measure("streaming JsonReader", streaming);
+
+        if (!Double.isNaN(streamingResult[1])) {
+            assertTrue("streaming decoder should allocate less per parse",
+                    streamingResult[1] < legacyResult[1]);
+        }
+    }
+
+    /** @return {ns per op, bytes allocated per op} */
+    private static double[] measure(String label, Parse parse) throws Exception {
+        double sink = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += parse.run();
+        }
+
+        long bytesBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += parse.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - bytesBefore;
+
+        double nsPerOp = (double) elapsed / ITERATIONS;
+        double bytesPerOp = allocated < 0 ? Double.NaN : (double) allocated / ITERATIONS;
+        System.out.println(String.format("%-22s %9.0f ns/op  %8.0f B/op  (checksum %.1f)",
+                label, nsPerOp, bytesPerOp, sink));
+        return new double[] {nsPerOp, bytesPerOp};
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
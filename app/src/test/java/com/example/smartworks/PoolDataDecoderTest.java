@@ -0,0 +1,35 @@
+package com.example.smartworks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import org.junit.Test;
+
+public class PoolDataDecoderTest {
+    static final String PAYLOAD = "{\"temperature_celsius\":26.4,\"temperature_fahrenheit\":79.5,"
+            + "\"sensor_found\":true,\"wifi_ssid\":\"PoolNet\",\"rssi\":-58,\"uptime_seconds\":86400,"
+            + "\"free_heap\":182344,\"device_name\":\"Pool Monitor\",\"firmware_version\":\"1.0.3\"}";
+
+    @Test
+    public void decodesAllFields() throws Exception {
+        ESP32PoolAPI.PoolData data = new ESP32PoolAPI.PoolData();
+        assertTrue(PoolDataDecoder.decode(new StringReader(PAYLOAD), data));
+        assertEquals(26.4, data.temperatureCelsius, 1e-9);
+        assertEquals(79.5, data.temperatureFahrenheit, 1e-9);
+        assertTrue(data.sensorFound);
+        assertEquals("PoolNet", data.wifiSSID);
+        assertEquals(-58, data.rssi);
+        assertEquals(86400, data.uptimeSeconds);
+        assertEquals(182344, data.freeHeap);
+        assertEquals("Pool Monitor", data.deviceName);
+
+        assertTrue(PoolDataDecoder.decode(new StringReader("{\"temperature_fahrenheit\":77.0}"), data));
+        assertEquals(25.0, data.temperatureCelsius, 1e-9);
+        assertFalse(PoolDataDecoder.decode(new StringReader("{\"temperature_celsius\":null}"), data));
+        assertFalse(PoolDataDecoder.decode(new StringReader("<html>not json</html>"), data));
+        assertEquals("-0.5", PoolDataDecoder.formatTenths(-0.46));
+        assertEquals("26.4", PoolDataDecoder.formatTenths(26.44));
+    }
+}
@@ -0,0 +1,260 @@
+package com.example.smartworks.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ApiPipelineTest {
+    private static final int MAX_CONCURRENT = 4;
+
+    // Calls between the dispatcher handing them a thread and their response coming back
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger peakRunning = new AtomicInteger();
+    private FakeBackend backend;
+    private OkHttpClient client;
+    private ApiPipeline pipeline;
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new FakeBackend();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "test dispatcher");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        Dispatcher dispatcher = new Dispatcher(executor);
+        dispatcher.setMaxRequests(MAX_CONCURRENT);
+        dispatcher.setMaxRequestsPerHost(MAX_CONCURRENT);
+        client = new OkHttpClient.Builder().dispatcher(dispatcher).addInterceptor(chain -> {
+            peakRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                return chain.proceed(chain.request());
+            } finally {
+                running.decrementAndGet();
+            }
+        }).build();
+        pipeline = new ApiPipeline(client, new Gson());
+    }
+
+    @After
+    public void tearDown() {
+        backend.close();
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    @Test
+    public void decodesTypedBody() throws Exception {
+        backend.respond("api/firmware/check.php", 200, "{\"available\":true,\"version\":\"1.2.0\"}");
+
+        SmartWorksApiService.FirmwareUpdateResponse update = pipeline.call(get("api/firmware/check.php"),
+                pipeline.<SmartWorksApiService.FirmwareUpdateResponse>json(
+                        SmartWorksApiService.FirmwareUpdateResponse.class)).get(5, TimeUnit.SECONDS);
+
+        assertTrue(update.available);
+        assertEquals("1.2.0", update.version);
+    }
+
+    @Test
+    public void errorStatusCarriesTheServersMessage() throws Exception {
+        backend.respond("api/send_command.php", 403, "{\"status\":\"error\",\"message\":\"Invalid API key\"}");
+
+        Throwable error = failure(get("api/send_command.php"));
+        ApiPipeline.ApiException api = (ApiPipeline.ApiException) error;
+        assertEquals(403, api.httpCode);
+        assertEquals("Invalid API key", ApiPipeline.messageFor(error, "Failed to send command"));
+    }
+
+    @Test
+    public void errorPageWithoutJsonUsesTheFallback() throws Exception {
+        backend.respond("api/send_command.php", 502, "text/html", "<html>Bad gateway</html>");
+
+        Throwable error = failure(get("api/send_command.php"));
+        assertNull(((ApiPipeline.ApiException) error).serverMessage);
+        assertEquals("Failed to send command", ApiPipeline.messageFor(error, "Failed to send command"));
+    }
+
+    @Test
+    public void malformedBodyIsReportedAsSuch() throws Exception {
+        backend.respond("api/send_command.php", 200, "{\"status\":\"ok\",");
+
+        Throwable error = failure(get("api/send_command.php"));
+        assertEquals("Invalid response from server", ApiPipeline.messageFor(error, "Failed to send command"));
+    }
+
+    @Test
+    public void unreachableServerIsANetworkError() throws Exception {
+        Request request = get("api/send_command.php");
+        backend.close();
+
+        Throwable error = failure(request);
+        assertTrue(ApiPipeline.messageFor(error, "Failed").startsWith("Network error: "));
+    }
+
+    @Test
+    public void outstandingRequestsDoNotEachTakeAThread() throws Exception {
+        backend.respond("api/send_command.php", 200, "{\"status\":\"ok\",\"message\":\"\"}");
+        backend.setDelayMillis(10);
+
+        List<CompletableFuture<Object>> calls = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            calls.add(pipeline.call(get("api/send_command.php"), pipeline.json(Object.class)));
+        }
+        CompletableFuture.allOf(calls.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+        // The pool may start a spare thread while a finishing call hands its slot on,
+        // so count calls running at once rather than threads ever created
+        assertTrue("peak running: " + peakRunning.get(), peakRunning.get() <= MAX_CONCURRENT);
+        // Every response was closed, so every connection went back to the pool
+        assertTrue(client.connectionPool().connectionCount() <= MAX_CONCURRENT);
+        assertEquals(client.connectionPool().connectionCount(), client.connectionPool().idleConnectionCount());
+    }
+
+    @Test
+    public void cancellingTheFutureCancelsTheCall() throws Exception {
+        backend.respond("api/send_command.php", 200, "{\"status\":\"ok\"}");
+        backend.setDelayMillis(2000);
+
+        CompletableFuture<Object> call = pipeline.call(get("api/send_command.php"), pipeline.json(Object.class));
+        long deadline = System.currentTimeMillis() + 1000;
+        while (client.dispatcher().runningCallsCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        call.cancel(true);
+
+        deadline = System.currentTimeMillis() + 1000;
+        while (client.dispatcher().runningCallsCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, client.dispatcher().runningCallsCount());
+    }
+
+    @Test
+    public void transientFailuresAreRetried() throws Exception {
+        backend.respond("api/firmware/check.php", 200, "{\"available\":true,\"version\":\"1.2.0\"}");
+        AtomicInteger attempts = new AtomicInteger();
+        OkHttpClient flaky = client.newBuilder().addInterceptor(chain -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new java.net.SocketTimeoutException("timeout");
+            }
+            return chain.proceed(chain.request());
+        }).build();
+        ApiPipeline resilient = new ApiPipeline(flaky, new Gson(), null, new CircuitBreaker.Config(),
+                new RetryPolicy().setBaseDelayMs(1).setMaxDelayMs(10));
+
+        SmartWorksApiService.FirmwareUpdateResponse update = resilient.call(get("api/firmware/check.php"),
+                resilient.<SmartWorksApiService.FirmwareUpdateResponse>json(
+                        SmartWorksApiService.FirmwareUpdateResponse.class)).get(5, TimeUnit.SECONDS);
+
+        assertTrue(update.available);
+        assertEquals(3, attempts.get());
+        assertEquals(2, resilient.getRetries());
+        assertEquals(1, resilient.getRecoveredByRetry());
+        assertEquals(CircuitBreaker.State.CLOSED, resilient.getBreakers().get(0).getState());
+    }
+
+    @Test
+    public void cancellingBetweenAttemptsStopsTheRetries() throws Exception {
+        backend.respond("api/firmware/check.php", 200, "{\"available\":true}");
+        AtomicInteger attempts = new AtomicInteger();
+        OkHttpClient flaky = client.newBuilder().addInterceptor(chain -> {
+            attempts.incrementAndGet();
+            throw new java.net.SocketTimeoutException("timeout");
+        }).build();
+        ApiPipeline resilient = new ApiPipeline(flaky, new Gson(), null, new CircuitBreaker.Config(),
+                new RetryPolicy().setBaseDelayMs(200).setMaxDelayMs(200).setMaxAttempts(5));
+
+        CompletableFuture<Object> call = resilient.call(get("api/firmware/check.php"), resilient.json(Object.class));
+        long deadline = System.currentTimeMillis() + 1000;
+        while (resilient.getRetries() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        call.cancel(true);
+
+        // The retry was due at 200ms
+        Thread.sleep(500);
+        assertEquals(1, attempts.get());
+        assertEquals(1, resilient.getRetries());
+    }
+
+    @Test
+    public void postsAreNotRetried() throws Exception {
+        backend.respond("api/send_command.php", 503, "{\"status\":\"error\",\"message\":\"Busy\"}");
+        ApiPipeline resilient = new ApiPipeline(client, new Gson(), null, new CircuitBreaker.Config(),
+                new RetryPolicy().setBaseDelayMs(1).setMaxDelayMs(10));
+        Request post = new Request.Builder()
+                .url(backend.baseUrl() + "api/send_command.php")
+                .post(RequestBody.create("{}", MediaType.get("application/json")))
+                .build();
+
+        Throwable error = failure(resilient, post);
+        assertEquals(503, ((ApiPipeline.ApiException) error).httpCode);
+        assertEquals(1, backend.requestCount());
+        assertEquals(0, resilient.getRetries());
+    }
+
+    @Test
+    public void openCircuitFailsWithoutSending() throws Exception {
+        backend.respond("api/firmware/check.php", 503, "text/html", "<html>Maintenance</html>");
+        ApiPipeline resilient = new ApiPipeline(client, new Gson(), null,
+                new CircuitBreaker.Config().setFailureThreshold(2).setOpenMs(60_000),
+                new RetryPolicy().setMaxAttempts(1));
+
+        failure(resilient, get("api/firmware/check.php"));
+        failure(resilient, get("api/firmware/check.php"));
+        long start = System.nanoTime();
+        Throwable refused = failure(resilient, get("api/firmware/check.php"));
+
+        assertTrue(refused instanceof CircuitBreaker.OpenException);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(2, backend.requestCount());
+        assertTrue(ApiPipeline.messageFor(refused, "Failed").startsWith("Server unavailable"));
+        // Other endpoints have circuits of their own
+        backend.respond("api/send_command.php", 200, "{\"status\":\"ok\"}");
+        resilient.call(get("api/send_command.php"), resilient.json(Object.class)).get(5, TimeUnit.SECONDS);
+
+        resilient.resetBreakers();
+        backend.respond("api/firmware/check.php", 200, "{\"available\":false}");
+        assertFalse(resilient.call(get("api/firmware/check.php"),
+                resilient.<SmartWorksApiService.FirmwareUpdateResponse>json(
+                        SmartWorksApiService.FirmwareUpdateResponse.class)).get(5, TimeUnit.SECONDS).available);
+    }
+
+    private Request get(String path) {
+        return new Request.Builder().url(backend.baseUrl() + path).build();
+    }
+
+    private Throwable failure(Request request) throws Exception {
+        return failure(pipeline, request);
+    }
+
+    private static Throwable failure(ApiPipeline pipeline, Request request) throws Exception {
+        try {
+            pipeline.call(request, pipeline.json(SmartWorksApiService.FirmwareUpdateResponse.class))
+                    .get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        throw new AssertionError("call succeeded");
+    }
+}
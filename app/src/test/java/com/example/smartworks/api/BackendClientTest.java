@@ -0,0 +1,54 @@
+package com.example.smartworks.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BackendClientTest {
+    private FakeBackend backend;
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new FakeBackend();
+        backend.respond("login.php", 200, "{\"status\":\"ok\",\"user_id\":7,\"api_key\":\"k\"}");
+    }
+
+    @After
+    public void tearDown() {
+        backend.close();
+    }
+
+    @Test
+    public void derivedClientReusesTheLoginConnection() throws Exception {
+        BackendClient.Stats stats = new BackendClient.Stats();
+        OkHttpClient auth = BackendClient.newClient(stats);
+        OkHttpClient api = auth.newBuilder().readTimeout(30, TimeUnit.SECONDS).build();
+
+        call(auth, backend, "login.php");
+        call(api, backend, "api/get_user_devices.php");
+        call(api, backend, "api/get_user_devices.php");
+
+        assertEquals(3, stats.calls());
+        assertEquals(1, stats.connects());
+        assertEquals(2, stats.reusedConnections());
+        assertTrue(auth.connectionPool() == api.connectionPool());
+        assertTrue(auth.dispatcher() == api.dispatcher());
+        auth.connectionPool().evictAll();
+    }
+
+    static void call(OkHttpClient client, FakeBackend backend, String path) throws IOException {
+        Request request = new Request.Builder().url(backend.baseUrl() + path).build();
+        try (Response response = client.newCall(request).execute()) {
+            assertTrue(response.isSuccessful());
+            response.body().string();
+        }
+    }
+}
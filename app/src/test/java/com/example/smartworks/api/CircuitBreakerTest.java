@@ -0,0 +1,152 @@
+package com.example.smartworks.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+    private final AtomicLong now = new AtomicLong(1000);
+
+    private CircuitBreaker breaker(int threshold, long openMs, long maxOpenMs) {
+        return new CircuitBreaker("/server/api/get_user_devices.php", new CircuitBreaker.Config()
+                .setFailureThreshold(threshold).setOpenMs(openMs).setMaxOpenMs(maxOpenMs), now::get);
+    }
+
+    private static void fail(CircuitBreaker breaker, int times) {
+        for (int i = 0; i < times; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+        }
+    }
+
+    @Test
+    public void opensAfterFailuresInARow() {
+        CircuitBreaker breaker = breaker(3, 10_000, 60_000);
+
+        fail(breaker, 2);
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        // The success broke the run
+        fail(breaker, 2);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        fail(breaker, 1);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(2, breaker.getRejected());
+        assertEquals(1, breaker.getTrips());
+        assertEquals(10_000, breaker.getRetryAfterMs());
+    }
+
+    @Test
+    public void halfOpenLetsOneProbeThrough() {
+        CircuitBreaker breaker = breaker(1, 10_000, 60_000);
+        fail(breaker, 1);
+
+        now.addAndGet(10_000);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        assertFalse("only one probe at a time", breaker.tryAcquire());
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void failedProbesBackOffUpToTheMaximum() {
+        CircuitBreaker breaker = breaker(1, 10_000, 30_000);
+        fail(breaker, 1);
+
+        now.addAndGet(10_000);
+        fail(breaker, 1);
+        assertEquals(20_000, breaker.getRetryAfterMs());
+        now.addAndGet(20_000);
+        fail(breaker, 1);
+        assertEquals(30_000, breaker.getRetryAfterMs());
+        now.addAndGet(30_000);
+        fail(breaker, 1);
+        assertEquals(30_000, breaker.getRetryAfterMs());
+        assertEquals(4, breaker.getTrips());
+
+        // Closing starts the next outage from the short wait again
+        now.addAndGet(30_000);
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        fail(breaker, 1);
+        assertEquals(10_000, breaker.getRetryAfterMs());
+    }
+
+    @Test
+    public void abandonedProbeFreesTheSlot() {
+        CircuitBreaker breaker = breaker(1, 10_000, 60_000);
+        fail(breaker, 1);
+        now.addAndGet(10_000);
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onAbandoned();
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void resetClosesAtOnce() {
+        CircuitBreaker breaker = breaker(1, 10_000, 60_000);
+        fail(breaker, 1);
+
+        breaker.reset();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.toString().startsWith("/server/api/get_user_devices.php: CLOSED"));
+    }
+
+    @Test
+    public void jitteredDelaysStayWithinBounds() {
+        double[] draws = {0.0, 1.0, 0.5};
+        int[] next = {0};
+        RetryPolicy policy = new RetryPolicy(() -> draws[next[0]++ % draws.length])
+                .setBaseDelayMs(100).setMaxDelayMs(1_000);
+
+        // Lowest draw: the base
+        assertEquals(100, policy.nextDelayMs(0));
+        // Highest: three times the previous delay
+        assertEquals(600, policy.nextDelayMs(200));
+        // Capped
+        assertEquals(1_000, policy.nextDelayMs(900));
+
+        RetryPolicy random = new RetryPolicy().setBaseDelayMs(100).setMaxDelayMs(5_000);
+        long delay = 0;
+        for (int i = 0; i < 1000; i++) {
+            long previous = Math.max(delay, 100);
+            delay = random.nextDelayMs(delay);
+            assertTrue("delay " + delay, delay >= 100 && delay <= Math.min(5_000, previous * 3));
+        }
+    }
+
+    @Test
+    public void onlyUnansweredAndServerErrorsCount() {
+        IOException timeout = new SocketTimeoutException("timeout");
+        assertTrue(RetryPolicy.isBackendFailure(timeout));
+        assertTrue(RetryPolicy.isTransient(timeout));
+
+        assertTrue(RetryPolicy.isBackendFailure(new ApiPipeline.ApiException(500, null)));
+        assertFalse(RetryPolicy.isTransient(new ApiPipeline.ApiException(500, null)));
+        assertTrue(RetryPolicy.isTransient(new ApiPipeline.ApiException(503, null)));
+
+        assertFalse(RetryPolicy.isBackendFailure(new ApiPipeline.ApiException(404, null)));
+        assertFalse(RetryPolicy.isBackendFailure(new ApiPipeline.ApiException(200, "Invalid response from server")));
+        assertFalse(RetryPolicy.isBackendFailure(new IllegalStateException()));
+
+        // Refusing a call says nothing new about the endpoint
+        CircuitBreaker.OpenException refused = new CircuitBreaker.OpenException("/server/api/x.php", 1500);
+        assertFalse(RetryPolicy.isBackendFailure(refused));
+        assertFalse(RetryPolicy.isTransient(refused));
+        assertEquals("Server unavailable, try again in 2s", ApiPipeline.messageFor(refused, "Failed"));
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.smartworks.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class CommandBatcherTest {
+
+    /** Records what was sent; answers batches with "ok" for every command unless told otherwise */
+    private static class FakeTransport implements CommandBatcher.Transport {
+        final List<List<CommandBatcher.Command>> batches = new CopyOnWriteArrayList<>();
+        final List<CommandBatcher.Command> singles = new CopyOnWriteArrayList<>();
+        final List<CompletableFuture<SmartWorksApiService.ApiResult<Void>>> heldSingles = new CopyOnWriteArrayList<>();
+        final AtomicInteger singlesInFlight = new AtomicInteger();
+        final AtomicInteger maxSinglesInFlight = new AtomicInteger();
+        volatile Throwable batchError;
+        volatile boolean holdSingles;
+        volatile boolean reverseResults;
+        volatile String failDevice;
+
+        @Override
+        public CompletableFuture<List<CommandBatcher.CommandResult>> sendBatch(List<CommandBatcher.Command> commands) {
+            batches.add(new ArrayList<>(commands));
+            CompletableFuture<List<CommandBatcher.CommandResult>> future = new CompletableFuture<>();
+            if (batchError != null) {
+                future.completeExceptionally(batchError);
+                return future;
+            }
+            List<CommandBatcher.CommandResult> results = new ArrayList<>();
+            for (CommandBatcher.Command command : commands) {
+                CommandBatcher.CommandResult result = new CommandBatcher.CommandResult();
+                result.deviceId = command.deviceId;
+                result.command = command.command;
+                result.status = command.deviceId.equals(failDevice) ? "error" : "ok";
+                result.message = command.deviceId.equals(failDevice) ? "Device offline" : "";
+                results.add(result);
+            }
+            if (reverseResults) {
+                Collections.reverse(results);
+            }
+            future.complete(results);
+            return future;
+        }
+
+        @Override
+        public CompletableFuture<SmartWorksApiService.ApiResult<Void>> sendOne(CommandBatcher.Command command) {
+            singles.add(command);
+            int inFlight = singlesInFlight.incrementAndGet();
+            maxSinglesInFlight.accumulateAndGet(inFlight, Math::max);
+            CompletableFuture<SmartWorksApiService.ApiResult<Void>> future = new CompletableFuture<>();
+            if (holdSingles) {
+                heldSingles.add(future);
+            } else {
+                singlesInFlight.decrementAndGet();
+                future.complete(SmartWorksApiService.ApiResult.success("Command sent successfully"));
+            }
+            return future;
+        }
+
+        void releaseSingles() {
+            while (!heldSingles.isEmpty()) {
+                CompletableFuture<SmartWorksApiService.ApiResult<Void>> held = heldSingles.remove(0);
+                singlesInFlight.decrementAndGet();
+                held.complete(SmartWorksApiService.ApiResult.success("Command sent successfully"));
+            }
+        }
+    }
+
+    private static SmartWorksApiService.ApiResult<Void> await(
+            CompletableFuture<SmartWorksApiService.ApiResult<Void>> future) throws Exception {
+        return future.get(5, TimeUnit.SECONDS);
+    }
+
+    private static List<CompletableFuture<SmartWorksApiService.ApiResult<Void>>> submitAll(
+            CommandBatcher batcher, int devices, String command) {
+        List<CompletableFuture<SmartWorksApiService.ApiResult<Void>>> futures = new ArrayList<>();
+        for (int i = 0; i < devices; i++) {
+            futures.add(batcher.submit("pump-" + i, command));
+        }
+        return futures;
+    }
+
+    @Test
+    public void commandsInOneWindowGoOutAsOneRequest() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        transport.reverseResults = true;
+        transport.failDevice = "pump-7";
+        CommandBatcher batcher = new CommandBatcher(new CommandBatcher.Config().setWindowMs(20), transport);
+
+        List<CompletableFuture<SmartWorksApiService.ApiResult<Void>>> futures = submitAll(batcher, 40, "off");
+
+        for (int i = 0; i < futures.size(); i++) {
+            SmartWorksApiService.ApiResult<Void> result = await(futures.get(i));
+            // Each device gets its own answer even though the server listed them in another order
+            assertEquals("pump-" + i, i != 7, result.success);
+        }
+        assertEquals("Device offline", await(futures.get(7)).message);
+        assertEquals(1, transport.batches.size());
+        assertEquals(40, transport.batches.get(0).size());
+        assertTrue(transport.singles.isEmpty());
+    }
+
+    @Test
+    public void loneCommandIsSentSingly() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        CommandBatcher batcher = new CommandBatcher(new CommandBatcher.Config().setWindowMs(5), transport);
+
+        assertTrue(await(batcher.submit("pump-1", "update_firmware")).success);
+        assertTrue(transport.batches.isEmpty());
+        assertEquals(1, transport.singles.size());
+    }
+
+    @Test
+    public void fullWindowIsSentWithoutWaiting() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        CommandBatcher batcher = new CommandBatcher(
+                new CommandBatcher.Config().setWindowMs(60000).setMaxBatch(10), transport);
+
+        List<CompletableFuture<SmartWorksApiService.ApiResult<Void>>> futures = submitAll(batcher, 25, "off");
+        assertEquals(2, transport.batches.size());
+        assertTrue(futures.get(19).isDone());
+        assertFalse(futures.get(20).isDone());
+
+        batcher.flush();
+        assertTrue(await(futures.get(24)).success);
+        assertEquals(3, transport.batches.size());
+        assertEquals(5, transport.batches.get(2).size());
+    }
+
+    @Test
+    public void repeatedCommandIsSentOnce() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        CommandBatcher batcher = new CommandBatcher(new CommandBatcher.Config().setWindowMs(60000), transport);
+
+        CompletableFuture<SmartWorksApiService.ApiResult<Void>> first = batcher.submit("pump-1", "off");
+        CompletableFuture<SmartWorksApiService.ApiResult<Void>> again = batcher.submit("pump-1", "off");
+        CompletableFuture<SmartWorksApiService.ApiResult<Void>> other = batcher.submit("pump-2", "off");
+        batcher.flush();
+
+        assertTrue(await(first).success);
+        assertTrue(await(again).success);
+        assertTrue(await(other).success);
+        assertEquals(2, transport.batches.get(0).size());
+        assertEquals(1, batcher.getCoalesced());
+    }
+
+    @Test
+    public void serverWithoutBatchingGetsBoundedParallelSingles() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        transport.batchError = new ApiPipeline.ApiException(404, null);
+        transport.holdSingles = true;
+        AtomicLong now = new AtomicLong(1000);
+        CommandBatcher batcher = new CommandBatcher(new CommandBatcher.Config()
+                .setWindowMs(60000).setMaxParallelSingles(4).setUnsupportedRecheckMs(60000), transport, now::get);
+
+        List<CompletableFuture<SmartWorksApiService.ApiResult<Void>>> futures = submitAll(batcher, 20, "off");
+        batcher.flush();
+        assertEquals(4, transport.singles.size());
+        assertFalse(batcher.isBatchingAvailable());
+
+        transport.releaseSingles();
+        while (transport.singles.size() < 20 || !transport.heldSingles.isEmpty()) {
+            transport.releaseSingles();
+            Thread.sleep(1);
+        }
+        for (CompletableFuture<SmartWorksApiService.ApiResult<Void>> future : futures) {
+            assertTrue(await(future).success);
+        }
+        assertEquals(4, transport.maxSinglesInFlight.get());
+
+        // Not asked again until the recheck time has passed
+        transport.holdSingles = false;
+        submitAll(batcher, 3, "on");
+        batcher.flush();
+        assertEquals(1, transport.batches.size());
+
+        now.addAndGet(60000);
+        transport.batchError = null;
+        List<CompletableFuture<SmartWorksApiService.ApiResult<Void>>> later = submitAll(batcher, 3, "auto");
+        batcher.flush();
+        assertTrue(await(later.get(2)).success);
+        assertEquals(2, transport.batches.size());
+    }
+
+    @Test
+    public void failedBatchIsNotResent() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        transport.batchError = new IOException("timeout");
+        CommandBatcher batcher = new CommandBatcher(new CommandBatcher.Config().setWindowMs(60000), transport);
+
+        List<CompletableFuture<SmartWorksApiService.ApiResult<Void>>> futures = submitAll(batcher, 5, "off");
+        batcher.flush();
+
+        for (CompletableFuture<SmartWorksApiService.ApiResult<Void>> future : futures) {
+            SmartWorksApiService.ApiResult<Void> result = await(future);
+            assertFalse(result.success);
+            assertEquals("Network error: timeout", result.message);
+        }
+        // The server may have run some of them
+        assertTrue(transport.singles.isEmpty());
+    }
+
+    @Test
+    public void commandMissingFromTheReplyFails() throws Exception {
+        CommandBatcher.Transport transport = new FakeTransport() {
+            @Override
+            public CompletableFuture<List<CommandBatcher.CommandResult>> sendBatch(List<CommandBatcher.Command> commands) {
+                return super.sendBatch(commands).thenApply(results -> results.subList(0, 1));
+            }
+        };
+        CommandBatcher batcher = new CommandBatcher(new CommandBatcher.Config().setWindowMs(60000), transport);
+
+        CompletableFuture<SmartWorksApiService.ApiResult<Void>> answered = batcher.submit("pump-1", "off");
+        CompletableFuture<SmartWorksApiService.ApiResult<Void>> dropped = batcher.submit("pump-2", "off");
+        batcher.flush();
+
+        assertTrue(await(answered).success);
+        assertEquals("No result from server", await(dropped).message);
+    }
+}
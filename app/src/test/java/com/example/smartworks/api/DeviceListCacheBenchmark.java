@@ -0,0 +1,99 @@
+package com.example.smartworks.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.smartworks.Benchmark;
+import com.google.gson.Gson;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import okhttp3.Cache;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Refreshing the device list from a local mock backend with conditional GETs
+ * and the decoded-list cache, versus the old ?_t= cache-busting GET that
+ * downloaded and parsed the whole list every time. Reports body bytes and
+ * latency per refresh. DeviceListCacheTest checks what is reused and when.
+ */
+public class DeviceListCacheBenchmark {
+    private static final int DEVICES = 40;
+    private static final int REFRESHES = Integer.getInteger("devicelist.bench.refreshes", 200);
+
+    private final Gson gson = new Gson();
+    private FakeBackend backend;
+    private File cacheDir;
+    private Cache cache;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new FakeBackend();
+        backend.setDeviceList(FakeBackend.deviceListJson(DEVICES, 1), "\"v1\"");
+        cacheDir = Files.createTempDirectory("api-http").toFile();
+        cache = new Cache(cacheDir, 1024 * 1024);
+        client = new OkHttpClient.Builder().cache(cache).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        backend.close();
+        cache.delete();
+        client.connectionPool().evictAll();
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void conditionalVersusCacheBusting() throws Exception {
+        backend.setDelayMillis(2);
+        DeviceListCache lists = new DeviceListCache(gson);
+        fetch(lists, "7");
+
+        // Old path: unique URL every time, full download and parse
+        OkHttpClient uncached = new OkHttpClient.Builder().cache(null).build();
+        backend.resetCounters();
+        long start = System.nanoTime();
+        for (int i = 0; i < REFRESHES; i++) {
+            Request request = new Request.Builder()
+                    .url(backend.baseUrl() + "api/get_user_devices.php?_t=" + System.nanoTime())
+                    .build();
+            try (Response response = uncached.newCall(request).execute()) {
+                SmartWorksApiService.DeviceListResponse list = gson.fromJson(
+                        response.body().string(), SmartWorksApiService.DeviceListResponse.class);
+                assertEquals(DEVICES, list.devices.size());
+            }
+        }
+        long bustingNs = System.nanoTime() - start;
+        long bustingBytes = backend.bodyBytesSent();
+
+        backend.resetCounters();
+        start = System.nanoTime();
+        for (int i = 0; i < REFRESHES; i++) {
+            assertEquals(DEVICES, fetch(lists, "7").devices.size());
+        }
+        long conditionalNs = System.nanoTime() - start;
+        long conditionalBytes = backend.bodyBytesSent();
+
+        System.out.println(String.format("%-16s %8d body bytes/refresh %8.2f ms/refresh",
+                "cache busting", bustingBytes / REFRESHES, bustingNs / 1e6 / REFRESHES));
+        System.out.println(String.format("%-16s %8d body bytes/refresh %8.2f ms/refresh  (%d x 304)",
+                "conditional GET", conditionalBytes / REFRESHES, conditionalNs / 1e6 / REFRESHES,
+                backend.notModifiedCount()));
+
+        assertEquals(REFRESHES, backend.notModifiedCount());
+        assertEquals(0, conditionalBytes);
+        assertTrue(bustingBytes > 0);
+        uncached.connectionPool().evictAll();
+    }
+
+    private SmartWorksApiService.DeviceListResponse fetch(DeviceListCache lists, String account) throws IOException {
+        return DeviceListCacheTest.fetch(client, backend, lists, account);
+    }
+}
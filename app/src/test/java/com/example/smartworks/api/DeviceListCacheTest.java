@@ -0,0 +1,112 @@
+package com.example.smartworks.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import okhttp3.Cache;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeviceListCacheTest {
+    private static final int DEVICES = 40;
+
+    private final Gson gson = new Gson();
+    private FakeBackend backend;
+    private File cacheDir;
+    private Cache cache;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new FakeBackend();
+        backend.setDeviceList(FakeBackend.deviceListJson(DEVICES, 1), "\"v1\"");
+        cacheDir = Files.createTempDirectory("api-http").toFile();
+        cache = new Cache(cacheDir, 1024 * 1024);
+        client = new OkHttpClient.Builder().cache(cache).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        backend.close();
+        cache.delete();
+        client.connectionPool().evictAll();
+    }
+
+    @Test
+    public void unchangedListIsReusedWithoutParsing() throws Exception {
+        DeviceListCache lists = new DeviceListCache(gson);
+
+        SmartWorksApiService.DeviceListResponse first = fetch(lists, "7");
+        SmartWorksApiService.DeviceListResponse second = fetch(lists, "7");
+
+        assertEquals(DEVICES, first.devices.size());
+        assertSame(first, second);
+        assertEquals(2, backend.requestCount());
+        assertEquals(1, backend.notModifiedCount());
+        assertEquals(1, lists.decodedCount());
+        assertEquals(1, lists.reusedCount());
+    }
+
+    @Test
+    public void changedListIsDecodedAgain() throws Exception {
+        DeviceListCache lists = new DeviceListCache(gson);
+        SmartWorksApiService.DeviceListResponse first = fetch(lists, "7");
+
+        backend.setDeviceList(FakeBackend.deviceListJson(DEVICES + 1, 2), "\"v2\"");
+        SmartWorksApiService.DeviceListResponse second = fetch(lists, "7");
+
+        assertNotSame(first, second);
+        assertEquals(DEVICES + 1, second.devices.size());
+        assertEquals("1.0.2", second.devices.get(0).firmwareVersion);
+        assertEquals(0, backend.notModifiedCount());
+    }
+
+    @Test
+    public void otherAccountDoesNotGetThisOnesList() throws Exception {
+        DeviceListCache lists = new DeviceListCache(gson);
+        SmartWorksApiService.DeviceListResponse mine = fetch(lists, "7");
+
+        // The HTTP cache still revalidates, but the decoded objects belong to account 7
+        SmartWorksApiService.DeviceListResponse theirs = fetch(lists, "8");
+        assertNotSame(mine, theirs);
+        assertEquals(2, lists.decodedCount());
+    }
+
+    @Test
+    public void responsesWithoutValidatorsAreAlwaysParsed() throws Exception {
+        backend.setDeviceList(FakeBackend.deviceListJson(DEVICES, 1), null);
+        DeviceListCache lists = new DeviceListCache(gson);
+
+        SmartWorksApiService.DeviceListResponse first = fetch(lists, "7");
+        SmartWorksApiService.DeviceListResponse second = fetch(lists, "7");
+
+        assertNotSame(first, second);
+        assertEquals(2, lists.decodedCount());
+        assertEquals(0, lists.reusedCount());
+    }
+
+    private SmartWorksApiService.DeviceListResponse fetch(DeviceListCache lists, String account) throws IOException {
+        return fetch(client, backend, lists, account);
+    }
+
+    static SmartWorksApiService.DeviceListResponse fetch(OkHttpClient client, FakeBackend backend,
+            DeviceListCache lists, String account) throws IOException {
+        Request request = DeviceListCache.revalidating(new Request.Builder()
+                .url(backend.baseUrl() + "api/get_user_devices.php")
+                .build());
+        try (Response response = client.newCall(request).execute()) {
+            assertTrue(response.isSuccessful());
+            return lists.decode(account, response);
+        }
+    }
+}
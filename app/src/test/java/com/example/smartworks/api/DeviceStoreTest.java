@@ -0,0 +1,134 @@
+package com.example.smartworks.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class DeviceStoreTest {
+
+    private static SmartWorksApiService.Device device(String deviceId, String name, String updatedAt) {
+        SmartWorksApiService.Device device = new SmartWorksApiService.Device();
+        device.deviceId = deviceId;
+        device.friendlyName = name;
+        device.updatedAt = updatedAt;
+        device.status = "online";
+        return device;
+    }
+
+    @Test
+    public void firstFullPullReportsEveryDevice() {
+        DeviceStore store = new DeviceStore();
+        DeviceStore.Changes changes = store.replaceAll("7", Arrays.asList(
+                device("A", "Pool", "2026-10-01 10:00:00"),
+                device("B", "Spa", "2026-10-02 09:00:00")), null);
+
+        assertTrue(changes.full);
+        assertEquals(2, changes.upserted.size());
+        assertTrue(changes.removed.isEmpty());
+        // No watermark from the server, the newest updated_at stands in
+        assertEquals("2026-10-02 09:00:00", store.getWatermark("7"));
+    }
+
+    @Test
+    public void fullPullReportsOnlyWhatChanged() {
+        DeviceStore store = new DeviceStore();
+        store.replaceAll("7", Arrays.asList(
+                device("A", "Pool", "2026-10-01 10:00:00"),
+                device("B", "Spa", "2026-10-01 10:00:00"),
+                device("C", "Hot tub", "2026-10-01 10:00:00")), "w1");
+
+        SmartWorksApiService.Device renamed = device("B", "Spa 2", "2026-10-03 08:00:00");
+        DeviceStore.Changes changes = store.replaceAll("7", Arrays.asList(
+                device("A", "Pool", "2026-10-01 10:00:00"), renamed), "w2");
+
+        assertEquals(1, changes.upserted.size());
+        assertSame(renamed, changes.upserted.get(0));
+        assertEquals(Collections.singletonList("C"), changes.removed);
+        assertEquals("w2", store.getWatermark("7"));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void deltaMergesChangesAndRemovals() {
+        DeviceStore store = new DeviceStore();
+        store.replaceAll("7", Arrays.asList(
+                device("A", "Pool", "2026-10-01 10:00:00"),
+                device("B", "Spa", "2026-10-01 10:00:00")), "w1");
+
+        DeviceStore.Changes changes = store.applyDelta("7", Arrays.asList(
+                device("B", "Spa", "2026-10-04 07:00:00"),
+                device("D", "New pool", "2026-10-04 07:30:00")), Arrays.asList("A", "unknown"), "w2");
+
+        assertFalse(changes.full);
+        assertEquals(2, changes.upserted.size());
+        assertEquals(Collections.singletonList("A"), changes.removed);
+        assertEquals("w2", store.getWatermark("7"));
+
+        List<SmartWorksApiService.Device> devices = store.getDevices();
+        assertEquals(2, devices.size());
+        assertEquals("B", devices.get(0).deviceId);
+        assertEquals("D", devices.get(1).deviceId);
+    }
+
+    @Test
+    public void deltaWithoutWatermarkAdvancesToNewestUpdate() {
+        DeviceStore store = new DeviceStore();
+        store.replaceAll("7", Collections.singletonList(device("A", "Pool", "2026-10-01 10:00:00")), null);
+
+        store.applyDelta("7", Collections.singletonList(device("A", "Pool", "2026-10-05 12:00:00")),
+                Collections.emptyList(), null);
+        assertEquals("2026-10-05 12:00:00", store.getWatermark("7"));
+
+        // An out-of-order older change never moves it back
+        store.applyDelta("7", Collections.singletonList(device("B", "Spa", "2026-10-02 12:00:00")),
+                Collections.emptyList(), null);
+        assertEquals("2026-10-05 12:00:00", store.getWatermark("7"));
+    }
+
+    @Test
+    public void unchangedDeviceInDeltaIsNotReported() {
+        DeviceStore store = new DeviceStore();
+        store.replaceAll("7", Collections.singletonList(device("A", "Pool", "2026-10-01 10:00:00")), "w1");
+
+        DeviceStore.Changes changes = store.applyDelta("7",
+                Collections.singletonList(device("A", "Pool", "2026-10-01 10:00:00")), Collections.emptyList(), "w2");
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void otherAccountNeedsAFullPull() {
+        DeviceStore store = new DeviceStore();
+        store.replaceAll("7", Collections.singletonList(device("A", "Pool", "2026-10-01 10:00:00")), "w1");
+
+        assertNull(store.getWatermark("8"));
+        try {
+            store.applyDelta("8", Collections.emptyList(), Collections.emptyList(), "w2");
+            throw new AssertionError("delta accepted for another account");
+        } catch (IllegalStateException expected) {
+            // Full pull first
+        }
+
+        DeviceStore.Changes changes = store.replaceAll("8",
+                Collections.singletonList(device("X", "Theirs", "2026-10-01 10:00:00")), "w9");
+        assertEquals(1, changes.upserted.size());
+        assertTrue(changes.removed.isEmpty());
+        assertFalse(store.contains("A"));
+    }
+
+    @Test
+    public void clearForgetsTheWatermark() {
+        DeviceStore store = new DeviceStore();
+        store.replaceAll("7", Collections.singletonList(device("A", "Pool", "2026-10-01 10:00:00")), "w1");
+        store.clear();
+
+        assertNull(store.getWatermark("7"));
+        assertEquals(0, store.size());
+    }
+}
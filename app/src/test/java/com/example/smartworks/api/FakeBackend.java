@@ -0,0 +1,180 @@
+package com.example.smartworks.api;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the PHP backend on loopback. Serves
+ * api/get_user_devices.php with an ETag and answers matching
+ * If-None-Match requests with 304, like the real endpoint should.
+ * Any other endpoint can be given a canned response with respond().
+ */
+public class FakeBackend implements AutoCloseable {
+    static {
+        // Without this the JDK server's split header/body writes hit delayed-ACK stalls on reused sockets
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private final AtomicLong bodyBytes = new AtomicLong();
+    private volatile String deviceList = deviceListJson(20, 1);
+    private volatile String etag = "\"v1\"";
+    private volatile long delayMillis = 0;
+    private final Map<String, Canned> canned = new ConcurrentHashMap<>();
+
+    private static class Canned {
+        final int status;
+        final String contentType;
+        final String body;
+
+        Canned(int status, String contentType, String body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+
+    public FakeBackend() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+        server.createContext("/server/api/get_user_devices.php", this::handleDeviceList);
+        server.createContext("/server/", this::handleCanned);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    /** Base URL in the form the app uses, ending in "/server/" */
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/server/";
+    }
+
+    /** Replace the device list; a null etag serves it without validators */
+    public void setDeviceList(String json, String etag) {
+        this.deviceList = json;
+        this.etag = etag;
+    }
+
+    /** Server think time added to every request, as a real PHP backend would have */
+    public void setDelayMillis(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    /** Answer path (relative to baseUrl()) with status and a JSON body */
+    public void respond(String path, int status, String json) {
+        respond(path, status, "application/json", json);
+    }
+
+    public void respond(String path, int status, String contentType, String body) {
+        canned.put("/server/" + path, new Canned(status, contentType, body));
+    }
+
+    public int requestCount() {
+        return requests.get();
+    }
+
+    public int notModifiedCount() {
+        return notModified.get();
+    }
+
+    /** Response body bytes sent so far, headers excluded */
+    public long bodyBytesSent() {
+        return bodyBytes.get();
+    }
+
+    public void resetCounters() {
+        requests.set(0);
+        notModified.set(0);
+        bodyBytes.set(0);
+    }
+
+    private void handleCanned(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        think();
+        Canned response = canned.get(exchange.getRequestURI().getPath());
+        if (response == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+        bodyBytes.addAndGet(body.length);
+        exchange.getResponseHeaders().set("Content-Type", response.contentType);
+        exchange.sendResponseHeaders(response.status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void handleDeviceList(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        think();
+        String currentEtag = etag;
+        if (currentEtag != null) {
+            exchange.getResponseHeaders().set("ETag", currentEtag);
+            // Dynamic PHP output: may be stored, but always revalidated
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            if (currentEtag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+        }
+        byte[] body = deviceList.getBytes(StandardCharsets.UTF_8);
+        bodyBytes.addAndGet(body.length);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void think() {
+        if (delayMillis > 0) {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** A get_user_devices.php response with count devices at the given version */
+    public static String deviceListJson(int count, int version) {
+        StringBuilder json = new StringBuilder("{\"status\":\"ok\",\"message\":\"\",\"devices\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(i + 1)
+                    .append(",\"device_id\":\"AA:BB:CC:00:00:").append(String.format("%02X", i))
+                    .append("\",\"user_id\":7,\"api_key\":\"k").append(i)
+                    .append("\",\"low_threshold\":24.0,\"high_threshold\":30.0,\"webhook_url\":null")
+                    .append(",\"last_temp\":26.").append(i % 10)
+                    .append(",\"type\":\"pool_monitor\",\"friendly_name\":\"Pool ").append(i)
+                    .append("\",\"enabled\":true,\"updated_at\":\"2026-10-0").append(version % 9 + 1)
+                    .append(" 12:00:00\",\"ip_address\":\"192.168.1.").append(20 + i)
+                    .append("\",\"temperature\":26.").append(i % 10)
+                    .append(",\"temperature_time\":\"2026-10-01 12:00:00\",\"status\":\"online\"")
+                    .append(",\"status_message\":\"OK\",\"last_seen\":\"2026-10-01 12:00:00\"")
+                    .append(",\"wifi_ssid\":\"PoolNet\",\"rssi\":-58,\"firmware_version\":\"1.0.").append(version)
+                    .append("\"}");
+        }
+        return json.append("]}").toString();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,238 @@
+package com.example.smartworks.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class FirmwareCatalogTest {
+    private static final long TTL_MS = 60 * 60 * 1000;
+
+    /** Offers 1.0.4 to anything older; records every request */
+    private static class FakeTransport implements FirmwareCatalog.Transport {
+        final List<List<FirmwareCatalog.Key>> bulks = new CopyOnWriteArrayList<>();
+        final List<FirmwareCatalog.Key> singles = new CopyOnWriteArrayList<>();
+        final List<CompletableFuture<SmartWorksApiService.FirmwareUpdateResponse>> heldSingles =
+                new CopyOnWriteArrayList<>();
+        volatile Throwable bulkError;
+        volatile Throwable singleError;
+        volatile boolean holdSingles;
+        volatile boolean reverseResults;
+
+        @Override
+        public CompletableFuture<List<FirmwareCatalog.BulkResult>> checkBulk(List<FirmwareCatalog.Key> keys) {
+            bulks.add(new ArrayList<>(keys));
+            CompletableFuture<List<FirmwareCatalog.BulkResult>> future = new CompletableFuture<>();
+            if (bulkError != null) {
+                future.completeExceptionally(bulkError);
+                return future;
+            }
+            List<FirmwareCatalog.BulkResult> results = new ArrayList<>();
+            for (FirmwareCatalog.Key key : keys) {
+                FirmwareCatalog.BulkResult result = new FirmwareCatalog.BulkResult();
+                result.type = key.type;
+                result.currentVersion = key.reportedVersion;
+                result.available = answer(key).available;
+                result.version = "1.0.4";
+                results.add(result);
+            }
+            if (reverseResults) {
+                Collections.reverse(results);
+            }
+            future.complete(results);
+            return future;
+        }
+
+        @Override
+        public CompletableFuture<SmartWorksApiService.FirmwareUpdateResponse> checkOne(
+                FirmwareCatalog.Key key, RequestScheduler.Priority priority) {
+            singles.add(key);
+            CompletableFuture<SmartWorksApiService.FirmwareUpdateResponse> future = new CompletableFuture<>();
+            if (holdSingles) {
+                heldSingles.add(future);
+            } else if (singleError != null) {
+                future.completeExceptionally(singleError);
+            } else {
+                future.complete(answer(key));
+            }
+            return future;
+        }
+
+        static SmartWorksApiService.FirmwareUpdateResponse answer(FirmwareCatalog.Key key) {
+            SmartWorksApiService.FirmwareUpdateResponse response = new SmartWorksApiService.FirmwareUpdateResponse();
+            response.available = !key.version.equals("1.0.4");
+            response.version = "1.0.4";
+            return response;
+        }
+    }
+
+    private static List<FirmwareCatalog.Key> fleet(String... versions) {
+        List<FirmwareCatalog.Key> keys = new ArrayList<>();
+        for (String version : versions) {
+            keys.add(FirmwareCatalog.Key.of("pool_monitor", version));
+        }
+        return keys;
+    }
+
+    @Test
+    public void answerIsReusedUntilItExpires() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AtomicLong now = new AtomicLong(1000);
+        FirmwareCatalog catalog = new FirmwareCatalog(new FirmwareCatalog.Config().setTtlMs(TTL_MS), transport, now::get);
+
+        SmartWorksApiService.FirmwareUpdateResponse first =
+                catalog.check("pool_monitor", "1.0.3", RequestScheduler.Priority.BACKGROUND).get(5, TimeUnit.SECONDS);
+        assertTrue(first.available);
+        // Other config screens for the same version
+        assertSame(first, catalog.check("pool_monitor", "v1.0.3", RequestScheduler.Priority.BACKGROUND).get());
+        assertSame(first, catalog.check(null, " 1.0.3", RequestScheduler.Priority.INTERACTIVE).get());
+        assertEquals(1, transport.singles.size());
+        assertEquals(2, catalog.getHits());
+
+        now.addAndGet(TTL_MS);
+        catalog.check("pool_monitor", "1.0.3", RequestScheduler.Priority.BACKGROUND).get(5, TimeUnit.SECONDS);
+        assertEquals(2, transport.singles.size());
+    }
+
+    @Test
+    public void concurrentChecksShareOneRequest() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        transport.holdSingles = true;
+        FirmwareCatalog catalog = new FirmwareCatalog(new FirmwareCatalog.Config(), transport);
+
+        CompletableFuture<SmartWorksApiService.FirmwareUpdateResponse> first =
+                catalog.check("pool_monitor", "1.0.2", RequestScheduler.Priority.BACKGROUND);
+        CompletableFuture<SmartWorksApiService.FirmwareUpdateResponse> second =
+                catalog.check("pool_monitor", "1.0.2", RequestScheduler.Priority.INTERACTIVE);
+        assertEquals(1, transport.singles.size());
+
+        transport.heldSingles.get(0).complete(FakeTransport.answer(transport.singles.get(0)));
+        assertSame(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void fleetIsCheckedInOneBulkRequest() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        transport.reverseResults = true;
+        FirmwareCatalog catalog = new FirmwareCatalog(new FirmwareCatalog.Config(), transport);
+
+        List<FirmwareCatalog.Key> devices = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            devices.addAll(fleet("1.0.2", "1.0.3", "1.0.4"));
+        }
+        devices.addAll(fleet("Unknown", null, ""));
+
+        assertEquals(3, (int) catalog.checkAll(devices).get(5, TimeUnit.SECONDS));
+        assertEquals(1, transport.bulks.size());
+        assertEquals(3, transport.bulks.get(0).size());
+        assertTrue(transport.singles.isEmpty());
+
+        // Badges straight from the cache
+        assertTrue(catalog.isUpdateAvailable("pool_monitor", "1.0.2"));
+        assertTrue(catalog.isUpdateAvailable("pool_monitor", "1.0.3"));
+        assertFalse(catalog.isUpdateAvailable("pool_monitor", "1.0.4"));
+        assertFalse(catalog.isUpdateAvailable("pool_monitor", "0.9.0"));
+        assertNull(catalog.peek("pool_monitor", "Unknown"));
+
+        // Refreshing the list again costs nothing
+        assertEquals(0, (int) catalog.checkAll(devices).get(5, TimeUnit.SECONDS));
+        assertEquals(1, transport.bulks.size());
+    }
+
+    @Test
+    public void serverWithoutBulkIsCheckedSingly() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        transport.bulkError = new ApiPipeline.ApiException(404, null);
+        AtomicLong now = new AtomicLong(1000);
+        FirmwareCatalog catalog = new FirmwareCatalog(new FirmwareCatalog.Config()
+                .setTtlMs(TTL_MS).setUnsupportedRecheckMs(TTL_MS * 2), transport, now::get);
+
+        assertEquals(2, (int) catalog.checkAll(fleet("1.0.2", "1.0.3")).get(5, TimeUnit.SECONDS));
+        assertEquals(2, transport.singles.size());
+        assertTrue(catalog.isUpdateAvailable("pool_monitor", "1.0.3"));
+        assertEquals(0, catalog.getBulkRequests());
+
+        // Expired, but bulk isn't tried again yet
+        now.addAndGet(TTL_MS);
+        catalog.checkAll(fleet("1.0.2", "1.0.3")).get(5, TimeUnit.SECONDS);
+        assertEquals(1, transport.bulks.size());
+        assertEquals(4, transport.singles.size());
+
+        now.addAndGet(TTL_MS);
+        transport.bulkError = null;
+        catalog.checkAll(fleet("1.0.2", "1.0.3")).get(5, TimeUnit.SECONDS);
+        assertEquals(2, transport.bulks.size());
+        assertEquals(4, transport.singles.size());
+    }
+
+    @Test
+    public void failuresAreNotCached() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        transport.singleError = new IOException("timeout");
+        transport.bulkError = new IOException("timeout");
+        FirmwareCatalog catalog = new FirmwareCatalog(new FirmwareCatalog.Config(), transport);
+
+        try {
+            catalog.check("pool_monitor", "1.0.3", RequestScheduler.Priority.INTERACTIVE).get(5, TimeUnit.SECONDS);
+            fail("expected failure");
+        } catch (ExecutionException expected) {
+            assertEquals("timeout", expected.getCause().getMessage());
+        }
+        // A fleet check that fails doesn't fail the caller, it just leaves the badges unknown
+        assertEquals(2, (int) catalog.checkAll(fleet("1.0.2", "1.0.3")).get(5, TimeUnit.SECONDS));
+        assertNull(catalog.peek("pool_monitor", "1.0.2"));
+
+        transport.singleError = null;
+        assertTrue(catalog.check("pool_monitor", "1.0.3", RequestScheduler.Priority.INTERACTIVE)
+                .get(5, TimeUnit.SECONDS).available);
+        assertEquals(2, transport.singles.size());
+    }
+
+    @Test
+    public void largeFleetIsSplitIntoBulkRequests() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        FirmwareCatalog catalog = new FirmwareCatalog(new FirmwareCatalog.Config().setMaxBulk(2), transport);
+
+        assertEquals(5, (int) catalog.checkAll(fleet("1.0.0", "1.0.1", "1.0.2", "1.0.3", "1.0.4"))
+                .get(5, TimeUnit.SECONDS));
+        assertEquals(3, transport.bulks.size());
+        assertEquals(Arrays.asList(FirmwareCatalog.Key.of("pool_monitor", "1.0.4")), transport.bulks.get(2));
+        assertEquals(3, catalog.getBulkRequests());
+    }
+
+    @Test
+    public void versionIsSentAsReported() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        FirmwareCatalog catalog = new FirmwareCatalog(new FirmwareCatalog.Config(), transport);
+
+        // One pair, so it's checked singly
+        assertEquals(1, (int) catalog.checkAll(fleet("v1.0.3", "1.0.3 ")).get(5, TimeUnit.SECONDS));
+        FirmwareCatalog.Key sent = transport.singles.get(0);
+        assertEquals("1.0.3", sent.version);
+        assertEquals("v1.0.3", sent.reportedVersion);
+        assertEquals("{\"device_type\":\"pool_monitor\",\"current_version\":\"v1.0.3\"}", new Gson().toJson(sent));
+        assertTrue(catalog.isUpdateAvailable("pool_monitor", "1.0.3"));
+
+        // The server echoes what it was sent in bulk results, which still finds its pair
+        catalog.clear();
+        assertEquals(2, (int) catalog.checkAll(fleet("v1.0.3", "V1.0.4")).get(5, TimeUnit.SECONDS));
+        assertEquals("V1.0.4", transport.bulks.get(0).get(1).reportedVersion);
+        assertTrue(catalog.isUpdateAvailable("pool_monitor", "1.0.3"));
+        assertFalse(catalog.isUpdateAvailable("pool_monitor", "1.0.4"));
+    }
+}
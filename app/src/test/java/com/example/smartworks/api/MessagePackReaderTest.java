@@ -0,0 +1,368 @@
+package com.example.smartworks.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.Test;
+
+public class MessagePackReaderTest {
+
+    @Test
+    public void readsEveryHeaderFamily() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xdf); bigEndian(out, 27, 4);                                            // map32
+        str(out, "fixint"); out.write(0x7f);
+        str(out, "zero"); out.write(0x00);
+        str(out, "negfix"); out.write(0xe0);
+        str(out, "minus1"); out.write(0xff);
+        str(out, "u8"); out.write(0xcc); out.write(0xff);
+        str(out, "u16"); out.write(0xcd); bigEndian(out, 0xffff, 2);
+        str(out, "u32"); out.write(0xce); bigEndian(out, 0xffffffffL, 4);
+        str(out, "u64"); out.write(0xcf); bigEndian(out, Long.MAX_VALUE, 8);
+        str(out, "i8"); out.write(0xd0); out.write(0x80);
+        str(out, "i16"); out.write(0xd1); bigEndian(out, Short.MIN_VALUE, 2);
+        str(out, "i32"); out.write(0xd2); bigEndian(out, Integer.MIN_VALUE, 4);
+        str(out, "i64"); out.write(0xd3); bigEndian(out, Long.MIN_VALUE, 8);
+        str(out, "f32"); out.write(0xca); bigEndian(out, Float.floatToIntBits(26.4f), 4);
+        str(out, "f64"); out.write(0xcb); bigEndian(out, Double.doubleToLongBits(-0.125), 8);
+        str(out, "nil"); out.write(0xc0);
+        str(out, "no"); out.write(0xc2);
+        str(out, "yes"); out.write(0xc3);
+        str(out, "fixstr"); out.write(0xa3); out.write(bytes("abc"));
+        str(out, "str8"); out.write(0xd9); out.write(40); out.write(repeat('x', 40));
+        str(out, "str16"); out.write(0xda); bigEndian(out, 300, 2); out.write(repeat('y', 300));
+        str(out, "str32"); out.write(0xdb); bigEndian(out, 5, 4); out.write(bytes("hello"));
+        str(out, "bin8"); out.write(0xc4); out.write(2); out.write(bytes("hi"));
+        str(out, "bin16"); out.write(0xc5); bigEndian(out, 2, 2); out.write(bytes("ok"));
+        str(out, "bin32"); out.write(0xc6); bigEndian(out, 3, 4); out.write(bytes("bin"));
+        str(out, "array16"); out.write(0xdc); bigEndian(out, 2, 2); out.write(0x01); out.write(0x02);
+        str(out, "array32"); out.write(0xdd); bigEndian(out, 1, 4); out.write(0x90);    // [[]]
+        str(out, "map16"); out.write(0xde); bigEndian(out, 1, 2); str(out, "k"); out.write(0x80);
+
+        // A few bytes per read, so headers and strings straddle buffer refills
+        JsonObject object = JsonParser.parseReader(new MessagePackReader(trickle(out.toByteArray(), 3)))
+                .getAsJsonObject();
+        assertEquals(27, object.size());
+        assertEquals(127, object.get("fixint").getAsInt());
+        assertEquals(0, object.get("zero").getAsInt());
+        assertEquals(-32, object.get("negfix").getAsInt());
+        assertEquals(-1, object.get("minus1").getAsInt());
+        assertEquals(255, object.get("u8").getAsInt());
+        assertEquals(65535, object.get("u16").getAsInt());
+        assertEquals(4294967295L, object.get("u32").getAsLong());
+        assertEquals(Long.MAX_VALUE, object.get("u64").getAsLong());
+        assertEquals(-128, object.get("i8").getAsInt());
+        assertEquals(Short.MIN_VALUE, object.get("i16").getAsInt());
+        assertEquals(Integer.MIN_VALUE, object.get("i32").getAsInt());
+        assertEquals(Long.MIN_VALUE, object.get("i64").getAsLong());
+        assertEquals(26.4f, object.get("f32").getAsFloat(), 0f);
+        assertEquals(-0.125, object.get("f64").getAsDouble(), 0);
+        assertTrue(object.get("nil").isJsonNull());
+        assertFalse(object.get("no").getAsBoolean());
+        assertTrue(object.get("yes").getAsBoolean());
+        assertEquals("abc", object.get("fixstr").getAsString());
+        assertEquals(40, object.get("str8").getAsString().length());
+        assertEquals(300, object.get("str16").getAsString().length());
+        assertEquals("hello", object.get("str32").getAsString());
+        assertEquals("hi", object.get("bin8").getAsString());
+        assertEquals("ok", object.get("bin16").getAsString());
+        assertEquals("bin", object.get("bin32").getAsString());
+        assertEquals("[1,2]", object.get("array16").toString());
+        assertEquals("[[]]", object.get("array32").toString());
+        assertEquals("{\"k\":{}}", object.get("map16").toString());
+    }
+
+    @Test
+    public void unsigned64AboveLongMaxIsNotALong() throws Exception {
+        for (long bits : new long[] {-1L, Long.MIN_VALUE}) {
+            MessagePackReader reader = reader(0xcf, bits);
+            assertEquals(JsonToken.NUMBER, reader.peek());
+            try {
+                reader.nextLong();
+                fail("expected NumberFormatException for " + Long.toUnsignedString(bits));
+            } catch (NumberFormatException expected) {
+                // Still there to be read another way
+            }
+            assertEquals(Long.toUnsignedString(bits), reader.nextString());
+        }
+        assertEquals(18446744073709551615.0, reader(0xcf, -1L).nextDouble(), 0);
+        assertEquals("18446744073709551615",
+                JsonParser.parseReader(reader(0xcf, -1L)).getAsBigInteger().toString());
+    }
+
+    @Test
+    public void nextIntRejectsWhatDoesNotFit() throws Exception {
+        MessagePackReader reader = new MessagePackReader(new ByteArrayInputStream(
+                pack(JsonParser.parseString("[2147483648,-2147483649,26.5,\"7.0\",2147483647]"))));
+        reader.beginArray();
+        for (long tooBig : new long[] {2147483648L, -2147483649L}) {
+            try {
+                reader.nextInt();
+                fail("expected NumberFormatException for " + tooBig);
+            } catch (NumberFormatException expected) {
+                // The value isn't consumed
+            }
+            assertEquals(tooBig, reader.nextLong());
+        }
+        try {
+            reader.nextInt();
+            fail("expected NumberFormatException for 26.5");
+        } catch (NumberFormatException expected) {
+            assertEquals(26.5, reader.nextDouble(), 0);
+        }
+        assertEquals(7, reader.nextInt());
+        assertEquals(Integer.MAX_VALUE, reader.nextInt());
+        reader.endArray();
+    }
+
+    @Test
+    public void skipValueSkipsNestedContainersWhole() throws Exception {
+        MessagePackReader reader = new MessagePackReader(new ByteArrayInputStream(pack(JsonParser.parseString(
+                "{\"skip\":{\"a\":[1,{\"b\":[[],{},[[2]]]}],\"c\":\"x\"},\"temperature\":\"26.5\","
+                        + "\"list\":[{\"d\":{\"e\":null}},3],\"id\":\"7\"}"))));
+        reader.beginObject();
+        assertEquals("skip", reader.nextName());
+        reader.skipValue();
+        // Numbers PHP sent as strings still read as numbers
+        assertEquals("temperature", reader.nextName());
+        assertEquals(26.5, reader.nextDouble(), 0);
+        assertEquals("list", reader.nextName());
+        reader.beginArray();
+        reader.skipValue();
+        assertEquals(3, reader.nextInt());
+        reader.endArray();
+        assertEquals("id", reader.nextName());
+        assertEquals(7, reader.nextInt());
+        assertFalse(reader.hasNext());
+        reader.endObject();
+        assertEquals(JsonToken.END_DOCUMENT, reader.peek());
+    }
+
+    @Test
+    public void integerKeysAndManyDistinctKeysReadBackAsNames() throws Exception {
+        // PHP packs a list with gaps as a map keyed by index
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x81); out.write(0x07); out.write(0x92); out.write(0x01); str(out, "two");
+        assertEquals("{\"7\":[1,\"two\"]}",
+                JsonParser.parseReader(new MessagePackReader(new ByteArrayInputStream(out.toByteArray()))).toString());
+
+        // More keys than the key cache has slots, each repeated
+        JsonArray rows = new JsonArray();
+        for (int row = 0; row < 3; row++) {
+            JsonObject object = new JsonObject();
+            for (int key = 0; key < 200; key++) {
+                object.addProperty("k" + key, key);
+            }
+            rows.add(object);
+        }
+        assertEquals(rows, JsonParser.parseReader(new MessagePackReader(new ByteArrayInputStream(pack(rows)))));
+    }
+
+    @Test
+    public void truncatedInputIsAnEOFException() throws Exception {
+        byte[] document = pack(JsonParser.parseString(
+                "{\"devices\":[{\"id\":1,\"name\":\"" + new String(repeat('n', 40), StandardCharsets.US_ASCII)
+                        + "\",\"t\":26.4,\"big\":4294967296,\"ok\":true,\"none\":null}],\"page\":{\"next\":\"r-2\"}}"));
+        for (int length = 0; length < document.length; length++) {
+            MessagePackReader reader = new MessagePackReader(new ByteArrayInputStream(Arrays.copyOf(document, length)));
+            try {
+                reader.skipValue();
+                fail("expected EOFException with " + length + " of " + document.length + " bytes");
+            } catch (EOFException expected) {
+                // A cut-off body is a network failure, as with JSON
+            }
+        }
+        new MessagePackReader(new ByteArrayInputStream(document)).skipValue();
+
+        // A string longer than the read buffer, cut short
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xdb); bigEndian(out, 20000, 4); out.write(repeat('z', 12000));
+        try {
+            new MessagePackReader(trickle(out.toByteArray(), 5000)).nextString();
+            fail("expected EOFException");
+        } catch (EOFException expected) {
+            // Ran out in the middle of the string
+        }
+    }
+
+    @Test
+    public void rejectsWhatIsNotMessagePack() throws Exception {
+        byte[][] malformed = {
+                {(byte) 0xd4, 0x01, 0x00},                              // fixext1
+                {(byte) 0xc7, 0x01, 0x01, 0x00},                        // ext8
+                {(byte) 0x81, (byte) 0x90, 0x01},                       // {[]: 1}
+                {(byte) 0xc1},                                          // never used
+                {(byte) 0xdb, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff},  // str32 past 2GB
+                {(byte) 0xdf, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff},         // map32 of 2^31 entries
+        };
+        for (byte[] body : malformed) {
+            try {
+                JsonParser.parseReader(new MessagePackReader(new ByteArrayInputStream(body)));
+                fail("expected failure for 0x" + Integer.toHexString(body[0] & 0xff));
+            } catch (JsonParseException expected) {
+                assertTrue(expected.getCause() instanceof MalformedJsonException);
+            }
+        }
+
+        MessagePackReader reader = new MessagePackReader(new ByteArrayInputStream(pack(new JsonPrimitive("ok"))));
+        try {
+            reader.beginObject();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            assertEquals("ok", reader.nextString());
+        }
+    }
+
+    private static MessagePackReader reader(int type, long value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(type);
+        bigEndian(out, value, 8);
+        return new MessagePackReader(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    // Hands out at most chunk bytes per read, like a slow socket
+    private static InputStream trickle(byte[] bytes, int chunk) {
+        return new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, chunk));
+            }
+        };
+    }
+
+    /**
+     * Packs a JSON tree the way msgpack-php packs the decoded PHP array:
+     * smallest integer encoding that fits, float64 for anything with a fraction
+     */
+    static byte[] pack(JsonElement element) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pack(element, out);
+        return out.toByteArray();
+    }
+
+    private static void pack(JsonElement element, ByteArrayOutputStream out) throws IOException {
+        if (element.isJsonNull()) {
+            out.write(0xc0);
+        } else if (element.isJsonObject()) {
+            JsonObject object = element.getAsJsonObject();
+            header(out, object.size(), 0x80, 0xde);
+            for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+                str(out, entry.getKey());
+                pack(entry.getValue(), out);
+            }
+        } else if (element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            header(out, array.size(), 0x90, 0xdc);
+            for (JsonElement item : array) {
+                pack(item, out);
+            }
+        } else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                out.write(primitive.getAsBoolean() ? 0xc3 : 0xc2);
+            } else if (primitive.isString()) {
+                str(out, primitive.getAsString());
+            } else if (isWhole(primitive.getAsString())) {
+                integer(out, primitive.getAsLong());
+            } else {
+                out.write(0xcb);
+                bigEndian(out, Double.doubleToLongBits(primitive.getAsDouble()), 8);
+            }
+        }
+    }
+
+    private static boolean isWhole(String number) {
+        return number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0;
+    }
+
+    private static void integer(ByteArrayOutputStream out, long value) {
+        if (value >= -32 && value <= 127) {
+            out.write((int) value & 0xff);
+        } else if (value >= 0 && value <= 0xff) {
+            out.write(0xcc);
+            out.write((int) value);
+        } else if (value >= 0 && value <= 0xffff) {
+            out.write(0xcd);
+            bigEndian(out, value, 2);
+        } else if (value >= 0 && value <= 0xffffffffL) {
+            out.write(0xce);
+            bigEndian(out, value, 4);
+        } else if (value >= Byte.MIN_VALUE && value < 0) {
+            out.write(0xd0);
+            out.write((int) value & 0xff);
+        } else if (value >= Short.MIN_VALUE && value < 0) {
+            out.write(0xd1);
+            bigEndian(out, value, 2);
+        } else if (value >= Integer.MIN_VALUE && value < 0) {
+            out.write(0xd2);
+            bigEndian(out, value, 4);
+        } else {
+            out.write(0xd3);
+            bigEndian(out, value, 8);
+        }
+    }
+
+    private static void str(ByteArrayOutputStream out, String value) throws IOException {
+        byte[] bytes = bytes(value);
+        if (bytes.length < 32) {
+            out.write(0xa0 | bytes.length);
+        } else if (bytes.length <= 0xff) {
+            out.write(0xd9);
+            out.write(bytes.length);
+        } else if (bytes.length <= 0xffff) {
+            out.write(0xda);
+            bigEndian(out, bytes.length, 2);
+        } else {
+            out.write(0xdb);
+            bigEndian(out, bytes.length, 4);
+        }
+        out.write(bytes);
+    }
+
+    // fix, 16-bit or 32-bit header for a map or array of size entries
+    private static void header(ByteArrayOutputStream out, int size, int fix, int sized16) {
+        if (size < 16) {
+            out.write(fix | size);
+        } else if (size <= 0xffff) {
+            out.write(sized16);
+            bigEndian(out, size, 2);
+        } else {
+            out.write(sized16 + 1);
+            bigEndian(out, size, 4);
+        }
+    }
+
+    private static void bigEndian(ByteArrayOutputStream out, long value, int bytes) {
+        for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift) & 0xff);
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] repeat(char c, int count) {
+        byte[] bytes = new byte[count];
+        Arrays.fill(bytes, (byte) c);
+        return bytes;
+    }
+}
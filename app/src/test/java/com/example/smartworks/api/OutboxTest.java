@@ -0,0 +1,378 @@
+package com.example.smartworks.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.example.smartworks.Benchmark;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+public class OutboxTest {
+    private static final int REPLAY_ITEMS = Integer.getInteger("outbox.bench.items", 2000);
+
+    private File dir;
+    private File log;
+
+    /** Accepts everything, remembering the order it was sent in */
+    private static class RecordingSender implements Outbox.Sender {
+        final List<Outbox.Item> sent = new CopyOnWriteArrayList<>();
+
+        @Override
+        public CompletableFuture<?> send(Outbox.Item item) {
+            sent.add(item);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("outbox").toFile();
+        log = new File(dir, "outbox.log");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    // An outbox once its log has been read, so the test sees what it held
+    private static Outbox open(File log, Outbox.Config config, Outbox.Sender sender) throws Exception {
+        Outbox outbox = new Outbox(log, config, sender);
+        outbox.opened().get(5, TimeUnit.SECONDS);
+        return outbox;
+    }
+
+    private static void waitFor(Outbox outbox, int pending) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (outbox.pendingCount() > pending && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(pending, outbox.pendingCount());
+    }
+
+    @Test
+    public void replaysInOrderOnceOnline() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        Outbox outbox = open(log, new Outbox.Config(), sender);
+
+        outbox.enqueue("update", "12", "{\"friendly_name\":\"Pool\"}", "update:12");
+        outbox.enqueue("command", "AA:01", "{\"command\":\"off\"}", null);
+        outbox.enqueue("delete", "AA:02", null, "delete:AA:02");
+        assertTrue(sender.sent.isEmpty());
+
+        outbox.setOnline(true);
+        waitFor(outbox, 0);
+        assertEquals(3, sender.sent.size());
+        assertEquals("update", sender.sent.get(0).type);
+        assertEquals("command", sender.sent.get(1).type);
+        assertEquals("delete", sender.sent.get(2).type);
+        assertEquals(Outbox.Status.SENT, outbox.getItem(sender.sent.get(2).seq).getStatus());
+        outbox.close();
+    }
+
+    @Test
+    public void pendingItemsSurviveACrash() throws Exception {
+        Outbox outbox = open(log, new Outbox.Config(), new RecordingSender());
+        Outbox.Item first = outbox.enqueue("command", "AA:01", "{\"command\":\"off\"}", null);
+        outbox.enqueue("command", "AA:02", "{\"command\":\"off\"}", null);
+        outbox.enqueue("command", "AA:03", "{\"command\":\"off\"}", null);
+        // Send only the first one
+        CountDownLatch one = new CountDownLatch(1);
+        outbox.addListener(item -> {
+            if (item.getStatus() == Outbox.Status.SENT) {
+                outbox.setOnline(false);
+                one.countDown();
+            }
+        });
+        outbox.setOnline(true);
+        assertTrue(one.await(5, TimeUnit.SECONDS));
+        waitFor(outbox, 2);
+        outbox.written().get(5, TimeUnit.SECONDS);
+
+        // The process dies mid-write: no close(), and half a record at the end
+        try (FileOutputStream out = new FileOutputStream(log, true)) {
+            out.write("{\"op\":\"add\",\"seq\":9,\"type\":\"comm".getBytes(StandardCharsets.UTF_8));
+        }
+
+        RecordingSender sender = new RecordingSender();
+        Outbox recovered = open(log, new Outbox.Config(), sender);
+        assertEquals(2, recovered.pendingCount());
+        Outbox.Item next = recovered.enqueue("command", "AA:04", "{\"command\":\"off\"}", null);
+        assertTrue(next.seq > first.seq + 2);
+
+        recovered.setOnline(true);
+        waitFor(recovered, 0);
+        assertEquals(3, sender.sent.size());
+        assertEquals("AA:02", sender.sent.get(0).device);
+        assertEquals("AA:03", sender.sent.get(1).device);
+        assertEquals("AA:04", sender.sent.get(2).device);
+        assertEquals("{\"command\":\"off\"}", sender.sent.get(0).getBody());
+        recovered.close();
+
+        // Everything was sent, so a fresh start has nothing left
+        assertEquals(0, open(log, new Outbox.Config(), sender).pendingCount());
+    }
+
+    @Test
+    public void laterUpdateIsMergedIntoPendingOne() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        Outbox outbox = open(log, new Outbox.Config(), sender);
+
+        Outbox.Item rename = outbox.enqueue("update", "12", "{\"friendly_name\":\"Pool\"}", "update:12");
+        Outbox.Item thresholds = outbox.enqueue("update", "12", "{\"low_threshold\":24.0}", "update:12");
+        outbox.enqueue("update", "13", "{\"friendly_name\":\"Spa\"}", "update:13");
+        Outbox.Item renameAgain = outbox.enqueue("update", "12", "{\"friendly_name\":\"Big pool\"}", "update:12");
+
+        assertSame(rename, thresholds);
+        assertSame(rename, renameAgain);
+        assertEquals(2, outbox.pendingCount());
+        // Nothing the user set is lost
+        assertEquals("{\"friendly_name\":\"Big pool\",\"low_threshold\":24.0}", rename.getBody());
+        outbox.close();
+
+        // The merge survives a restart
+        Outbox recovered = open(log, new Outbox.Config(), sender);
+        recovered.setOnline(true);
+        waitFor(recovered, 0);
+        // Still in the order the changes were first made
+        assertEquals("12", sender.sent.get(0).device);
+        assertEquals("{\"friendly_name\":\"Big pool\",\"low_threshold\":24.0}", sender.sent.get(0).getBody());
+        assertEquals("13", sender.sent.get(1).device);
+        recovered.close();
+    }
+
+    @Test
+    public void neverCollapsesAcrossALaterChangeToTheDevice() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        Outbox outbox = open(log, new Outbox.Config(), sender);
+
+        Outbox.Item rename = outbox.enqueue("update", "12", "{\"friendly_name\":\"Pool\"}", "update:12");
+        outbox.enqueue("command", "12", "{\"command\":\"pump_on\"}", null);
+        Outbox.Item renameAgain = outbox.enqueue("update", "12", "{\"friendly_name\":\"Big pool\"}", "update:12");
+
+        assertNotSame(rename, renameAgain);
+        assertEquals(3, outbox.pendingCount());
+        assertEquals("{\"friendly_name\":\"Pool\"}", rename.getBody());
+
+        outbox.setOnline(true);
+        waitFor(outbox, 0);
+        assertEquals("update", sender.sent.get(0).type);
+        assertEquals("command", sender.sent.get(1).type);
+        assertEquals("{\"friendly_name\":\"Big pool\"}", sender.sent.get(2).getBody());
+        outbox.close();
+    }
+
+    @Test
+    public void failedSendsBackOffExponentially() throws Exception {
+        List<Long> attempts = new CopyOnWriteArrayList<>();
+        Outbox.Sender flaky = item -> {
+            attempts.add(System.nanoTime());
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            if (attempts.size() < 4) {
+                result.completeExceptionally(new IOException("Unable to resolve host"));
+            } else {
+                result.complete(null);
+            }
+            return result;
+        };
+        Outbox outbox = open(log, new Outbox.Config().setBaseBackoffMs(20).setMaxBackoffMs(1000), flaky);
+        Outbox.Item item = outbox.enqueue("delete", "AA:01", null, null);
+
+        outbox.setOnline(true);
+        waitFor(outbox, 0);
+        assertEquals(4, item.getAttempts());
+        assertEquals(Outbox.Status.SENT, item.getStatus());
+        // 20, 40, 80 ms apart
+        for (int i = 1; i < attempts.size(); i++) {
+            long gapMs = (attempts.get(i) - attempts.get(i - 1)) / 1000000;
+            assertTrue("gap " + i + " was " + gapMs + "ms", gapMs >= 20L << (i - 1));
+        }
+        assertEquals(20, outbox.backoff(1));
+        assertEquals(1000, outbox.backoff(20));
+        outbox.close();
+    }
+
+    @Test
+    public void rejectedItemDoesNotHoldUpTheRest() throws Exception {
+        AtomicInteger sends = new AtomicInteger();
+        Outbox.Sender sender = item -> {
+            sends.incrementAndGet();
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            if ("AA:01".equals(item.device)) {
+                result.completeExceptionally(new ApiPipeline.ApiException(404, "Device not found"));
+            } else {
+                result.complete(null);
+            }
+            return result;
+        };
+        Outbox outbox = open(log, new Outbox.Config(), sender);
+        Outbox.Item rejected = outbox.enqueue("delete", "AA:01", null, null);
+        Outbox.Item next = outbox.enqueue("delete", "AA:02", null, null);
+
+        outbox.setOnline(true);
+        waitFor(outbox, 0);
+        assertEquals(Outbox.Status.FAILED, rejected.getStatus());
+        assertEquals("Device not found", rejected.getLastError());
+        assertEquals(Outbox.Status.SENT, next.getStatus());
+        assertEquals(2, sends.get());
+        outbox.close();
+    }
+
+    @Test
+    public void unauthorizedHoldsTheOutboxUntilSignedInAgain() throws Exception {
+        AtomicInteger sends = new AtomicInteger();
+        AtomicInteger denials = new AtomicInteger(1);
+        Outbox.Sender sender = item -> {
+            sends.incrementAndGet();
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            if (denials.getAndDecrement() > 0) {
+                result.completeExceptionally(new ApiPipeline.ApiException(401, "Invalid API key"));
+            } else {
+                result.complete(null);
+            }
+            return result;
+        };
+        Outbox outbox = open(log, new Outbox.Config(), sender);
+        Outbox.Item first = outbox.enqueue("delete", "AA:01", null, null);
+        Outbox.Item second = outbox.enqueue("delete", "AA:02", null, null);
+
+        outbox.setOnline(true);
+        assertFalse(outbox.isAuthorized());
+        assertEquals(Outbox.Status.PENDING, first.getStatus());
+        assertEquals("Invalid API key", first.getLastError());
+        assertEquals(2, outbox.pendingCount());
+        assertEquals(1, sends.get());
+
+        // Reconnecting alone doesn't help
+        outbox.setOnline(true);
+        assertEquals(1, sends.get());
+
+        outbox.setAuthorized(true);
+        waitFor(outbox, 0);
+        assertEquals(Outbox.Status.SENT, first.getStatus());
+        assertEquals(Outbox.Status.SENT, second.getStatus());
+        assertEquals(3, sends.get());
+        outbox.close();
+    }
+
+    @Test
+    public void clearDropsEverything() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        Outbox outbox = open(log, new Outbox.Config(), sender);
+        outbox.enqueue("command", "AA:01", "{\"command\":\"off\"}", null);
+        outbox.clear();
+        outbox.setOnline(true);
+
+        assertFalse(outbox.hasPending());
+        assertTrue(sender.sent.isEmpty());
+        outbox.close();
+        assertEquals(0, open(log, new Outbox.Config(), sender).pendingCount());
+    }
+
+    @Test
+    public void changesMadeWhileTheLogIsReadGoBehindIt() throws Exception {
+        Outbox before = open(log, new Outbox.Config(), new RecordingSender());
+        before.enqueue("command", "AA:01", "{\"command\":\"off\"}", null);
+        before.enqueue("command", "AA:02", "{\"command\":\"off\"}", null);
+        before.close();
+
+        // Hold the disk thread so the log isn't read until the test says so
+        ExecutorService disk = Executors.newSingleThreadExecutor();
+        CountDownLatch reading = new CountDownLatch(1);
+        disk.execute(() -> {
+            try {
+                reading.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        RecordingSender sender = new RecordingSender();
+        Outbox outbox = new Outbox(log, new Outbox.Config(), sender, disk);
+        outbox.setOnline(true);
+
+        // Nothing known yet, but it must not look empty or a live call would jump the queue
+        assertTrue(outbox.hasPending());
+        Outbox.Item newer = outbox.enqueue("command", "AA:03", "{\"command\":\"on\"}", null);
+        assertTrue(sender.sent.isEmpty());
+
+        reading.countDown();
+        outbox.opened().get(5, TimeUnit.SECONDS);
+        waitFor(outbox, 0);
+        assertEquals(3, sender.sent.size());
+        assertEquals("AA:01", sender.sent.get(0).device);
+        assertEquals("AA:02", sender.sent.get(1).device);
+        assertSame(newer, sender.sent.get(2));
+        // The seq it was given while the log was unread is still its own
+        assertEquals(3, new HashSet<>(Arrays.asList(sender.sent.get(0).seq, sender.sent.get(1).seq, newer.seq)).size());
+        assertSame(newer, outbox.getItem(newer.seq));
+        outbox.close();
+        disk.shutdown();
+
+        assertEquals(0, open(log, new Outbox.Config(), sender).pendingCount());
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void replayThroughput() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        Outbox outbox = open(log, new Outbox.Config(), sender);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < REPLAY_ITEMS; i++) {
+            outbox.enqueue("command", "AA:" + i, "{\"command\":\"off\"}", null);
+        }
+        double enqueueMs = (System.nanoTime() - start) / 1e6;
+        outbox.close();
+
+        // Reload from disk, as after a restart, then replay everything
+        start = System.nanoTime();
+        Outbox reloaded = open(log, new Outbox.Config(), sender);
+        double loadMs = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        reloaded.setOnline(true);
+        waitFor(reloaded, 0);
+        double replayMs = (System.nanoTime() - start) / 1e6;
+
+        System.out.println(String.format("%d items: enqueue %.3f ms/item, load %.1f ms, replay %.0f items/s",
+                REPLAY_ITEMS, enqueueMs / REPLAY_ITEMS, loadMs, REPLAY_ITEMS / (replayMs / 1000)));
+
+        assertEquals(REPLAY_ITEMS, sender.sent.size());
+        List<String> order = new ArrayList<>();
+        for (Outbox.Item item : sender.sent) {
+            order.add(item.device);
+        }
+        for (int i = 0; i < REPLAY_ITEMS; i++) {
+            assertEquals("AA:" + i, order.get(i));
+        }
+        reloaded.close();
+        // Finished records are compacted away
+        assertTrue(log.length() < 1024);
+    }
+}
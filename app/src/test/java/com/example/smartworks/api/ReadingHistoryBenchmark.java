@@ -0,0 +1,164 @@
+package com.example.smartworks.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.smartworks.Benchmark;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Paged, streamed readings history decoded into columns, versus the old path
+ * that decoded every row into a DeviceReading in one List. Reports decode
+ * throughput, bytes allocated and heap retained for a year-plus of 5-minute
+ * samples.
+ */
+public class ReadingHistoryBenchmark {
+    private static final int ROWS = Integer.getInteger("readings.bench.rows", 1_000_000);
+    private static final int PAGE_SIZE = Integer.getInteger("readings.bench.page", 10_000);
+
+    private final Gson gson = new Gson();
+
+    // The old response shape
+    private static class LegacyResponse {
+        String status;
+        List<SmartWorksApiService.DeviceReading> readings;
+    }
+
+    /**
+     * Serves header, then rows repeated times over, then footer, without
+     * copying: a million-row body never sits in memory as one string, and
+     * building it costs neither path anything
+     */
+    private static class RepeatingReader extends Reader {
+        private final char[][] parts;
+        private int part;
+        private int offset;
+
+        RepeatingReader(String header, char[] rows, int times, String footer) {
+            parts = new char[times * 2 + 2][];
+            parts[0] = header.toCharArray();
+            char[] comma = {','};
+            for (int i = 0; i < times; i++) {
+                parts[1 + i * 2] = i == 0 ? new char[0] : comma;
+                parts[2 + i * 2] = rows;
+            }
+            parts[parts.length - 1] = footer.toCharArray();
+        }
+
+        @Override
+        public int read(char[] buffer, int off, int len) {
+            while (part < parts.length && offset == parts[part].length) {
+                part++;
+                offset = 0;
+            }
+            if (part == parts.length) {
+                return -1;
+            }
+            int n = Math.min(len, parts[part].length - offset);
+            System.arraycopy(parts[part], offset, buffer, off, n);
+            offset += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void pagedColumnsVersusOneList() throws Exception {
+        // One page of rows, rendered once and served over and over
+        char[] page = ReadingHistoryTest.rows(0, PAGE_SIZE).toCharArray();
+        String header = ReadingHistoryTest.HEADER;
+        String end = ReadingHistoryTest.footer(null);
+        int pages = ROWS / PAGE_SIZE;
+        int rows = pages * PAGE_SIZE;
+        for (int i = 0; i < 3; i++) {
+            gson.fromJson(new RepeatingReader(header, page, 1, end), LegacyResponse.class);
+            ReadingsDecoder.decode(new RepeatingReader(header, page, 1, end), PAGE_SIZE);
+        }
+
+        // Old path: every row a DeviceReading with its own strings, all in one list
+        System.gc();
+        long heapBefore = usedHeap();
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        LegacyResponse legacy = gson.fromJson(new RepeatingReader(header, page, pages, end),
+                LegacyResponse.class);
+        double sum = 0;
+        for (SmartWorksApiService.DeviceReading reading : legacy.readings) {
+            sum += reading.temperature;
+        }
+        long legacyNs = System.nanoTime() - start;
+        long legacyAllocated = allocatedBytes() - allocatedBefore;
+        System.gc();
+        long legacyRetained = usedHeap() - heapBefore;
+        assertEquals(rows, legacy.readings.size());
+        legacy = null;
+
+        // New path: one columnar page at a time, folded as it arrives
+        int[] served = {0};
+        ReadingHistory history = new ReadingHistory(cursor -> {
+            served[0]++;
+            String next = served[0] < pages ? String.valueOf(served[0]) : null;
+            Reader body = new RepeatingReader(header, page, 1, ReadingHistoryTest.footer(next));
+            try {
+                return CompletableFuture.completedFuture(SmartWorksApiService.ApiResult.success("ok",
+                        ReadingsDecoder.decode(body, PAGE_SIZE)));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        double[] pagedSum = {0};
+        System.gc();
+        allocatedBefore = allocatedBytes();
+        start = System.nanoTime();
+        SmartWorksApiService.ApiResult<Long> result = history.forEachPage(block -> {
+            for (float temperature : block.temperatures) {
+                pagedSum[0] += temperature;
+            }
+        }).get();
+        long pagedNs = System.nanoTime() - start;
+        long pagedAllocated = allocatedBytes() - allocatedBefore;
+        assertEquals(rows, (long) result.data);
+
+        // Even kept whole, the columns are 12 bytes a row
+        long columnBytes = (long) rows * (Long.BYTES + Float.BYTES);
+        System.out.println(String.format("%-24s %9.0f rows/s %7.1f B/row allocated %7.1f MB retained",
+                "one List<DeviceReading>", rows / (legacyNs / 1e9), (double) legacyAllocated / rows,
+                legacyRetained / 1e6));
+        System.out.println(String.format("%-24s %9.0f rows/s %7.1f B/row allocated %7.1f MB retained"
+                        + " per page, %.1f MB for all %d pages",
+                "paged columns", rows / (pagedNs / 1e9), (double) pagedAllocated / rows,
+                PAGE_SIZE * (Long.BYTES + Float.BYTES) / 1e6, columnBytes / 1e6, history.getPages()));
+
+        assertEquals(sum, pagedSum[0], rows * 1e-3);
+        if (legacyRetained > 0) {
+            assertTrue("columns should retain less than row objects", columnBytes < legacyRetained);
+        }
+        if (legacyAllocated > 0 && pagedAllocated > 0) {
+            assertTrue("columns should allocate less than row objects", pagedAllocated < legacyAllocated);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
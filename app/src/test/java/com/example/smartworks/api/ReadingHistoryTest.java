@@ -0,0 +1,138 @@
+package com.example.smartworks.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class ReadingHistoryTest {
+    // 2026-01-01 00:00:00 UTC
+    static final long START_MS = 1767225600000L;
+    static final long STEP_MS = 5 * 60 * 1000;
+    private static final SimpleDateFormat TIMESTAMP = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+
+    static {
+        TIMESTAMP.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    static final String HEADER = "{\"status\":\"ok\",\"readings\":[";
+
+    static String footer(String nextCursor) {
+        return "],\"next_cursor\":" + (nextCursor != null ? "\"" + nextCursor + "\"" : "null") + "}";
+    }
+
+    // Rows [first, first + count) as get_readings.php lists them, comma separated
+    static String rows(int first, int count) {
+        StringBuilder out = new StringBuilder(count * 120);
+        for (int row = first; row < first + count; row++) {
+            if (row > first) {
+                out.append(',');
+            }
+            out.append("{\"id\":").append(row + 1)
+                    .append(",\"device_id\":\"AA:BB:CC:DD:EE:01\",\"user_id\":7,\"temperature\":")
+                    .append(temperatureOf(row))
+                    .append(",\"timestamp\":\"").append(timestampOf(row)).append("\"}");
+        }
+        return out.toString();
+    }
+
+    static float temperatureOf(int row) {
+        return 20 + (row % 100) / 10f;
+    }
+
+    // "yyyy-MM-dd HH:mm:ss" in UTC, as MySQL hands it to the backend
+    static synchronized String timestampOf(int row) {
+        return TIMESTAMP.format(new Date(START_MS + row * STEP_MS));
+    }
+
+    /** Pages of rows [0, total) served from the generator, cursor = next row */
+    static ReadingHistory.PageLoader generated(int total, int pageSize) {
+        return cursor -> {
+            int first = cursor == null ? 0 : Integer.parseInt(cursor);
+            int count = Math.min(pageSize, total - first);
+            String next = first + count < total ? String.valueOf(first + count) : null;
+            try {
+                ReadingBlock page = ReadingsDecoder.decode(
+                        new StringReader(HEADER + rows(first, count) + footer(next)), pageSize);
+                return CompletableFuture.completedFuture(
+                        SmartWorksApiService.ApiResult.success("Readings retrieved successfully", page));
+            } catch (IOException e) {
+                CompletableFuture<SmartWorksApiService.ApiResult<ReadingBlock>> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+        };
+    }
+
+    @Test
+    public void followsTheCursorToTheLastPage() throws Exception {
+        ReadingHistory history = new ReadingHistory(generated(25, 10));
+        List<Integer> sizes = new ArrayList<>();
+        long[] last = {Long.MIN_VALUE};
+
+        SmartWorksApiService.ApiResult<Long> result = history.forEachPage(page -> {
+            sizes.add(page.size());
+            // Pages come in order, oldest first
+            assertTrue(page.firstTimeMs() > last[0]);
+            last[0] = page.lastTimeMs();
+        }).get(5, TimeUnit.SECONDS);
+
+        assertTrue(result.success);
+        assertEquals(25L, (long) result.data);
+        assertEquals(3, sizes.size());
+        assertEquals(5, (int) sizes.get(2));
+        assertEquals(START_MS + 24 * STEP_MS, last[0]);
+        assertFalse(history.hasNext());
+    }
+
+    @Test
+    public void failedPageIsRetriedFromTheSameCursor() throws Exception {
+        ReadingHistory.PageLoader pages = generated(30, 10);
+        List<String> cursors = new ArrayList<>();
+        boolean[] failOnce = {true};
+        ReadingHistory history = new ReadingHistory(cursor -> {
+            cursors.add(cursor);
+            if ("10".equals(cursor) && failOnce[0]) {
+                failOnce[0] = false;
+                CompletableFuture<SmartWorksApiService.ApiResult<ReadingBlock>> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new IOException("timeout"));
+                return failed;
+            }
+            return pages.load(cursor);
+        });
+
+        assertTrue(history.next().get().success);
+        SmartWorksApiService.ApiResult<ReadingBlock> failed = history.next().get();
+        assertFalse(failed.success);
+        assertEquals("Network error: timeout", failed.message);
+        assertTrue(history.hasNext());
+
+        assertTrue(history.forEachPage(page -> { }).get(5, TimeUnit.SECONDS).success);
+        assertEquals(30, history.getRows());
+        assertEquals("10", cursors.get(1));
+        assertEquals("10", cursors.get(2));
+    }
+
+    @Test
+    public void cursorThatDoesNotAdvanceEndsTheHistory() throws Exception {
+        ReadingHistory history = new ReadingHistory(cursor -> CompletableFuture.completedFuture(
+                SmartWorksApiService.ApiResult.success("ok", new ReadingBlock(
+                        new long[] {1}, new float[] {1}, "same", 0, "ok", null))));
+
+        assertTrue(history.next().get().success);
+        assertTrue(history.next().get().success);
+        assertFalse(history.hasNext());
+        assertEquals(2, history.getPages());
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.smartworks.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.gson.JsonSyntaxException;
+import java.io.StringReader;
+import org.junit.Test;
+
+public class ReadingsDecoderTest {
+    @Test
+    public void decodesRowsIntoColumns() throws Exception {
+        String json = "{\"status\":\"ok\",\"next_cursor\":\"r-3\",\"readings\":["
+                + "{\"id\":1,\"device_id\":\"AA\",\"temperature\":26.4,\"timestamp\":\"2026-10-01 12:00:00\"},"
+                + "{\"id\":2,\"temperature\":\"26.5\",\"timestamp\":\"2026-10-01T12:05:00Z\"},"
+                + "{\"id\":3,\"temperature\":null,\"timestamp\":\"2026-10-01 12:10:00\"},"
+                + "{\"id\":4,\"temperature\":26.7,\"timestamp\":\"yesterday\"},"
+                + "{\"id\":5,\"temperature\":26.8,\"timestamp\":1790856900,\"extra\":[1,2]}]}";
+        ReadingBlock page = ReadingsDecoder.decode(new StringReader(json), 2);
+
+        assertEquals("ok", page.status);
+        assertEquals("r-3", page.nextCursor);
+        assertEquals(3, page.size());
+        assertEquals(2, page.skipped);
+        assertEquals(1790856000000L, page.timesMs[0]);
+        assertEquals(1790856300000L, page.timesMs[1]);
+        assertEquals(1790856900000L, page.timesMs[2]);
+        assertEquals(26.4f, page.temperatures[0], 0);
+        assertEquals(26.5f, page.temperatures[1], 0);
+        assertEquals(26.8f, page.temperatures[2], 0);
+
+        ReadingBlock error = ReadingsDecoder.decode(
+                new StringReader("{\"status\":\"error\",\"message\":\"Device not found\"}"), 100);
+        assertEquals("Device not found", error.message);
+        assertTrue(error.isEmpty());
+        assertEquals(null, ReadingsDecoder.decode(new StringReader("{\"status\":\"ok\",\"readings\":[],"
+                + "\"next_cursor\":\"\"}"), 0).nextCursor);
+    }
+
+    @Test
+    public void unreadableValuesSkipTheRowNotThePage() throws Exception {
+        String json = "{\"status\":\"ok\",\"readings\":["
+                + "{\"id\":1,\"temperature\":\"\",\"timestamp\":\"2026-10-01 12:00:00\"},"
+                + "{\"id\":2,\"temperature\":26.5,\"timestamp\":1790856300.5},"
+                + "{\"id\":3,\"temperature\":\"n/a\",\"timestamp\":\"2026-10-01 12:10:00\"},"
+                + "{\"id\":4,\"temperature\":26.7,\"timestamp\":\"2026-10-01 12:15:00\"}]}";
+        ReadingBlock page = ReadingsDecoder.decode(new StringReader(json), 4);
+
+        assertEquals(1, page.size());
+        assertEquals(3, page.skipped);
+        assertEquals(1790856900000L, page.timesMs[0]);
+        assertEquals(26.7f, page.temperatures[0], 0);
+    }
+
+    @Test
+    public void rejectsWhatIsNotAReadingsPage() throws Exception {
+        try {
+            ReadingsDecoder.decode(new StringReader("<html>Fatal error</html>"), 10);
+            fail("expected a syntax error");
+        } catch (JsonSyntaxException expected) {
+            // Mapped to "Invalid response from server" by the service
+        }
+    }
+
+    @Test
+    public void parsesTimestampsOnce() {
+        assertEquals(1790856000000L, ReadingsDecoder.parseTimestamp("2026-10-01 12:00:00"));
+        assertEquals(1790856000250L, ReadingsDecoder.parseTimestamp("2026-10-01T12:00:00.25"));
+        assertEquals(1790856000000L, ReadingsDecoder.parseTimestamp("2026-10-01T14:00:00+02:00"));
+        assertEquals(1790856000000L, ReadingsDecoder.parseTimestamp("2026-10-01T07:30-0430"));
+        assertEquals(1790856000000L, ReadingsDecoder.parseTimestamp("1790856000"));
+        assertEquals(1790856000000L, ReadingsDecoder.parseTimestamp("1790856000000"));
+        assertEquals(951782400000L, ReadingsDecoder.parseTimestamp("2000-02-29 00:00:00"));
+        assertEquals(0L, ReadingsDecoder.parseTimestamp("1970-01-01 00:00:00"));
+        assertEquals(ReadingsDecoder.INVALID, ReadingsDecoder.parseTimestamp("2026-13-01 00:00:00"));
+        // Days that don't exist in their month
+        assertEquals(ReadingsDecoder.INVALID, ReadingsDecoder.parseTimestamp("2026-02-31 00:00:00"));
+        assertEquals(ReadingsDecoder.INVALID, ReadingsDecoder.parseTimestamp("2026-04-31 00:00:00"));
+        assertEquals(ReadingsDecoder.INVALID, ReadingsDecoder.parseTimestamp("2026-02-29 00:00:00"));
+        assertEquals(ReadingsDecoder.INVALID, ReadingsDecoder.parseTimestamp("1900-02-29 00:00:00"));
+        assertEquals(1709164800000L, ReadingsDecoder.parseTimestamp("2024-02-29 00:00:00"));
+        assertEquals(1798675200000L, ReadingsDecoder.parseTimestamp("2026-12-31 00:00:00"));
+        assertEquals(ReadingsDecoder.INVALID, ReadingsDecoder.parseTimestamp("2026-10-01 25:00:00"));
+        assertEquals(ReadingsDecoder.INVALID, ReadingsDecoder.parseTimestamp("2026-10-01 12:00:00 PM"));
+        assertEquals(ReadingsDecoder.INVALID, ReadingsDecoder.parseTimestamp(""));
+        for (int row = 0; row < 3000; row += 97) {
+            assertEquals(ReadingHistoryTest.START_MS + row * ReadingHistoryTest.STEP_MS, ReadingsDecoder.parseTimestamp(ReadingHistoryTest.timestampOf(row)));
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.smartworks.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class RequestSchedulerTest {
+
+    /** Calls that only finish when the test says so, remembering start order */
+    private static class Calls {
+        final List<String> started = new ArrayList<>();
+        final List<CompletableFuture<String>> running = new ArrayList<>();
+
+        synchronized CompletableFuture<String> start(String name) {
+            started.add(name);
+            CompletableFuture<String> call = new CompletableFuture<>();
+            running.add(call);
+            return call;
+        }
+
+        void finishFirst() {
+            CompletableFuture<String> call;
+            synchronized (this) {
+                call = running.remove(0);
+            }
+            call.complete("done");
+        }
+    }
+
+    private static CompletableFuture<String> submit(RequestScheduler scheduler, Calls calls,
+                                                    RequestScheduler.Priority priority, String name) {
+        return scheduler.submit(priority, () -> calls.start(name));
+    }
+
+    @Test
+    public void interactiveOvertakesQueuedBackgroundWork() throws Exception {
+        Calls calls = new Calls();
+        RequestScheduler scheduler = new RequestScheduler(new RequestScheduler.Config()
+                .setMaxConcurrent(1).setLimit(RequestScheduler.Priority.BACKGROUND, 1));
+
+        submit(scheduler, calls, RequestScheduler.Priority.BACKGROUND, "prefetch-1");
+        submit(scheduler, calls, RequestScheduler.Priority.BACKGROUND, "prefetch-2");
+        submit(scheduler, calls, RequestScheduler.Priority.NORMAL, "replay");
+        CompletableFuture<String> tap = submit(scheduler, calls, RequestScheduler.Priority.INTERACTIVE, "tap");
+        assertEquals(1, calls.started.size());
+
+        calls.finishFirst();
+        assertEquals("tap", calls.started.get(1));
+        calls.finishFirst();
+        assertEquals("done", tap.get(5, TimeUnit.SECONDS));
+        assertEquals("replay", calls.started.get(2));
+        calls.finishFirst();
+        assertEquals("prefetch-2", calls.started.get(3));
+
+        // prefetch-2 was passed over twice, replay once
+        assertEquals(2, scheduler.getMetrics(RequestScheduler.Priority.BACKGROUND).preempted);
+        assertEquals(1, scheduler.getMetrics(RequestScheduler.Priority.NORMAL).preempted);
+    }
+
+    @Test
+    public void backgroundStaysWithinItsLimit() {
+        Calls calls = new Calls();
+        RequestScheduler scheduler = new RequestScheduler(new RequestScheduler.Config()
+                .setMaxConcurrent(4).setLimit(RequestScheduler.Priority.BACKGROUND, 1));
+
+        for (int i = 0; i < 5; i++) {
+            submit(scheduler, calls, RequestScheduler.Priority.BACKGROUND, "prefetch-" + i);
+        }
+        assertEquals(1, calls.started.size());
+
+        // The rest of the slots are still there for the user
+        for (int i = 0; i < 3; i++) {
+            submit(scheduler, calls, RequestScheduler.Priority.INTERACTIVE, "tap-" + i);
+        }
+        assertEquals(4, calls.started.size());
+        RequestScheduler.LaneMetrics background = scheduler.getMetrics(RequestScheduler.Priority.BACKGROUND);
+        assertEquals(1, background.inFlight);
+        assertEquals(4, background.queued);
+        assertEquals(3, scheduler.getMetrics(RequestScheduler.Priority.INTERACTIVE).inFlight);
+    }
+
+    @Test
+    public void lastSlotIsKeptForInteractive() {
+        Calls calls = new Calls();
+        RequestScheduler scheduler = new RequestScheduler(new RequestScheduler.Config()
+                .setMaxConcurrent(3)
+                .setLimit(RequestScheduler.Priority.NORMAL, 3)
+                .setLimit(RequestScheduler.Priority.BACKGROUND, 3));
+
+        for (int i = 0; i < 3; i++) {
+            submit(scheduler, calls, RequestScheduler.Priority.NORMAL, "replay-" + i);
+            submit(scheduler, calls, RequestScheduler.Priority.BACKGROUND, "prefetch-" + i);
+        }
+        // Limits that add up to more than maxConcurrent still leave one slot free
+        assertEquals(2, calls.started.size());
+
+        submit(scheduler, calls, RequestScheduler.Priority.INTERACTIVE, "tap");
+        assertEquals("tap", calls.started.get(2));
+        assertEquals(1, scheduler.getMetrics(RequestScheduler.Priority.NORMAL).inFlight);
+        assertEquals(1, scheduler.getMetrics(RequestScheduler.Priority.BACKGROUND).inFlight);
+    }
+
+    @Test
+    public void interactiveLimitFollowsMaxConcurrent() {
+        Calls calls = new Calls();
+        RequestScheduler scheduler = new RequestScheduler(new RequestScheduler.Config().setMaxConcurrent(6));
+
+        for (int i = 0; i < 8; i++) {
+            submit(scheduler, calls, RequestScheduler.Priority.INTERACTIVE, "tap-" + i);
+        }
+        assertEquals(6, calls.started.size());
+    }
+
+    @Test
+    public void cancelledWhileQueuedNeverStarts() {
+        Calls calls = new Calls();
+        RequestScheduler scheduler = new RequestScheduler(new RequestScheduler.Config().setMaxConcurrent(1));
+
+        submit(scheduler, calls, RequestScheduler.Priority.NORMAL, "first");
+        CompletableFuture<String> dropped = submit(scheduler, calls, RequestScheduler.Priority.NORMAL, "dropped");
+        submit(scheduler, calls, RequestScheduler.Priority.NORMAL, "third");
+        dropped.cancel(true);
+        assertEquals(1, scheduler.getMetrics(RequestScheduler.Priority.NORMAL).queued);
+
+        calls.finishFirst();
+        assertEquals(2, calls.started.size());
+        assertEquals("third", calls.started.get(1));
+        assertEquals(0, scheduler.getMetrics(RequestScheduler.Priority.NORMAL).queued);
+    }
+
+    @Test
+    public void cancellingARunningCallCancelsIt() {
+        Calls calls = new Calls();
+        RequestScheduler scheduler = new RequestScheduler(new RequestScheduler.Config().setMaxConcurrent(1));
+
+        CompletableFuture<String> first = submit(scheduler, calls, RequestScheduler.Priority.NORMAL, "first");
+        submit(scheduler, calls, RequestScheduler.Priority.NORMAL, "second");
+        CompletableFuture<String> running = calls.running.get(0);
+        first.cancel(true);
+
+        assertTrue(running.isCancelled());
+        // Its slot went to the next call
+        assertEquals("second", calls.started.get(1));
+    }
+
+    @Test
+    public void failedCallFreesItsSlot() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(new RequestScheduler.Config().setMaxConcurrent(1));
+
+        CompletableFuture<String> failing = scheduler.submit(RequestScheduler.Priority.NORMAL, () -> {
+            throw new IllegalStateException("no client");
+        });
+        CompletableFuture<String> next = scheduler.submit(RequestScheduler.Priority.NORMAL,
+                () -> CompletableFuture.completedFuture("ok"));
+
+        assertTrue(failing.isCompletedExceptionally());
+        assertEquals("ok", next.get(5, TimeUnit.SECONDS));
+        assertEquals(0, scheduler.getMetrics(RequestScheduler.Priority.NORMAL).inFlight);
+    }
+
+    @Test
+    public void queueWaitIsMeasuredPerPriority() {
+        Calls calls = new Calls();
+        AtomicLong now = new AtomicLong(1000);
+        RequestScheduler scheduler = new RequestScheduler(
+                new RequestScheduler.Config().setMaxConcurrent(1), now::get);
+
+        submit(scheduler, calls, RequestScheduler.Priority.INTERACTIVE, "tap-1");
+        submit(scheduler, calls, RequestScheduler.Priority.BACKGROUND, "prefetch");
+        submit(scheduler, calls, RequestScheduler.Priority.INTERACTIVE, "tap-2");
+        now.addAndGet(40);
+        calls.finishFirst();
+        now.addAndGet(200);
+        calls.finishFirst();
+
+        RequestScheduler.LaneMetrics interactive = scheduler.getMetrics(RequestScheduler.Priority.INTERACTIVE);
+        RequestScheduler.LaneMetrics background = scheduler.getMetrics(RequestScheduler.Priority.BACKGROUND);
+        assertEquals(2, interactive.started);
+        assertEquals(40, interactive.maxWaitMs);
+        assertEquals(1, background.started);
+        assertEquals(240, background.maxWaitMs);
+        assertEquals(240, background.waitP95Ms);
+        assertFalse(scheduler.toString().isEmpty());
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.smartworks.api;
+
+import static org.junit.Assert.assertEquals;
+
+import com.example.smartworks.Benchmark;
+import java.io.IOException;
+import okhttp3.OkHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Login followed by device calls against a local mock backend, once with a
+ * separate client per manager (as before) and once with the shared backend
+ * client plus a newBuilder() derivation. Reports connects per session and
+ * cold versus warm request latency. The mock is plain HTTP, so each connect
+ * avoided here is a TCP handshake; against the real host it is a TLS
+ * handshake as well. BackendClientTest checks the sharing itself.
+ */
+public class SharedClientBenchmark {
+    private static final int WARM_CALLS = Integer.getInteger("sharedclient.bench.calls", 200);
+
+    private FakeBackend backend;
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new FakeBackend();
+        backend.respond("login.php", 200, "{\"status\":\"ok\",\"user_id\":7,\"api_key\":\"k\"}");
+    }
+
+    @After
+    public void tearDown() {
+        backend.close();
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void separateVersusSharedClients() throws Exception {
+        BackendClient.Stats separateStats = new BackendClient.Stats();
+        OkHttpClient separateAuth = new OkHttpClient.Builder().eventListener(separateStats).build();
+        OkHttpClient separateApi = new OkHttpClient.Builder().eventListener(separateStats).build();
+        Result separate = session(separateAuth, separateApi);
+
+        BackendClient.Stats sharedStats = new BackendClient.Stats();
+        OkHttpClient sharedAuth = BackendClient.newClient(sharedStats);
+        OkHttpClient sharedApi = sharedAuth.newBuilder().build();
+        Result shared = session(sharedAuth, sharedApi);
+
+        System.out.println(String.format("%-9s %2d connects  first device call %7.2f ms  warm %6.3f ms/call  (%s)",
+                "separate", separateStats.connects(), separate.coldMs, separate.warmMs, separateStats));
+        System.out.println(String.format("%-9s %2d connects  first device call %7.2f ms  warm %6.3f ms/call  (%s)",
+                "shared", sharedStats.connects(), shared.coldMs, shared.warmMs, sharedStats));
+
+        assertEquals(2, separateStats.connects());
+        assertEquals(1, sharedStats.connects());
+
+        separateAuth.connectionPool().evictAll();
+        separateApi.connectionPool().evictAll();
+        sharedAuth.connectionPool().evictAll();
+    }
+
+    private static class Result {
+        double coldMs;
+        double warmMs;
+    }
+
+    // Log in, then the first device call (cold for a separate client), then warm ones
+    private Result session(OkHttpClient auth, OkHttpClient api) throws IOException {
+        Result result = new Result();
+        call(auth, "login.php");
+
+        long start = System.nanoTime();
+        call(api, "api/get_user_devices.php");
+        result.coldMs = (System.nanoTime() - start) / 1e6;
+
+        start = System.nanoTime();
+        for (int i = 0; i < WARM_CALLS; i++) {
+            call(api, "api/get_user_devices.php");
+        }
+        result.warmMs = (System.nanoTime() - start) / 1e6 / WARM_CALLS;
+        return result;
+    }
+
+    private void call(OkHttpClient client, String path) throws IOException {
+        BackendClientTest.call(client, backend, path);
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.smartworks.api;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.example.smartworks.Benchmark;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import java.io.IOException;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * The same device list and readings page as JSON, gzipped JSON, MessagePack
+ * and gzipped MessagePack. Reports bytes on the wire and the time to go from
+ * those bytes to the API models, inflating included. WireFormatTest checks
+ * they all decode to the same values.
+ */
+public class WireFormatBenchmark {
+    private static final int DEVICES = Integer.getInteger("wire.bench.devices", 200);
+    private static final int ROWS = Integer.getInteger("wire.bench.rows", 10_000);
+    private static final int ITERATIONS = Integer.getInteger("wire.bench.iterations", 50);
+
+    private final Gson gson = new Gson();
+
+    private interface Decode {
+        Object run(JsonReader reader) throws IOException;
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void bytesAndDecodeTimePerFormat() throws Exception {
+        report("device list, " + DEVICES + " devices", FakeBackend.deviceListJson(DEVICES, 1),
+                reader -> gson.fromJson(reader, SmartWorksApiService.DeviceListResponse.class));
+        report("readings, " + ROWS + " rows", WireFormatTest.readingsPage(ROWS, String.valueOf(ROWS)),
+                reader -> ReadingsDecoder.decode(reader, ROWS));
+    }
+
+    private void report(String payload, String json, Decode decode) throws Exception {
+        System.out.println(payload);
+        long jsonBytes = 0;
+        long packedBytes = 0;
+        for (WireFormatTest.Format format : WireFormatTest.Format.values()) {
+            byte[] wire = format.encode(json);
+            for (int i = 0; i < ITERATIONS; i++) {
+                decodeOnce(format, wire, decode);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                decodeOnce(format, wire, decode);
+            }
+            double micros = (System.nanoTime() - start) / 1e3 / ITERATIONS;
+            System.out.println(String.format("  %-13s %9d bytes %6.1f%% of JSON %10.1f us/decode",
+                    format, wire.length, jsonBytes == 0 ? 100.0 : 100.0 * wire.length / jsonBytes, micros));
+            if (format == WireFormatTest.Format.JSON) {
+                jsonBytes = wire.length;
+            } else if (format == WireFormatTest.Format.MSGPACK) {
+                packedBytes = wire.length;
+            } else {
+                assertTrue(format + " should be smaller than uncompressed JSON", wire.length < jsonBytes);
+            }
+        }
+        assertTrue("MessagePack should be smaller than JSON", packedBytes < jsonBytes);
+    }
+
+    private static void decodeOnce(WireFormatTest.Format format, byte[] wire, Decode decode) throws IOException {
+        try (JsonReader reader = format.open(wire)) {
+            if (decode.run(reader) == null) {
+                fail("nothing decoded");
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.smartworks.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import okhttp3.MediaType;
+import org.junit.Test;
+
+/**
+ * The device list and a readings page decode to the same values from JSON,
+ * gzipped JSON, MessagePack and gzipped MessagePack
+ */
+public class WireFormatTest {
+    private final Gson gson = new Gson();
+
+    enum Format {
+        JSON(false, false),
+        JSON_GZIP(false, true),
+        MSGPACK(true, false),
+        MSGPACK_GZIP(true, true);
+
+        final boolean packed;
+        final boolean gzipped;
+
+        Format(boolean packed, boolean gzipped) {
+            this.packed = packed;
+            this.gzipped = gzipped;
+        }
+
+        byte[] encode(String json) throws IOException {
+            byte[] body = packed
+                    ? MessagePackReaderTest.pack(JsonParser.parseString(json))
+                    : json.getBytes(StandardCharsets.UTF_8);
+            return gzipped ? gzip(body) : body;
+        }
+
+        // What WireFormat.reader() builds from the response OkHttp hands back
+        JsonReader open(byte[] wire) throws IOException {
+            InputStream in = new ByteArrayInputStream(wire);
+            if (gzipped) {
+                in = new GZIPInputStream(in);
+            }
+            return packed ? new MessagePackReader(in) : new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        }
+    }
+
+    // A get_readings.php page of rows five minutes apart, from 2026-01-01 UTC
+    static String readingsPage(int rows, String nextCursor) {
+        SimpleDateFormat timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        timestamp.setTimeZone(TimeZone.getTimeZone("UTC"));
+        StringBuilder out = new StringBuilder(rows * 120).append("{\"status\":\"ok\",\"readings\":[");
+        for (int row = 0; row < rows; row++) {
+            if (row > 0) {
+                out.append(',');
+            }
+            out.append("{\"id\":").append(row + 1)
+                    .append(",\"device_id\":\"AA:BB:CC:DD:EE:01\",\"user_id\":7,\"temperature\":")
+                    .append(20 + (row % 100) / 10f)
+                    .append(",\"timestamp\":\"").append(timestamp.format(new Date(1767225600000L + row * 300_000L)))
+                    .append("\"}");
+        }
+        return out.append("],\"next_cursor\":")
+                .append(nextCursor != null ? "\"" + nextCursor + "\"" : "null").append('}').toString();
+    }
+
+    @Test
+    public void devicesDecodeTheSameFromEveryFormat() throws Exception {
+        String json = FakeBackend.deviceListJson(25, 3);
+        String expected = gson.toJson(gson.fromJson(json, SmartWorksApiService.DeviceListResponse.class));
+        for (Format format : Format.values()) {
+            try (JsonReader reader = format.open(format.encode(json))) {
+                SmartWorksApiService.DeviceListResponse list =
+                        gson.fromJson(reader, SmartWorksApiService.DeviceListResponse.class);
+                assertEquals(format.name(), expected, gson.toJson(list));
+                assertEquals(25, list.devices.size());
+                assertEquals("1.0.3", list.devices.get(24).firmwareVersion);
+            }
+        }
+    }
+
+    @Test
+    public void readingsDecodeTheSameFromEveryFormat() throws Exception {
+        String json = readingsPage(500, "500");
+        ReadingBlock expected = ReadingsDecoder.decode(new StringReader(json), 500);
+        for (Format format : Format.values()) {
+            try (JsonReader reader = format.open(format.encode(json))) {
+                ReadingBlock page = ReadingsDecoder.decode(reader, 500);
+                assertArrayEquals(format.name(), expected.timesMs, page.timesMs);
+                assertArrayEquals(format.name(), expected.temperatures, page.temperatures, 0f);
+                assertEquals("500", page.nextCursor);
+                assertEquals(0, page.skipped);
+            }
+        }
+    }
+
+    @Test
+    public void cutOffOrMisplacedPagesFail() throws Exception {
+        byte[] page = MessagePackReaderTest.pack(JsonParser.parseString(readingsPage(10, null)));
+        byte[] truncated = Arrays.copyOf(page, page.length / 2);
+        try {
+            ReadingsDecoder.decode(new MessagePackReader(new ByteArrayInputStream(truncated)), 10);
+            fail("expected EOFException");
+        } catch (EOFException expected) {
+            // A cut-off body is a network failure, as with JSON
+        }
+
+        // A packed status string where the page object should be
+        try {
+            ReadingsDecoder.decode(new MessagePackReader(new ByteArrayInputStream(
+                    MessagePackReaderTest.pack(new JsonPrimitive("ok")))), 10);
+            fail("expected JsonSyntaxException");
+        } catch (JsonSyntaxException expected) {
+            assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void packedBodiesAreRecognisedByContentType() {
+        assertTrue(WireFormat.isMessagePack(MediaType.get("application/msgpack")));
+        assertTrue(WireFormat.isMessagePack(MediaType.get("application/x-msgpack; charset=binary")));
+        assertFalse(WireFormat.isMessagePack(MediaType.get("application/json; charset=utf-8")));
+        assertFalse(WireFormat.isMessagePack(null));
+        assertTrue(WireFormat.ACCEPT.startsWith(WireFormat.MSGPACK));
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        }
+        return out.toByteArray();
+    }
+}
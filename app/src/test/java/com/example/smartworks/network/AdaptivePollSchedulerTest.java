@@ -0,0 +1,90 @@
+package com.example.smartworks.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class AdaptivePollSchedulerTest {
+
+    private static AdaptivePollScheduler.Config config() {
+        return new AdaptivePollScheduler.Config()
+                .setMinIntervalMs(10000)
+                .setBaseIntervalMs(30000)
+                .setMaxIntervalMs(120000)
+                .setStepMs(15000);
+    }
+
+    @Test
+    public void stableReadingsSlowDownUpToMax() {
+        AdaptivePollScheduler scheduler = new AdaptivePollScheduler(config());
+        long now = 0;
+        scheduler.onReading(26.0, now);
+        assertEquals(30000, scheduler.getIntervalMs());
+
+        for (int i = 0; i < 20; i++) {
+            now += scheduler.getIntervalMs();
+            scheduler.onReading(26.0, now);
+        }
+        assertEquals(120000, scheduler.getIntervalMs());
+        assertEquals("Readings stable", scheduler.getReason());
+    }
+
+    @Test
+    public void fastChangeSpeedsUpToMin() {
+        AdaptivePollScheduler scheduler = new AdaptivePollScheduler(config());
+        long now = 0;
+        double temperature = 20.0;
+        scheduler.onReading(temperature, now);
+
+        for (int i = 0; i < 5; i++) {
+            now += scheduler.getIntervalMs();
+            temperature += 1.0;
+            scheduler.onReading(temperature, now);
+        }
+        assertEquals(10000, scheduler.getIntervalMs());
+        assertTrue(scheduler.getReason().startsWith("Temperature changing"));
+    }
+
+    @Test
+    public void timeoutsBackOffExponentiallyWithJitterAndResetOnSuccess() {
+        AdaptivePollScheduler scheduler = new AdaptivePollScheduler(config(), new Random(42));
+
+        long previousCeiling = 0;
+        for (int attempt = 1; attempt <= 4; attempt++) {
+            scheduler.onFailure(AdaptivePollScheduler.Failure.TIMEOUT);
+            long ceiling = Math.min(30000L << attempt, 120000);
+            long interval = scheduler.getIntervalMs();
+            // Never faster than the normal interval
+            assertTrue("attempt " + attempt + " interval " + interval,
+                    interval >= Math.max(30000, ceiling / 2) && interval <= ceiling);
+            assertTrue(ceiling >= previousCeiling);
+            previousCeiling = ceiling;
+        }
+        assertEquals(4, scheduler.getConsecutiveFailures());
+
+        scheduler.onReading(25.0, 1000);
+        assertEquals(0, scheduler.getConsecutiveFailures());
+        assertEquals(30000, scheduler.getIntervalMs());
+    }
+
+    @Test
+    public void backoffNeverDropsBelowBaseWhenMaxIsClose() {
+        AdaptivePollScheduler scheduler = new AdaptivePollScheduler(config().setMaxIntervalMs(40000));
+        for (int attempt = 1; attempt <= 20; attempt++) {
+            scheduler.onFailure(AdaptivePollScheduler.Failure.CONNECT);
+            long interval = scheduler.getIntervalMs();
+            assertTrue("attempt " + attempt + " interval " + interval, interval >= 30000 && interval <= 40000);
+        }
+    }
+
+    @Test
+    public void otherErrorsDoNotBackOff() {
+        AdaptivePollScheduler scheduler = new AdaptivePollScheduler(config());
+        scheduler.onFailure(AdaptivePollScheduler.Failure.CONNECT);
+        scheduler.onFailure(AdaptivePollScheduler.Failure.OTHER);
+        assertEquals(30000, scheduler.getIntervalMs());
+        assertEquals("Device error", scheduler.getReason());
+    }
+}
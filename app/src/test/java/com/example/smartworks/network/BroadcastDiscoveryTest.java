@@ -0,0 +1,112 @@
+package com.example.smartworks.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the whole query/reply exchange against simulated devices on loopback:
+ * every responder listens on the wildcard address, so a broadcast to
+ * 127.255.255.255 reaches all of them, and each replies from its own 127.0.0.x.
+ */
+public class BroadcastDiscoveryTest {
+    private static final int DEVICES = 200;
+    private static final long WINDOW_MS = 1500;
+
+    private final List<BroadcastResponder> responders = new ArrayList<>();
+    private int port;
+
+    @Before
+    public void setUp() throws Exception {
+        FakeEsp32Device.assumeLoopbackSubnet();
+        try (DatagramSocket probe = new DatagramSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        for (int i = 1; i <= DEVICES; i++) {
+            responders.add(new BroadcastResponder(port, InetAddress.getByName("127.0.0." + i),
+                    String.format("pool_thermo_%03d", i), "1.0." + (i % 4), "Pool " + i, 80, 50));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (BroadcastResponder responder : responders) {
+            responder.close();
+        }
+    }
+
+    @Test
+    public void everyDeviceAnswersOneBroadcastOnce() throws Exception {
+        List<BroadcastDiscovery.Reply> replies = discovery().discover();
+
+        assertEquals(DEVICES, replies.size());
+        Set<String> ids = new HashSet<>();
+        Set<InetAddress> addresses = new HashSet<>();
+        long[] latencies = new long[replies.size()];
+        for (int i = 0; i < replies.size(); i++) {
+            BroadcastDiscovery.Reply reply = replies.get(i);
+            ids.add(reply.deviceId);
+            addresses.add(reply.address);
+            latencies[i] = reply.latencyMs;
+        }
+        // Both copies of the query were answered, duplicates are dropped
+        assertEquals(DEVICES, ids.size());
+        assertEquals(DEVICES, addresses.size());
+
+        BroadcastDiscovery.Reply seven = replies.stream()
+                .filter(reply -> reply.deviceId.equals("pool_thermo_007")).findFirst().get();
+        assertEquals("127.0.0.7", seven.hostAndPort());
+        assertEquals("Pool 7", seven.deviceName);
+        assertEquals("1.0.3", seven.firmwareVersion);
+
+        Arrays.sort(latencies);
+        assertTrue("last reply after " + latencies[DEVICES - 1] + "ms", latencies[DEVICES - 1] < WINDOW_MS);
+    }
+
+    @Test
+    public void returnsAsSoonAsExpectedDevicesHaveAnswered() throws Exception {
+        long start = System.nanoTime();
+        List<BroadcastDiscovery.Reply> replies = discovery().discover(DEVICES);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(DEVICES, replies.size());
+        assertTrue("took " + elapsedMs + "ms", elapsedMs < WINDOW_MS / 2);
+    }
+
+    @Test
+    public void ignoresStaleAndMalformedReplies() throws Exception {
+        InetAddress from = InetAddress.getByName("192.168.1.20");
+        byte[] reply = BroadcastDiscovery.encodeReply(42, 8080, "pool_thermo_01", "1.2.0", "Deck Pool");
+
+        BroadcastDiscovery.Reply decoded = BroadcastDiscovery.decodeReply(reply, reply.length, from, 42);
+        assertEquals("pool_thermo_01", decoded.deviceId);
+        assertEquals("192.168.1.20:8080", decoded.hostAndPort());
+
+        // Answer to an earlier query
+        assertNull(BroadcastDiscovery.decodeReply(reply, reply.length, from, 43));
+        // Cut short
+        assertNull(BroadcastDiscovery.decodeReply(reply, reply.length - 3, from, 42));
+        // A query is not a reply
+        byte[] query = BroadcastDiscovery.encodeQuery(42);
+        assertNull(BroadcastDiscovery.decodeReply(query, query.length, from, 42));
+        assertEquals(Integer.valueOf(42), BroadcastDiscovery.decodeQuery(query, query.length));
+    }
+
+    private BroadcastDiscovery discovery() {
+        return new BroadcastDiscovery(new BroadcastDiscovery.Config()
+                .setPort(port)
+                .setBroadcastAddress("127.255.255.255")
+                .setWindowMs(WINDOW_MS));
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.smartworks.network;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Stand-in for the device side of BroadcastDiscovery: listens for queries on
+ * the discovery port and answers each with this device's identity.
+ *
+ * Several responders can share the port on one machine. Give each its own
+ * replyAddress (e.g. 127.0.0.x) to make them look like separate hosts.
+ */
+public class BroadcastResponder implements AutoCloseable {
+    private final DatagramSocket listenSocket;
+    private final DatagramSocket replySocket;
+    private final String deviceId;
+    private final String firmwareVersion;
+    private final String deviceName;
+    private final int httpPort;
+    private final long maxReplyDelayMs;
+    private volatile boolean closed;
+
+    /**
+     * @param replyAddress    local address replies are sent from, null for the default
+     * @param maxReplyDelayMs replies are delayed by a random 0..max so a whole LAN
+     *                        of devices doesn't answer in the same instant
+     */
+    public BroadcastResponder(int port, InetAddress replyAddress, String deviceId, String firmwareVersion,
+                              String deviceName, int httpPort, long maxReplyDelayMs) throws IOException {
+        this.deviceId = deviceId;
+        this.firmwareVersion = firmwareVersion;
+        this.deviceName = deviceName;
+        this.httpPort = httpPort;
+        this.maxReplyDelayMs = maxReplyDelayMs;
+
+        listenSocket = new DatagramSocket(null);
+        listenSocket.setReuseAddress(true);
+        listenSocket.bind(new InetSocketAddress(port));
+        replySocket = replyAddress != null
+                ? new DatagramSocket(new InetSocketAddress(replyAddress, 0))
+                : listenSocket;
+
+        Thread thread = new Thread(this::serve, "BroadcastResponder-" + deviceId);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void serve() {
+        byte[] buffer = new byte[64];
+        while (!closed) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                listenSocket.receive(packet);
+                Integer nonce = BroadcastDiscovery.decodeQuery(packet.getData(), packet.getLength());
+                if (nonce == null) {
+                    continue;
+                }
+                if (maxReplyDelayMs > 0) {
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(maxReplyDelayMs + 1));
+                }
+                byte[] reply = BroadcastDiscovery.encodeReply(nonce, httpPort, deviceId, firmwareVersion, deviceName);
+                replySocket.send(new DatagramPacket(reply, reply.length, packet.getSocketAddress()));
+            } catch (IOException e) {
+                // Closed, or the querier went away
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        listenSocket.close();
+        replySocket.close();
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.smartworks.network;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assume;
+
+/**
+ * Local stand-in for an ESP32 pool monitor, serving /data on loopback,
+ * and optionally the /events Server-Sent Events stream
+ */
+public class FakeEsp32Device implements AutoCloseable {
+    public static final String DEFAULT_PAYLOAD = "{\"temperature_celsius\":26.4,\"temperature_fahrenheit\":79.5,"
+            + "\"sensor_found\":true,\"wifi_ssid\":\"PoolNet\",\"rssi\":-58,\"uptime_seconds\":86400,"
+            + "\"free_heap\":182344,\"device_name\":\"Pool Monitor\"}";
+
+    static {
+        // Without this the JDK server's split header/body writes hit delayed-ACK stalls on reused sockets
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final Set<Integer> remotePorts = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile String payload = DEFAULT_PAYLOAD;
+    private volatile long delayMillis = 0;
+    private volatile boolean eventsEnabled = false;
+    private final AtomicLong stallNext = new AtomicLong();
+    private final CopyOnWriteArrayList<BlockingQueue<String>> eventStreams = new CopyOnWriteArrayList<>();
+    private static final String END_OF_STREAM = "";
+
+    public FakeEsp32Device() throws IOException {
+        this("127.0.0.1", 0);
+    }
+
+    /**
+     * Skip the calling test unless every 127.0.0.x can be bound. Only Linux
+     * routes the whole 127/8 to loopback; macOS and Windows have just 127.0.0.1.
+     */
+    public static void assumeLoopbackSubnet() {
+        Assume.assumeTrue("127.0.0.x aliases need Linux", System.getProperty("os.name", "").startsWith("Linux"));
+    }
+
+    /** Listen on a specific loopback address and port, e.g. to stand in for one host of a subnet */
+    public FakeEsp32Device(String bindAddress, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(bindAddress, port), 64);
+        server.createContext("/data", this::handleData);
+        server.createContext("/events", this::handleEvents);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    private void handleData(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        remotePorts.add(exchange.getRemoteAddress().getPort());
+        long delay = Math.max(delayMillis, stallNext.getAndSet(0));
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        byte[] body = payload.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void handleEvents(HttpExchange exchange) throws IOException {
+        if (!eventsEnabled) {
+            // Older firmware: no such page
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+
+        BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            // Full snapshot first, then only what changes
+            writeEvent(out, payload);
+            eventStreams.add(queue);
+            while (true) {
+                String event = queue.take();
+                if (event == END_OF_STREAM) {
+                    break;
+                }
+                writeEvent(out, event);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // Client went away
+        } finally {
+            eventStreams.remove(queue);
+        }
+    }
+
+    private static void writeEvent(OutputStream out, String json) throws IOException {
+        out.write((": heartbeat\nevent: update\ndata: " + json + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /** Serve /events from now on, as firmware with push support does */
+    public void setEventsEnabled(boolean eventsEnabled) {
+        this.eventsEnabled = eventsEnabled;
+    }
+
+    /** Send a (partial) /data object to every connected event stream */
+    public void pushEvent(String json) {
+        for (BlockingQueue<String> queue : eventStreams) {
+            queue.add(json);
+        }
+    }
+
+    /** Close every open event stream, as a device reboot would */
+    public void dropEventStreams() {
+        for (BlockingQueue<String> queue : eventStreams) {
+            queue.add(END_OF_STREAM);
+        }
+    }
+
+    public int eventStreamCount() {
+        return eventStreams.size();
+    }
+
+    /** "127.0.0.1:port", usable anywhere the app expects a device IP */
+    public String host() {
+        return server.getAddress().getAddress().getHostAddress() + ":" + port();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public void setDelayMillis(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    /** Make only the next /data request hang, like a stalled connection */
+    public void stallNextRequest(long millis) {
+        stallNext.set(millis);
+    }
+
+    public int requestCount() {
+        return requests.get();
+    }
+
+    /** Number of distinct TCP connections the device has served */
+    public int connectionCount() {
+        return remotePorts.size();
+    }
+
+    public void resetCounters() {
+        requests.set(0);
+        remotePorts.clear();
+    }
+
+    @Override
+    public void close() {
+        dropEventStreams();
+        server.stop(0);
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.smartworks.network;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in for the mDNS responders in our ESP32 firmware: answers PTR, SRV,
+ * TXT and A questions on a multicast group over loopback
+ */
+public class FakeMdnsResponder implements AutoCloseable {
+    private static final long TTL_SECONDS = 120;
+
+    private final MulticastSocket socket;
+    private final InetSocketAddress group;
+    private final List<Advertised> services = new CopyOnWriteArrayList<>();
+    private final AtomicInteger queries = new AtomicInteger();
+    private volatile boolean includeAddress = true;
+    private volatile boolean closed;
+
+    private static class Advertised {
+        final String instance;
+        final String type;
+        final String hostName;
+        volatile InetAddress address;
+        final int port;
+        final Map<String, String> txt;
+
+        Advertised(String instance, String type, String hostName, InetAddress address, int port,
+                   Map<String, String> txt) {
+            this.instance = instance;
+            this.type = type;
+            this.hostName = hostName;
+            this.address = address;
+            this.port = port;
+            this.txt = txt;
+        }
+    }
+
+    public FakeMdnsResponder(String groupAddress, int port, NetworkInterface loopback) throws IOException {
+        group = new InetSocketAddress(groupAddress, port);
+        socket = new MulticastSocket(null);
+        socket.setReuseAddress(true);
+        socket.bind(new InetSocketAddress(port));
+        socket.setNetworkInterface(loopback);
+        socket.joinGroup(group, loopback);
+
+        Thread thread = new Thread(this::serve, "FakeMdnsResponder");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param label e.g. "Pool Monitor", advertised as "Pool Monitor.<type>"
+     */
+    public void advertise(String label, String type, String address, int port, String deviceId) throws IOException {
+        Map<String, String> txt = new LinkedHashMap<>();
+        txt.put("path", "/data");
+        if (deviceId != null) {
+            txt.put("id", deviceId);
+        }
+        String hostName = label.replace(' ', '-').toLowerCase() + ".local.";
+        services.add(new Advertised(label + "." + type, type, hostName, InetAddress.getByName(address), port, txt));
+    }
+
+    /** Leave A records out of answers, so browsers have to ask for them */
+    public void setIncludeAddress(boolean includeAddress) {
+        this.includeAddress = includeAddress;
+    }
+
+    /** The device got a new DHCP lease: announce its new address unprompted */
+    public void moveTo(String label, String address) throws IOException {
+        for (Advertised service : services) {
+            if (service.instance.startsWith(label + ".")) {
+                service.address = InetAddress.getByName(address);
+                DnsMessage announcement = response();
+                DnsMessage.Record record = DnsMessage.Record.a(service.hostName, service.address, TTL_SECONDS);
+                record.cacheFlush = true;
+                announcement.answers.add(record);
+                send(announcement);
+            }
+        }
+    }
+
+    /** The device is shutting down: send goodbye (TTL 0) records */
+    public void goodbye(String label) throws IOException {
+        for (Advertised service : services) {
+            if (service.instance.startsWith(label + ".")) {
+                services.remove(service);
+                DnsMessage announcement = response();
+                announcement.answers.add(DnsMessage.Record.ptr(service.type, service.instance, 0));
+                announcement.answers.add(DnsMessage.Record.srv(service.instance, service.hostName, service.port, 0));
+                send(announcement);
+            }
+        }
+    }
+
+    public int queryCount() {
+        return queries.get();
+    }
+
+    private void serve() {
+        byte[] buffer = new byte[9000];
+        while (!closed) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+                DnsMessage message = DnsMessage.decode(packet.getData(), packet.getLength());
+                if (!message.response) {
+                    queries.incrementAndGet();
+                    answer(message);
+                }
+            } catch (IOException e) {
+                // Closed, or a packet that isn't DNS
+            }
+        }
+    }
+
+    private void answer(DnsMessage query) throws IOException {
+        DnsMessage reply = response();
+        for (DnsMessage.Question question : query.questions) {
+            String name = DnsMessage.normalize(question.name);
+            for (Advertised service : services) {
+                if (question.type == DnsMessage.TYPE_PTR && name.equals(DnsMessage.normalize(service.type))) {
+                    reply.answers.add(DnsMessage.Record.ptr(service.type, service.instance, 4500));
+                    reply.additionals.add(DnsMessage.Record.srv(service.instance, service.hostName, service.port, TTL_SECONDS));
+                    reply.additionals.add(DnsMessage.Record.txt(service.instance, service.txt, 4500));
+                    if (includeAddress) {
+                        reply.additionals.add(DnsMessage.Record.a(service.hostName, service.address, TTL_SECONDS));
+                    }
+                } else if (question.type == DnsMessage.TYPE_SRV && name.equals(DnsMessage.normalize(service.instance))) {
+                    reply.answers.add(DnsMessage.Record.srv(service.instance, service.hostName, service.port, TTL_SECONDS));
+                } else if (question.type == DnsMessage.TYPE_TXT && name.equals(DnsMessage.normalize(service.instance))) {
+                    reply.answers.add(DnsMessage.Record.txt(service.instance, service.txt, 4500));
+                } else if (question.type == DnsMessage.TYPE_A && name.equals(DnsMessage.normalize(service.hostName))) {
+                    reply.answers.add(DnsMessage.Record.a(service.hostName, service.address, TTL_SECONDS));
+                }
+            }
+        }
+        if (!reply.answers.isEmpty()) {
+            send(reply);
+        }
+    }
+
+    private static DnsMessage response() {
+        DnsMessage message = new DnsMessage();
+        message.response = true;
+        return message;
+    }
+
+    private void send(DnsMessage message) throws IOException {
+        byte[] bytes = message.encode();
+        socket.send(new DatagramPacket(bytes, bytes.length, group));
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        socket.close();
+    }
+}
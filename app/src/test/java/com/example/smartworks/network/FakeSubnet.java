@@ -0,0 +1,98 @@
+package com.example.smartworks.network;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fake /24 on loopback (every 127.0.0.x routes to this machine, see
+ * FakeEsp32Device.assumeLoopbackSubnet) with a few devices, a couple of other
+ * web servers and some hosts that never answer a SYN, all on one port
+ */
+public class FakeSubnet implements AutoCloseable {
+    public static final int[] DEVICE_HOSTS = {10, 47, 131, 147, 200};
+    public static final int[] SILENT_HOSTS = {70, 71, 72, 73, 74};
+    // Hosts that accept a connection but aren't devices
+    public static final int OTHER_SERVERS = 2;
+
+    private final List<FakeEsp32Device> devices = new ArrayList<>();
+    private final List<AutoCloseable> others = new ArrayList<>();
+    private int port;
+
+    public FakeSubnet() throws IOException {
+        for (int host : DEVICE_HOSTS) {
+            FakeEsp32Device device = new FakeEsp32Device("127.0.0." + host, port);
+            device.setPayload(FakeEsp32Device.DEFAULT_PAYLOAD.replace("Pool Monitor", "Pool " + host));
+            port = device.port();
+            devices.add(device);
+        }
+
+        // Router admin page: a web server, but not a device
+        HttpServer router = HttpServer.create(new InetSocketAddress("127.0.0.50", port), 8);
+        router.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        router.start();
+        others.add(() -> router.stop(0));
+
+        // Something that accepts and hangs up without speaking HTTP
+        ServerSocket raw = new ServerSocket();
+        raw.bind(new InetSocketAddress("127.0.0.60", port));
+        Thread rawAcceptor = new Thread(() -> {
+            while (!raw.isClosed()) {
+                try {
+                    raw.accept().close();
+                } catch (IOException e) {
+                    // Closed
+                }
+            }
+        });
+        rawAcceptor.setDaemon(true);
+        rawAcceptor.start();
+        others.add(raw);
+
+        // Hosts that drop SYNs like an unused address on a real LAN: a listener
+        // that never accepts, with its backlog already full
+        for (int host : SILENT_HOSTS) {
+            ServerSocket silent = new ServerSocket();
+            silent.bind(new InetSocketAddress("127.0.0." + host, port), 1);
+            others.add(silent);
+            while (true) {
+                Socket filler = new Socket();
+                try {
+                    filler.connect(silent.getLocalSocketAddress(), 200);
+                    others.add(filler);
+                } catch (SocketTimeoutException e) {
+                    filler.close();
+                    break;
+                }
+            }
+        }
+    }
+
+    public int port() {
+        return port;
+    }
+
+    /** Every host of the /24, as seen from a phone at 127.0.0.1 */
+    public List<InetAddress> hosts() throws IOException {
+        return SubnetScanner.subnetHosts(InetAddress.getByName("127.0.0.1"), 24);
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (FakeEsp32Device device : devices) {
+            device.close();
+        }
+        for (AutoCloseable other : others) {
+            other.close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.smartworks.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class FleetPollerTest {
+    private FleetPoller poller;
+
+    @After
+    public void tearDown() {
+        if (poller != null) {
+            poller.shutdown();
+        }
+    }
+
+    @Test
+    public void hungDeviceDoesNotStarveOthers() throws Exception {
+        poller = new FleetPoller(2, 4);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch othersDone = new CountDownLatch(20);
+
+        // Hung device keeps re-queueing but only ever holds one worker
+        for (int i = 0; i < 4; i++) {
+            poller.submit("hung", () -> await(release));
+        }
+        for (int device = 0; device < 10; device++) {
+            for (int i = 0; i < 2; i++) {
+                poller.submit("device-" + device, othersDone::countDown);
+            }
+        }
+
+        assertTrue("healthy devices should finish while one is hung", othersDone.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void neverRunsTwoPollsForTheSameDeviceAtOnce() throws Exception {
+        poller = new FleetPoller(4, 8);
+        AtomicInteger concurrent = new AtomicInteger();
+        AtomicInteger maxSeen = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(8);
+
+        for (int i = 0; i < 8; i++) {
+            poller.submit("pool", () -> {
+                maxSeen.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+                sleep(10);
+                concurrent.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, maxSeen.get());
+    }
+
+    @Test
+    public void countsDroppedAndLatePolls() throws Exception {
+        poller = new FleetPoller(1, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+
+        poller.submit("slow", 50, () -> {
+            await(release);
+            finished.countDown();
+        });
+        // Backlog of 2 for "queued": the third submission pushes out the oldest
+        poller.submit("queued", 50, () -> { });
+        poller.submit("queued", 50, () -> { });
+        poller.submit("queued", 50, () -> { });
+
+        sleep(100);
+        release.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        sleep(50);
+
+        FleetPoller.Metrics metrics = poller.getMetrics();
+        assertEquals(1, metrics.completed);
+        assertEquals(1, metrics.late);
+        // One overflow plus two that expired while waiting behind the slow poll
+        assertEquals(3, metrics.dropped);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.example.smartworks.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class IpResolutionCacheTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final MapStore store = new MapStore();
+    private final FakeResolver resolver = new FakeResolver();
+    private final IpResolutionCache.Config config = new IpResolutionCache.Config()
+            .setTtlMs(60_000)
+            .setNegativeTtlMs(10_000);
+
+    private IpResolutionCache newCache() {
+        return new IpResolutionCache(config, store, resolver, now::get);
+    }
+
+    @Test
+    public void entriesAreKeyedByIdentityIgnoringCase() {
+        IpResolutionCache cache = newCache();
+        cache.put("AA:BB:CC:DD:EE:FF", "192.168.1.20");
+
+        assertEquals("192.168.1.20", cache.lookup("aa:bb:cc:dd:ee:ff"));
+        assertEquals(IpResolutionCache.State.FRESH, cache.getState(" aa:bb:cc:dd:ee:ff "));
+        assertEquals(0, resolver.calls.size());
+    }
+
+    @Test
+    public void entriesGoStaleAfterTheTtlUnlessVerified() {
+        IpResolutionCache cache = newCache();
+        cache.put("pool", "192.168.1.20");
+
+        now.addAndGet(50_000);
+        cache.verified("pool", "192.168.1.20");
+        now.addAndGet(50_000);
+        assertEquals(IpResolutionCache.State.FRESH, cache.getState("pool"));
+
+        now.addAndGet(60_000);
+        assertEquals(IpResolutionCache.State.STALE, cache.getState("pool"));
+        // Still worth a try, but not re-resolved just for being old
+        assertEquals("192.168.1.20", cache.lookup("pool"));
+        assertEquals(0, resolver.calls.size());
+    }
+
+    @Test
+    public void connectFailureInvalidatesAndReResolves() {
+        IpResolutionCache cache = newCache();
+        RecordingListener listener = new RecordingListener();
+        cache.addListener(listener);
+        cache.put("pool", "192.168.1.20");
+
+        assertTrue(cache.reportFailure("pool", "192.168.1.20",
+                new IOException("wrapped", new ConnectException("refused"))));
+        assertEquals(IpResolutionCache.State.MISSING, cache.getState("pool"));
+        // The failed address isn't handed out while the device is looked for
+        assertNull(cache.lookup("pool"));
+        assertEquals(1, resolver.calls.size());
+
+        resolver.complete("pool", "192.168.1.42");
+        assertEquals("192.168.1.42", cache.lookup("pool"));
+        assertEquals(IpResolutionCache.State.FRESH, cache.getState("pool"));
+        assertEquals(List.of("pool=192.168.1.42"), listener.events);
+    }
+
+    @Test
+    public void noRouteToHostAlsoInvalidates() {
+        IpResolutionCache cache = newCache();
+        cache.put("pool", "192.168.1.20");
+
+        assertTrue(cache.reportFailure("pool", "192.168.1.20", new NoRouteToHostException()));
+        assertEquals(1, resolver.calls.size());
+    }
+
+    @Test
+    public void timeoutOnFreshAddressIsLeftAlone() {
+        IpResolutionCache cache = newCache();
+        cache.put("pool", "192.168.1.20");
+
+        assertFalse(cache.reportFailure("pool", "192.168.1.20", new SocketTimeoutException()));
+        assertEquals("192.168.1.20", cache.lookup("pool"));
+        assertEquals(0, resolver.calls.size());
+    }
+
+    @Test
+    public void timeoutOnStaleAddressInvalidates() {
+        IpResolutionCache cache = newCache();
+        cache.put("pool", "192.168.1.20");
+        now.addAndGet(120_000);
+
+        assertTrue(cache.reportFailure("pool", "192.168.1.20", new SocketTimeoutException()));
+        assertEquals(1, resolver.calls.size());
+    }
+
+    @Test
+    public void lateFailureFromOldAddressDoesNotUndoNewerResolution() {
+        IpResolutionCache cache = newCache();
+        cache.put("pool", "192.168.1.42");
+
+        cache.invalidate("pool", "192.168.1.20");
+        assertEquals("192.168.1.42", cache.lookup("pool"));
+        assertEquals(0, resolver.calls.size());
+    }
+
+    @Test
+    public void concurrentInvalidationsShareOneResolve() {
+        IpResolutionCache cache = newCache();
+        cache.put("pool", "192.168.1.20");
+
+        cache.reportFailure("pool", "192.168.1.20", new ConnectException());
+        cache.lookup("pool");
+        cache.resolve("pool");
+        assertEquals(1, resolver.calls.size());
+    }
+
+    @Test
+    public void notFoundIsCachedForTheNegativeTtl() {
+        IpResolutionCache cache = newCache();
+        RecordingListener listener = new RecordingListener();
+        cache.addListener(listener);
+        cache.put("pool", "192.168.1.20");
+
+        cache.reportFailure("pool", "192.168.1.20", new ConnectException());
+        resolver.complete("pool", null);
+        assertEquals(IpResolutionCache.State.NOT_FOUND, cache.getState("pool"));
+        assertEquals(List.of("pool=null"), listener.events);
+
+        // Polls during the negative TTL skip the device without re-resolving
+        assertNull(cache.lookup("pool"));
+        assertEquals(1, resolver.calls.size());
+
+        // Then the last address gets one more try while it is looked for again
+        now.addAndGet(10_000);
+        assertEquals(IpResolutionCache.State.STALE, cache.getState("pool"));
+        assertEquals("192.168.1.20", cache.lookup("pool"));
+        assertEquals(2, resolver.calls.size());
+    }
+
+    @Test
+    public void invalidatedHostSurvivesARestart() {
+        IpResolutionCache cache = newCache();
+        cache.put("pool", "192.168.1.20");
+        cache.reportFailure("pool", "192.168.1.20", new ConnectException());
+
+        assertEquals("192.168.1.20", newCache().hosts().get("pool"));
+        assertEquals(IpResolutionCache.State.STALE, newCache().getState("pool"));
+    }
+
+    @Test
+    public void answerAtTheInvalidatedHostMakesItFreshAgain() {
+        IpResolutionCache cache = newCache();
+        cache.put("pool", "192.168.1.20");
+        cache.reportFailure("pool", "192.168.1.20", new ConnectException());
+
+        cache.verified("pool", "192.168.1.20");
+        assertEquals(IpResolutionCache.State.FRESH, cache.getState("pool"));
+        assertEquals("192.168.1.20", cache.lookup("pool"));
+    }
+
+    @Test
+    public void resolveThatRacedAPutDoesNotMarkItNotFound() {
+        IpResolutionCache cache = newCache();
+        cache.put("pool", "192.168.1.20");
+        cache.reportFailure("pool", "192.168.1.20", new ConnectException());
+
+        // Discovery finds the device while the re-resolve is still looking
+        cache.put("pool", "192.168.1.42");
+        resolver.complete("pool", null);
+        assertEquals(IpResolutionCache.State.FRESH, cache.getState("pool"));
+        assertEquals("192.168.1.42", cache.lookup("pool"));
+        assertEquals("192.168.1.42", newCache().lookup("pool"));
+    }
+
+    @Test
+    public void resolveThatRacedAnAnswerDoesNotMarkItNotFound() {
+        IpResolutionCache cache = newCache();
+        cache.put("pool", "192.168.1.20");
+        now.addAndGet(120_000);
+        cache.resolve("pool");
+
+        now.addAndGet(1_000);
+        cache.verified("pool", "192.168.1.20");
+        resolver.complete("pool", null);
+        assertEquals(IpResolutionCache.State.FRESH, cache.getState("pool"));
+    }
+
+    @Test
+    public void expiredNotFoundKeepsLastHostForOneMoreTry() {
+        IpResolutionCache cache = newCache();
+        cache.put("pool", "192.168.1.20");
+        cache.markNotFound("pool");
+
+        assertNull(cache.lookup("pool"));
+        now.addAndGet(10_000);
+        assertEquals(IpResolutionCache.State.STALE, cache.getState("pool"));
+        assertEquals("192.168.1.20", cache.lookup("pool"));
+        assertEquals(1, resolver.calls.size());
+    }
+
+    @Test
+    public void resolverErrorCountsAsNotFound() {
+        IpResolutionCache cache = newCache();
+        cache.resolve("pool");
+        resolver.fail("pool", new IOException("no network"));
+
+        assertEquals(IpResolutionCache.State.NOT_FOUND, cache.getState("pool"));
+    }
+
+    @Test
+    public void entriesSurviveARestart() {
+        IpResolutionCache cache = newCache();
+        cache.put("pool", "192.168.1.20");
+        cache.put("spa", "192.168.1.21");
+        cache.markNotFound("spa");
+
+        IpResolutionCache restarted = newCache();
+        assertEquals(IpResolutionCache.State.FRESH, restarted.getState("pool"));
+        assertEquals("192.168.1.20", restarted.lookup("pool"));
+        assertEquals(IpResolutionCache.State.NOT_FOUND, restarted.getState("spa"));
+    }
+
+    @Test
+    public void verifiedWritesAreThrottled() {
+        IpResolutionCache cache = newCache();
+        cache.put("pool", "192.168.1.20");
+        int writes = store.writes;
+
+        for (int i = 0; i < 10; i++) {
+            now.addAndGet(1_000);
+            cache.verified("pool", "192.168.1.20");
+        }
+        assertEquals(writes, store.writes);
+
+        now.addAndGet(15_000);
+        cache.verified("pool", "192.168.1.20");
+        assertEquals(writes + 1, store.writes);
+    }
+
+    @Test
+    public void seedDoesNotOverwriteAnExistingEntry() {
+        IpResolutionCache cache = newCache();
+        cache.seed("pool", "192.168.1.20");
+        assertEquals(IpResolutionCache.State.STALE, cache.getState("pool"));
+
+        cache.put("pool", "192.168.1.42");
+        cache.seed("pool", "192.168.1.20");
+        assertEquals("192.168.1.42", cache.lookup("pool"));
+    }
+
+    @Test
+    public void newerSeedReplacesAnUnconfirmedOne() {
+        IpResolutionCache cache = newCache();
+        cache.seed("pool", "192.168.1.20");
+        cache.seed("pool", "192.168.1.21");
+        assertEquals("192.168.1.21", cache.lookup("pool"));
+        assertEquals(IpResolutionCache.State.STALE, cache.getState("pool"));
+    }
+
+    private static class MapStore implements IpResolutionCache.Store {
+        final Map<String, String> values = new HashMap<>();
+        int writes;
+
+        @Override
+        public Map<String, String> load() {
+            return new HashMap<>(values);
+        }
+
+        @Override
+        public void save(String key, String value) {
+            values.put(key, value);
+            writes++;
+        }
+
+        @Override
+        public void remove(String key) {
+            values.remove(key);
+        }
+    }
+
+    private static class FakeResolver implements IpResolutionCache.Resolver {
+        final List<String> calls = new ArrayList<>();
+        final Map<String, CompletableFuture<String>> pending = new HashMap<>();
+
+        @Override
+        public CompletableFuture<String> resolve(String key) {
+            calls.add(key);
+            CompletableFuture<String> future = new CompletableFuture<>();
+            pending.put(key, future);
+            return future;
+        }
+
+        void complete(String key, String host) {
+            pending.remove(key).complete(host);
+        }
+
+        void fail(String key, Throwable error) {
+            pending.remove(key).completeExceptionally(error);
+        }
+    }
+
+    private static class RecordingListener implements IpResolutionCache.Listener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onResolved(String key, String host) {
+            events.add(key + "=" + host);
+        }
+
+        @Override
+        public void onNotFound(String key) {
+            events.add(key + "=null");
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.smartworks.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.smartworks.Benchmark;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import okhttp3.Response;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Compares the shared keep-alive client against the old close-per-request
+ * HttpURLConnection path, polling a local stand-in device. LanDeviceClientTest
+ * checks that the pool reuses its connection.
+ */
+public class LanDeviceClientBenchmark {
+    private static final int REQUESTS = Integer.getInteger("lan.bench.requests", 300);
+
+    private FakeEsp32Device device;
+    private LanDeviceClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        device = new FakeEsp32Device();
+        client = new LanDeviceClient(new LanDeviceClient.Config());
+    }
+
+    @After
+    public void tearDown() {
+        client.evictAll();
+        device.close();
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void keepAliveVersusClosePerRequest() throws Exception {
+        // Warm up both paths
+        runClosePerRequest(20);
+        runPooled(20);
+
+        device.resetCounters();
+        long[] closeLatencies = runClosePerRequest(REQUESTS);
+        int closeConnections = device.connectionCount();
+
+        device.resetCounters();
+        long[] pooledLatencies = runPooled(REQUESTS);
+        int pooledConnections = device.connectionCount();
+
+        report("close-per-request", closeLatencies, closeConnections);
+        report("keep-alive pool", pooledLatencies, pooledConnections);
+
+        assertEquals(REQUESTS, closeConnections);
+        assertTrue("pooled path should reuse sockets", pooledConnections <= 2);
+    }
+
+    private long[] runClosePerRequest(int count) throws Exception {
+        long[] latencies = new long[count];
+        for (int i = 0; i < count; i++) {
+            long start = System.nanoTime();
+            HttpURLConnection connection = (HttpURLConnection)
+                    new URL("http://" + device.host() + "/data").openConnection();
+            connection.setConnectTimeout(2000);
+            connection.setReadTimeout(2000);
+            connection.setRequestProperty("Connection", "close");
+            connection.setUseCaches(false);
+            assertEquals(200, connection.getResponseCode());
+            try (InputStream in = connection.getInputStream()) {
+                in.readAllBytes();
+            }
+            connection.disconnect();
+            latencies[i] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+
+    private long[] runPooled(int count) throws Exception {
+        long[] latencies = new long[count];
+        for (int i = 0; i < count; i++) {
+            long start = System.nanoTime();
+            try (Response response = client.get(device.host(), "/data", 2000, 2000)) {
+                assertEquals(200, response.code());
+                response.body().bytes();
+            }
+            latencies[i] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+
+    private static void report(String label, long[] latencies, int connections) {
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        long p99 = sorted[(int) Math.ceil(sorted.length * 0.99) - 1];
+        System.out.println(String.format("%-18s %8.0f req/s  p50 %6.3f ms  p99 %6.3f ms  connections %d",
+                label, latencies.length / (total / 1e9), sorted[sorted.length / 2] / 1e6, p99 / 1e6, connections));
+    }
+}
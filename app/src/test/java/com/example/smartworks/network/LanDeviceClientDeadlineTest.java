@@ -0,0 +1,133 @@
+package com.example.smartworks.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.example.smartworks.ESP32PoolAPI;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LanDeviceClientDeadlineTest {
+
+    private FakeEsp32Device device;
+    private LanDeviceClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        device = new FakeEsp32Device();
+        client = new LanDeviceClient(new LanDeviceClient.Config());
+    }
+
+    @After
+    public void tearDown() {
+        client.evictAll();
+        device.close();
+    }
+
+    @Test
+    public void deadlineFailsTheRequestWithSocketTimeout() throws Exception {
+        device.setDelayMillis(3000);
+        LanDeviceClient.RequestOptions options = new LanDeviceClient.RequestOptions()
+                .setReadTimeoutMs(10000)
+                .setDeadlineMs(300);
+
+        long start = System.nanoTime();
+        try {
+            client.getAsync(device.host(), "/data", options, response -> response.code()).get(5, TimeUnit.SECONDS);
+            fail("expected deadline to expire");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("took " + elapsedMs + "ms", elapsedMs < 1500);
+        assertEquals(1, client.deadlinesExceeded());
+    }
+
+    @Test
+    public void cancelAbortsTheSocket() throws Exception {
+        device.setDelayMillis(3000);
+        CompletableFuture<Integer> request = client.getAsync(device.host(), "/data",
+                new LanDeviceClient.RequestOptions(), response -> response.code());
+
+        // Wait for the request to reach the device, so the cancel lands on a read in progress
+        long deadline = System.currentTimeMillis() + 2000;
+        while (device.requestCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, client.connectionCount());
+        request.cancel(true);
+
+        // The half-read connection is closed, not returned to the pool
+        deadline = System.currentTimeMillis() + 2000;
+        while (client.connectionCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, client.connectionCount());
+        assertEquals(1, client.cancelledRequests());
+    }
+
+    @Test
+    public void cancellingAFetchAbortsTheRead() throws Exception {
+        device.setDelayMillis(3000);
+        LanDeviceClient shared = LanDeviceClient.getInstance();
+        long cancelledBefore = shared.cancelledRequests();
+        CompletableFuture<ESP32PoolAPI.PoolData> poll = ESP32PoolAPI.fetchPoolData(device.host());
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (device.requestCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        poll.cancel(true);
+
+        // Reaches the socket read under the error mapping, not just the future it returns
+        deadline = System.currentTimeMillis() + 2000;
+        while (shared.cancelledRequests() == cancelledBefore && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(cancelledBefore + 1, shared.cancelledRequests());
+        ESP32PoolAPI.invalidatePoolData(device.host());
+    }
+
+    @Test
+    public void hedgeAfterP95GetsAroundAStalledConnection() throws Exception {
+        String endpoint = device.host() + "/data";
+        for (int i = 0; i < 20; i++) {
+            client.getLatencies().record(endpoint, 20);
+        }
+        assertEquals(20, client.getLatencies().percentile(endpoint, 0.95, 3000));
+
+        device.stallNextRequest(5000);
+        LanDeviceClient.RequestOptions options = new LanDeviceClient.RequestOptions()
+                .setReadTimeoutMs(10000)
+                .setDeadlineMs(10000)
+                .setHedge(true);
+
+        long start = System.nanoTime();
+        int code = client.getAsync(device.host(), "/data", options, response -> response.code())
+                .get(5, TimeUnit.SECONDS);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(200, code);
+        assertTrue("took " + elapsedMs + "ms", elapsedMs < 2000);
+        assertEquals(1, client.hedgesSent());
+        assertEquals(1, client.hedgesWon());
+        assertEquals(2, device.requestCount());
+    }
+
+    @Test
+    public void fastRequestsAreNotHedged() throws Exception {
+        LanDeviceClient.RequestOptions options = new LanDeviceClient.RequestOptions().setHedge(true);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(200, (int) client.getAsync(device.host(), "/data", options, response -> response.code())
+                    .get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(0, client.hedgesSent());
+        assertEquals(5, device.requestCount());
+    }
+}
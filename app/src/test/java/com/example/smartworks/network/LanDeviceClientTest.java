@@ -0,0 +1,39 @@
+package com.example.smartworks.network;
+
+import static org.junit.Assert.assertEquals;
+
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LanDeviceClientTest {
+
+    private FakeEsp32Device device;
+    private LanDeviceClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        device = new FakeEsp32Device();
+        client = new LanDeviceClient(new LanDeviceClient.Config());
+    }
+
+    @After
+    public void tearDown() {
+        client.evictAll();
+        device.close();
+    }
+
+    @Test
+    public void pooledClientReusesConnections() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            try (Response response = client.get(device.host(), "/data", 2000, 2000)) {
+                assertEquals(200, response.code());
+                response.body().string();
+            }
+        }
+        assertEquals(20, device.requestCount());
+        assertEquals(1, device.connectionCount());
+        assertEquals(1, client.idleConnectionCount());
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.smartworks.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MdnsBrowserTest {
+    private static final String GROUP = "224.0.0.251";
+
+    private FakeMdnsResponder responder;
+    private MdnsBrowser browser;
+    private NetworkInterface loopback;
+    private int port;
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+    private final Map<String, MdnsBrowser.Service> live = new HashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+        // A free port instead of 5353, so the test doesn't meet the host's own mDNS traffic
+        try (DatagramSocket probe = new DatagramSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        responder = new FakeMdnsResponder(GROUP, port, loopback);
+    }
+
+    @After
+    public void tearDown() {
+        if (browser != null) {
+            browser.close();
+        }
+        responder.close();
+    }
+
+    @Test
+    public void resolvesAdvertisedDevicesWithoutProbing() throws Exception {
+        responder.advertise("Pool Monitor", MdnsBrowser.SMARTWORKS_SERVICE, "127.0.0.31", 80, "pool_thermo_01");
+        responder.advertise("Spa Sensor", MdnsBrowser.HTTP_SERVICE, "127.0.0.32", 8080, null);
+        startBrowser();
+
+        Set<String> resolved = new HashSet<>();
+        resolved.add(nextEvent());
+        resolved.add(nextEvent());
+        assertEquals(new HashSet<>(Arrays.asList("resolved Pool Monitor", "resolved Spa Sensor")), resolved);
+
+        MdnsBrowser.Service pool = live.get("Pool Monitor");
+        assertEquals("127.0.0.31", pool.hostAndPort());
+        assertEquals("pool_thermo_01", pool.deviceId());
+        assertEquals("Pool Monitor", pool.deviceName());
+        assertEquals("127.0.0.32:8080", live.get("Spa Sensor").hostAndPort());
+        assertEquals(2, browser.getServices().size());
+    }
+
+    @Test
+    public void asksForAddressesLeftOutOfTheAnswer() throws Exception {
+        responder.setIncludeAddress(false);
+        responder.advertise("Pool Monitor", MdnsBrowser.SMARTWORKS_SERVICE, "127.0.0.31", 80, "pool_thermo_01");
+        startBrowser();
+
+        assertEquals("resolved Pool Monitor", nextEvent());
+        assertEquals("127.0.0.31", live.get("Pool Monitor").hostAndPort());
+        // Browse query, then a follow-up for the A record
+        assertTrue(responder.queryCount() >= 2);
+    }
+
+    @Test
+    public void followsDevicesAsTheyMoveAndLeave() throws Exception {
+        responder.advertise("Pool Monitor", MdnsBrowser.SMARTWORKS_SERVICE, "127.0.0.31", 80, "pool_thermo_01");
+        startBrowser();
+        assertEquals("resolved Pool Monitor", nextEvent());
+
+        // New DHCP lease
+        responder.moveTo("Pool Monitor", "127.0.0.45");
+        assertEquals("resolved Pool Monitor", nextEvent());
+        assertEquals("127.0.0.45", live.get("Pool Monitor").hostAndPort());
+
+        responder.goodbye("Pool Monitor");
+        assertEquals("lost Pool Monitor", nextEvent());
+        assertTrue(browser.getServices().isEmpty());
+    }
+
+    @Test
+    public void codecRoundTripsServiceRecords() throws Exception {
+        DnsMessage message = new DnsMessage();
+        message.response = true;
+        message.answers.add(DnsMessage.Record.ptr(MdnsBrowser.SMARTWORKS_SERVICE,
+                "Pool Monitor." + MdnsBrowser.SMARTWORKS_SERVICE, 4500));
+        Map<String, String> txt = new HashMap<>();
+        txt.put("id", "pool_thermo_01");
+        message.additionals.add(DnsMessage.Record.txt("Pool Monitor." + MdnsBrowser.SMARTWORKS_SERVICE, txt, 4500));
+        message.additionals.add(DnsMessage.Record.srv("Pool Monitor." + MdnsBrowser.SMARTWORKS_SERVICE,
+                "pool-monitor.local.", 80, 120));
+        message.additionals.add(DnsMessage.Record.a("pool-monitor.local.", InetAddress.getByName("192.168.1.20"), 120));
+
+        byte[] bytes = message.encode();
+        DnsMessage decoded = DnsMessage.decode(bytes, bytes.length);
+
+        assertTrue(decoded.response);
+        assertEquals("Pool Monitor._smartworks._tcp.local.", decoded.answers.get(0).target);
+        assertEquals("pool_thermo_01", decoded.additionals.get(0).txt.get("id"));
+        assertEquals(80, decoded.additionals.get(1).port);
+        assertEquals("192.168.1.20", decoded.additionals.get(2).address.getHostAddress());
+    }
+
+    private void startBrowser() {
+        browser = new MdnsBrowser(new MdnsBrowser.Config()
+                .setGroup(GROUP)
+                .setPort(port)
+                .setNetworkInterface(loopback)
+                .setInitialQueryIntervalMs(200), new MdnsBrowser.Listener() {
+            @Override
+            public void onServiceResolved(MdnsBrowser.Service service) {
+                synchronized (live) {
+                    live.put(service.label(), service);
+                }
+                events.add("resolved " + service.label());
+            }
+
+            @Override
+            public void onServiceLost(MdnsBrowser.Service service) {
+                synchronized (live) {
+                    live.remove(service.label());
+                }
+                events.add("lost " + service.label());
+            }
+        });
+        browser.start();
+    }
+
+    private String nextEvent() throws InterruptedException {
+        String event = events.poll(5, TimeUnit.SECONDS);
+        assertNotNull("no mDNS event within 5s", event);
+        return event;
+    }
+}
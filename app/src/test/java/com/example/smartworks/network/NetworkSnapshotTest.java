@@ -0,0 +1,79 @@
+package com.example.smartworks.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import org.junit.Test;
+
+public class NetworkSnapshotTest {
+
+    private static NetworkSnapshot wifi(String ssid, String ip, int prefix) throws Exception {
+        return new NetworkSnapshot(true, true, true, false, ssid, InetAddress.getByName(ip), prefix);
+    }
+
+    @Test
+    public void subnetIsTheNetworkAddress() throws Exception {
+        assertEquals("192.168.1.0/24", wifi("Home", "192.168.1.37", 24).subnet());
+        assertEquals("10.0.8.0/22", wifi("Home", "10.0.10.200", 22).subnet());
+        assertNull(NetworkSnapshot.DISCONNECTED.subnet());
+    }
+
+    @Test
+    public void containsChecksTheSubnetIgnoringPort() throws Exception {
+        NetworkSnapshot network = wifi("Home", "192.168.1.37", 24);
+
+        assertTrue(network.contains("192.168.1.20"));
+        assertTrue(network.contains("192.168.1.20:8080"));
+        assertFalse(network.contains("192.168.2.20"));
+        assertFalse(network.contains("pool-monitor.local"));
+        assertFalse(network.contains("192.168.1.300"));
+        assertFalse(NetworkSnapshot.DISCONNECTED.contains("192.168.1.20"));
+    }
+
+    @Test
+    public void sameLanNeedsSameSubnetAndSsid() throws Exception {
+        NetworkSnapshot home = wifi("Home", "192.168.1.37", 24);
+
+        assertTrue(home.sameLan(wifi("Home", "192.168.1.99", 24)));
+        assertFalse(home.sameLan(wifi("Home", "192.168.0.99", 24)));
+        // Two routers with the same default subnet
+        assertFalse(home.sameLan(wifi("Neighbour", "192.168.1.99", 24)));
+        // SSID hidden without location permission, the subnet decides
+        assertTrue(home.sameLan(wifi(null, "192.168.1.99", 24)));
+        assertFalse(home.sameLan(NetworkSnapshot.DISCONNECTED));
+    }
+
+    @Test
+    public void ssidIsUnquotedAndUnknownIsNull() throws Exception {
+        assertEquals("Home", wifi("\"Home\"", "192.168.1.37", 24).ssid);
+        assertNull(wifi("<unknown ssid>", "192.168.1.37", 24).ssid);
+        assertNull(wifi("", "192.168.1.37", 24).ssid);
+    }
+
+    @Test
+    public void onlyLocalNetworksAllowLan() throws Exception {
+        assertTrue(wifi("Home", "192.168.1.37", 24).allowsLan());
+        NetworkSnapshot cellular = new NetworkSnapshot(true, false, true, true, null,
+                InetAddress.getByName("10.64.3.2"), 30);
+        assertFalse(cellular.allowsLan());
+        assertFalse(NetworkSnapshot.DISCONNECTED.allowsLan());
+    }
+
+    @Test
+    public void ipv6AddressesAreIgnored() throws Exception {
+        NetworkSnapshot network = new NetworkSnapshot(true, true, true, false, "Home",
+                InetAddress.getByName("fe80::1"), 64);
+        assertNull(network.address);
+        assertNull(network.subnet());
+        assertNull(network.subnetHosts());
+    }
+
+    @Test
+    public void equalSnapshotsCompareEqual() throws Exception {
+        assertEquals(wifi("Home", "192.168.1.37", 24), wifi("\"Home\"", "192.168.1.37", 24));
+        assertFalse(wifi("Home", "192.168.1.37", 24).equals(wifi("Home", "192.168.1.38", 24)));
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.smartworks.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.example.smartworks.ESP32PoolAPI;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentCallersShareOneLoad() throws Exception {
+        SingleFlight<String> flights = new SingleFlight<>(0, 60000);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(flights.execute("pool", executor, () -> {
+                loads.incrementAndGet();
+                release.await();
+                return "26.4";
+            }));
+        }
+        release.countDown();
+
+        for (CompletableFuture<String> future : futures) {
+            assertEquals("26.4", future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        SingleFlight.Metrics metrics = flights.getMetrics();
+        assertEquals(1, metrics.issued);
+        assertEquals(9, metrics.coalesced);
+        assertEquals(0, metrics.inFlight);
+    }
+
+    @Test
+    public void cancellingOneCallerDoesNotCancelTheOthers() throws Exception {
+        SingleFlight<String> flights = new SingleFlight<>(0, 60000);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> first = flights.execute("pool", executor, () -> {
+            release.await();
+            return "ok";
+        });
+        CompletableFuture<String> second = flights.execute("pool", executor, () -> "unused");
+        first.cancel(true);
+        release.countDown();
+
+        assertEquals("ok", second.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void loadIsCancelledOnceEveryCallerHasCancelled() throws Exception {
+        SingleFlight<String> flights = new SingleFlight<>(0, 60000);
+        CompletableFuture<String> load = new CompletableFuture<>();
+
+        CompletableFuture<String> first = flights.execute("pool", () -> load);
+        CompletableFuture<String> second = flights.execute("pool", () -> load);
+        first.cancel(true);
+        assertFalse(load.isCancelled());
+
+        second.cancel(true);
+        assertTrue(load.isCancelled());
+        assertEquals(0, flights.getMetrics().inFlight);
+    }
+
+    @Test
+    public void freshResultsAreReusedButFailuresAreNot() throws Exception {
+        SingleFlight<String> flights = new SingleFlight<>(60000, 60000, value -> !value.isEmpty());
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals("a", flights.execute("pool", executor, () -> { loads.incrementAndGet(); return "a"; }).get());
+        assertEquals("a", flights.execute("pool", executor, () -> { loads.incrementAndGet(); return "b"; }).get());
+        assertEquals(1, loads.get());
+        assertEquals(1, flights.getMetrics().cacheHits);
+
+        // Uncacheable value and exceptions go back to the device next time
+        flights.invalidate("pool");
+        assertEquals("", flights.execute("pool", executor, () -> "").get());
+        try {
+            flights.execute("pool", executor, () -> { throw new IOException("timeout"); }).get();
+            fail("expected failure");
+        } catch (ExecutionException e) {
+            assertTrue(SingleFlight.unwrap(e.getCause()) instanceof IOException);
+        }
+        assertEquals("c", flights.execute("pool", executor, () -> "c").get());
+        assertEquals(1, flights.getMetrics().cacheHits);
+    }
+
+    @Test
+    public void rejectedOrLostLoadsDoNotWedgeTheKey() throws Exception {
+        SingleFlight<String> flights = new SingleFlight<>(0, 50);
+
+        CompletableFuture<String> rejected = flights.execute("pool", task -> {
+            throw new RejectedExecutionException("shut down");
+        }, () -> "never");
+        assertTrue(rejected.isCompletedExceptionally());
+
+        // Executor silently drops the task, e.g. a poll whose deadline expired in the queue
+        CompletableFuture<String> lost = flights.execute("pool", task -> { }, () -> "never");
+        Thread.sleep(100);
+        assertEquals("fresh", flights.execute("pool", executor, () -> "fresh").get(5, TimeUnit.SECONDS));
+        assertTrue(lost.isCompletedExceptionally());
+        assertEquals(1, flights.getMetrics().abandoned);
+    }
+
+    @Test
+    public void simultaneousRefreshesHitTheDeviceOnce() throws Exception {
+        try (FakeEsp32Device device = new FakeEsp32Device()) {
+            device.setDelayMillis(200);
+
+            // Auto-refresh, pull-to-refresh, card tap and Save & Test all at once
+            List<CompletableFuture<ESP32PoolAPI.PoolData>> reads = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                reads.add(ESP32PoolAPI.readPoolData(device.host(), new LanDeviceClient.RequestOptions()
+                        .setConnectTimeoutMs(2000).setReadTimeoutMs(2000)));
+            }
+
+            ESP32PoolAPI.PoolData first = reads.get(0).get(5, TimeUnit.SECONDS);
+            assertTrue(first.isValid);
+            for (CompletableFuture<ESP32PoolAPI.PoolData> read : reads) {
+                assertSame(first, read.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, device.requestCount());
+        }
+    }
+}
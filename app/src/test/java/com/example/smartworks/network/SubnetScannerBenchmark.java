@@ -0,0 +1,77 @@
+package com.example.smartworks.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.smartworks.Benchmark;
+import com.example.smartworks.ESP32PoolAPI;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.List;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Sweeps a FakeSubnet and compares it with probing the same hosts one by one.
+ * SubnetScannerTest checks what the sweep finds.
+ */
+public class SubnetScannerBenchmark {
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+
+    private FakeSubnet subnet;
+    private LanDeviceClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        FakeEsp32Device.assumeLoopbackSubnet();
+        subnet = new FakeSubnet();
+        client = new LanDeviceClient(new LanDeviceClient.Config());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.evictAll();
+        subnet.close();
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void sweepVersusOneHostAtATime() throws Exception {
+        List<InetAddress> hosts = subnet.hosts();
+        int port = subnet.port();
+        scanner().scan(hosts, ESP32PoolAPI::identifyDevice);
+
+        long start = System.nanoTime();
+        SubnetScanner.Result<ESP32PoolAPI.PoolData> sweep = scanner().scan(hosts, ESP32PoolAPI::identifyDevice);
+        long sweepMs = (System.nanoTime() - start) / 1_000_000;
+
+        // The old probe: a blocking GET /data per address with a short connect timeout
+        start = System.nanoTime();
+        int found = 0;
+        for (InetAddress address : hosts) {
+            try (Response response = client.get(address.getHostAddress() + ":" + port, "/data",
+                    CONNECT_TIMEOUT_MS, 2000)) {
+                if (ESP32PoolAPI.identifyDevice(response) != null) {
+                    found++;
+                }
+            } catch (IOException e) {
+                // Not a device
+            }
+        }
+        long sequentialMs = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.println(String.format("%-18s %6d ms  devices %d", "parallel sweep", sweepMs, sweep.devices.size()));
+        System.out.println(String.format("%-18s %6d ms  devices %d", "one at a time", sequentialMs, found));
+        assertEquals(found, sweep.devices.size());
+        assertTrue(sweepMs < sequentialMs);
+    }
+
+    private SubnetScanner scanner() {
+        return new SubnetScanner(new SubnetScanner.Config()
+                .setPort(subnet.port())
+                .setConnectTimeoutMs(CONNECT_TIMEOUT_MS), client);
+    }
+}
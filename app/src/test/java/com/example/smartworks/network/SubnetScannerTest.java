@@ -0,0 +1,63 @@
+package com.example.smartworks.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.smartworks.ESP32PoolAPI;
+import java.net.InetAddress;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+
+public class SubnetScannerTest {
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+
+    private FakeSubnet subnet;
+    private LanDeviceClient client;
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) {
+            client.evictAll();
+        }
+        if (subnet != null) {
+            subnet.close();
+        }
+    }
+
+    @Test
+    public void subnetHostsExcludeSelfNetworkAndBroadcast() throws Exception {
+        List<InetAddress> hosts = SubnetScanner.subnetHosts(InetAddress.getByName("192.168.1.37"), 24);
+        assertEquals(253, hosts.size());
+        assertEquals("192.168.1.1", hosts.get(0).getHostAddress());
+        assertEquals("192.168.1.254", hosts.get(hosts.size() - 1).getHostAddress());
+        assertTrue(!hosts.contains(InetAddress.getByName("192.168.1.37")));
+
+        // A /16 is narrowed to the /22 around the phone
+        hosts = SubnetScanner.subnetHosts(InetAddress.getByName("10.0.5.9"), 16);
+        assertEquals(1021, hosts.size());
+        assertEquals("10.0.4.1", hosts.get(0).getHostAddress());
+    }
+
+    @Test
+    public void sweepFindsEveryDeviceAndOnlyDevices() throws Exception {
+        FakeEsp32Device.assumeLoopbackSubnet();
+        subnet = new FakeSubnet();
+        client = new LanDeviceClient(new LanDeviceClient.Config());
+        SubnetScanner scanner = new SubnetScanner(new SubnetScanner.Config()
+                .setPort(subnet.port())
+                .setConnectTimeoutMs(CONNECT_TIMEOUT_MS), client);
+
+        SubnetScanner.Result<ESP32PoolAPI.PoolData> result = scanner.scan(subnet.hosts(), ESP32PoolAPI::identifyDevice);
+
+        assertEquals(253, result.probed);
+        assertEquals(FakeSubnet.DEVICE_HOSTS.length + FakeSubnet.OTHER_SERVERS, result.answered);
+        assertEquals(FakeSubnet.DEVICE_HOSTS.length, result.devices.size());
+        for (int host : FakeSubnet.DEVICE_HOSTS) {
+            ESP32PoolAPI.PoolData data = result.devices.get("127.0.0." + host + ":" + subnet.port());
+            assertEquals("Pool " + host, data.deviceName);
+        }
+        // Silent hosts share one connect timeout
+        assertTrue("took " + result.elapsedMs + "ms", result.elapsedMs < CONNECT_TIMEOUT_MS + 1500);
+    }
+}